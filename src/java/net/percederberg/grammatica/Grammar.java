@@ -17,7 +17,9 @@ package net.percederberg.grammatica;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.LinkedList;
 
@@ -29,13 +31,14 @@ import net.percederberg.grammatica.parser.ProductionPattern;
 import net.percederberg.grammatica.parser.RecursiveDescentParser;
 import net.percederberg.grammatica.parser.TokenPattern;
 import net.percederberg.grammatica.parser.Tokenizer;
+import net.percederberg.grammatica.parser.TokenizerSpec;
 
 /**
  * A grammar definition object. This object supports parsing a grammar
  * file and create a lexical analyzer (tokenizer) for the grammar.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 public class Grammar extends Object {
 
@@ -137,6 +140,13 @@ public class Grammar extends Object {
      */
     private HashMap lines = new HashMap();
 
+    /**
+     * The compiled tokenizer specification. This is created on the
+     * first call to createTokenizer() and then shared by all the
+     * tokenizers created.
+     */
+    private TokenizerSpec tokenizerSpec = null;
+
     /**
      * Creates a new grammar from the specified file.
      *
@@ -195,7 +205,10 @@ public class Grammar extends Object {
     }
 
     /**
-     * Creates a tokenizer from this grammar.
+     * Creates a tokenizer from this grammar. The token patterns are
+     * only compiled once, and the compiled tokenizer specification is
+     * then shared by all the tokenizers created. This method is
+     * thread-safe.
      *
      * @param in             the input stream to use
      *
@@ -207,12 +220,53 @@ public class Grammar extends Object {
     public Tokenizer createTokenizer(Reader in)
         throws GrammarException {
 
-        Tokenizer  tokenizer;
+        return new Tokenizer(getTokenizerSpec(), in);
+    }
 
+    /**
+     * Creates a tokenizer from this grammar for an input file. The
+     * file will be memory-mapped and decoded with the specified
+     * character set. The token patterns are only compiled once, as
+     * for the other tokenizers created. This method is thread-safe.
+     *
+     * @param file           the input file to read
+     * @param charset        the file character set
+     *
+     * @return the newly created tokenizer
+     *
+     * @throws IOException if the file couldn't be opened or read
+     * @throws GrammarException if the tokenizer couldn't be created
+     *             or initialized correctly
+     *
+     * @since 1.7
+     */
+    public Tokenizer createTokenizer(File file, Charset charset)
+        throws IOException, GrammarException {
+
+        return new Tokenizer(getTokenizerSpec(), file, charset);
+    }
+
+    /**
+     * Returns the compiled tokenizer specification for this grammar.
+     * The specification will be created on the first call.
+     *
+     * @return the compiled tokenizer specification
+     *
+     * @throws GrammarException if the tokenizer specification
+     *             couldn't be created correctly
+     */
+    private synchronized TokenizerSpec getTokenizerSpec()
+        throws GrammarException {
+
+        TokenizerSpec  spec;
+
+        if (tokenizerSpec != null) {
+            return tokenizerSpec;
+        }
         try {
-            tokenizer = new Tokenizer(in, !getCaseSensitive());
+            spec = new TokenizerSpec(!getCaseSensitive());
             for (int i = 0; i < tokens.size(); i++) {
-                tokenizer.addPattern((TokenPattern) tokens.get(i));
+                spec.addPattern((TokenPattern) tokens.get(i));
             }
         } catch (ParserCreationException e) {
             if (e.getName() == null) {
@@ -225,8 +279,8 @@ public class Grammar extends Object {
                                            range.getEnd());
             }
         }
-
-        return tokenizer;
+        tokenizerSpec = spec;
+        return spec;
     }
 
     /**
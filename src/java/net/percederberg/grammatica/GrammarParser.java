@@ -52,6 +52,33 @@ class GrammarParser extends RecursiveDescentParser {
      */
     private static final int SUBPRODUCTION_4 = 3004;
 
+    /**
+     * The precomputed look-ahead data for each production pattern.
+     */
+    private static final int[][] LOOK_AHEAD = {
+        { -1, 2, 1, 1001, 1, 1002, 2, 1, 1001, 1, 1002, -1, -1, -1 },
+        { -1, 1, 1, 1001, 1, 1, 1001, -1, -1 },
+        { -1, 1, 1, 1019, 1, 1, 1019, -1, -1, -1 },
+        { -1, 1, 1, 1002, 1, 1, 1002, -1, -1 },
+        { -1, 1, 1, 1019, 1, 1, 1019, -1, -1, -1, -1 },
+        { -1, 2, 1, 1020, 1, 1021, 1, 1, 1020, -1, 1, 1, 1021, -1 },
+        { -1, 2, 1, 1004, 1, 1005, 1, 1, 1004, -1, 1, 1, 1005, -1 },
+        { -1, 1, 1, 1003, 1, 1, 1003, -1, -1 },
+        { -1, 1, 1, 1019, 1, 1, 1019, -1, -1, -1, -1 },
+        { -1, 5, 1, 1019, 1, 1020, 1, 1008, 1, 1010, 1, 1012, 5, 1, 1019,
+            1, 1020, 1, 1008, 1, 1010, 1, 1012, -1, -1 },
+        { -1, 5, 1, 1019, 1, 1020, 1, 1008, 1, 1010, 1, 1012, 1, 1, 1019,
+            -1, -1, 1, 1, 1020, -1, -1, 1, 1, 1008, -1, -1, -1,
+            -1, 1, 1, 1010, -1, -1, -1, 1, 1, 1012, -1, -1, -1 },
+        { -1, 1, 1, 1017, 1, 1, 1017, -1, -1 },
+        { -1, 3, 1, 1014, 1, 1016, 1, 1015, 1, 1, 1014, -1, 1, 1, 1016,
+            -1, 1, 1, 1015, -1 },
+        { -1, 3, 1, 1014, 1, 1016, 1, 1015, 1, 1, 1014, -1, 1, 1, 1016,
+            -1, 1, 1, 1015, -1 },
+        { -1, 3, 1, 1014, 1, 1016, 1, 1015, 1, 1, 1014, -1, 1, 1, 1016,
+            -1, 1, 1, 1015, -1 }
+    };
+
     /**
      * Creates a new parser with a default analyzer.
      *
@@ -115,6 +142,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addProduction(GrammarConstants.TOKEN_PART, 1, 1);
         alt.addProduction(GrammarConstants.PRODUCTION_PART, 0, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[0]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.HEADER_PART,
@@ -123,6 +151,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addToken(GrammarConstants.HEADER, 1, 1);
         alt.addProduction(GrammarConstants.HEADER_DECLARATION, 0, -1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[1]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.HEADER_DECLARATION,
@@ -132,6 +161,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addToken(GrammarConstants.EQUALS, 1, 1);
         alt.addToken(GrammarConstants.QUOTED_STRING, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[2]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.TOKEN_PART,
@@ -140,6 +170,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addToken(GrammarConstants.TOKENS, 1, 1);
         alt.addProduction(GrammarConstants.TOKEN_DECLARATION, 0, -1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[3]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.TOKEN_DECLARATION,
@@ -150,6 +181,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addProduction(GrammarConstants.TOKEN_VALUE, 1, 1);
         alt.addProduction(GrammarConstants.TOKEN_HANDLING, 0, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[4]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.TOKEN_VALUE,
@@ -160,6 +192,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt = new ProductionPatternAlternative();
         alt.addToken(GrammarConstants.REGEXP, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[5]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.TOKEN_HANDLING,
@@ -170,6 +203,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt = new ProductionPatternAlternative();
         alt.addToken(GrammarConstants.ERROR, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[6]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.PRODUCTION_PART,
@@ -178,6 +212,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addToken(GrammarConstants.PRODUCTIONS, 1, 1);
         alt.addProduction(GrammarConstants.PRODUCTION_DECLARATION, 0, -1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[7]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.PRODUCTION_DECLARATION,
@@ -188,6 +223,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addProduction(GrammarConstants.PRODUCTION, 1, 1);
         alt.addToken(GrammarConstants.SEMICOLON, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[8]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.PRODUCTION,
@@ -196,6 +232,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addProduction(GrammarConstants.PRODUCTION_ATOM, 1, -1);
         alt.addProduction(SUBPRODUCTION_1, 0, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[9]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(GrammarConstants.PRODUCTION_ATOM,
@@ -224,6 +261,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addProduction(GrammarConstants.PRODUCTION, 1, 1);
         alt.addToken(GrammarConstants.RIGHT_BRACKET, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[10]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(SUBPRODUCTION_1,
@@ -233,6 +271,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt.addToken(GrammarConstants.VERTICAL_BAR, 1, 1);
         alt.addProduction(GrammarConstants.PRODUCTION, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[11]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(SUBPRODUCTION_2,
@@ -247,6 +286,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt = new ProductionPatternAlternative();
         alt.addToken(GrammarConstants.PLUS_SIGN, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[12]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(SUBPRODUCTION_3,
@@ -261,6 +301,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt = new ProductionPatternAlternative();
         alt.addToken(GrammarConstants.PLUS_SIGN, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[13]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(SUBPRODUCTION_4,
@@ -275,6 +316,7 @@ class GrammarParser extends RecursiveDescentParser {
         alt = new ProductionPatternAlternative();
         alt.addToken(GrammarConstants.PLUS_SIGN, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[14]);
         addPattern(pattern);
     }
 }
@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 import net.percederberg.grammatica.output.CSharpParserGenerator;
 import net.percederberg.grammatica.output.JavaParserGenerator;
@@ -38,7 +39,7 @@ import net.percederberg.grammatica.parser.Tokenizer;
  * for information on usage and command-line parameters.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 public class Grammatica extends Object {
 
@@ -99,6 +100,10 @@ public class Grammatica extends Object {
         "  --javapublic\n" +
         "      Sets public access for all Java types. By default type\n" +
         "      access is package local.\n" +
+        "  --javaspecialized\n" +
+        "      Generates a specialized parse method for each production,\n" +
+        "      instead of interpreting the production patterns at run-\n" +
+        "      time. By default the generic parser is used.\n" +
         "\n" +
         "Visual Basic Output Options:\n" +
         "  --vbnamespace <package>\n" +
@@ -217,17 +222,25 @@ public class Grammatica extends Object {
     }
 
     /**
-     * Prints a file not found error message.
+     * Prints a file open or read error message.
      *
-     * @param file           the file name not found
+     * @param file           the file name not opened or read
      * @param e              the detailed exception
      */
-    private static void printError(String file, FileNotFoundException e) {
+    private static void printError(String file, IOException e) {
         StringBuffer  buffer = new StringBuffer();
 
-        buffer.append("Error: couldn't open file:");
-        buffer.append("\n    ");
-        buffer.append(file);
+        if (e instanceof FileNotFoundException) {
+            buffer.append("Error: couldn't open file:");
+            buffer.append("\n    ");
+            buffer.append(file);
+        } else {
+            buffer.append("Error: couldn't read file:");
+            buffer.append("\n    ");
+            buffer.append(file);
+            buffer.append("\n    ");
+            buffer.append(e.getMessage());
+        }
         System.err.println(buffer.toString());
     }
 
@@ -443,12 +456,13 @@ public class Grammatica extends Object {
         Token      token;
 
         try {
-            tokenizer = grammar.createTokenizer(new FileReader(file));
+            tokenizer = grammar.createTokenizer(file,
+                                                Charset.defaultCharset());
             System.out.println("Tokens from " + file + ":");
             while ((token = tokenizer.next()) != null) {
                 System.out.println(token);
             }
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             printError(file.toString(), e);
             System.exit(1);
         } catch (GrammarException e) {
@@ -472,12 +486,13 @@ public class Grammatica extends Object {
         Parser     parser;
 
         try {
-            tokenizer = grammar.createTokenizer(new FileReader(file));
+            tokenizer = grammar.createTokenizer(file,
+                                                Charset.defaultCharset());
             analyzer = new TreePrinter(System.out);
             parser = grammar.createParser(tokenizer, analyzer);
             System.out.println("Parse tree from " + file + ":");
             parser.parse();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             printError(file.toString(), e);
             System.exit(1);
         } catch (GrammarException e) {
@@ -512,13 +527,14 @@ public class Grammatica extends Object {
         // Profile tokenizer
         try {
             System.out.println("Tokenizing " + fileCount + " file(s)...");
-            tokenizer = grammar.createTokenizer(new FileReader(file));
+            tokenizer = grammar.createTokenizer(file,
+                                                Charset.defaultCharset());
             time = System.currentTimeMillis();
             counter = 0;
             for (int i = first; i < files.length; i++) {
                 if (i > first) {
                     file = new File(files[i]);
-                    tokenizer.reset(new FileReader(file));
+                    tokenizer.reset(file, Charset.defaultCharset());
                 }
                 while (tokenizer.next() != null) {
                     counter++;
@@ -530,7 +546,7 @@ public class Grammatica extends Object {
             System.out.println("  Average speed: " + (counter / time) +
                                " tokens/millisec");
             System.out.println();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             printError(file.toString(), e);
             System.exit(1);
         } catch (GrammarException e) {
@@ -545,14 +561,15 @@ public class Grammatica extends Object {
         try {
             System.out.println("Parsing " + fileCount + " file(s)...");
             file = new File(files[first]);
-            tokenizer = grammar.createTokenizer(new FileReader(file));
+            tokenizer = grammar.createTokenizer(file,
+                                                Charset.defaultCharset());
             parser = grammar.createParser(tokenizer);
             time = System.currentTimeMillis();
             counter = 0;
             for (int i = first; i < files.length; i++) {
                 if (i > first) {
                     file = new File(files[i]);
-                    parser.reset(new FileReader(file));
+                    parser.reset(file, Charset.defaultCharset());
                 }
                 node = parser.parse();
                 counter += 1 + node.getDescendantCount();
@@ -563,7 +580,7 @@ public class Grammatica extends Object {
             System.out.println("  Average speed: " + (counter / time) +
                                " nodes/millisec");
             System.out.println();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             printError(file.toString(), e);
             System.exit(1);
         } catch (GrammarException e) {
@@ -598,6 +615,8 @@ public class Grammatica extends Object {
                 gen.setBaseName(args[++i]);
             } else if (args[i].equals("--javapublic")) {
                 gen.setPublicAccess(true);
+            } else if (args[i].equals("--javaspecialized")) {
+                gen.setSpecializedParser(true);
             } else {
                 printHelp("unrecognized option: " + args[i]);
                 System.exit(1);
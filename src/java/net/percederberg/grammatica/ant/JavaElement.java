@@ -25,7 +25,7 @@ import net.percederberg.grammatica.output.JavaParserGenerator;
  * parser.
  *
  * @author   Per Cederberg
- * @version  1.4
+ * @version  1.7
  * @since    1.4
  */
 public class JavaElement implements ProcessingElement {
@@ -50,6 +50,11 @@ public class JavaElement implements ProcessingElement {
      */
     private boolean publicAccess = false;
 
+    /**
+     * The specialized parser flag.
+     */
+    private boolean specialized = false;
+
     /**
      * Creates a new Java output element.
      */
@@ -96,6 +101,18 @@ public class JavaElement implements ProcessingElement {
         this.publicAccess = publicAccess;
     }
 
+    /**
+     * Sets the specialized parser flag. By default the generated
+     * parser interprets the production patterns.
+     *
+     * @param specialized    the specialized parser flag
+     *
+     * @since 1.7
+     */
+    public void setSpecialized(boolean specialized) {
+        this.specialized = specialized;
+    }
+
     /**
      * Validates all attributes in the element.
      *
@@ -128,6 +145,7 @@ public class JavaElement implements ProcessingElement {
             gen.setBaseName(prefix);
         }
         gen.setPublicAccess(publicAccess);
+        gen.setSpecializedParser(specialized);
         try {
             System.out.println("Writing Java parser source code...");
             gen.write();
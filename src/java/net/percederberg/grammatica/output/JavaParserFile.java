@@ -15,7 +15,9 @@
 package net.percederberg.grammatica.output;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import net.percederberg.grammatica.code.java.JavaClass;
 import net.percederberg.grammatica.code.java.JavaComment;
@@ -33,7 +35,7 @@ import net.percederberg.grammatica.parser.ProductionPatternElement;
  * Java code necessary for creating a parser.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 class JavaParserFile {
 
@@ -49,6 +51,12 @@ class JavaParserFile {
     private static final String PRODUCTION_COMMENT =
         "A generated production node identity constant.";
 
+    /**
+     * The look-ahead data constant comment.
+     */
+    private static final String LOOK_AHEAD_COMMENT =
+        "The precomputed look-ahead data for each production pattern.";
+
     /**
      * The first constructor comment.
      */
@@ -87,6 +95,16 @@ class JavaParserFile {
         "@throws ParserCreationException if the parser couldn't be\n" +
         "            initialized correctly";
 
+    /**
+     * The start method comment.
+     */
+    private static final String START_METHOD_COMMENT =
+        "Parses the token stream by calling the parse method for the\n" +
+        "start production.\n\n" +
+        "@return the parse tree\n\n" +
+        "@throws ParseException if the input couldn't be parsed\n" +
+        "            correctly";
+
     /**
      * The Java parser generator.
      */
@@ -107,6 +125,22 @@ class JavaParserFile {
      */
     private JavaMethod initMethod;
 
+    /**
+     * The Java look-ahead data constant.
+     */
+    private JavaVariable lookAheadData;
+
+    /**
+     * The number of production patterns with look-ahead data.
+     */
+    private int lookAheadCount = 0;
+
+    /**
+     * The set of production pattern ids having a generated
+     * look-ahead check method.
+     */
+    private HashSet lookAheadMethods = new HashSet();
+
     /**
      * A map with the production constants in this class. This map
      * is indexed with the pattern id and contains the production
@@ -146,6 +180,11 @@ class JavaParserFile {
                                          "createPatterns",
                                          "",
                                          "void");
+        this.lookAheadData = new JavaVariable(JavaVariable.PRIVATE +
+                                              JavaVariable.STATIC +
+                                              JavaVariable.FINAL,
+                                              "int[][]",
+                                              "LOOK_AHEAD");
         initializeCode(tokenizer, analyzer);
     }
 
@@ -164,8 +203,18 @@ class JavaParserFile {
 
         // Add imports
         file.addImport(new JavaImport("java.io", "Reader"));
+        if (gen.getSpecializedParser()) {
+            file.addImport(new JavaImport("net.percederberg.grammatica.parser",
+                                          "Node"));
+            file.addImport(new JavaImport("net.percederberg.grammatica.parser",
+                                          "ParseException"));
+        }
         file.addImport(new JavaImport("net.percederberg.grammatica.parser",
                                       "ParserCreationException"));
+        if (gen.getSpecializedParser()) {
+            file.addImport(new JavaImport("net.percederberg.grammatica.parser",
+                                          "Production"));
+        }
         file.addImport(new JavaImport("net.percederberg.grammatica.parser",
                                       "ProductionPattern"));
         file.addImport(new JavaImport("net.percederberg.grammatica.parser",
@@ -285,8 +334,63 @@ class JavaParserFile {
                                      constants);
         }
 
+        // Set precomputed look-ahead
+        addLookAheadData(pattern);
+
         // Add pattern to parser
         initMethod.addCode("addPattern(pattern);");
+
+        // Add specialized parse methods
+        if (gen.getSpecializedParser()) {
+            if (gen.getGrammar().getProductionPattern(0) == pattern) {
+                addStartMethod(pattern, constants);
+            }
+            addParseMethod(pattern, constants);
+        }
+    }
+
+    /**
+     * Adds the precomputed look-ahead data for a production pattern.
+     * The data is added to a static array constant, and code is
+     * added to the init method for installing it into the pattern.
+     * Patterns without calculated look-ahead sets are ignored.
+     *
+     * @param pattern        the production pattern
+     */
+    private void addLookAheadData(ProductionPattern pattern) {
+        int[]         data = pattern.getLookAheadData();
+        StringBuffer  code;
+        String        indent;
+        int           lineStart;
+
+        if (data == null) {
+            return;
+        }
+        if (lookAheadCount == 0) {
+            lookAheadData.addComment(new JavaComment(LOOK_AHEAD_COMMENT));
+            cls.addVariable(lookAheadData);
+        }
+        indent = gen.getCodeStyle().getIndent(3);
+        code = new StringBuffer("{ ");
+        lineStart = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (i > 0) {
+                code.append(",");
+                if (code.length() - lineStart > 60) {
+                    code.append("\n");
+                    lineStart = code.length();
+                    code.append(indent);
+                } else {
+                    code.append(" ");
+                }
+            }
+            code.append(data[i]);
+        }
+        code.append(" }");
+        lookAheadData.addArrayInit(code.toString());
+        initMethod.addCode("pattern.setLookAheadData(LOOK_AHEAD[" +
+                           lookAheadCount + "]);");
+        lookAheadCount++;
     }
 
     /**
@@ -327,6 +431,382 @@ class JavaParserFile {
         initMethod.addCode("pattern.addAlternative(alt);");
     }
 
+    /**
+     * Adds the specialized start method to this file. The start
+     * method overrides the generic one in the parser base class.
+     *
+     * @param pattern        the start production pattern
+     * @param constants      the constants file generator
+     */
+    private void addStartMethod(ProductionPattern pattern,
+                                JavaConstantsFile constants) {
+
+        JavaMethod  method;
+
+        method = new JavaMethod(JavaMethod.PROTECTED,
+                                "parseStart",
+                                "",
+                                "Node");
+        method.addComment(new JavaComment(START_METHOD_COMMENT));
+        method.addThrows("ParseException");
+        method.addCode("Node  node;");
+        method.addCode("");
+        method.addCode("node = " + getMethodName("parse", pattern, constants) +
+                       "();");
+        method.addCode("checkEndOfInput();");
+        method.addCode("return node;");
+        cls.addMethod(method);
+    }
+
+    /**
+     * Adds a specialized parse method for a production pattern. The
+     * alternative will be selected with a switch statement on the
+     * next token id if all the alternatives only require a single
+     * look-ahead token. Otherwise the alternative look-ahead sets
+     * will be checked in the same order as in the generic parser.
+     *
+     * @param pattern        the production pattern
+     * @param constants      the constants file generator
+     */
+    private void addParseMethod(ProductionPattern pattern,
+                                JavaConstantsFile constants) {
+
+        LookAheadData  data = new LookAheadData(pattern);
+        String         constant = getConstant(constants, pattern.getId());
+        StringBuffer   comment = new StringBuffer();
+        JavaMethod     method;
+        int[]          tokens;
+
+        comment.append("Parses the ");
+        comment.append(pattern.getName());
+        comment.append(" production.\n\n");
+        comment.append("@return the parse tree node created, or null\n\n");
+        comment.append("@throws ParseException if the input couldn't be ");
+        comment.append("parsed\n            correctly");
+        method = new JavaMethod(JavaMethod.PRIVATE,
+                                getMethodName("parse", pattern, constants),
+                                "",
+                                "Node");
+        method.addComment(new JavaComment(comment.toString()));
+        method.addThrows("ParseException");
+        method.addCode("Production  node;");
+        method.addCode("");
+        if (data.isSingleTokenChoice()) {
+            method.addCode("switch (peekTokenId(0)) {");
+            for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+                tokens = getInitialTokens(data.alternatives[i]);
+                for (int j = 0; j < tokens.length; j++) {
+                    method.addCode("case " +
+                                   getConstant(constants, tokens[j]) + ":");
+                }
+                addAlternativeCode(method, "    ", pattern, i, data, constants);
+            }
+            method.addCode("default:");
+            method.addCode("    throwParseException(" + constant + ");");
+            method.addCode("    return null;");
+            method.addCode("}");
+        } else {
+            for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+                if (i != data.defaultAlt) {
+                    addAlternativeCheck(method, pattern, i, data, constants);
+                }
+            }
+            if (data.defaultAlt >= 0) {
+                addAlternativeCheck(method,
+                                    pattern,
+                                    data.defaultAlt,
+                                    data,
+                                    constants);
+            }
+            method.addCode("throwParseException(" + constant + ");");
+            method.addCode("return null;");
+        }
+        cls.addMethod(method);
+    }
+
+    /**
+     * Adds the code for checking the look-ahead set of a production
+     * pattern alternative, and parsing the alternative if it
+     * matched.
+     *
+     * @param method         the method to add code to
+     * @param pattern        the production pattern
+     * @param alt            the alternative position
+     * @param data           the pattern look-ahead data
+     * @param constants      the constants file generator
+     */
+    private void addAlternativeCheck(JavaMethod method,
+                                     ProductionPattern pattern,
+                                     int alt,
+                                     LookAheadData data,
+                                     JavaConstantsFile constants) {
+
+        method.addCode("if (isNextAlternative(" +
+                       getConstant(constants, pattern.getId()) + ", " +
+                       alt + ")) {");
+        addAlternativeCode(method, "    ", pattern, alt, data, constants);
+        method.addCode("}");
+    }
+
+    /**
+     * Adds the code for parsing a production pattern alternative.
+     *
+     * @param method         the method to add code to
+     * @param indent         the code indentation
+     * @param pattern        the production pattern
+     * @param alt            the alternative position
+     * @param data           the pattern look-ahead data
+     * @param constants      the constants file generator
+     */
+    private void addAlternativeCode(JavaMethod method,
+                                    String indent,
+                                    ProductionPattern pattern,
+                                    int alt,
+                                    LookAheadData data,
+                                    JavaConstantsFile constants) {
+
+        int  count = pattern.getAlternative(alt).getElementCount();
+
+        method.addCode(indent + "node = enterProduction(" +
+                       getConstant(constants, pattern.getId()) + ");");
+        for (int i = 0; i < count; i++) {
+            addElementCode(method, indent, pattern, alt, i, data, constants);
+        }
+        method.addCode(indent + "return exitProduction(node);");
+    }
+
+    /**
+     * Adds the code for parsing a production pattern element. The
+     * element code is retried after error recovery, in the same way
+     * as in the generic parser.
+     *
+     * @param method         the method to add code to
+     * @param indent         the code indentation
+     * @param pattern        the production pattern
+     * @param alt            the alternative position
+     * @param pos            the element position
+     * @param data           the pattern look-ahead data
+     * @param constants      the constants file generator
+     */
+    private void addElementCode(JavaMethod method,
+                                String indent,
+                                ProductionPattern pattern,
+                                int alt,
+                                int pos,
+                                LookAheadData data,
+                                JavaConstantsFile constants) {
+
+        ProductionPatternElement  elem;
+        ProductionPattern         ref;
+        String                    code;
+        String                    cond = null;
+        String                    str;
+        int                       min;
+        int                       max;
+
+        elem = pattern.getAlternative(alt).getElement(pos);
+        min = elem.getMinCount();
+        max = elem.getMaxCount();
+        if (elem.isToken()) {
+            code = "matchToken(node, " +
+                   getConstant(constants, elem.getId()) + ");";
+        } else {
+            ref = gen.getGrammar().getProductionPatternById(elem.getId());
+            code = "addChildNode(node, " +
+                   getMethodName("parse", ref, constants) + "());";
+        }
+        if (min != max) {
+            cond = getElementCondition(pattern, alt, pos, data, constants);
+        }
+        str = indent + "        ";
+        method.addCode(indent + "while (true) {");
+        method.addCode(indent + "    try {");
+        if (min == 1 && max == 1) {
+            method.addCode(str + code);
+        } else if (min == 0 && max == 1) {
+            method.addCode(str + "if (" + cond + ") {");
+            method.addCode(str + "    " + code);
+            method.addCode(str + "}");
+        } else if (min == 0 && max == Integer.MAX_VALUE) {
+            method.addCode(str + "while (" + cond + ") {");
+            method.addCode(str + "    " + code);
+            method.addCode(str + "}");
+        } else if (min == 1 && max == Integer.MAX_VALUE) {
+            method.addCode(str + "do {");
+            method.addCode(str + "    " + code);
+            method.addCode(str + "} while (" + cond + ");");
+        } else if (min == max) {
+            method.addCode(str + "for (int i = 0; i < " + max + "; i++) {");
+            method.addCode(str + "    " + code);
+            method.addCode(str + "}");
+        } else {
+            if (max == Integer.MAX_VALUE) {
+                method.addCode(str + "for (int i = 0; ; i++) {");
+            } else {
+                method.addCode(str + "for (int i = 0; i < " + max +
+                               "; i++) {");
+            }
+            method.addCode(str + "    if (i >= " + min + " && !" +
+                           cond + ") {");
+            method.addCode(str + "        break;");
+            method.addCode(str + "    }");
+            method.addCode(str + "    " + code);
+            method.addCode(str + "}");
+        }
+        method.addCode(str + "break;");
+        method.addCode(indent + "    } catch (ParseException e) {");
+        method.addCode(indent + "        recover(e);");
+        method.addCode(indent + "    }");
+        method.addCode(indent + "}");
+    }
+
+    /**
+     * Returns the condition code for parsing an optional or repeated
+     * production pattern element. The element look-ahead set will be
+     * used if present, otherwise the look-ahead for the referenced
+     * token or production pattern.
+     *
+     * @param pattern        the production pattern
+     * @param alt            the alternative position
+     * @param pos            the element position
+     * @param data           the pattern look-ahead data
+     * @param constants      the constants file generator
+     *
+     * @return the condition code
+     */
+    private String getElementCondition(ProductionPattern pattern,
+                                       int alt,
+                                       int pos,
+                                       LookAheadData data,
+                                       JavaConstantsFile constants) {
+
+        ProductionPatternElement  elem;
+        ProductionPattern         ref;
+        LookAheadData             refData;
+
+        elem = pattern.getAlternative(alt).getElement(pos);
+        if (data.elements[alt][pos] != null) {
+            return "isNextElement(" +
+                   getConstant(constants, pattern.getId()) + ", " +
+                   alt + ", " + pos + ")";
+        } else if (elem.isToken()) {
+            return "peekTokenId(0) == " + getConstant(constants, elem.getId());
+        }
+        ref = gen.getGrammar().getProductionPatternById(elem.getId());
+        refData = new LookAheadData(ref);
+        if (getInitialTokens(refData.patternSet) == null) {
+            return "isNextProduction(" +
+                   getConstant(constants, ref.getId()) + ")";
+        }
+        addLookAheadMethod(ref, refData, constants);
+        return getMethodName("isNext", ref, constants) + "()";
+    }
+
+    /**
+     * Adds a look-ahead check method for a production pattern. The
+     * method is only added once for each production pattern, and
+     * requires the pattern look-ahead to consist of single tokens.
+     *
+     * @param pattern        the production pattern
+     * @param data           the pattern look-ahead data
+     * @param constants      the constants file generator
+     */
+    private void addLookAheadMethod(ProductionPattern pattern,
+                                    LookAheadData data,
+                                    JavaConstantsFile constants) {
+
+        Integer       id = Integer.valueOf(pattern.getId());
+        StringBuffer  comment = new StringBuffer();
+        JavaMethod    method;
+        int[]         tokens;
+
+        if (lookAheadMethods.contains(id)) {
+            return;
+        }
+        lookAheadMethods.add(id);
+        comment.append("Checks if the next token starts the ");
+        comment.append(pattern.getName());
+        comment.append(" production.\n\n");
+        comment.append("@return true if the next token matches, or\n");
+        comment.append("        false otherwise");
+        method = new JavaMethod(JavaMethod.PRIVATE,
+                                getMethodName("isNext", pattern, constants),
+                                "",
+                                "boolean");
+        method.addComment(new JavaComment(comment.toString()));
+        method.addCode("switch (peekTokenId(0)) {");
+        tokens = getInitialTokens(data.patternSet);
+        for (int i = 0; i < tokens.length; i++) {
+            method.addCode("case " + getConstant(constants, tokens[i]) + ":");
+        }
+        method.addCode("    return true;");
+        method.addCode("default:");
+        method.addCode("    return false;");
+        method.addCode("}");
+        cls.addMethod(method);
+    }
+
+    /**
+     * Returns the name of a generated method for a production
+     * pattern. The method name is created from the pattern name
+     * with the specified prefix. The "parseStart" name is reserved
+     * for the start method, so a "Production" suffix will be added
+     * for a production named "Start".
+     *
+     * @param prefix         the method name prefix
+     * @param pattern        the production pattern
+     * @param constants      the constants file generator
+     *
+     * @return the method name
+     */
+    private String getMethodName(String prefix,
+                                 ProductionPattern pattern,
+                                 JavaConstantsFile constants) {
+
+        String  name;
+
+        if (pattern.isSynthetic()) {
+            name = getConstant(constants, pattern.getId());
+        } else {
+            name = pattern.getName();
+        }
+        name = prefix + gen.getCodeStyle().getMixedCase(name, true);
+        if (name.equals("parseStart")) {
+            name += "Production";
+        }
+        return name;
+    }
+
+    /**
+     * Returns the initial tokens of a look-ahead set. The tokens
+     * are only returned if all the token sequences have length one.
+     *
+     * @param set            the look-ahead token sequences
+     *
+     * @return the array with unique token ids, or
+     *         null if some token sequence wasn't of length one
+     */
+    private int[] getInitialTokens(int[][] set) {
+        ArrayList  list = new ArrayList();
+        Integer    token;
+        int[]      result;
+
+        for (int i = 0; i < set.length; i++) {
+            if (set[i].length != 1) {
+                return null;
+            }
+            token = Integer.valueOf(set[i][0]);
+            if (!list.contains(token)) {
+                list.add(token);
+            }
+        }
+        result = new int[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            result[i] = ((Integer) list.get(i)).intValue();
+        }
+        return result;
+    }
+
     /**
      * Returns the constant name for a specified pattern or token id.
      *
@@ -354,4 +834,129 @@ class JavaParserFile {
     public void writeCode() throws IOException {
         file.writeCode(gen.getCodeStyle());
     }
+
+
+    /**
+     * The decoded look-ahead data for a production pattern. The
+     * look-ahead sets are represented as arrays of token id
+     * sequences.
+     *
+     * @see ProductionPattern#getLookAheadData()
+     */
+    private class LookAheadData {
+
+        /**
+         * The default alternative position, or -1 for none.
+         */
+        public int defaultAlt;
+
+        /**
+         * The production pattern look-ahead set.
+         */
+        public int[][] patternSet;
+
+        /**
+         * The look-ahead sets for each pattern alternative.
+         */
+        public int[][][] alternatives;
+
+        /**
+         * The look-ahead sets for each pattern alternative element.
+         * Elements without a look-ahead set have null values.
+         */
+        public int[][][][] elements;
+
+        /**
+         * The encoded look-ahead data.
+         */
+        private int[] data;
+
+        /**
+         * The current read position in the encoded data.
+         */
+        private int pos = 0;
+
+        /**
+         * Decodes the look-ahead data for a production pattern.
+         *
+         * @param pattern        the production pattern
+         */
+        public LookAheadData(ProductionPattern pattern) {
+            ProductionPatternAlternative  alt;
+            int                           count;
+
+            this.data = pattern.getLookAheadData();
+            this.defaultAlt = data[pos++];
+            this.patternSet = readSet();
+            count = pattern.getAlternativeCount();
+            this.alternatives = new int[count][][];
+            this.elements = new int[count][][][];
+            for (int i = 0; i < count; i++) {
+                alt = pattern.getAlternative(i);
+                alternatives[i] = readSet();
+                elements[i] = new int[alt.getElementCount()][][];
+                for (int j = 0; j < alt.getElementCount(); j++) {
+                    elements[i][j] = readSet();
+                }
+            }
+        }
+
+        /**
+         * Reads a look-ahead set from the data.
+         *
+         * @return the token id sequences, or
+         *         null if no look-ahead set was present
+         */
+        private int[][] readSet() {
+            int[][]  result;
+            int      count = data[pos++];
+            int      length;
+
+            if (count < 0) {
+                return null;
+            }
+            result = new int[count][];
+            for (int i = 0; i < count; i++) {
+                length = data[pos++];
+                if (length < 0) {
+                    length = -length - 1;
+                }
+                result[i] = new int[length];
+                for (int j = 0; j < length; j++) {
+                    result[i][j] = data[pos++];
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Checks if the pattern alternatives can be selected with a
+         * single token switch. This requires all the alternative
+         * look-ahead sets to only contain distinct single tokens,
+         * and that no default alternative is used.
+         *
+         * @return true if a single token switch can be used, or
+         *         false otherwise
+         */
+        public boolean isSingleTokenChoice() {
+            HashSet  tokens = new HashSet();
+            int[]    initials;
+
+            if (defaultAlt >= 0) {
+                return false;
+            }
+            for (int i = 0; i < alternatives.length; i++) {
+                initials = getInitialTokens(alternatives[i]);
+                if (initials == null) {
+                    return false;
+                }
+                for (int j = 0; j < initials.length; j++) {
+                    if (!tokens.add(Integer.valueOf(initials[j]))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
 }
@@ -28,7 +28,7 @@ import net.percederberg.grammatica.parser.TokenPattern;
  * needed for a Java parser.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 public class JavaParserGenerator extends ParserGenerator {
 
@@ -47,6 +47,11 @@ public class JavaParserGenerator extends ParserGenerator {
      */
     private boolean publicAccess = false;
 
+    /**
+     * The specialized parser flag.
+     */
+    private boolean specializedParser = false;
+
     /**
      * The Java class comment.
      */
@@ -158,6 +163,34 @@ public class JavaParserGenerator extends ParserGenerator {
         publicAccess = flag;
     }
 
+    /**
+     * Returns the specialized parser flag.
+     *
+     * @return true if a specialized parser should be generated, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean getSpecializedParser() {
+        return specializedParser;
+    }
+
+    /**
+     * Sets the specialized parser flag. If this flag is set, the
+     * generated parser will contain one parse method per production,
+     * using switch statements on the token ids for selecting
+     * alternatives and loops for element repetitions. Otherwise the
+     * production patterns will be interpreted by the generic
+     * recursive descent parser. By default this flag is not set.
+     *
+     * @param flag           the new specialized parser flag value
+     *
+     * @since 1.7
+     */
+    public void setSpecializedParser(boolean flag) {
+        specializedParser = flag;
+    }
+
     /**
      * Returns the Java code style to use.
      *
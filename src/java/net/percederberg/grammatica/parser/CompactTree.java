@@ -0,0 +1,683 @@
+/*
+ * CompactTree.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.HashMap;
+
+/**
+ * A compact array-backed parse tree. This class stores all the parse
+ * tree nodes in parallel primitive arrays, with a node index used
+ * instead of node objects. The token images are stored in a single
+ * shared character array. This uses only a fraction of the memory
+ * needed for a tree of Production and Token objects, which makes it
+ * suitable for very large inputs.<p>
+ *
+ * The nodes can be accessed either through the index-based methods
+ * in this class, or through lightweight node views. A node view is
+ * a Production or Token object created on demand for a single node
+ * index, making the compact tree usable with an Analyzer or any
+ * other code traversing Node objects. Note that node views are not
+ * cached, so any values added to a node view will not be available
+ * in other views of the same node.<p>
+ *
+ * As for the normal parse tree, synthetic productions are not
+ * included in the tree. Their child nodes are added to the parent
+ * production instead.
+ *
+ * @see Parser#parseCompact()
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class CompactTree {
+
+    /**
+     * The initial node array capacity.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * The number of nodes in the tree.
+     */
+    private int count = 0;
+
+    /**
+     * The node ids. This is either the production or the token
+     * pattern id.
+     */
+    private int[] ids = new int[INITIAL_CAPACITY];
+
+    /**
+     * The parent node indices, or -1 for the root node.
+     */
+    private int[] parents = new int[INITIAL_CAPACITY];
+
+    /**
+     * The first child node indices, or -1 if no children exist.
+     */
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+
+    /**
+     * The next sibling node indices, or -1 for the last child.
+     */
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+
+    /**
+     * The number of child nodes for each node.
+     */
+    private int[] childCounts = new int[INITIAL_CAPACITY];
+
+    /**
+     * The token image start offsets in the text array, or -1 for
+     * production nodes.
+     */
+    private int[] textStarts = new int[INITIAL_CAPACITY];
+
+    /**
+     * The token image lengths.
+     */
+    private int[] textLengths = new int[INITIAL_CAPACITY];
+
+    /**
+     * The token start line numbers.
+     */
+    private int[] lines = new int[INITIAL_CAPACITY];
+
+    /**
+     * The token start column numbers.
+     */
+    private int[] columns = new int[INITIAL_CAPACITY];
+
+    /**
+     * The shared token image character array.
+     */
+    private char[] text = new char[INITIAL_CAPACITY * 4];
+
+    /**
+     * The number of characters used in the text array.
+     */
+    private int textLength = 0;
+
+    /**
+     * The map with production and token patterns. The patterns are
+     * indexed by their id (as Integer objects). These patterns are
+     * used when creating node views.
+     */
+    private HashMap patterns = new HashMap();
+
+    /**
+     * Creates a new empty compact tree.
+     */
+    CompactTree() {
+        // Nothing to initialize
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     *
+     * @return the number of nodes in the tree
+     */
+    public int getNodeCount() {
+        return count;
+    }
+
+    /**
+     * Returns the root node view.
+     *
+     * @return the root node view, or
+     *         null if the tree is empty
+     */
+    public Node getRoot() {
+        return (count > 0) ? getNode(0) : null;
+    }
+
+    /**
+     * Returns a node view for a node index. A new view object will
+     * be created on each call.
+     *
+     * @param index          the node index
+     *
+     * @return the node view, or
+     *         null if the index was -1
+     */
+    public Node getNode(int index) {
+        if (index < 0) {
+            return null;
+        } else if (isToken(index)) {
+            return new TokenView(this, index);
+        } else {
+            return new ProductionView(this, index);
+        }
+    }
+
+    /**
+     * Returns the node id. This is the production or token pattern
+     * id.
+     *
+     * @param index          the node index
+     *
+     * @return the node id
+     */
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Checks if a node is a token.
+     *
+     * @param index          the node index
+     *
+     * @return true if the node is a token, or
+     *         false if it is a production
+     */
+    public boolean isToken(int index) {
+        return textStarts[index] >= 0;
+    }
+
+    /**
+     * Returns the parent node index.
+     *
+     * @param index          the node index
+     *
+     * @return the parent node index, or
+     *         -1 for the root node
+     */
+    public int getParent(int index) {
+        return parents[index];
+    }
+
+    /**
+     * Returns the number of child nodes.
+     *
+     * @param index          the node index
+     *
+     * @return the number of child nodes
+     */
+    public int getChildCount(int index) {
+        return childCounts[index];
+    }
+
+    /**
+     * Returns the first child node index.
+     *
+     * @param index          the node index
+     *
+     * @return the first child node index, or
+     *         -1 if the node has no children
+     */
+    public int getFirstChild(int index) {
+        return firstChildren[index];
+    }
+
+    /**
+     * Returns the next sibling node index.
+     *
+     * @param index          the node index
+     *
+     * @return the next sibling node index, or
+     *         -1 if the node is the last child
+     */
+    public int getNextSibling(int index) {
+        return nextSiblings[index];
+    }
+
+    /**
+     * Returns the token image.
+     *
+     * @param index          the token node index
+     *
+     * @return the token image, or
+     *         null for production nodes
+     */
+    public String getImage(int index) {
+        if (!isToken(index)) {
+            return null;
+        }
+        return new String(text, textStarts[index], textLengths[index]);
+    }
+
+    /**
+     * Returns the token start line number.
+     *
+     * @param index          the token node index
+     *
+     * @return the line number of the first token character, or
+     *         -1 for production nodes
+     */
+    public int getStartLine(int index) {
+        return isToken(index) ? lines[index] : -1;
+    }
+
+    /**
+     * Returns the token start column number.
+     *
+     * @param index          the token node index
+     *
+     * @return the column number of the first token character, or
+     *         -1 for production nodes
+     */
+    public int getStartColumn(int index) {
+        return isToken(index) ? columns[index] : -1;
+    }
+
+    /**
+     * Adds a new node to the tree. The node will be added last in
+     * the list of children for the parent node.
+     *
+     * @param id             the node id
+     * @param parent         the parent node index, or -1
+     * @param last           the last child node index of the parent,
+     *                       or -1
+     *
+     * @return the new node index
+     */
+    private int addNode(int id, int parent, int last) {
+        int  index = count;
+
+        if (count >= ids.length) {
+            grow();
+        }
+        count++;
+        ids[index] = id;
+        parents[index] = parent;
+        firstChildren[index] = -1;
+        nextSiblings[index] = -1;
+        childCounts[index] = 0;
+        textStarts[index] = -1;
+        if (parent >= 0) {
+            if (last < 0) {
+                firstChildren[parent] = index;
+            } else {
+                nextSiblings[last] = index;
+            }
+            childCounts[parent]++;
+        }
+        return index;
+    }
+
+    /**
+     * Adds a new production node to the tree.
+     *
+     * @param pattern        the production pattern
+     * @param parent         the parent node index, or -1
+     * @param last           the last child node index of the parent,
+     *                       or -1
+     *
+     * @return the new node index
+     */
+    int addProduction(ProductionPattern pattern, int parent, int last) {
+        addPattern(pattern.getId(), pattern);
+        return addNode(pattern.getId(), parent, last);
+    }
+
+    /**
+     * Adds a new token node to the tree.
+     *
+     * @param token          the token
+     * @param parent         the parent node index, or -1
+     * @param last           the last child node index of the parent,
+     *                       or -1
+     *
+     * @return the new node index
+     */
+    int addToken(Token token, int parent, int last) {
+        int     index = addNode(token.getId(), parent, last);
+        int     length = token.getImageLength();
+        char[]  res;
+
+        addPattern(token.getId(), token.getPattern());
+        if (textLength + length > text.length) {
+            res = new char[Math.max(text.length * 2, textLength + length)];
+            System.arraycopy(text, 0, res, 0, textLength);
+            text = res;
+        }
+        token.getImageChars(text, textLength);
+        textStarts[index] = textLength;
+        textLengths[index] = length;
+        textLength += length;
+        lines[index] = token.getStartLine();
+        columns[index] = token.getStartColumn();
+        return index;
+    }
+
+    /**
+     * Adds a pattern to the pattern map if not already present.
+     *
+     * @param id             the pattern id
+     * @param pattern        the production or token pattern
+     */
+    private void addPattern(int id, Object pattern) {
+        Integer  key = Integer.valueOf(id);
+
+        if (!patterns.containsKey(key)) {
+            patterns.put(key, pattern);
+        }
+    }
+
+    /**
+     * Doubles the capacity of all the node arrays.
+     */
+    private void grow() {
+        int  size = ids.length * 2;
+
+        ids = copyOf(ids, size);
+        parents = copyOf(parents, size);
+        firstChildren = copyOf(firstChildren, size);
+        nextSiblings = copyOf(nextSiblings, size);
+        childCounts = copyOf(childCounts, size);
+        textStarts = copyOf(textStarts, size);
+        textLengths = copyOf(textLengths, size);
+        lines = copyOf(lines, size);
+        columns = copyOf(columns, size);
+    }
+
+    /**
+     * Creates a copy of an array with a new length.
+     *
+     * @param array          the array to copy
+     * @param length         the new array length
+     *
+     * @return the new array
+     */
+    private static int[] copyOf(int[] array, int length) {
+        int[]  res = new int[length];
+
+        System.arraycopy(array, 0, res, 0, Math.min(array.length, length));
+        return res;
+    }
+
+
+    /**
+     * A compact tree builder. This parser listener adds the parsed
+     * productions and tokens to a compact tree.
+     *
+     * @author   Per Cederberg
+     * @version  1.7
+     * @since    1.7
+     */
+    static class Builder implements ParserListener {
+
+        /**
+         * The parser used.
+         */
+        private Parser parser;
+
+        /**
+         * The compact tree being built.
+         */
+        private CompactTree tree = new CompactTree();
+
+        /**
+         * The stack of open production node indices.
+         */
+        private int[] open = new int[32];
+
+        /**
+         * The last child node index for each open production.
+         */
+        private int[] last = new int[32];
+
+        /**
+         * The number of open productions.
+         */
+        private int depth = 0;
+
+        /**
+         * Creates a new compact tree builder.
+         *
+         * @param parser         the parser used
+         */
+        public Builder(Parser parser) {
+            this.parser = parser;
+        }
+
+        /**
+         * Returns the compact tree built.
+         *
+         * @return the compact tree built
+         */
+        public CompactTree getTree() {
+            return tree;
+        }
+
+        /**
+         * Called when the parser enters a production.
+         *
+         * @param id             the production pattern id
+         */
+        public void enter(int id) {
+            int  index = add(tree.addProduction(parser.getPattern(id),
+                                                currentParent(),
+                                                currentLast()));
+
+            if (depth >= open.length) {
+                open = copyOf(open, depth * 2);
+                last = copyOf(last, depth * 2);
+            }
+            open[depth] = index;
+            last[depth] = -1;
+            depth++;
+        }
+
+        /**
+         * Called when the parser exits a production.
+         *
+         * @param id             the production pattern id
+         */
+        public void exit(int id) {
+            depth--;
+        }
+
+        /**
+         * Called when the parser has read a token.
+         *
+         * @param token          the token read
+         */
+        public void token(Token token) {
+            add(tree.addToken(token, currentParent(), currentLast()));
+        }
+
+        /**
+         * Registers a new node as the last child of the current
+         * production.
+         *
+         * @param index          the new node index
+         *
+         * @return the new node index
+         */
+        private int add(int index) {
+            if (depth > 0) {
+                last[depth - 1] = index;
+            }
+            return index;
+        }
+
+        /**
+         * Returns the current production node index.
+         *
+         * @return the current production node index, or
+         *         -1 if no production is open
+         */
+        private int currentParent() {
+            return (depth > 0) ? open[depth - 1] : -1;
+        }
+
+        /**
+         * Returns the last child node index of the current
+         * production.
+         *
+         * @return the last child node index, or
+         *         -1 if not available
+         */
+        private int currentLast() {
+            return (depth > 0) ? last[depth - 1] : -1;
+        }
+    }
+
+
+    /**
+     * A production node view. This class provides a Production
+     * object for a production node in a compact tree.
+     *
+     * @author   Per Cederberg
+     * @version  1.7
+     * @since    1.7
+     */
+    private static class ProductionView extends Production {
+
+        /**
+         * The compact tree.
+         */
+        private CompactTree tree;
+
+        /**
+         * The node index.
+         */
+        private int index;
+
+        /**
+         * The position of the last child node returned. This is
+         * used to speed up sequential child access.
+         */
+        private int lastPos = -1;
+
+        /**
+         * The node index of the last child node returned.
+         */
+        private int lastChild = -1;
+
+        /**
+         * Creates a new production node view.
+         *
+         * @param tree           the compact tree
+         * @param index          the node index
+         */
+        public ProductionView(CompactTree tree, int index) {
+            super((ProductionPattern) tree.patterns.get(
+                      Integer.valueOf(tree.ids[index])));
+            this.tree = tree;
+            this.index = index;
+        }
+
+        /**
+         * Returns the parent node.
+         *
+         * @return the parent parse tree node
+         */
+        public Node getParent() {
+            return tree.getNode(tree.parents[index]);
+        }
+
+        /**
+         * Returns the number of child nodes.
+         *
+         * @return the number of child nodes
+         */
+        public int getChildCount() {
+            return tree.childCounts[index];
+        }
+
+        /**
+         * Returns the child node with the specified index.
+         *
+         * @param pos            the child index, starting at 0
+         *
+         * @return the child node found, or
+         *         null if index out of bounds
+         */
+        public Node getChildAt(int pos) {
+            int  child = tree.firstChildren[index];
+            int  i = 0;
+
+            if (pos < 0 || pos >= getChildCount()) {
+                return null;
+            }
+            if (lastPos >= 0 && lastPos <= pos) {
+                child = lastChild;
+                i = lastPos;
+            }
+            for (; i < pos; i++) {
+                child = tree.nextSiblings[child];
+            }
+            lastPos = pos;
+            lastChild = child;
+            return tree.getNode(child);
+        }
+
+        /**
+         * Adds a child node. This operation is not supported by
+         * node views.
+         *
+         * @param child          the child node to add
+         *
+         * @throws UnsupportedOperationException always thrown by
+         *             this method
+         */
+        public void addChild(Node child)
+            throws UnsupportedOperationException {
+
+            throw new UnsupportedOperationException(
+                "cannot add child to compact tree node");
+        }
+    }
+
+
+    /**
+     * A token node view. This class provides a Token object for a
+     * token node in a compact tree.
+     *
+     * @author   Per Cederberg
+     * @version  1.7
+     * @since    1.7
+     */
+    private static class TokenView extends Token {
+
+        /**
+         * The compact tree.
+         */
+        private CompactTree tree;
+
+        /**
+         * The node index.
+         */
+        private int index;
+
+        /**
+         * Creates a new token node view.
+         *
+         * @param tree           the compact tree
+         * @param index          the node index
+         */
+        public TokenView(CompactTree tree, int index) {
+            super((TokenPattern) tree.patterns.get(
+                      Integer.valueOf(tree.ids[index])),
+                  tree.getImage(index),
+                  tree.lines[index],
+                  tree.columns[index]);
+            this.tree = tree;
+            this.index = index;
+        }
+
+        /**
+         * Returns the parent node.
+         *
+         * @return the parent parse tree node
+         */
+        public Node getParent() {
+            return tree.getNode(tree.parents[index]);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * KeywordTable.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A keyword lookup table. This class maps string token patterns to
+ * their literal text, so that keywords can be resolved by a single
+ * hash lookup on the characters already matched by another token
+ * pattern (typically an identifier). The table is an open addressing
+ * hash table, where the hash seed and table size are chosen when
+ * compiling, so that all keywords are found on the first probe if
+ * possible.<p>
+ *
+ * In case-insensitive mode only ASCII keywords can be added. Input
+ * characters are folded to lower case with the Unicode rules, so
+ * that case variants such as the Kelvin sign still find the ASCII
+ * keywords matched by the token automaton.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+class KeywordTable {
+
+    /**
+     * The maximum number of hash seeds to try for each table size.
+     */
+    private static final int MAX_SEEDS = 32;
+
+    /**
+     * The ignore character case flag.
+     */
+    private boolean ignoreCase;
+
+    /**
+     * The list of keyword strings added. This list is only used
+     * before compilation.
+     */
+    private ArrayList names = new ArrayList();
+
+    /**
+     * The list of keyword token patterns added. This list is only
+     * used before compilation.
+     */
+    private ArrayList patterns = new ArrayList();
+
+    /**
+     * The hash table keyword characters, or null for empty slots.
+     */
+    private char[][] keys = new char[0][];
+
+    /**
+     * The hash table keyword token patterns, indexed as the keys.
+     */
+    private TokenPattern[] values = new TokenPattern[0];
+
+    /**
+     * The hash seed used.
+     */
+    private int seed = 0;
+
+    /**
+     * The shortest keyword length.
+     */
+    private int minLength = Integer.MAX_VALUE;
+
+    /**
+     * The longest keyword length.
+     */
+    private int maxLength = 0;
+
+    /**
+     * Creates a new empty keyword table.
+     *
+     * @param ignoreCase     the character case ignore flag
+     */
+    public KeywordTable(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Returns the number of keywords added.
+     *
+     * @return the number of keywords added
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Checks if a string can be added as a keyword. In
+     * case-insensitive mode, only ASCII strings are supported.
+     *
+     * @param str            the keyword string
+     *
+     * @return true if the string can be added, or
+     *         false otherwise
+     */
+    public boolean isSupported(String str) {
+        if (str.length() == 0) {
+            return false;
+        }
+        for (int i = 0; ignoreCase && i < str.length(); i++) {
+            if (str.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a keyword to the table. If the same keyword has already
+     * been added, the token pattern with the lowest id is kept.
+     *
+     * @param str            the keyword string
+     * @param pattern        the keyword token pattern
+     */
+    public void add(String str, TokenPattern pattern) {
+        names.add(str);
+        patterns.add(pattern);
+        minLength = Math.min(minLength, str.length());
+        maxLength = Math.max(maxLength, str.length());
+    }
+
+    /**
+     * Compiles the hash table. The table size and hash seed will be
+     * chosen to avoid collisions if possible. This method must be
+     * called before searching the table.
+     */
+    public void compile() {
+        int  size = 16;
+
+        while (size < names.size() * 2) {
+            size *= 2;
+        }
+        while (!findSeed(size) && size < names.size() * 64) {
+            size *= 2;
+        }
+        keys = new char[size][];
+        values = new TokenPattern[size];
+        for (int i = 0; i < names.size(); i++) {
+            insert(((String) names.get(i)).toCharArray(),
+                   (TokenPattern) patterns.get(i));
+        }
+    }
+
+    /**
+     * Searches for a keyword matching the start of the input buffer.
+     * The characters must already have been read into the buffer.
+     *
+     * @param buffer         the input buffer
+     * @param length         the number of characters to check
+     *
+     * @return the keyword token pattern found, or
+     *         null if not found
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    public TokenPattern find(ReaderBuffer buffer, int length)
+        throws IOException {
+
+        int     mask = keys.length - 1;
+        int     pos;
+        char[]  key;
+
+        if (length < minLength || length > maxLength) {
+            return null;
+        }
+        pos = hash(buffer, length) & mask;
+        for (; (key = keys[pos]) != null; pos = (pos + 1) & mask) {
+            if (equals(key, buffer, length)) {
+                return values[pos];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Searches for a hash seed without any collisions for a table
+     * size. If no such seed was found, the last seed tried is kept.
+     *
+     * @param size           the table size (a power of two)
+     *
+     * @return true if a seed without collisions was found, or
+     *         false otherwise
+     */
+    private boolean findSeed(int size) {
+        boolean  found;
+
+        for (seed = 1; seed <= MAX_SEEDS; seed++) {
+            keys = new char[size][];
+            values = new TokenPattern[size];
+            found = true;
+            for (int i = 0; found && i < names.size(); i++) {
+                found = insert(((String) names.get(i)).toCharArray(), null);
+            }
+            if (found) {
+                return true;
+            }
+        }
+        seed = MAX_SEEDS;
+        return false;
+    }
+
+    /**
+     * Inserts a keyword into the hash table. If the keyword is
+     * already present, the token pattern with the lowest id is
+     * kept.
+     *
+     * @param key            the keyword characters
+     * @param pattern        the keyword token pattern, or null
+     *
+     * @return true if the keyword was found or inserted on the
+     *         first probe, or false otherwise
+     */
+    private boolean insert(char[] key, TokenPattern pattern) {
+        int      mask = keys.length - 1;
+        int      pos = hash(key) & mask;
+        boolean  first = true;
+
+        while (keys[pos] != null) {
+            if (equals(keys[pos], key)) {
+                if (pattern != null &&
+                    values[pos].getId() > pattern.getId()) {
+
+                    values[pos] = pattern;
+                }
+                return first;
+            }
+            pos = (pos + 1) & mask;
+            first = false;
+        }
+        keys[pos] = key;
+        values[pos] = pattern;
+        return first;
+    }
+
+    /**
+     * Calculates the hash code for a keyword.
+     *
+     * @param key            the keyword characters
+     *
+     * @return the hash code
+     */
+    private int hash(char[] key) {
+        int  h = seed;
+
+        for (int i = 0; i < key.length; i++) {
+            h = (h ^ fold(key[i])) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Calculates the hash code for the start of an input buffer.
+     * This method returns the same hash code as for an equal
+     * keyword.
+     *
+     * @param buffer         the input buffer
+     * @param length         the number of characters to use
+     *
+     * @return the hash code
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private int hash(ReaderBuffer buffer, int length) throws IOException {
+        int  h = seed;
+
+        for (int i = 0; i < length; i++) {
+            h = (h ^ fold((char) buffer.peek(i))) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Checks if two keywords are equal.
+     *
+     * @param key            the first keyword characters
+     * @param other          the second keyword characters
+     *
+     * @return true if the keywords are equal, or
+     *         false otherwise
+     */
+    private boolean equals(char[] key, char[] other) {
+        if (key.length != other.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (fold(key[i]) != fold(other[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a keyword is equal to the start of an input buffer.
+     *
+     * @param key            the keyword characters
+     * @param buffer         the input buffer
+     * @param length         the number of characters to compare
+     *
+     * @return true if the keyword is equal, or
+     *         false otherwise
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private boolean equals(char[] key, ReaderBuffer buffer, int length)
+        throws IOException {
+
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (fold(key[i]) != fold((char) buffer.peek(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Folds a character for comparison. In case-insensitive mode,
+     * characters are converted to lower case in the same way as
+     * the token automaton compares them.
+     *
+     * @param c              the character to fold
+     *
+     * @return the folded character
+     */
+    private char fold(char c) {
+        if (!ignoreCase || c < 'A') {
+            return c;
+        } else if (c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        } else if (c < 128) {
+            return c;
+        } else {
+            return Character.toLowerCase(c);
+        }
+    }
+}
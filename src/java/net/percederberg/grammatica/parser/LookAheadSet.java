@@ -15,6 +15,8 @@
 package net.percederberg.grammatica.parser;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * A token look-ahead set. This class contains a set of token id
@@ -28,17 +30,43 @@ import java.util.ArrayList;
  * conflicting sequences can be repeated (would cause infinite loop).
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 class LookAheadSet {
 
     /**
-     * The set of token look-ahead sequences. Each sequence in
-     * turn is represented by an ArrayList with Integers for the
-     * token id:s.
+     * The set of token look-ahead sequences. The sequences are kept
+     * in insertion order.
      */
     private ArrayList elements = new ArrayList();
 
+    /**
+     * The token sequence index. This map contains all the sequences
+     * in the set, mapped to themselves. It is used for fast lookups
+     * of identical sequences.
+     *
+     * @since 1.7
+     */
+    private HashMap index = new HashMap();
+
+    /**
+     * The set of proper prefixes of the token sequences. This set
+     * is created on demand when checking for overlaps, and is reset
+     * whenever the set is modified.
+     *
+     * @since 1.7
+     */
+    private HashSet prefixes = null;
+
+    /**
+     * The compiled look-ahead trie. This trie is created by compile()
+     * when the parser is prepared, and is reset whenever the set is
+     * modified.
+     *
+     * @since 1.7
+     */
+    private LookAheadTrie trie = null;
+
     /**
      * The maximum length of any look-ahead sequence.
      */
@@ -66,6 +94,41 @@ class LookAheadSet {
         addAll(set);
     }
 
+    /**
+     * Creates a look-ahead set from an encoded data array. The data
+     * must have been created by the writeData() method. The maximum
+     * length will be set to the length of the longest token
+     * sequence in the data.
+     *
+     * @param data           the encoded look-ahead data
+     * @param pos            the start position in the data array
+     *
+     * @see #writeData(ArrayList)
+     *
+     * @since 1.7
+     */
+    LookAheadSet(int[] data, int pos) {
+        int      count = data[pos++];
+        int      length;
+        boolean  repeat;
+        int[]    tokens;
+
+        for (int i = 0; i < count; i++) {
+            length = data[pos++];
+            repeat = (length < 0);
+            if (repeat) {
+                length = -length - 1;
+            }
+            tokens = new int[length];
+            System.arraycopy(data, pos, tokens, 0, length);
+            pos += length;
+            if (length > maxLength) {
+                maxLength = length;
+            }
+            add(new Sequence(repeat, tokens, length));
+        }
+    }
+
     /**
      * Checks if this look-ahead set is empty.
      *
@@ -123,22 +186,25 @@ class LookAheadSet {
      * @return a list of the inital token id:s in this look-ahead set
      */
     public int[] getInitialTokens() {
-        ArrayList  list = new ArrayList();
-        int[]      result;
-        Integer    token;
-        int        i;
+        HashSet   found = new HashSet();
+        int[]     result = new int[elements.size()];
+        int       count = 0;
+        Sequence  seq;
+        int[]     copy;
+        int       token;
 
-        for (i = 0; i < elements.size(); i++) {
-            token = ((Sequence) elements.get(i)).getToken(0);
-            if (token != null && !list.contains(token)) {
-                list.add(token);
+        for (int i = 0; i < elements.size(); i++) {
+            seq = (Sequence) elements.get(i);
+            if (seq.length() > 0) {
+                token = seq.getToken(0);
+                if (found.add(Integer.valueOf(token))) {
+                    result[count++] = token;
+                }
             }
         }
-        result = new int[list.size()];
-        for (i = 0; i < list.size(); i++) {
-            result[i] = ((Integer) list.get(i)).intValue();
-        }
-        return result;
+        copy = new int[count];
+        System.arraycopy(result, 0, copy, 0, count);
+        return copy;
     }
 
     /**
@@ -170,15 +236,12 @@ class LookAheadSet {
      *         false otherwise
      */
     public boolean isNext(Parser parser) {
-        Sequence  seq;
+        LookAheadTrie  current = trie;
 
-        for (int i = 0; i < elements.size(); i++) {
-            seq = (Sequence) elements.get(i);
-            if (seq.isNext(parser)) {
-                return true;
-            }
+        if (current == null) {
+            current = createTrie();
         }
-        return false;
+        return current.find(parser) >= 0;
     }
 
     /**
@@ -229,7 +292,9 @@ class LookAheadSet {
      * Checks if a token sequence is overlapping. An overlapping token
      * sequence is a token sequence that is identical to another
      * sequence, but for the length. I.e. one of the two sequences may
-     * be longer than the other.
+     * be longer than the other. This check is performed with hash
+     * lookups for each prefix of the sequence, and in the set of
+     * prefixes of the sequences in this set.
      *
      * @param seq            the token sequence to check
      *
@@ -239,15 +304,41 @@ class LookAheadSet {
      * @since 1.5
      */
     private boolean hasOverlap(Sequence seq) {
-        Sequence  elem;
-
-        for (int i = 0; i < elements.size(); i++) {
-            elem = (Sequence) elements.get(i);
-            if (seq.startsWith(elem) || elem.startsWith(seq)) {
+        if (elements.size() == 0) {
+            return false;
+        }
+        for (int i = 0; i <= seq.length(); i++) {
+            if (index.containsKey(seq.prefix(i))) {
                 return true;
             }
         }
-        return false;
+        return getPrefixes().contains(seq);
+    }
+
+    /**
+     * Returns the set of proper prefixes of the token sequences in
+     * this set. The prefix set is created on the first call and kept
+     * until this set is modified.
+     *
+     * @return the set of proper token sequence prefixes
+     *
+     * @since 1.7
+     */
+    private HashSet getPrefixes() {
+        Sequence  seq;
+
+        if (prefixes == null) {
+            prefixes = new HashSet();
+            for (int i = 0; i < elements.size(); i++) {
+                seq = (Sequence) elements.get(i);
+                for (int j = seq.length() - 1; j >= 0; j--) {
+                    if (!prefixes.add(seq.prefix(j))) {
+                        break;
+                    }
+                }
+            }
+        }
+        return prefixes;
     }
 
     /**
@@ -292,12 +383,7 @@ class LookAheadSet {
      *         null if not found
      */
     private Sequence findSequence(Sequence elem) {
-        for (int i = 0; i < elements.size(); i++) {
-            if (elements.get(i).equals(elem)) {
-                return (Sequence) elements.get(i);
-            }
-        }
-        return null;
+        return (Sequence) index.get(elem);
     }
 
     /**
@@ -314,6 +400,9 @@ class LookAheadSet {
         }
         if (!contains(seq)) {
             elements.add(seq);
+            index.put(seq, seq);
+            prefixes = null;
+            trie = null;
         }
     }
 
@@ -353,7 +442,11 @@ class LookAheadSet {
      * @param seq            the token sequence to remove
      */
     private void remove(Sequence seq) {
-        elements.remove(seq);
+        if (index.remove(seq) != null) {
+            elements.remove(seq);
+            prefixes = null;
+            trie = null;
+        }
     }
 
     /**
@@ -381,12 +474,10 @@ class LookAheadSet {
     public LookAheadSet createNextSet(int token) {
         LookAheadSet  result = new LookAheadSet(maxLength - 1);
         Sequence      seq;
-        Integer       value;
 
         for (int i = 0; i < elements.size(); i++) {
             seq = (Sequence) elements.get(i);
-            value = seq.getToken(0);
-            if (value != null && value.intValue() == token) {
+            if (seq.length() > 0 && seq.getToken(0) == token) {
                 result.add(seq.subsequence(1));
             }
         }
@@ -485,7 +576,10 @@ class LookAheadSet {
     /**
      * Creates a new look-ahead set filter. The filter will contain
      * all sequences from this set, possibly left trimmed by each one
-     * of the sequences in the specified set.
+     * of the sequences in the specified set. Each prefix of the
+     * sequences in this set is looked up in the specified set. If
+     * several prefixes match, the trimmed sequences are added in the
+     * order of the specified set.
      *
      * @param set            the look-ahead set to trim with
      *
@@ -495,6 +589,8 @@ class LookAheadSet {
         LookAheadSet  result = new LookAheadSet(maxLength);
         Sequence      first;
         Sequence      second;
+        int           matches;
+        int           length = 0;
 
         // Handle special cases
         if (this.isEmpty() || set.isEmpty()) {
@@ -504,10 +600,21 @@ class LookAheadSet {
         // Create combinations
         for (int i = 0; i < elements.size(); i++) {
             first = (Sequence) elements.get(i);
-            for (int j = 0; j < set.elements.size(); j++) {
-                second = (Sequence) set.elements.get(j);
-                if (first.startsWith(second)) {
-                    result.add(first.subsequence(second.length()));
+            matches = 0;
+            for (int j = 0; j <= first.length(); j++) {
+                if (set.contains(first.prefix(j))) {
+                    matches++;
+                    length = j;
+                }
+            }
+            if (matches == 1) {
+                result.add(first.subsequence(length));
+            } else if (matches > 1) {
+                for (int j = 0; j < set.elements.size(); j++) {
+                    second = (Sequence) set.elements.get(j);
+                    if (first.startsWith(second)) {
+                        result.add(first.subsequence(second.length()));
+                    }
                 }
             }
         }
@@ -535,6 +642,78 @@ class LookAheadSet {
         return result;
     }
 
+    /**
+     * Compiles the look-ahead trie for this set. The trie will be
+     * used by isNext() until the set is modified. Without it, each
+     * call to isNext() creates a temporary trie instead.
+     *
+     * @see #isNext(Parser)
+     *
+     * @since 1.7
+     */
+    void compile() {
+        if (trie == null) {
+            trie = createTrie();
+        }
+    }
+
+    /**
+     * Creates a compiled look-ahead trie for this set.
+     *
+     * @return the compiled look-ahead trie
+     */
+    private LookAheadTrie createTrie() {
+        LookAheadTrie  result = new LookAheadTrie();
+
+        result.add(this, 0);
+        result.compile();
+        return result;
+    }
+
+    /**
+     * Adds all the token sequences in this set to a look-ahead trie.
+     *
+     * @param trie           the look-ahead trie to add to
+     * @param rank           the value rank for the sequences
+     *
+     * @since 1.7
+     */
+    void addTo(LookAheadTrie trie, int rank) {
+        Sequence  seq;
+
+        for (int i = 0; i < elements.size(); i++) {
+            seq = (Sequence) elements.get(i);
+            trie.add(seq.tokens, seq.length, rank);
+        }
+    }
+
+    /**
+     * Encodes this set as a series of integer values. The number of
+     * token sequences is written first, followed by the length and
+     * the token ids of each sequence. Repetitive sequences are
+     * written with a negative length value (-length - 1).
+     *
+     * @param data           the list of Integer values to add to
+     *
+     * @since 1.7
+     */
+    void writeData(ArrayList data) {
+        Sequence  seq;
+
+        data.add(Integer.valueOf(elements.size()));
+        for (int i = 0; i < elements.size(); i++) {
+            seq = (Sequence) elements.get(i);
+            if (seq.isRepetitive()) {
+                data.add(Integer.valueOf(-seq.length() - 1));
+            } else {
+                data.add(Integer.valueOf(seq.length()));
+            }
+            for (int j = 0; j < seq.length(); j++) {
+                data.add(Integer.valueOf(seq.getToken(j)));
+            }
+        }
+    }
+
     /**
      * Returns a string representation of this object.
      *
@@ -567,14 +746,22 @@ class LookAheadSet {
 
 
     /**
-     * A token sequence. This class contains a list of token ids. It
+     * A token sequence. This class contains an array of token ids. It
      * is immutable after creation, meaning that no changes will be
-     * made to an instance after creation.
+     * made to an instance after creation. The token array may be
+     * shared between several sequences, as a sequence may only use
+     * the first part of the array. The hash code is computed on
+     * creation, since sequences are mostly used as hash keys.
      *
      * @author   Per Cederberg
-     * @version  1.0
+     * @version  1.7
      */
-    private class Sequence {
+    private static class Sequence {
+
+        /**
+         * The empty token array.
+         */
+        private static final int[] EMPTY = new int[0];
 
         /**
          * The repeat flag. If this flag is set, the token sequence
@@ -583,17 +770,27 @@ class LookAheadSet {
         private boolean repeat = false;
 
         /**
-         * The list of token ids in this sequence.
+         * The array of token ids in this sequence. Only the first
+         * elements in the array, up to the sequence length, are used.
          */
-        private ArrayList tokens = null;
+        private int[] tokens;
+
+        /**
+         * The number of tokens in this sequence.
+         */
+        private int length;
+
+        /**
+         * The precomputed hash code.
+         */
+        private int hash;
 
         /**
          * Creates a new empty token sequence. The repeat flag will be
          * set to false.
          */
         public Sequence() {
-            this.repeat = false;
-            this.tokens = new ArrayList(0);
+            this(false, EMPTY, 0);
         }
 
         /**
@@ -603,9 +800,7 @@ class LookAheadSet {
          * @param token          the token to add
          */
         public Sequence(boolean repeat, int token) {
-            this.repeat = false;
-            this.tokens = new ArrayList(1);
-            this.tokens.add(Integer.valueOf(token));
+            this(false, new int[] { token }, 1);
         }
 
         /**
@@ -618,14 +813,7 @@ class LookAheadSet {
          * @param seq            the sequence to copy
          */
         public Sequence(int length, Sequence seq) {
-            this.repeat = seq.repeat;
-            this.tokens = new ArrayList(length);
-            if (seq.length() < length) {
-                length = seq.length();
-            }
-            for (int i = 0; i < length; i++) {
-                tokens.add(seq.tokens.get(i));
-            }
+            this(seq.repeat, seq.tokens, Math.min(length, seq.length));
         }
 
         /**
@@ -639,6 +827,28 @@ class LookAheadSet {
         public Sequence(boolean repeat, Sequence seq) {
             this.repeat = repeat;
             this.tokens = seq.tokens;
+            this.length = seq.length;
+            this.hash = seq.hash;
+        }
+
+        /**
+         * Creates a new token sequence from a token array. The array
+         * will not be copied, and must not be modified afterwards.
+         *
+         * @param repeat         the repeat flag value
+         * @param tokens         the token id array
+         * @param length         the number of tokens to use
+         *
+         * @since 1.7
+         */
+        public Sequence(boolean repeat, int[] tokens, int length) {
+            this.repeat = repeat;
+            this.tokens = tokens;
+            this.length = length;
+            this.hash = 1;
+            for (int i = 0; i < length; i++) {
+                this.hash = 31 * this.hash + tokens[i];
+            }
         }
 
         /**
@@ -647,22 +857,19 @@ class LookAheadSet {
          * @return the number of tokens in the sequence
          */
         public int length() {
-            return tokens.size();
+            return length;
         }
 
         /**
          * Returns a token at a specified position in the sequence.
+         * The position must be less than the sequence length.
          *
          * @param pos            the sequence position
          *
-         * @return the token id found, or null
+         * @return the token id found
          */
-        public Integer getToken(int pos) {
-            if (pos >= 0 && pos < tokens.size()) {
-                return (Integer) tokens.get(pos);
-            } else {
-                return null;
-            }
+        public int getToken(int pos) {
+            return tokens[pos];
         }
 
         /**
@@ -676,11 +883,21 @@ class LookAheadSet {
          *         false otherwise
          */
         public boolean equals(Object obj) {
-            if (obj instanceof Sequence) {
-                return tokens.equals(((Sequence) obj).tokens);
-            } else {
+            Sequence  seq;
+
+            if (!(obj instanceof Sequence)) {
                 return false;
             }
+            seq = (Sequence) obj;
+            if (hash != seq.hash || length != seq.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (tokens[i] != seq.tokens[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         /**
@@ -689,7 +906,7 @@ class LookAheadSet {
          * @return a hash code for this object
          */
         public int hashCode() {
-            return this.tokens.hashCode();
+            return hash;
         }
 
         /**
@@ -703,11 +920,11 @@ class LookAheadSet {
          *         false otherwise
          */
         public boolean startsWith(Sequence seq) {
-            if (length() < seq.length()) {
+            if (length < seq.length) {
                 return false;
             }
-            for (int i = 0; i < seq.tokens.size(); i++) {
-                if (!tokens.get(i).equals(seq.tokens.get(i))) {
+            for (int i = 0; i < seq.length; i++) {
+                if (tokens[i] != seq.tokens[i]) {
                     return false;
                 }
             }
@@ -725,29 +942,6 @@ class LookAheadSet {
             return repeat;
         }
 
-        /**
-         * Checks if the next token(s) in the parser matches this
-         * token sequence.
-         *
-         * @param parser         the parser to check
-         *
-         * @return true if the next tokens are in the sequence, or
-         *         false otherwise
-         */
-        public boolean isNext(Parser parser) {
-            Token    token;
-            Integer  id;
-
-            for (int i = 0; i < tokens.size(); i++) {
-                id = (Integer) tokens.get(i);
-                token = parser.peekToken(i);
-                if (token == null || token.getId() != id.intValue()) {
-                    return false;
-                }
-            }
-            return true;
-        }
-
         /**
          * Checks if the next token(s) in the parser matches this
          * token sequence.
@@ -759,16 +953,14 @@ class LookAheadSet {
          *         false otherwise
          */
         public boolean isNext(Parser parser, int length) {
-            Token    token;
-            Integer  id;
+            Token  token;
 
-            if (length > tokens.size()) {
-                length = tokens.size();
+            if (length > this.length) {
+                length = this.length;
             }
             for (int i = 0; i < length; i++) {
-                id = (Integer) tokens.get(i);
                 token = parser.peekToken(i);
-                if (token == null || token.getId() != id.intValue()) {
+                if (token == null || token.getId() != tokens[i]) {
                     return false;
                 }
             }
@@ -793,23 +985,18 @@ class LookAheadSet {
          */
         public String toString(Tokenizer tokenizer) {
             StringBuffer  buffer = new StringBuffer();
-            String        str;
-            Integer       id;
 
-            if (tokenizer == null) {
-                buffer.append(tokens.toString());
-            } else {
-                buffer.append("[");
-                for (int i = 0; i < tokens.size(); i++) {
-                    id = (Integer) tokens.get(i);
-                    str = tokenizer.getPatternDescription(id.intValue());
-                    if (i > 0) {
-                        buffer.append(" ");
-                    }
-                    buffer.append(str);
+            buffer.append("[");
+            for (int i = 0; i < length; i++) {
+                if (tokenizer == null) {
+                    buffer.append(i > 0 ? ", " : "");
+                    buffer.append(tokens[i]);
+                } else {
+                    buffer.append(i > 0 ? " " : "");
+                    buffer.append(tokenizer.getPatternDescription(tokens[i]));
                 }
-                buffer.append("]");
             }
+            buffer.append("]");
             if (repeat) {
                 buffer.append(" *");
             }
@@ -827,20 +1014,36 @@ class LookAheadSet {
          * @return the concatenated token sequence
          */
         public Sequence concat(int length, Sequence seq) {
-            Sequence  res = new Sequence(length, this);
+            int    first = Math.min(length, this.length);
+            int    second = Math.min(length - this.length, seq.length);
+            int[]  res;
 
-            if (seq.repeat) {
-                res.repeat = true;
+            if (second < 0) {
+                second = 0;
             }
-            length -= this.length();
-            if (length > seq.length()) {
-                res.tokens.addAll(seq.tokens);
-            } else {
-                for (int i = 0; i < length; i++) {
-                    res.tokens.add(seq.tokens.get(i));
-                }
+            res = new int[first + second];
+
+            System.arraycopy(tokens, 0, res, 0, first);
+            System.arraycopy(seq.tokens, 0, res, first, second);
+            return new Sequence(repeat || seq.repeat, res, res.length);
+        }
+
+        /**
+         * Creates a new token sequence that is a prefix of this one.
+         * The token array will be shared with this sequence, and the
+         * repeat flag will be kept intact.
+         *
+         * @param length         the prefix length
+         *
+         * @return the new token sequence prefix
+         *
+         * @since 1.7
+         */
+        public Sequence prefix(int length) {
+            if (length >= this.length) {
+                return this;
             }
-            return res;
+            return new Sequence(repeat, tokens, length);
         }
 
         /**
@@ -852,13 +1055,11 @@ class LookAheadSet {
          * @return the new token subsequence
          */
         public Sequence subsequence(int start) {
-            Sequence  res = new Sequence(length(), this);
+            int    len = Math.max(0, length - start);
+            int[]  res = new int[len];
 
-            while (start > 0 && res.tokens.size() > 0) {
-                res.tokens.remove(0);
-                start--;
-            }
-            return res;
+            System.arraycopy(tokens, length - len, res, 0, len);
+            return new Sequence(repeat, res, len);
         }
     }
 }
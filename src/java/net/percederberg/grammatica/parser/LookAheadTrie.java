@@ -0,0 +1,290 @@
+/*
+ * LookAheadTrie.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A compiled token look-ahead decision. This class contains a trie
+ * with the token sequences from one or more look-ahead sets, each
+ * set mapped to a value. The value of the first added set with a
+ * sequence matching the next tokens in the parser can thereby be
+ * found by reading at most one token per trie level. Each trie node
+ * indexes its children with a table of token ids, making single
+ * token (LL(1)) decisions a single array lookup.<p>
+ *
+ * The trie must be compiled before searching, after which no more
+ * look-ahead sets may be added. A compiled trie is never modified,
+ * so it can be searched by several parsers at once.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+class LookAheadTrie {
+
+    /**
+     * The maximum token id range for a direct child table. Larger
+     * token id ranges will use a sorted array with binary search
+     * instead, unless the table would be densely populated anyway.
+     */
+    private static final int MAX_TABLE_SIZE = 256;
+
+    /**
+     * The trie root node.
+     */
+    private Node root = new Node();
+
+    /**
+     * The list of values added. The list index is the rank of the
+     * value, i.e. lower indices have priority over higher ones.
+     */
+    private ArrayList values = new ArrayList();
+
+    /**
+     * The compiled flag.
+     */
+    private boolean compiled = false;
+
+    /**
+     * Creates a new empty look-ahead trie.
+     */
+    public LookAheadTrie() {
+        // Nothing to initialize
+    }
+
+    /**
+     * Adds all token sequences from a look-ahead set. If a sequence
+     * is already present in the trie, the value from the previous
+     * set will have precedence.
+     *
+     * @param set            the look-ahead set to add
+     * @param value          the value for the look-ahead set
+     *
+     * @throws IllegalStateException if the trie has been compiled
+     */
+    public void add(LookAheadSet set, int value)
+        throws IllegalStateException {
+
+        if (compiled) {
+            throw new IllegalStateException(
+                "cannot add to compiled look-ahead trie");
+        }
+        set.addTo(this, values.size());
+        values.add(Integer.valueOf(value));
+    }
+
+    /**
+     * Adds a token sequence to the trie.
+     *
+     * @param tokens         the token id array
+     * @param length         the number of tokens in the sequence
+     * @param rank           the value rank
+     */
+    void add(int[] tokens, int length, int rank) {
+        Node  node = root;
+
+        for (int i = 0; i < length; i++) {
+            node = node.addChild(tokens[i]);
+        }
+        if (node.rank < 0 || rank < node.rank) {
+            node.rank = rank;
+        }
+    }
+
+    /**
+     * Compiles the trie. This converts all the trie nodes to lookup
+     * tables. Compiling a previously compiled trie has no effect.
+     */
+    public void compile() {
+        if (!compiled) {
+            root.compile(-1);
+            compiled = true;
+        }
+    }
+
+    /**
+     * Searches for the value matching the next tokens in a parser.
+     * The value of the first added look-ahead set containing a
+     * sequence matching the next tokens will be returned.
+     *
+     * @param parser         the parser to check
+     *
+     * @return the value found, or
+     *         -1 if no token sequence matched
+     *
+     * @throws IllegalStateException if the trie hasn't been compiled
+     */
+    public int find(Parser parser) throws IllegalStateException {
+        Node   node = root;
+        int    rank;
+        Token  token;
+
+        if (!compiled) {
+            throw new IllegalStateException(
+                "cannot search uncompiled look-ahead trie");
+        }
+        rank = node.rank;
+        for (int i = 0; node.keys != null; i++) {
+            token = parser.peekToken(i);
+            if (token == null) {
+                break;
+            }
+            node = node.findChild(token.getId());
+            if (node == null) {
+                break;
+            }
+            rank = node.rank;
+        }
+        if (rank < 0) {
+            return -1;
+        }
+        return ((Integer) values.get(rank)).intValue();
+    }
+
+
+    /**
+     * A look-ahead trie node. Each node corresponds to a sequence
+     * prefix, and contains the best rank of all sequences in the
+     * trie ending at or before this node.
+     *
+     * @author   Per Cederberg
+     * @version  1.7
+     * @since    1.7
+     */
+    private static class Node {
+
+        /**
+         * The value rank, or -1 if no sequence matches here.
+         */
+        private int rank = -1;
+
+        /**
+         * The child nodes map. This map is indexed by token id
+         * Integer values, and is only used before compilation.
+         */
+        private HashMap children = null;
+
+        /**
+         * The sorted array of child token ids, or null for a leaf
+         * node.
+         */
+        private int[] keys = null;
+
+        /**
+         * The child nodes array. This array is either parallel to
+         * the keys array, or indexed directly by the token id minus
+         * the first key value (if the table flag is set).
+         */
+        private Node[] nodes = null;
+
+        /**
+         * The direct table flag. This flag is set if the nodes array
+         * is indexed directly by token id.
+         */
+        private boolean table = false;
+
+        /**
+         * Adds a child node for a token id, unless already present.
+         *
+         * @param id             the token id
+         *
+         * @return the child node for the token id
+         */
+        public Node addChild(int id) {
+            Integer  key = Integer.valueOf(id);
+            Node     child;
+
+            if (children == null) {
+                children = new HashMap();
+            }
+            child = (Node) children.get(key);
+            if (child == null) {
+                child = new Node();
+                children.put(key, child);
+            }
+            return child;
+        }
+
+        /**
+         * Returns the child node for a token id.
+         *
+         * @param id             the token id
+         *
+         * @return the child node, or
+         *         null if not found
+         */
+        public Node findChild(int id) {
+            int  low = 0;
+            int  high = keys.length - 1;
+            int  mid;
+
+            if (table) {
+                id -= keys[0];
+                return (id >= 0 && id < nodes.length) ? nodes[id] : null;
+            }
+            while (low <= high) {
+                mid = (low + high) >>> 1;
+                if (keys[mid] < id) {
+                    low = mid + 1;
+                } else if (keys[mid] > id) {
+                    high = mid - 1;
+                } else {
+                    return nodes[mid];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Compiles this node and all child nodes. The child nodes
+         * map will be converted to arrays, and the best rank will be
+         * propagated to all the children.
+         *
+         * @param parentRank     the best rank of the parent node
+         */
+        public void compile(int parentRank) {
+            Iterator  iter;
+            Node      child;
+            int       size;
+            int       i;
+
+            if (rank < 0 || (parentRank >= 0 && parentRank < rank)) {
+                rank = parentRank;
+            }
+            if (children == null) {
+                return;
+            }
+            keys = new int[children.size()];
+            iter = children.keySet().iterator();
+            for (i = 0; iter.hasNext(); i++) {
+                keys[i] = ((Integer) iter.next()).intValue();
+            }
+            Arrays.sort(keys);
+            size = keys[keys.length - 1] - keys[0] + 1;
+            table = size <= MAX_TABLE_SIZE || size <= keys.length * 4;
+            nodes = new Node[table ? size : keys.length];
+            for (i = 0; i < keys.length; i++) {
+                child = (Node) children.get(Integer.valueOf(keys[i]));
+                child.compile(rank);
+                nodes[table ? keys[i] - keys[0] : i] = child;
+            }
+            children = null;
+        }
+    }
+}
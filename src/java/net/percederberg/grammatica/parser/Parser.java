@@ -14,7 +14,10 @@
 
 package net.percederberg.grammatica.parser;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -24,7 +27,7 @@ import java.util.HashMap;
  * interface, as well as token handling.
  *
  * @author   Per Cederberg
- * @version  1.6
+ * @version  1.7
  */
 public abstract class Parser {
 
@@ -55,10 +58,10 @@ public abstract class Parser {
     private HashMap patternIds = new HashMap();
 
     /**
-     * The list of buffered tokens. This list will contain tokens that
-     * have been read from the tokenizer, but not yet consumed.
+     * The queue of buffered tokens. This queue will contain tokens
+     * that have been read from the tokenizer, but not yet consumed.
      */
-    private ArrayList tokens = new ArrayList();
+    private TokenQueue tokens = new TokenQueue(256);
 
     /**
      * The error log. All parse errors will be added to this log as
@@ -77,6 +80,22 @@ public abstract class Parser {
      */
     private int errorRecovery = -1;
 
+    /**
+     * The streaming mode listener. This is only set while parsing
+     * in streaming mode, and is null otherwise.
+     */
+    private ParserListener listener = null;
+
+    /**
+     * The stack of production patterns entered in streaming mode.
+     */
+    private ProductionPattern[] listenerStack = new ProductionPattern[16];
+
+    /**
+     * The number of production patterns on the streaming mode stack.
+     */
+    private int listenerDepth = 0;
+
     /**
      * Creates a new parser.
      *
@@ -182,6 +201,37 @@ public abstract class Parser {
         return analyzer;
     }
 
+    /**
+     * Returns the retained token queue capacity.
+     *
+     * @return the retained token queue capacity
+     *
+     * @see #setTokenQueueLimit
+     *
+     * @since 1.7
+     */
+    public int getTokenQueueLimit() {
+        return tokens.getLimit();
+    }
+
+    /**
+     * Sets the retained token queue capacity. The parser keeps the
+     * tokens read for look-ahead in a circular buffer, which grows
+     * as needed for deep look-ahead. Once the look-ahead tokens have
+     * been consumed, the buffer is shrunk back to this capacity. The
+     * limit will be rounded up to a power of two, and is never less
+     * than 16 tokens. By default the limit is 256 tokens.
+     *
+     * @param limit          the new retained token queue capacity
+     *
+     * @see #getTokenQueueLimit
+     *
+     * @since 1.7
+     */
+    public void setTokenQueueLimit(int limit) {
+        tokens.setLimit(limit);
+    }
+
     /**
      * Sets the parser initialized flag. Normally this flag is set by
      * the prepare() method, but this method allows further
@@ -350,6 +400,49 @@ public abstract class Parser {
         this.analyzer = analyzer;
     }
 
+    /**
+     * Resets this parser for usage with another input file. The
+     * associated tokenizer and analyzer will also be reset. This
+     * method will clear all the internal state and the error log in
+     * the parser. The file will be memory-mapped by the tokenizer and
+     * must be encoded in UTF-8 (or ASCII).
+     *
+     * @param file           the new input file to read
+     *
+     * @throws IOException if the file couldn't be opened or read
+     *
+     * @see Tokenizer#reset(java.io.File)
+     * @see Analyzer#reset()
+     *
+     * @since 1.7
+     */
+    public void reset(File file) throws IOException {
+        this.tokenizer.reset(file);
+        this.analyzer.reset();
+    }
+
+    /**
+     * Resets this parser for usage with another input file. The
+     * associated tokenizer and analyzer will also be reset. This
+     * method will clear all the internal state and the error log in
+     * the parser. The file will be decoded with the specified
+     * character set.
+     *
+     * @param file           the new input file to read
+     * @param charset        the file character set
+     *
+     * @throws IOException if the file couldn't be opened or read
+     *
+     * @see Tokenizer#reset(java.io.File, java.nio.charset.Charset)
+     * @see Analyzer#reset()
+     *
+     * @since 1.7
+     */
+    public void reset(File file, Charset charset) throws IOException {
+        this.tokenizer.reset(file, charset);
+        this.analyzer.reset();
+    }
+
     /**
      * Parses the token stream and returns a parse tree. This method
      * will call prepare() if not previously called. It will also call
@@ -397,6 +490,68 @@ public abstract class Parser {
         return root;
     }
 
+    /**
+     * Parses the token stream in streaming mode. No parse tree will
+     * be created, and the analyzer will not be called. Instead all
+     * productions and tokens are reported to the specified listener
+     * as they are parsed, keeping the memory usage independent of
+     * the input size. Otherwise this method works as parse().
+     *
+     * @param listener       the parser event listener
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     * @throws ParserLogException if the input couldn't be parsed
+     *             correctly
+     *
+     * @see #parse()
+     *
+     * @since 1.7
+     */
+    public void parse(ParserListener listener)
+        throws ParserCreationException, ParserLogException {
+
+        this.listener = listener;
+        this.listenerDepth = 0;
+        try {
+            parse();
+        } finally {
+            this.listener = null;
+            while (listenerDepth > 0) {
+                listenerStack[--listenerDepth] = null;
+            }
+        }
+    }
+
+    /**
+     * Parses the token stream and returns a compact parse tree. The
+     * compact tree stores all nodes in primitive arrays, using much
+     * less memory than a normal parse tree. The parsing is performed
+     * in streaming mode, so the analyzer will not be called. It can
+     * instead be applied to the node views in the compact tree
+     * afterwards.
+     *
+     * @return the compact parse tree
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     * @throws ParserLogException if the input couldn't be parsed
+     *             correctly
+     *
+     * @see #parse(ParserListener)
+     * @see CompactTree#getRoot()
+     *
+     * @since 1.7
+     */
+    public CompactTree parseCompact()
+        throws ParserCreationException, ParserLogException {
+
+        CompactTree.Builder  builder = new CompactTree.Builder(this);
+
+        parse(builder);
+        return builder.getTree();
+    }
+
     /**
      * Parses the token stream and returns a parse tree.
      *
@@ -479,6 +634,88 @@ public abstract class Parser {
         return patterns;
     }
 
+    /**
+     * Checks if the parser is running in streaming mode. In
+     * streaming mode, no parse tree nodes should be created.
+     *
+     * @return true if the parser is in streaming mode, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    boolean isStreaming() {
+        return listener != null;
+    }
+
+    /**
+     * Handles the parser entering a production in streaming mode.
+     * This method calls the listener unless the production is
+     * synthetic. Note that this method will not call the listener if
+     * an error requiring recovery has occurred.
+     *
+     * @param pattern        the production pattern
+     *
+     * @since 1.7
+     */
+    void enterStream(ProductionPattern pattern) {
+        ProductionPattern[]  stack;
+
+        if (listenerDepth >= listenerStack.length) {
+            stack = new ProductionPattern[listenerStack.length * 2];
+            System.arraycopy(listenerStack, 0, stack, 0, listenerDepth);
+            listenerStack = stack;
+        }
+        listenerStack[listenerDepth++] = pattern;
+        if (!pattern.isSynthetic() && errorRecovery < 0) {
+            try {
+                listener.enter(pattern.getId());
+            } catch (ParseException e) {
+                addError(e, false);
+            }
+        }
+    }
+
+    /**
+     * Handles the parser leaving the current production in streaming
+     * mode. This method calls the listener unless the production is
+     * synthetic. Note that this method will not call the listener if
+     * an error requiring recovery has occurred.
+     *
+     * @since 1.7
+     */
+    void exitStream() {
+        ProductionPattern  pattern;
+
+        pattern = listenerStack[--listenerDepth];
+        listenerStack[listenerDepth] = null;
+        if (!pattern.isSynthetic() && errorRecovery < 0) {
+            try {
+                listener.exit(pattern.getId());
+            } catch (ParseException e) {
+                addError(e, false);
+            }
+        }
+    }
+
+    /**
+     * Handles the parser reading a token in streaming mode. This
+     * method calls the listener. Note that this method will not call
+     * the listener if an error requiring recovery has occurred.
+     *
+     * @param token          the token read
+     *
+     * @since 1.7
+     */
+    void tokenStream(Token token) {
+        if (errorRecovery < 0) {
+            try {
+                listener.token(token);
+            } catch (ParseException e) {
+                addError(e, false);
+            }
+        }
+    }
+
     /**
      * Handles the parser entering a production. This method calls the
      * appropriate analyzer call-back if the node is not hidden. Note
@@ -559,7 +796,7 @@ public abstract class Parser {
         Token  token = peekToken(0);
 
         if (token != null) {
-            tokens.remove(0);
+            tokens.remove();
             return token;
         } else {
             throw new ParseException(
@@ -629,7 +866,7 @@ public abstract class Parser {
                 addError(e, true);
             }
         }
-        return (Token) tokens.get(steps);
+        return tokens.peek(steps);
     }
 
     /**
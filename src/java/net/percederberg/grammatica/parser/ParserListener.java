@@ -0,0 +1,69 @@
+/*
+ * ParserListener.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A parser event listener. This interface is used for parsing in
+ * streaming mode, where no parse tree is created. Instead the parser
+ * reports each production entered and exited, and each token read,
+ * in input order. The token events carry both the token id and the
+ * position in the input, so the span of a production is given by
+ * the first and last token reported between its enter and exit
+ * events.<p>
+ *
+ * As for the analyzer, no events are reported for synthetic
+ * productions (their contents are reported as part of the parent
+ * production). Once a parse error requiring recovery has been
+ * encountered, no more events will be reported.
+ *
+ * @see Parser#parse(ParserListener)
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public interface ParserListener {
+
+    /**
+     * Called when the parser enters a production.
+     *
+     * @param id             the production pattern id
+     *
+     * @throws ParseException if the event handling discovered
+     *             errors
+     */
+    void enter(int id) throws ParseException;
+
+    /**
+     * Called when the parser exits a production.
+     *
+     * @param id             the production pattern id
+     *
+     * @throws ParseException if the event handling discovered
+     *             errors
+     */
+    void exit(int id) throws ParseException;
+
+    /**
+     * Called when the parser has read a token. The token id and
+     * position is available from the token object.
+     *
+     * @param token          the token read
+     *
+     * @throws ParseException if the event handling discovered
+     *             errors
+     */
+    void token(Token token) throws ParseException;
+}
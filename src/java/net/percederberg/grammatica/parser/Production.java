@@ -23,7 +23,7 @@ import java.util.ArrayList;
  * patterns (i.e. grammar rules).
  *
  * @author   Per Cederberg
- * @version  1.1
+ * @version  1.7
  */
 public class Production extends Node {
 
@@ -37,6 +37,28 @@ public class Production extends Node {
      */
     private ArrayList children;
 
+    /**
+     * The first positioned descendant node. This is normally the
+     * first token in the production, and is used for the start line
+     * and column numbers.
+     */
+    private Node first = null;
+
+    /**
+     * The last positioned descendant node. This is normally the last
+     * token in the production, and is used for the end line and
+     * column numbers.
+     */
+    private Node last = null;
+
+    /**
+     * The stale positions flag. This flag is set when a child node
+     * has been added to a descendant after it was attached, meaning
+     * that the first and last descendant nodes must be recalculated
+     * from the child nodes.
+     */
+    private boolean stale = false;
+
     /**
      * Creates a new production node.
      *
@@ -87,6 +109,61 @@ public class Production extends Node {
         return pattern.getName();
     }
 
+    /**
+     * The line number of the first character in this node. The
+     * value is fetched from the first token added to the production,
+     * without traversing the child nodes.
+     *
+     * @return the line number of the first character, or
+     *         -1 if not applicable
+     */
+    public int getStartLine() {
+        update();
+        return (first == null) ? super.getStartLine() : first.getStartLine();
+    }
+
+    /**
+     * The column number of the first character in this node. The
+     * value is fetched from the first token added to the production,
+     * without traversing the child nodes.
+     *
+     * @return the column number of the first token character, or
+     *         -1 if not applicable
+     */
+    public int getStartColumn() {
+        update();
+        if (first == null) {
+            return super.getStartColumn();
+        }
+        return first.getStartColumn();
+    }
+
+    /**
+     * The line number of the last character in this node. The value
+     * is fetched from the last token added to the production, without
+     * traversing the child nodes.
+     *
+     * @return the line number of the last token character, or
+     *         -1 if not applicable
+     */
+    public int getEndLine() {
+        update();
+        return (last == null) ? super.getEndLine() : last.getEndLine();
+    }
+
+    /**
+     * The column number of the last character in this node. The value
+     * is fetched from the last token added to the production, without
+     * traversing the child nodes.
+     *
+     * @return the column number of the last token character, or
+     *         -1 if not applicable
+     */
+    public int getEndColumn() {
+        update();
+        return (last == null) ? super.getEndColumn() : last.getEndColumn();
+    }
+
     /**
      * Returns the number of child nodes.
      *
@@ -114,14 +191,73 @@ public class Production extends Node {
 
     /**
      * Adds a child node. The node will be added last in the list of
-     * children.
+     * children. The first and last tokens in the child node are also
+     * recorded, so that the production start and end positions can
+     * be returned without traversing the child nodes. Child nodes
+     * should therefore be complete before being added. If a child
+     * node is added to a production that already has a parent, the
+     * positions of all the ancestors are recalculated from their
+     * child nodes when next requested.
      *
      * @param child          the child node to add
      */
     public void addChild(Node child) {
+        Node  node;
+
         if (child != null) {
             child.setParent(this);
             children.add(child);
+            if (!stale) {
+                addPosition(child);
+            }
+            node = getParent();
+            while (node instanceof Production && !((Production) node).stale) {
+                ((Production) node).stale = true;
+                node = node.getParent();
+            }
+        }
+    }
+
+    /**
+     * Records the first and last positioned descendant of a child
+     * node. The child node must be the last one in the list of
+     * children.
+     *
+     * @param child          the child node to record
+     */
+    private void addPosition(Node child) {
+        Node  start = child;
+        Node  end = child;
+
+        if (child instanceof Production) {
+            ((Production) child).update();
+            start = ((Production) child).first;
+            end = ((Production) child).last;
+            if (start == null && child.getStartLine() >= 0) {
+                start = child;
+                end = child;
+            }
+        }
+        if (start != null) {
+            if (first == null) {
+                first = start;
+            }
+            last = end;
+        }
+    }
+
+    /**
+     * Recalculates the first and last positioned descendant nodes if
+     * they are stale.
+     */
+    private void update() {
+        if (stale) {
+            stale = false;
+            first = null;
+            last = null;
+            for (int i = 0; i < children.size(); i++) {
+                addPosition((Node) children.get(i));
+            }
         }
     }
 
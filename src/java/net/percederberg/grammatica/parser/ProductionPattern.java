@@ -24,7 +24,7 @@ import java.util.ArrayList;
  * production pattern from production pattern elements.
  *
  * @author   Per Cederberg
- * @version  1.0
+ * @version  1.7
  */
 public class ProductionPattern {
 
@@ -62,6 +62,20 @@ public class ProductionPattern {
      */
     private LookAheadSet lookAhead;
 
+    /**
+     * The precomputed look-ahead flag. If this flag is set, all the
+     * look-ahead sets in this pattern have been installed from
+     * external data and needn't be calculated by the parser.
+     */
+    private boolean precomputed;
+
+    /**
+     * The compiled alternative prediction. This look-ahead trie maps
+     * the alternative look-ahead sets to the alternative positions,
+     * with the default alternative checked last.
+     */
+    private LookAheadTrie prediction;
+
     /**
      * Creates a new production pattern.
      *
@@ -75,6 +89,7 @@ public class ProductionPattern {
         this.alternatives = new ArrayList();
         this.defaultAlt = -1;
         this.lookAhead = null;
+        this.precomputed = false;
     }
 
     /**
@@ -256,6 +271,196 @@ public class ProductionPattern {
         }
         alt.setPattern(this);
         alternatives.add(alt);
+        precomputed = false;
+        prediction = null;
+    }
+
+    /**
+     * Returns the calculated look-ahead data for this pattern. The
+     * look-ahead sets are only available once the pattern has been
+     * prepared by a parser. The data returned can be installed into
+     * an identical pattern with setLookAheadData(), avoiding the
+     * look-ahead calculation when preparing the parser. This is
+     * used by generated parsers.
+     *
+     * @return the look-ahead data array, or
+     *         null if no look-ahead has been calculated
+     *
+     * @see #setLookAheadData(int[])
+     *
+     * @since 1.7
+     */
+    public int[] getLookAheadData() {
+        ArrayList                     data = new ArrayList();
+        ProductionPatternAlternative  alt;
+        int[]                         result;
+
+        if (lookAhead == null) {
+            return null;
+        }
+        data.add(Integer.valueOf(defaultAlt));
+        writeLookAheadData(data, lookAhead);
+        for (int i = 0; i < alternatives.size(); i++) {
+            alt = getAlternative(i);
+            writeLookAheadData(data, alt.getLookAhead());
+            for (int j = 0; j < alt.getElementCount(); j++) {
+                writeLookAheadData(data, alt.getElement(j).getLookAhead());
+            }
+        }
+        result = new int[data.size()];
+        for (int i = 0; i < data.size(); i++) {
+            result[i] = ((Integer) data.get(i)).intValue();
+        }
+        return result;
+    }
+
+    /**
+     * Installs precomputed look-ahead data for this pattern. The
+     * data must have been returned by getLookAheadData() for an
+     * identical pattern, i.e. one with the same alternatives and
+     * elements. All the alternatives must have been added before
+     * calling this method. The parser will not recalculate the
+     * look-ahead sets for this pattern when prepared.
+     *
+     * @param data           the look-ahead data array
+     *
+     * @throws ParserCreationException if the look-ahead data didn't
+     *             match this pattern
+     *
+     * @see #getLookAheadData()
+     *
+     * @since 1.7
+     */
+    public void setLookAheadData(int[] data)
+        throws ParserCreationException {
+
+        ProductionPatternAlternative  alt;
+        ProductionPatternElement      elem;
+        int                           pos = 1;
+
+        if (!isValidLookAheadData(data)) {
+            throw new ParserCreationException(
+                ParserCreationException.INVALID_PRODUCTION_ERROR,
+                name,
+                "look-ahead data doesn't match the pattern alternatives");
+        }
+        lookAhead = readLookAheadData(data, pos);
+        pos = skipLookAheadData(data, pos, false);
+        for (int i = 0; i < alternatives.size(); i++) {
+            alt = getAlternative(i);
+            alt.setLookAhead(readLookAheadData(data, pos));
+            pos = skipLookAheadData(data, pos, false);
+            for (int j = 0; j < alt.getElementCount(); j++) {
+                elem = alt.getElement(j);
+                elem.setLookAhead(readLookAheadData(data, pos));
+                pos = skipLookAheadData(data, pos, true);
+            }
+        }
+        defaultAlt = data[0];
+        precomputed = true;
+    }
+
+    /**
+     * Checks if a look-ahead data array matches this pattern. The
+     * array must contain a default alternative index (or -1) and one
+     * look-ahead set for the pattern, each alternative and each
+     * element, with all the encoded lengths within the array bounds.
+     * Only the element look-ahead sets may be missing.
+     *
+     * @param data           the look-ahead data array
+     *
+     * @return true if the data matches this pattern, or
+     *         false otherwise
+     */
+    private boolean isValidLookAheadData(int[] data) {
+        ProductionPatternAlternative  alt;
+        int                           pos = 1;
+
+        if (data == null || data.length < 1) {
+            return false;
+        } else if (data[0] < -1 || data[0] >= alternatives.size()) {
+            return false;
+        }
+        pos = skipLookAheadData(data, pos, false);
+        for (int i = 0; pos > 0 && i < alternatives.size(); i++) {
+            alt = getAlternative(i);
+            pos = skipLookAheadData(data, pos, false);
+            for (int j = 0; pos > 0 && j < alt.getElementCount(); j++) {
+                pos = skipLookAheadData(data, pos, true);
+            }
+        }
+        return pos == data.length;
+    }
+
+    /**
+     * Skips an encoded look-ahead set in a data array. All the
+     * encoded counts and lengths are checked against the array
+     * bounds.
+     *
+     * @param data           the look-ahead data array
+     * @param pos            the start position in the data array
+     * @param optional       the missing look-ahead set flag
+     *
+     * @return the position after the look-ahead set, or
+     *         -1 if the encoded set was invalid
+     */
+    private int skipLookAheadData(int[] data, int pos, boolean optional) {
+        int  count;
+        int  length;
+
+        if (pos < 0 || pos >= data.length) {
+            return -1;
+        }
+        count = data[pos++];
+        if (count < 0) {
+            return optional ? pos : -1;
+        }
+        for (int i = 0; i < count; i++) {
+            if (pos >= data.length) {
+                return -1;
+            }
+            length = data[pos++];
+            if (length < 0) {
+                length = -length - 1;
+            }
+            if (length > data.length - pos) {
+                return -1;
+            }
+            pos += length;
+        }
+        return pos;
+    }
+
+    /**
+     * Adds an encoded look-ahead set to a data list. A missing
+     * look-ahead set is encoded as a single -1 value.
+     *
+     * @param data           the list of Integer values to add to
+     * @param set            the look-ahead set, or null
+     */
+    private void writeLookAheadData(ArrayList data, LookAheadSet set) {
+        if (set == null) {
+            data.add(Integer.valueOf(-1));
+        } else {
+            set.writeData(data);
+        }
+    }
+
+    /**
+     * Reads an encoded look-ahead set from a data array.
+     *
+     * @param data           the look-ahead data array
+     * @param pos            the start position in the data array
+     *
+     * @return the look-ahead set read, or
+     *         null for a missing look-ahead set
+     */
+    private LookAheadSet readLookAheadData(int[] data, int pos) {
+        if (data[pos] < 0) {
+            return null;
+        } else {
+            return new LookAheadSet(data, pos);
+        }
     }
 
     /**
@@ -306,6 +511,42 @@ public class ProductionPattern {
         this.lookAhead = lookAhead;
     }
 
+    /**
+     * Returns the compiled alternative prediction.
+     *
+     * @return the alternative prediction trie, or
+     *         null if not yet created
+     *
+     * @since 1.7
+     */
+    LookAheadTrie getPrediction() {
+        return prediction;
+    }
+
+    /**
+     * Sets the compiled alternative prediction.
+     *
+     * @param prediction     the alternative prediction trie
+     *
+     * @since 1.7
+     */
+    void setPrediction(LookAheadTrie prediction) {
+        this.prediction = prediction;
+    }
+
+    /**
+     * Checks if the look-ahead sets for this pattern have been
+     * installed from precomputed data.
+     *
+     * @return true if the look-ahead sets are precomputed, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    boolean isLookAheadPrecomputed() {
+        return precomputed;
+    }
+
     /**
      * Returns the default pattern alternative. The default
      * alternative is used when no other alternative matches.
@@ -14,22 +14,33 @@
 
 package net.percederberg.grammatica.parser;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
 /**
  * A character buffer that automatically reads from an input source
  * stream when needed. This class keeps track of the current position
- * in the buffer and its line and column number in the original input
- * source. It allows unlimited look-ahead of characters in the input,
+ * in the buffer and its absolute position in the original input
+ * source. The positions of all line breaks are recorded in an index,
+ * so that line and column numbers can be calculated on demand. It
+ * allows unlimited look-ahead of characters in the input,
  * reading and buffering the required data internally. As the
  * position is advanced, the buffer content prior to the current
  * position is subject to removal to make space for reading new
  * content. A few characters before the current position are always
- * kept to enable boundary condition checks.
+ * kept to enable boundary condition checks. Input files are instead
+ * memory-mapped and decoded directly into the buffer.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  * @since    1.5
  */
 public class ReaderBuffer implements CharSequence {
@@ -42,6 +53,20 @@ public class ReaderBuffer implements CharSequence {
      */
     public static final int BLOCK_SIZE = 1024;
 
+    /**
+     * The default memory-mapped file chunk size. Larger files are
+     * mapped one chunk at a time.
+     */
+    private static final int MAPPED_CHUNK_SIZE = 1 << 26;
+
+    /**
+     * The minimum number of bytes remaining in a memory-mapped
+     * chunk before decoding. If fewer bytes remain, the next chunk
+     * is mapped from the current position, so that no character is
+     * split between two chunks.
+     */
+    private static final int MIN_CHUNK_REMAINING = 16;
+
     /**
      * The character buffer.
      */
@@ -58,21 +83,88 @@ public class ReaderBuffer implements CharSequence {
     private int length = 0;
 
     /**
-     * The input source character reader.
+     * The shared buffer flag. This flag is set when the character
+     * buffer has been shared with tokens (or others) referring
+     * directly to its content. A shared buffer is never modified
+     * in-place, but will be replaced by a new buffer instead.
+     */
+    private boolean shared = false;
+
+    /**
+     * The input source character reader, or null for memory-mapped
+     * file input.
      */
     private Reader input = null;
 
     /**
-     * The line number of the next character to read. This value will
-     * be incremented when reading past line breaks.
+     * The memory-mapped file channel. This channel is only kept open
+     * while more file chunks remain to be mapped.
+     */
+    private FileChannel channel = null;
+
+    /**
+     * The memory-mapped file size.
+     */
+    private long fileSize = 0;
+
+    /**
+     * The memory-mapped file chunk size.
      */
-    private int line = 1;
+    private int chunkSize = MAPPED_CHUNK_SIZE;
 
     /**
-     * The column number of the next character to read. This value
-     * will be updated for every character read.
+     * The file position of the current memory-mapped file chunk.
      */
-    private int column = 1;
+    private long chunkStart = 0;
+
+    /**
+     * The current memory-mapped file chunk, or null if not reading
+     * from a memory-mapped file (or after the end of the file).
+     */
+    private ByteBuffer bytes = null;
+
+    /**
+     * The memory-mapped file character set decoder.
+     */
+    private CharsetDecoder decoder = null;
+
+    /**
+     * The ASCII bytes copy flag. This flag is set if ASCII bytes in
+     * the memory-mapped file can be copied directly to the buffer.
+     */
+    private boolean ascii = false;
+
+    /**
+     * The decoder flushed flag. This flag is cleared once the
+     * decoder has been used.
+     */
+    private boolean flushed = true;
+
+    /**
+     * The character buffer wrapper used for decoding, or null if not
+     * yet created. The wrapper is replaced whenever the character
+     * buffer is replaced.
+     */
+    private CharBuffer window = null;
+
+    /**
+     * The absolute input source position of the first character in
+     * the buffer. This value is incremented when characters are
+     * removed from the buffer.
+     */
+    private long start = 0;
+
+    /**
+     * The line break index. This array contains the absolute input
+     * source positions of all line break characters read, in
+     * increasing order.
+     */
+    private long[] lineBreaks = new long[64];
+
+    /**
+     * The number of line breaks in the line break index.
+     */
+    private int lineBreakCount = 0;
 
     /**
      * Creates a new tokenizer character buffer.
@@ -83,23 +175,86 @@ public class ReaderBuffer implements CharSequence {
         this.input = input;
     }
 
+    /**
+     * Creates a new tokenizer character buffer for a file. The file
+     * must be encoded in UTF-8 (or ASCII).
+     *
+     * @param file           the input source file
+     *
+     * @throws IOException if the file couldn't be opened or read
+     *
+     * @see #ReaderBuffer(File, Charset)
+     *
+     * @since 1.7
+     */
+    public ReaderBuffer(File file) throws IOException {
+        this(file, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Creates a new tokenizer character buffer for a file. The file
+     * is memory-mapped and decoded directly into the buffer, as the
+     * characters are needed. ASCII bytes are copied directly for
+     * ASCII-compatible character sets. Large files are mapped in
+     * chunks. Any malformed input will be replaced by the Unicode
+     * replacement character.
+     *
+     * @param file           the input source file
+     * @param charset        the file character set
+     *
+     * @throws IOException if the file couldn't be opened or read
+     *
+     * @since 1.7
+     */
+    public ReaderBuffer(File file, Charset charset) throws IOException {
+        this(file, charset, MAPPED_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new tokenizer character buffer for a file. The file
+     * is memory-mapped in chunks of the specified size. This
+     * constructor is only used for testing.
+     *
+     * @param file           the input source file
+     * @param charset        the file character set
+     * @param chunkSize      the memory-mapped chunk size
+     *
+     * @throws IOException if the file couldn't be opened or read
+     */
+    ReaderBuffer(File file, Charset charset, int chunkSize)
+        throws IOException {
+
+        String  name = charset.name();
+
+        this.channel = new FileInputStream(file).getChannel();
+        this.chunkSize = Math.max(chunkSize, MIN_CHUNK_REMAINING * 4);
+        this.decoder = charset.newDecoder();
+        this.decoder.onMalformedInput(CodingErrorAction.REPLACE);
+        this.decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.ascii = name.equals("UTF-8") ||
+                     name.equals("US-ASCII") ||
+                     name.equals("ISO-8859-1");
+        try {
+            this.fileSize = channel.size();
+            mapChunk(0);
+        } catch (IOException e) {
+            closeInput();
+            throw e;
+        }
+    }
+
     /**
      * Discards all resources used by this buffer. This will also
      * close the source input stream. Disposing a previously disposed
-     * buffer has no effect.
+     * buffer has no effect. Note that the line break index is kept,
+     * so that line and column numbers can still be calculated.
      */
     public void dispose() {
         buffer = null;
+        start += pos;
         pos = 0;
         length = 0;
-        if (input != null) {
-            try {
-                input.close();
-            } catch (Exception ignore) {
-                // Do nothing
-            }
-            input = null;
-        }
+        closeInput();
     }
 
     /**
@@ -111,6 +266,18 @@ public class ReaderBuffer implements CharSequence {
         return pos;
     }
 
+    /**
+     * Returns the current absolute position in the input source.
+     * This is the number of characters read or skipped so far.
+     *
+     * @return the current absolute input source position
+     *
+     * @since 1.7
+     */
+    public long offset() {
+        return start + pos;
+    }
+
     /**
      * Returns the current line number. This number is the input
      * source line number of the current position.
@@ -118,7 +285,7 @@ public class ReaderBuffer implements CharSequence {
      * @return the current position line number
      */
     public int lineNumber() {
-        return line;
+        return lineNumber(start + pos);
     }
 
     /**
@@ -128,7 +295,43 @@ public class ReaderBuffer implements CharSequence {
      * @return the current position column number
      */
     public int columnNumber() {
-        return column;
+        return columnNumber(start + pos);
+    }
+
+    /**
+     * Returns the line number of an absolute input source position.
+     * The position must not be beyond the characters read into the
+     * buffer so far.
+     *
+     * @param offset         the absolute input source position
+     *
+     * @return the line number of the position
+     *
+     * @since 1.7
+     */
+    public int lineNumber(long offset) {
+        return 1 + findLineBreaks(offset);
+    }
+
+    /**
+     * Returns the column number of an absolute input source
+     * position. The position must not be beyond the characters read
+     * into the buffer so far.
+     *
+     * @param offset         the absolute input source position
+     *
+     * @return the column number of the position
+     *
+     * @since 1.7
+     */
+    public int columnNumber(long offset) {
+        int  count = findLineBreaks(offset);
+
+        if (count == 0) {
+            return (int) (offset + 1);
+        } else {
+            return (int) (offset - lineBreaks[count - 1]);
+        }
     }
 
     /**
@@ -246,10 +449,9 @@ public class ReaderBuffer implements CharSequence {
             if (count > offset) {
                 count = offset;
             }
-            updateLineColumnNumbers(count);
             result = new String(buffer, pos, count);
             pos += count;
-            if (input == null && pos >= length) {
+            if (!hasInput() && pos >= length) {
                 dispose();
             }
             return result;
@@ -257,20 +459,140 @@ public class ReaderBuffer implements CharSequence {
     }
 
     /**
-     * Updates the line and column numbers counters. This method
-     * requires all the characters to be processed (i.e. returned as
-     * read) to be present in the buffer, starting at the current
-     * buffer position.
+     * Skips the specified number of characters from the current
+     * position. This will move the current position forward exactly
+     * as when reading, but without creating a string with the
+     * characters. When reaching the end of file, the number of
+     * characters skipped might be less than requested.
+     *
+     * @param offset         the character offset, from 0 and up
+     *
+     * @return the number of characters skipped, or
+     *         zero (0) if no more characters remain in the buffer
+     *
+     * @throws IOException if an I/O error occurred
+     *
+     * @since 1.7
+     */
+    public int skip(int offset) throws IOException {
+        int  count;
+
+        ensureBuffered(offset + 1);
+        if (pos >= length) {
+            return 0;
+        } else {
+            count = length - pos;
+            if (count > offset) {
+                count = offset;
+            }
+            pos += count;
+            if (!hasInput() && pos >= length) {
+                dispose();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Finds the end of a run of characters from a character set.
+     * The run starts at the specified offset relative to the current
+     * position, and continues until a character not in the set or
+     * the end of the input stream is found. The characters are
+     * checked directly in the buffer array, reading more characters
+     * from the input source only as the end of the buffer is
+     * reached. This method will not move the current position.
+     *
+     * @param offset         the start offset, from 0 and up
+     * @param table          the character set lookup table
+     * @param other          the result for characters outside the
+     *                       lookup table
+     *
+     * @return the offset of the first character not in the set, or
+     *         the end of stream offset
+     *
+     * @throws IOException if an I/O error occurred
      *
-     * @param offset          the number of characters to process
+     * @since 1.7
      */
-    private void updateLineColumnNumbers(int offset) {
-        for (int i = 0; i < offset; i++) {
-            if (buffer[pos + i] == '\n') {
-                line++;
-                column = 1;
+    int span(int offset, boolean[] table, boolean other)
+        throws IOException {
+
+        int   index;
+        char  c;
+
+        while (peek(offset) >= 0) {
+            for (index = pos + offset; index < length; index++) {
+                c = buffer[index];
+                if ((c < table.length) ? !table[c] : !other) {
+                    return index - pos;
+                }
+            }
+            offset = length - pos;
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the character buffer and marks it as shared. The
+     * characters in the returned array will not be modified by this
+     * buffer, allowing the caller to keep references to the content.
+     * The current position is always an index into the returned
+     * array. Note that any subsequent read operation may switch to
+     * a new character buffer.
+     *
+     * @return the current character buffer
+     *
+     * @since 1.7
+     */
+    char[] share() {
+        shared = true;
+        return buffer;
+    }
+
+    /**
+     * Counts the line breaks before an absolute input source
+     * position. This method uses a binary search in the line break
+     * index.
+     *
+     * @param offset         the absolute input source position
+     *
+     * @return the number of line breaks before the position
+     */
+    private int findLineBreaks(long offset) {
+        int  low = 0;
+        int  high = lineBreakCount;
+        int  mid;
+
+        while (low < high) {
+            mid = (low + high) >>> 1;
+            if (lineBreaks[mid] < offset) {
+                low = mid + 1;
             } else {
-                column++;
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds all the line breaks in a part of the buffer to the line
+     * break index. This method must be called exactly once for each
+     * character added to the buffer.
+     *
+     * @param first          the first buffer index to check
+     * @param last           the last buffer index to check, exclusive
+     */
+    private void indexLineBreaks(int first, int last) {
+        long[]  temp;
+
+        for (int i = first; i < last; i++) {
+            if (buffer[i] == '\n') {
+                if (lineBreakCount >= lineBreaks.length) {
+                    temp = new long[lineBreaks.length * 2];
+                    System.arraycopy(lineBreaks, 0, temp, 0, lineBreakCount);
+                    lineBreaks = temp;
+                }
+                lineBreaks[lineBreakCount++] = start + i;
             }
         }
     }
@@ -290,18 +612,27 @@ public class ReaderBuffer implements CharSequence {
      *             the input stream
      */
     private void ensureBuffered(int offset) throws IOException {
-        int  size;
-        int  readSize;
+        char[]  newbuf;
+        int     size;
+        int     readSize;
 
         // Check for end of stream or already read characters
-        if (input == null || pos + offset < length) {
+        if (!hasInput() || pos + offset < length) {
             return;
         }
 
         // Remove (almost all) old characters from buffer
         if (pos > BLOCK_SIZE) {
+            start += (pos - 16);
             length -= (pos - 16);
-            System.arraycopy(buffer, pos - 16, buffer, 0, length);
+            if (shared) {
+                newbuf = new char[buffer.length];
+                System.arraycopy(buffer, pos - 16, newbuf, 0, length);
+                buffer = newbuf;
+                shared = false;
+            } else {
+                System.arraycopy(buffer, pos - 16, buffer, 0, length);
+            }
             pos = 16;
         }
 
@@ -310,26 +641,171 @@ public class ReaderBuffer implements CharSequence {
         if (size % BLOCK_SIZE != 0) {
             size = (1 + size / BLOCK_SIZE) * BLOCK_SIZE;
         }
-        ensureCapacity(length + size);
+        ensureCapacity(length + size + 1);
 
         // Read characters
         try {
-            while (input != null && size > 0) {
-                readSize = input.read(buffer, length, size);
+            while (hasInput() && size > 0) {
+                if (bytes != null) {
+                    readSize = readMapped(length, buffer.length - length);
+                } else {
+                    readSize = input.read(buffer, length, size);
+                }
                 if (readSize > 0) {
+                    indexLineBreaks(length, length + readSize);
                     length += readSize;
                     size -= readSize;
                 } else {
-                    input.close();
-                    input = null;
+                    closeInput();
                 }
             }
         } catch (IOException e) {
-            input = null;
+            closeInput();
             throw e;
         }
     }
 
+    /**
+     * Checks if more characters may be read from the input source.
+     *
+     * @return true if the input source is still open, or
+     *         false otherwise
+     */
+    private boolean hasInput() {
+        return input != null || bytes != null;
+    }
+
+    /**
+     * Closes the input source. Any errors when closing are ignored.
+     */
+    private void closeInput() {
+        if (input != null) {
+            try {
+                input.close();
+            } catch (Exception ignore) {
+                // Do nothing
+            }
+            input = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (Exception ignore) {
+                // Do nothing
+            }
+            channel = null;
+        }
+        bytes = null;
+        decoder = null;
+        window = null;
+    }
+
+    /**
+     * Maps a memory-mapped file chunk. The file channel is closed
+     * once the last chunk has been mapped.
+     *
+     * @param position       the file position of the chunk
+     *
+     * @throws IOException if the file chunk couldn't be mapped
+     */
+    private void mapChunk(long position) throws IOException {
+        long  size = Math.min(chunkSize, fileSize - position);
+
+        chunkStart = position;
+        bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        if (position + size >= fileSize) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Decodes characters from the memory-mapped file directly into
+     * a part of the buffer. ASCII bytes are copied without decoding
+     * if the character set permits. Fewer characters than requested
+     * may be decoded, but at least one unless the end of the file
+     * has been reached (and at least two characters were requested).
+     *
+     * @param off            the buffer start index
+     * @param len            the maximum number of characters
+     *
+     * @return the number of characters decoded, or
+     *         zero (0) if the end of the file has been reached
+     *
+     * @throws IOException if the file couldn't be mapped or decoded
+     */
+    private int readMapped(int off, int len) throws IOException {
+        CharBuffer  out;
+        int         count = 0;
+        int         first;
+        int         limit;
+        int         index;
+        byte        b;
+
+        while (count < len) {
+            if (channel != null && bytes.remaining() < MIN_CHUNK_REMAINING) {
+                mapChunk(chunkStart + bytes.position());
+            }
+            if (ascii && bytes.hasRemaining() &&
+                bytes.get(bytes.position()) >= 0) {
+
+                index = bytes.position();
+                limit = bytes.limit();
+                while (count < len && index < limit) {
+                    b = bytes.get(index);
+                    if (b < 0) {
+                        break;
+                    }
+                    buffer[off + count++] = (char) b;
+                    index++;
+                }
+                bytes.position(index);
+            } else if (bytes.hasRemaining()) {
+                out = wrapBuffer(off + count, len - count);
+                first = bytes.position();
+                decoder.decode(bytes, out, channel == null);
+                flushed = false;
+                if (out.position() == off + count &&
+                    bytes.position() == first) {
+
+                    if (count > 0) {
+                        break;
+                    }
+                    throw new IOException("couldn't decode input");
+                }
+                count = out.position() - off;
+            } else if (!flushed) {
+                out = wrapBuffer(off + count, len - count);
+                decoder.flush(out);
+                flushed = true;
+                count = out.position() - off;
+            } else {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the character buffer wrapper for a part of the
+     * buffer. The wrapper position and limit are set to the
+     * specified buffer part.
+     *
+     * @param off            the buffer start index
+     * @param len            the number of characters
+     *
+     * @return the character buffer wrapper
+     */
+    private CharBuffer wrapBuffer(int off, int len) {
+        if (window == null || window.array() != buffer) {
+            window = CharBuffer.wrap(buffer);
+        }
+        window.clear();
+        window.position(off);
+        window.limit(off + len);
+        return window;
+    }
+
     /**
      * Ensures that the buffer has at least the specified capacity.
      *
@@ -347,5 +823,7 @@ public class ReaderBuffer implements CharSequence {
         newbuf = new char[size];
         System.arraycopy(buffer, 0, newbuf, 0, length);
         buffer = newbuf;
+        shared = false;
     }
+
 }
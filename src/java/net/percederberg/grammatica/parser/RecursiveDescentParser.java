@@ -16,6 +16,8 @@ package net.percederberg.grammatica.parser;
 
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 
 /**
@@ -25,10 +27,16 @@ import java.util.Iterator;
  * that is has to consider.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 public class RecursiveDescentParser extends Parser {
 
+    /**
+     * The look-ahead cache. This cache is only available while the
+     * parser is being prepared, and is null otherwise.
+     */
+    private LookAheadCache cache = null;
+
     /**
      * Creates a new parser.
      *
@@ -117,22 +125,42 @@ public class RecursiveDescentParser extends Parser {
      * Initializes the parser. All the added production patterns will
      * be analyzed for ambiguities and errors. This method also
      * initializes the internal data structures used during the
-     * parsing.
+     * parsing. Production patterns with precomputed look-ahead data
+     * will not be analyzed again.
      *
      * @throws ParserCreationException if the parser couldn't be
      *             initialized correctly
+     *
+     * @see ProductionPattern#setLookAheadData(int[])
      */
     public void prepare() throws ParserCreationException {
-        Iterator  iter;
+        Iterator           iter;
+        ProductionPattern  pattern;
 
         // Performs production pattern checks
         super.prepare();
         setInitialized(false);
 
         // Calculate production look-ahead sets
+        cache = new LookAheadCache();
+        try {
+            iter = getPatterns().iterator();
+            while (iter.hasNext()) {
+                pattern = (ProductionPattern) iter.next();
+                if (!pattern.isLookAheadPrecomputed()) {
+                    calculateLookAhead(pattern);
+                }
+            }
+        } finally {
+            cache = null;
+        }
+
+        // Compile alternative predictions and look-ahead tries
         iter = getPatterns().iterator();
         while (iter.hasNext()) {
-            calculateLookAhead((ProductionPattern) iter.next());
+            pattern = (ProductionPattern) iter.next();
+            pattern.setPrediction(createPrediction(pattern));
+            compileLookAhead(pattern);
         }
 
         // Set initialized flag
@@ -148,11 +176,26 @@ public class RecursiveDescentParser extends Parser {
      *             correctly
      */
     protected Node parseStart() throws ParseException {
+        Node  node;
+
+        node = parsePattern(getStartPattern());
+        checkEndOfInput();
+        return node;
+    }
+
+    /**
+     * Checks that all the input tokens have been consumed. This
+     * method is called after parsing the start production.
+     *
+     * @throws ParseException if more tokens were available in the
+     *             input stream
+     *
+     * @since 1.7
+     */
+    protected void checkEndOfInput() throws ParseException {
         Token      token;
-        Node       node;
         ArrayList  list;
 
-        node = parsePattern(getStartPattern());
         token = peekToken(0);
         if (token != null) {
             list = new ArrayList(1);
@@ -164,9 +207,203 @@ public class RecursiveDescentParser extends Parser {
                 token.getStartLine(),
                 token.getStartColumn());
         }
+    }
+
+    /**
+     * Creates a new production node and handles the parser entering
+     * it. This method is used by generated parsers, that replace the
+     * generic pattern interpretation with specialized code for each
+     * production. The analyzer call-backs are handled in the same
+     * way as in the generic parser. In streaming mode, no production
+     * node is created and the listener is called instead.
+     *
+     * @param id             the production pattern id
+     *
+     * @return the new production node, or
+     *         null in streaming mode
+     *
+     * @since 1.7
+     */
+    protected Production enterProduction(int id) {
+        Production  node;
+
+        if (isStreaming()) {
+            enterStream(getPattern(id));
+            return null;
+        }
+        node = newProduction(getPattern(id));
+        enterNode(node);
         return node;
     }
 
+    /**
+     * Handles the parser leaving a production node. This method is
+     * used by generated parsers.
+     *
+     * @param node           the production node
+     *
+     * @return the parse tree node, or
+     *         null if no parse tree should be created
+     *
+     * @see #enterProduction(int)
+     *
+     * @since 1.7
+     */
+    protected Node exitProduction(Production node) {
+        if (isStreaming()) {
+            exitStream();
+            return null;
+        }
+        return exitNode(node);
+    }
+
+    /**
+     * Adds a child node to a production node. This method is used
+     * by generated parsers.
+     *
+     * @param node           the parent production node
+     * @param child          the child node, or null
+     *
+     * @see #enterProduction(int)
+     *
+     * @since 1.7
+     */
+    protected void addChildNode(Production node, Node child) {
+        if (node != null) {
+            addNode(node, child);
+        }
+    }
+
+    /**
+     * Reads the next token and adds it to a production node. This
+     * method is used by generated parsers.
+     *
+     * @param node           the parent production node
+     * @param id             the expected token id
+     *
+     * @throws ParseException if the input stream couldn't be read or
+     *             parsed correctly, or if the token wasn't expected
+     *
+     * @see #enterProduction(int)
+     *
+     * @since 1.7
+     */
+    protected void matchToken(Production node, int id)
+        throws ParseException {
+
+        Token  token;
+
+        token = nextToken(id);
+        if (isStreaming()) {
+            tokenStream(token);
+        } else {
+            enterNode(token);
+            addNode(node, exitNode(token));
+        }
+    }
+
+    /**
+     * Returns the id of a token in the queue. This method is used
+     * by generated parsers to check coming tokens before they have
+     * been consumed.
+     *
+     * @param steps          the token queue number, zero (0) for first
+     *
+     * @return the token id, or
+     *         -1 if no more tokens are available
+     *
+     * @since 1.7
+     */
+    protected int peekTokenId(int steps) {
+        Token  token = peekToken(steps);
+
+        return (token == null) ? -1 : token.getId();
+    }
+
+    /**
+     * Checks if the next tokens match a production pattern. The
+     * look-ahead set for the pattern will be used. This method is
+     * used by generated parsers.
+     *
+     * @param id             the production pattern id
+     *
+     * @return true if the next tokens match, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    protected boolean isNextProduction(int id) {
+        return isNext(getPattern(id));
+    }
+
+    /**
+     * Checks if the next tokens match a production pattern
+     * alternative. The look-ahead set for the alternative will be
+     * used. This method is used by generated parsers.
+     *
+     * @param id             the production pattern id
+     * @param alt            the alternative position, starting at 0
+     *
+     * @return true if the next tokens match, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    protected boolean isNextAlternative(int id, int alt) {
+        return isNext(getPattern(id).getAlternative(alt));
+    }
+
+    /**
+     * Checks if the next tokens match a production pattern element.
+     * The look-ahead set for the element will be used if present,
+     * otherwise the look-ahead for the referenced token or pattern.
+     * This method is used by generated parsers.
+     *
+     * @param id             the production pattern id
+     * @param alt            the alternative position, starting at 0
+     * @param pos            the element position, starting at 0
+     *
+     * @return true if the next tokens match, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    protected boolean isNextElement(int id, int alt, int pos) {
+        return isNext(getPattern(id).getAlternative(alt).getElement(pos));
+    }
+
+    /**
+     * Recovers from a parse error inside a production. The error
+     * will be added to the error log and the next token skipped.
+     * This method is used by generated parsers, which should retry
+     * parsing the current production element afterwards.
+     *
+     * @param e              the parse error
+     *
+     * @throws ParseException if no more tokens were available
+     *
+     * @since 1.7
+     */
+    protected void recover(ParseException e) throws ParseException {
+        addError(e, true);
+        nextToken();
+    }
+
+    /**
+     * Throws a parse exception for a production pattern not matching
+     * the next tokens. The exception will list the tokens expected
+     * by the pattern. This method is used by generated parsers.
+     *
+     * @param id             the production pattern id
+     *
+     * @throws ParseException always thrown by this method
+     *
+     * @since 1.7
+     */
+    protected void throwParseException(int id) throws ParseException {
+        throwParseException(findUnion(getPattern(id)));
+    }
+
     /**
      * Parses a production pattern. A parse tree node may or may not
      * be created depending on the analyzer callbacks.
@@ -181,20 +418,84 @@ public class RecursiveDescentParser extends Parser {
     private Node parsePattern(ProductionPattern pattern)
         throws ParseException {
 
+        LookAheadTrie  prediction = pattern.getPrediction();
+        int            pos;
+
+        if (prediction == null) {
+            prediction = createPrediction(pattern);
+        }
+        pos = prediction.find(this);
+        if (pos < 0) {
+            throwParseException(findUnion(pattern));
+        }
+        return parseAlternative(pattern.getAlternative(pos));
+    }
+
+    /**
+     * Creates the alternative prediction for a production pattern.
+     * The alternative look-ahead sets are added in order, except for
+     * the default alternative that is added last. The resulting trie
+     * selects the same alternative as checking each look-ahead set in
+     * turn, but only reads each of the next tokens once.
+     *
+     * @param pattern        the production pattern
+     *
+     * @return the alternative prediction trie
+     *
+     * @since 1.7
+     */
+    private LookAheadTrie createPrediction(ProductionPattern pattern) {
+        LookAheadTrie                 trie = new LookAheadTrie();
         ProductionPatternAlternative  alt;
         ProductionPatternAlternative  defaultAlt;
+        int                           defaultPos = -1;
 
         defaultAlt = pattern.getDefaultAlternative();
         for (int i = 0; i < pattern.getAlternativeCount(); i++) {
             alt = pattern.getAlternative(i);
-            if (defaultAlt != alt && isNext(alt)) {
-                return parseAlternative(alt);
+            if (alt == defaultAlt) {
+                defaultPos = i;
+            } else if (alt.getLookAhead() != null) {
+                trie.add(alt.getLookAhead(), i);
             }
         }
-        if (defaultAlt == null || !isNext(defaultAlt)) {
-            throwParseException(findUnion(pattern));
+        if (defaultPos >= 0 && defaultAlt.getLookAhead() != null) {
+            trie.add(defaultAlt.getLookAhead(), defaultPos);
+        }
+        trie.compile();
+        return trie;
+    }
+
+    /**
+     * Compiles the look-ahead tries for all the look-ahead sets in a
+     * production pattern. This is done when preparing the parser,
+     * since the patterns may be shared by parsers in other threads.
+     *
+     * @param pattern        the production pattern
+     *
+     * @since 1.7
+     */
+    private void compileLookAhead(ProductionPattern pattern) {
+        ProductionPatternAlternative  alt;
+        LookAheadSet                  set;
+
+        set = pattern.getLookAhead();
+        if (set != null) {
+            set.compile();
+        }
+        for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+            alt = pattern.getAlternative(i);
+            set = alt.getLookAhead();
+            if (set != null) {
+                set.compile();
+            }
+            for (int j = 0; j < alt.getElementCount(); j++) {
+                set = alt.getElement(j).getLookAhead();
+                if (set != null) {
+                    set.compile();
+                }
+            }
         }
-        return parseAlternative(defaultAlt);
     }
 
     /**
@@ -211,19 +512,26 @@ public class RecursiveDescentParser extends Parser {
     private Node parseAlternative(ProductionPatternAlternative alt)
         throws ParseException {
 
-        Production  node;
+        Production  node = null;
 
-        node = newProduction(alt.getPattern());
-        enterNode(node);
+        if (isStreaming()) {
+            enterStream(alt.getPattern());
+        } else {
+            node = newProduction(alt.getPattern());
+            enterNode(node);
+        }
         for (int i = 0; i < alt.getElementCount(); i++) {
             try {
                 parseElement(node, alt.getElement(i));
             } catch (ParseException e) {
-                addError(e, true);
-                nextToken();
+                recover(e);
                 i--;
             }
         }
+        if (isStreaming()) {
+            exitStream();
+            return null;
+        }
         return exitNode(node);
     }
 
@@ -247,12 +555,10 @@ public class RecursiveDescentParser extends Parser {
         for (int i = 0; i < elem.getMaxCount(); i++) {
             if (i < elem.getMinCount() || isNext(elem)) {
                 if (elem.isToken()) {
-                    child = nextToken(elem.getId());
-                    enterNode(child);
-                    addNode(node, exitNode(child));
+                    matchToken(node, elem.getId());
                 } else {
                     child = parsePattern(getPattern(elem.getId()));
-                    addNode(node, child);
+                    addChildNode(node, child);
                 }
             } else {
                 break;
@@ -498,6 +804,7 @@ public class RecursiveDescentParser extends Parser {
 
         LookAheadSet  result;
         LookAheadSet  temp;
+        boolean       cacheable;
 
         // Check for infinite loop
         if (stack.contains(pattern.getName(), length)) {
@@ -507,6 +814,15 @@ public class RecursiveDescentParser extends Parser {
                 (String) null);
         }
 
+        // Check for previous result
+        cacheable = cache != null && cache.isCacheable(pattern, stack);
+        if (cacheable) {
+            result = cache.get(pattern, length, filter);
+            if (result != null) {
+                return new LookAheadSet(length, result);
+            }
+        }
+
         // Find pattern look-ahead
         stack.push(pattern.getName(), length);
         result = new LookAheadSet(length);
@@ -519,6 +835,10 @@ public class RecursiveDescentParser extends Parser {
             result.addAll(temp);
         }
         stack.pop();
+        if (cacheable) {
+            cache.put(pattern, length, filter, result);
+            result = new LookAheadSet(length, result);
+        }
 
         return result;
     }
@@ -872,6 +1192,25 @@ public class RecursiveDescentParser extends Parser {
             return nameStack.contains(name);
         }
 
+        /**
+         * Checks if any of the specified names is on the stack.
+         *
+         * @param names          the set of names to search for
+         *
+         * @return true if one of the names is on the stack, or
+         *         false otherwise
+         *
+         * @since 1.7
+         */
+        public boolean containsAny(HashSet names) {
+            for (int i = 0; i < nameStack.size(); i++) {
+                if (names.contains(nameStack.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         /**
          * Checks if the specified name and value combination is on
          * the stack.
@@ -925,4 +1264,209 @@ public class RecursiveDescentParser extends Parser {
             }
         }
     }
+
+
+    /**
+     * A look-ahead set cache. This cache stores the look-ahead sets
+     * found for production patterns, so that patterns referenced
+     * from many places in the grammar are only analyzed once for
+     * each look-ahead length and filter. The look-ahead filters are
+     * compared by identity, as new filters are created for each
+     * conflict resolution round.<p>
+     *
+     * A look-ahead set only depends on the call stack through the
+     * productions that are reachable from the pattern. Results are
+     * therefore only stored and retrieved when none of the reachable
+     * productions are on the call stack, as the set would otherwise
+     * depend on the current recursion (for loop detection and the
+     * repeat flags).
+     *
+     * @author   Per Cederberg
+     * @version  1.7
+     * @since    1.7
+     */
+    class LookAheadCache {
+
+        /**
+         * The map with cached look-ahead sets. The map is indexed
+         * by LookAheadKey objects.
+         */
+        private HashMap results = new HashMap();
+
+        /**
+         * The map with reachable production names. The map is
+         * indexed by the production pattern id, and contains sets of
+         * production names.
+         */
+        private HashMap reachable = new HashMap();
+
+        /**
+         * Checks if the look-ahead set for a production pattern may
+         * be cached with the specified call stack.
+         *
+         * @param pattern        the production pattern
+         * @param stack          the current call stack
+         *
+         * @return true if the look-ahead set may be cached, or
+         *         false otherwise
+         */
+        public boolean isCacheable(ProductionPattern pattern,
+                                   CallStack stack) {
+
+            return !stack.containsAny(findReachable(pattern));
+        }
+
+        /**
+         * Returns a cached look-ahead set.
+         *
+         * @param pattern        the production pattern
+         * @param length         the maximum look-ahead length
+         * @param filter         the look-ahead set filter, or null
+         *
+         * @return the cached look-ahead set, or
+         *         null if not found
+         */
+        public LookAheadSet get(ProductionPattern pattern,
+                                int length,
+                                LookAheadSet filter) {
+
+            Object  key = new LookAheadKey(pattern.getId(), length, filter);
+
+            return (LookAheadSet) results.get(key);
+        }
+
+        /**
+         * Adds a look-ahead set to the cache. The set must not be
+         * modified after being added.
+         *
+         * @param pattern        the production pattern
+         * @param length         the maximum look-ahead length
+         * @param filter         the look-ahead set filter, or null
+         * @param set            the look-ahead set to add
+         */
+        public void put(ProductionPattern pattern,
+                        int length,
+                        LookAheadSet filter,
+                        LookAheadSet set) {
+
+            Object  key = new LookAheadKey(pattern.getId(), length, filter);
+
+            results.put(key, set);
+        }
+
+        /**
+         * Returns the names of all production patterns reachable
+         * from a production pattern. The pattern itself will only be
+         * included if it is recursive.
+         *
+         * @param pattern        the production pattern
+         *
+         * @return the set of reachable production names
+         */
+        private HashSet findReachable(ProductionPattern pattern) {
+            Integer                       id;
+            HashSet                       names;
+            ArrayList                     queue = new ArrayList();
+            ProductionPatternAlternative  alt;
+            ProductionPatternElement      elem;
+            ProductionPattern             ref;
+
+            id = Integer.valueOf(pattern.getId());
+            names = (HashSet) reachable.get(id);
+            if (names != null) {
+                return names;
+            }
+            names = new HashSet();
+            queue.add(pattern);
+            while (queue.size() > 0) {
+                pattern = (ProductionPattern) queue.remove(queue.size() - 1);
+                for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+                    alt = pattern.getAlternative(i);
+                    for (int j = 0; j < alt.getElementCount(); j++) {
+                        elem = alt.getElement(j);
+                        if (elem.isProduction()) {
+                            ref = getPattern(elem.getId());
+                        } else {
+                            ref = null;
+                        }
+                        if (ref != null && names.add(ref.getName())) {
+                            queue.add(ref);
+                        }
+                    }
+                }
+            }
+            reachable.put(id, names);
+            return names;
+        }
+    }
+
+
+    /**
+     * A look-ahead cache key. The look-ahead filter is compared by
+     * identity.
+     *
+     * @author   Per Cederberg
+     * @version  1.7
+     * @since    1.7
+     */
+    static class LookAheadKey {
+
+        /**
+         * The production pattern id.
+         */
+        private int id;
+
+        /**
+         * The maximum look-ahead length.
+         */
+        private int length;
+
+        /**
+         * The look-ahead set filter, or null.
+         */
+        private LookAheadSet filter;
+
+        /**
+         * Creates a new look-ahead cache key.
+         *
+         * @param id             the production pattern id
+         * @param length         the maximum look-ahead length
+         * @param filter         the look-ahead set filter, or null
+         */
+        public LookAheadKey(int id, int length, LookAheadSet filter) {
+            this.id = id;
+            this.length = length;
+            this.filter = filter;
+        }
+
+        /**
+         * Checks if this key is equal to another object.
+         *
+         * @param obj            the object to compare with
+         *
+         * @return true if the objects are equal, or
+         *         false otherwise
+         */
+        public boolean equals(Object obj) {
+            LookAheadKey  key;
+
+            if (obj instanceof LookAheadKey) {
+                key = (LookAheadKey) obj;
+                return id == key.id
+                    && length == key.length
+                    && filter == key.filter;
+            }
+            return false;
+        }
+
+        /**
+         * Returns a hash code for this object.
+         *
+         * @return a hash code for this object
+         */
+        public int hashCode() {
+            return (id * 31 + length) * 31
+                 + System.identityHashCode(filter);
+        }
+    }
 }
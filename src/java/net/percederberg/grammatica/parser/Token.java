@@ -18,10 +18,17 @@ package net.percederberg.grammatica.parser;
  * A token node. This class represents a token (i.e. a set of adjacent
  * characters) in a parse tree. The tokens are created by a tokenizer,
  * that groups characters together into tokens according to a set of
- * token patterns.
+ * token patterns.<p>
+ *
+ * The token image is either stored as a string, or as a reference
+ * into a shared character array (normally the tokenizer input
+ * buffer). In the latter case, the image string will only be
+ * created on demand. Likewise, the token line and column numbers
+ * are either stored directly, or calculated on demand from the
+ * token position in the input buffer.
  *
  * @author   Per Cederberg
- * @version  1.4
+ * @version  1.7
  */
 public class Token extends Node {
 
@@ -32,10 +39,44 @@ public class Token extends Node {
 
     /**
      * The characters that constitute this token. This is normally
-     * referred to as the token image.
+     * referred to as the token image. This value may be null if the
+     * token image string hasn't been created yet.
      */
     private String image;
 
+    /**
+     * The shared character array containing the token image. This
+     * value is null if the token image is stored as a string. The
+     * array is kept after the image string has been created, so
+     * that the token can be read safely from several threads.
+     */
+    private final char[] chars;
+
+    /**
+     * The token image start offset in the shared character array.
+     */
+    private final int offset;
+
+    /**
+     * The token image length.
+     */
+    private final int length;
+
+    /**
+     * The input buffer used for calculating the line and column
+     * numbers. This value is null if the line and column numbers
+     * have already been calculated. The field is volatile, so that
+     * the calculated numbers are visible to other threads once the
+     * input buffer reference has been removed.
+     */
+    private volatile ReaderBuffer source = null;
+
+    /**
+     * The absolute input position of the first character in the
+     * token image.
+     */
+    private long position = 0;
+
     /**
      * The line number of the first character in the token image.
      */
@@ -77,6 +118,9 @@ public class Token extends Node {
     public Token(TokenPattern pattern, String image, int line, int col) {
         this.pattern = pattern;
         this.image = image;
+        this.chars = null;
+        this.offset = 0;
+        this.length = image.length();
         this.startLine = line;
         this.startColumn = col;
         this.endLine = line;
@@ -88,6 +132,67 @@ public class Token extends Node {
         }
     }
 
+    /**
+     * Creates a new token with a position in an input buffer. The
+     * line and column numbers will be calculated from the input
+     * buffer line break index on demand.
+     *
+     * @param pattern        the token pattern
+     * @param image          the token image (i.e. characters)
+     * @param source         the input buffer read from
+     * @param position       the absolute input position of the
+     *                       first character
+     *
+     * @since 1.7
+     */
+    public Token(TokenPattern pattern,
+                 String image,
+                 ReaderBuffer source,
+                 long position) {
+
+        this.pattern = pattern;
+        this.image = image;
+        this.chars = null;
+        this.offset = 0;
+        this.length = image.length();
+        this.source = source;
+        this.position = position;
+    }
+
+    /**
+     * Creates a new token with an image in a shared character array
+     * and a position in an input buffer. The characters in the array
+     * must not be modified after creating the token, since the image
+     * string will only be created on demand. The line and column
+     * numbers will be calculated from the input buffer line break
+     * index on demand.
+     *
+     * @param pattern        the token pattern
+     * @param chars          the shared character array
+     * @param offset         the token image start offset
+     * @param length         the token image length
+     * @param source         the input buffer read from
+     * @param position       the absolute input position of the
+     *                       first character
+     *
+     * @since 1.7
+     */
+    public Token(TokenPattern pattern,
+                 char[] chars,
+                 int offset,
+                 int length,
+                 ReaderBuffer source,
+                 long position) {
+
+        this.pattern = pattern;
+        this.image = null;
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+        this.source = source;
+        this.position = position;
+    }
+
     /**
      * Returns the token (pattern) id. This value is set as a unique
      * identifier when creating the token pattern to simplify later
@@ -110,12 +215,65 @@ public class Token extends Node {
 
     /**
      * Returns the token image. The token image consists of the
-     * input characters matched to form this token.
+     * input characters matched to form this token. If the token
+     * image is stored in a shared character array, a new string
+     * will be created on the first call.
      *
      * @return the token image
      */
     public String getImage() {
-        return image;
+        String  res = image;
+
+        if (res == null) {
+            res = new String(chars, offset, length);
+            image = res;
+        }
+        return res;
+    }
+
+    /**
+     * Returns the token image as a character sequence. If the token
+     * image is stored in a shared character array, this method
+     * returns a read-only view of the array without creating an
+     * image string.
+     *
+     * @return the token image character sequence
+     *
+     * @since 1.7
+     */
+    public CharSequence getImageSequence() {
+        if (chars == null) {
+            return image;
+        } else {
+            return new ImageSequence(chars, offset, length);
+        }
+    }
+
+    /**
+     * Copies the token image characters into an array. This method
+     * does not require the token image string to be created.
+     *
+     * @param dest           the destination array
+     * @param pos            the destination start position
+     */
+    void getImageChars(char[] dest, int pos) {
+        if (chars == null) {
+            image.getChars(0, length, dest, pos);
+        } else {
+            System.arraycopy(chars, offset, dest, pos, length);
+        }
+    }
+
+    /**
+     * Returns the token image length. This method does not require
+     * the token image string to be created.
+     *
+     * @return the number of characters in the token image
+     *
+     * @since 1.7
+     */
+    public int getImageLength() {
+        return length;
     }
 
     /**
@@ -124,6 +282,9 @@ public class Token extends Node {
      * @return the line number of the first token character
      */
     public int getStartLine() {
+        if (source != null) {
+            locate();
+        }
         return startLine;
     }
 
@@ -133,6 +294,9 @@ public class Token extends Node {
      * @return the column number of the first token character
      */
     public int getStartColumn() {
+        if (source != null) {
+            locate();
+        }
         return startColumn;
     }
 
@@ -142,6 +306,9 @@ public class Token extends Node {
      * @return the line number of the last token character
      */
     public int getEndLine() {
+        if (source != null) {
+            locate();
+        }
         return endLine;
     }
 
@@ -151,6 +318,9 @@ public class Token extends Node {
      * @return the column number of the last token character
      */
     public int getEndColumn() {
+        if (source != null) {
+            locate();
+        }
         return endColumn;
     }
 
@@ -256,9 +426,9 @@ public class Token extends Node {
         buffer.append("(");
         buffer.append(pattern.getId());
         buffer.append("): \"");
-        for (int i = 0; i < image.length(); i++) {
-            chr = image.charAt(i);
-            if (Character.isISOControl(chr) || (i > 25 && image.length() > 30)) {
+        for (int i = 0; i < length; i++) {
+            chr = imageCharAt(i);
+            if (Character.isISOControl(chr) || (i > 25 && length > 30)) {
                 buffer.append("(...)");
                 break;
             } else {
@@ -266,9 +436,9 @@ public class Token extends Node {
             }
         }
         buffer.append("\", line: ");
-        buffer.append(startLine);
+        buffer.append(getStartLine());
         buffer.append(", col: ");
-        buffer.append(startColumn);
+        buffer.append(getStartColumn());
 
         return buffer.toString();
     }
@@ -285,9 +455,9 @@ public class Token extends Node {
         char          chr;
 
         buffer.append('"');
-        for (int i = 0; i < image.length(); i++) {
-            chr = image.charAt(i);
-            if (Character.isISOControl(chr) || (i > 25 && image.length() > 30)) {
+        for (int i = 0; i < length; i++) {
+            chr = imageCharAt(i);
+            if (Character.isISOControl(chr) || (i > 25 && length > 30)) {
                 buffer.append("(...)");
                 break;
             } else {
@@ -303,4 +473,128 @@ public class Token extends Node {
 
         return buffer.toString();
     }
+
+    /**
+     * Returns a character in the token image. This method does not
+     * require the token image string to be created.
+     *
+     * @param index          the character index, starting at 0
+     *
+     * @return the token image character
+     */
+    private char imageCharAt(int index) {
+        return (chars == null) ? image.charAt(index) : chars[offset + index];
+    }
+
+    /**
+     * Calculates the line and column numbers from the input buffer
+     * line break index. The reference to the input buffer is removed
+     * afterwards. If several threads call this method concurrently,
+     * the numbers may be calculated more than once.
+     */
+    private void locate() {
+        ReaderBuffer  buffer = source;
+        long          end = position + length;
+
+        if (buffer != null) {
+            startLine = buffer.lineNumber(position);
+            startColumn = buffer.columnNumber(position);
+            endLine = buffer.lineNumber(end);
+            endColumn = buffer.columnNumber(end) - 1;
+            source = null;
+        }
+    }
+
+
+    /**
+     * A read-only character sequence referring to a token image in
+     * a shared character array.
+     *
+     * @author   Per Cederberg
+     * @version  1.7
+     * @since    1.7
+     */
+    private static class ImageSequence implements CharSequence {
+
+        /**
+         * The shared character array.
+         */
+        private final char[] chars;
+
+        /**
+         * The start offset in the shared character array.
+         */
+        private final int offset;
+
+        /**
+         * The number of characters in the sequence.
+         */
+        private final int length;
+
+        /**
+         * Creates a new character sequence.
+         *
+         * @param chars          the shared character array
+         * @param offset         the start offset
+         * @param length         the number of characters
+         */
+        public ImageSequence(char[] chars, int offset, int length) {
+            this.chars = chars;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Returns the number of characters in the sequence.
+         *
+         * @return the number of characters in the sequence
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Returns a character in the sequence.
+         *
+         * @param index          the character index, starting at 0
+         *
+         * @return the character at the specified index
+         *
+         * @throws IndexOutOfBoundsException if the index was negative
+         *             or not less than the sequence length
+         */
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return chars[offset + index];
+        }
+
+        /**
+         * Returns a part of the sequence.
+         *
+         * @param start          the start index, inclusive
+         * @param end            the end index, exclusive
+         *
+         * @return the character sequence part
+         *
+         * @throws IndexOutOfBoundsException if the indices were out
+         *             of bounds
+         */
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException(start + "-" + end);
+            }
+            return new ImageSequence(chars, offset + start, end - start);
+        }
+
+        /**
+         * Returns the characters in the sequence as a string.
+         *
+         * @return the characters in the sequence
+         */
+        public String toString() {
+            return new String(chars, offset, length);
+        }
+    }
 }
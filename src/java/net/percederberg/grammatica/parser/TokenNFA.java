@@ -15,6 +15,10 @@
 package net.percederberg.grammatica.parser;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import net.percederberg.grammatica.parser.re.RegExpException;
 
@@ -25,10 +29,31 @@ import net.percederberg.grammatica.parser.re.RegExpException;
  * optimized data structures and tuning. The memory footprint during
  * matching should be near zero, since no heap memory is allocated
  * unless the pre-allocated queues need to be enlarged. The NFA also
- * does not use recursion, but iterates in a loop instead.
+ * does not use recursion, but iterates in a loop instead. The state
+ * queue used for matching is provided by the caller, so that a
+ * single automaton can be used by several threads once all the
+ * matches have been added.<p>
+ *
+ * By default the matching is performed by a lazily constructed
+ * deterministic automaton (DFA). Each DFA state corresponds to a set
+ * of NFA states and is created on demand the first time it is
+ * reached. The DFA states are cached, so that a character in the
+ * input normally costs a single table lookup (or a binary search for
+ * non-ASCII characters). The number of cached DFA states is limited,
+ * and the NFA is simulated directly once that limit has been
+ * reached. New DFA states are only created while holding the
+ * automaton lock, whereas the cached transitions can be followed
+ * without any locking.<p>
+ *
+ * Before matching, the NFA is frozen into a compact representation
+ * of integer state ids and packed transition arrays. The state and
+ * transition objects are only used while adding matches, and the
+ * frozen representation is rebuilt whenever the NFA is modified.
+ * When freezing, equivalent states are also merged, so that the
+ * number of states is minimized.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  * @since    1.5
  */
 class TokenNFA {
@@ -41,6 +66,16 @@ class TokenNFA {
      */
     private State[] initialChar = new State[128];
 
+    /**
+     * The initial text state flags, indexed by the first ASCII
+     * character. A flag is set if the corresponding initial state in
+     * the lookup table was created for a string match. Only such
+     * states may be shared between string matches, as the states
+     * created for regular expressions may be reachable in other
+     * ways.
+     */
+    private boolean[] initialText = new boolean[128];
+
     /**
      * The initial state. This state contains any transitions not
      * already stored in the initial text state array, i.e. non-ASCII
@@ -49,9 +84,109 @@ class TokenNFA {
     private State initial = new State();
 
     /**
-     * The NFA state queue to use.
+     * The default maximum number of cached DFA states.
+     */
+    public static final int DEFAULT_DFA_STATE_LIMIT = 4096;
+
+    /**
+     * The maximum number of cached DFA states. If set to zero (0),
+     * the NFA will always be simulated directly.
+     */
+    private volatile int dfaStateLimit = DEFAULT_DFA_STATE_LIMIT;
+
+    /**
+     * The initial DFA state, or null if not yet created.
+     */
+    private volatile DFAState dfaStart = null;
+
+    /**
+     * The DFA state limit reached flag. This flag is set once no
+     * more DFA states can be created, so that uncached transitions
+     * are simulated by the NFA without taking the automaton lock.
+     */
+    private volatile boolean dfaFull = false;
+
+    /**
+     * The cached DFA states. This map contains the DFA states
+     * indexed by their NFA state sets.
+     */
+    private HashMap dfaStates = new HashMap();
+
+    /**
+     * The frozen NFA used for matching, or null if not yet created.
+     * This is cleared whenever the NFA is modified.
+     */
+    private volatile FrozenNFA frozen = null;
+
+    /**
+     * Returns the maximum number of cached DFA states.
+     *
+     * @return the maximum number of cached DFA states
+     */
+    public int getDfaStateLimit() {
+        return dfaStateLimit;
+    }
+
+    /**
+     * Sets the maximum number of cached DFA states. Once the limit
+     * has been reached, the NFA will be simulated directly for any
+     * new combination of states. Setting the limit to zero (0)
+     * disables the DFA completely. Any cached DFA states are
+     * cleared, but the frozen NFA is kept.
+     *
+     * @param limit          the new DFA state limit
+     */
+    public synchronized void setDfaStateLimit(int limit) {
+        dfaStateLimit = limit;
+        clearDfa();
+    }
+
+    /**
+     * Clears the frozen NFA and all the cached DFA states. This
+     * method must be called whenever the NFA is modified.
+     */
+    private synchronized void clearFrozen() {
+        frozen = null;
+        clearDfa();
+    }
+
+    /**
+     * Clears all the cached DFA states. The frozen NFA doesn't
+     * depend on the DFA states and is kept.
+     */
+    private synchronized void clearDfa() {
+        dfaStart = null;
+        dfaFull = false;
+        dfaStates.clear();
+    }
+
+    /**
+     * Returns the frozen NFA used for matching. The frozen NFA will
+     * be created if not already present.
+     *
+     * @return the frozen NFA
+     */
+    private synchronized FrozenNFA freeze() {
+        if (frozen == null) {
+            frozen = new FrozenNFA(initial, initialChar);
+        }
+        return frozen;
+    }
+
+    /**
+     * Returns the number of states in the frozen (and minimized)
+     * automaton. This method is only used for testing.
+     *
+     * @return the number of frozen states
      */
-    private StateQueue queue = new StateQueue();
+    int getStateCount() {
+        FrozenNFA  nfa = frozen;
+
+        if (nfa == null) {
+            nfa = freeze();
+        }
+        return nfa.getStateCount();
+    }
 
     /**
      * Adds a string match to this automaton. New states and
@@ -66,20 +201,58 @@ class TokenNFA {
         State  state;
         char   ch = str.charAt(0);
 
-        if (ch < 128 && !ignoreCase) {
+        clearFrozen();
+        if (ch < 128 && !ignoreCase && initialChar[ch] == null) {
+            state = initialChar[ch] = new State();
+            initialText[ch] = true;
+        } else if (ch < 128 && !ignoreCase && initialText[ch]) {
             state = initialChar[ch];
-            if (state == null) {
-                state = initialChar[ch] = new State();
-            }
         } else {
-            state = initial.addOut(ch, ignoreCase, null);
+            state = addTextOut(initial, ch, ignoreCase, new State());
         }
         for (int i = 1; i < str.length(); i++) {
-            state = state.addOut(str.charAt(i), ignoreCase, null);
+            state = addTextOut(state, str.charAt(i), ignoreCase, null);
         }
         state.value = value;
     }
 
+    /**
+     * Adds a new outgoing string character transition. In
+     * case-insensitive mode, all characters with the same lower-case
+     * version are matched. This also includes case variants outside
+     * of the upper and lower case pair, such as the Kelvin sign for
+     * the letter 'k'.
+     *
+     * @param state          the source state
+     * @param ch             the character to match
+     * @param ignoreCase     the case-insensitive flag
+     * @param target         the target state, or null
+     *
+     * @return the transition target state
+     */
+    private State addTextOut(State state,
+                             char ch,
+                             boolean ignoreCase,
+                             State target) {
+
+        char[]  chars = CharRangeTransition.LOWER_CASE_CHARS;
+        char    lower = Character.toLowerCase(ch);
+
+        if (!ignoreCase) {
+            return state.addOut(ch, false, target);
+        }
+        if (target == null) {
+            target = new State();
+        }
+        state.addOut(new CharTransition(lower, target));
+        for (int i = 0; i < chars.length; i++) {
+            if (Character.toLowerCase(chars[i]) == lower) {
+                state.addOut(new CharTransition(chars[i], target));
+            }
+        }
+        return target;
+    }
+
     /**
      * Adds a regular expression match to this automaton. New states
      * and transitions will be added to extend this automaton to
@@ -104,6 +277,7 @@ class TokenNFA {
         String             debug = "DFA regexp; " + parser.getDebugInfo();
         boolean            isAscii;
 
+        clearFrozen();
         isAscii = parser.start.isAsciiOutgoing();
         for (int i = 0; isAscii && i < 128; i++) {
             boolean  match = false;
@@ -148,50 +322,261 @@ class TokenNFA {
      *
      * @param buffer         the input buffer to check
      * @param match          the token match to update
+     * @param queue          the state queue to use
      *
      * @return the number of characters matched, or
      *         zero (0) if no match was found
      *
      * @throws IOException if an I/O error occurred
      */
-    public int match(ReaderBuffer buffer, TokenMatch match) throws IOException {
+    public int match(ReaderBuffer buffer, TokenMatch match, StateQueue queue)
+        throws IOException {
+
+        FrozenNFA  nfa = frozen;
+
+        if (nfa == null) {
+            nfa = freeze();
+        }
+        if (dfaStateLimit <= 0) {
+            return matchNFA(nfa, buffer, match, queue);
+        } else {
+            return matchDFA(nfa, buffer, match, queue);
+        }
+    }
+
+    /**
+     * Checks if this NFA matches the specified input text by using
+     * the lazily constructed DFA. If the DFA state limit is reached
+     * during the match, the remaining input will be matched by
+     * simulating the NFA.
+     *
+     * @param nfa            the frozen NFA to use
+     * @param buffer         the input buffer to check
+     * @param match          the token match to update
+     * @param queue          the state queue to use
+     *
+     * @return the number of characters matched, or
+     *         zero (0) if no match was found
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private int matchDFA(FrozenNFA nfa,
+                         ReaderBuffer buffer,
+                         TokenMatch match,
+                         StateQueue queue)
+        throws IOException {
+
+        DFAState      start = getDfaStart(nfa);
+        DFAState      state = start;
+        DFAState      next;
+        TokenPattern  value = null;
         int           length = 0;
-        int           pos = 1;
+        int           pos = 0;
         int           peekChar;
-        State         state;
+
+        while ((peekChar = buffer.peek(pos)) >= 0) {
+            if (peekChar < 128) {
+                next = state.ascii[peekChar];
+            } else {
+                next = state.other[state.findRange((char) peekChar)];
+            }
+            if (next == null && !dfaFull) {
+                next = findDfaTransition(nfa,
+                                         start,
+                                         state,
+                                         (char) peekChar,
+                                         queue);
+            }
+            if (next == null && state == start) {
+                return matchNFA(nfa, buffer, match, queue);
+            } else if (next == null) {
+                if (value != null) {
+                    match.update(length, value);
+                }
+                matchQueue(nfa, buffer, match, queue, state.states, pos);
+                return match.length();
+            } else if (next.states.length == 0) {
+                break;
+            }
+            state = next;
+            pos++;
+            if (state.value != null) {
+                value = state.value;
+                length = pos;
+            }
+        }
+        if (value != null) {
+            match.update(length, value);
+        }
+        return length;
+    }
+
+    /**
+     * Returns the initial DFA state. The state will be created if
+     * not already present.
+     *
+     * @param nfa            the frozen NFA to use
+     *
+     * @return the initial DFA state
+     */
+    private DFAState getDfaStart(FrozenNFA nfa) {
+        DFAState  start = dfaStart;
+        int[]     states = new int[0];
+
+        if (start == null) {
+            synchronized (this) {
+                if (dfaStart == null) {
+                    dfaStart = new DFAState(states,
+                                            nfa,
+                                            nfa.findEdges(states, true));
+                }
+                start = dfaStart;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Finds the DFA state reached from another DFA state by a
+     * specified character. If the DFA state hasn't been created
+     * before, it will be created and cached. The transition is also
+     * stored in the source state, so that it can be followed without
+     * calling this method again.
+     *
+     * @param nfa            the frozen NFA to use
+     * @param start          the initial DFA state
+     * @param state          the source DFA state
+     * @param ch             the character to match
+     * @param queue          the state queue to use
+     *
+     * @return the DFA state found, or
+     *         null if the DFA state limit has been reached
+     */
+    private synchronized DFAState findDfaTransition(FrozenNFA nfa,
+                                                    DFAState start,
+                                                    DFAState state,
+                                                    char ch,
+                                                    StateQueue queue) {
+
+        int[]     states;
+        DFAState  next;
+        String    key;
+
+        if (start != dfaStart || nfa != frozen) {
+            // The DFA was cleared, so the source state is obsolete
+            return null;
+        }
+        queue.clear();
+        if (state == start) {
+            nfa.matchInitial(ch, queue);
+        } else {
+            for (int i = 0; i < state.states.length; i++) {
+                nfa.matchTransitions(state.states[i], ch, queue);
+            }
+        }
+        states = queue.toSortedSet();
+        key = DFAState.createKey(states);
+        next = (DFAState) dfaStates.get(key);
+        if (next == null) {
+            if (dfaStates.size() >= dfaStateLimit) {
+                dfaFull = true;
+                return null;
+            }
+            next = new DFAState(states, nfa, nfa.findEdges(states, false));
+            dfaStates.put(key, next);
+        }
+        if (ch < 128) {
+            state.ascii[ch] = next;
+        } else {
+            state.other[state.findRange(ch)] = next;
+        }
+        return next;
+    }
+
+    /**
+     * Checks if this NFA matches the specified input text by
+     * simulating the NFA directly.
+     *
+     * @param nfa            the frozen NFA to use
+     * @param buffer         the input buffer to check
+     * @param match          the token match to update
+     * @param queue          the state queue to use
+     *
+     * @return the number of characters matched, or
+     *         zero (0) if no match was found
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private int matchNFA(FrozenNFA nfa,
+                         ReaderBuffer buffer,
+                         TokenMatch match,
+                         StateQueue queue)
+        throws IOException {
+
+        int  peekChar;
 
         // The first step of the match loop has been unrolled and
         // optimized for performance below.
-        this.queue.clear();
+        queue.clear();
         peekChar = buffer.peek(0);
-        if (0 <= peekChar && peekChar < 128) {
-            state = this.initialChar[peekChar];
-            if (state != null) {
-                this.queue.addLast(state);
-            }
-        }
         if (peekChar >= 0) {
-            this.initial.matchTransitions((char) peekChar, this.queue, true);
+            nfa.matchInitial((char) peekChar, queue);
+        }
+        matchQueue(nfa, buffer, match, queue, null, 1);
+        return match.length();
+    }
+
+    /**
+     * Simulates the NFA from a set of states. The states must either
+     * be specified or already be present in the queue. In both cases
+     * all the states are assumed to have been reached by matching
+     * the specified number of characters.
+     *
+     * @param nfa            the frozen NFA to use
+     * @param buffer         the input buffer to check
+     * @param match          the token match to update
+     * @param queue          the state queue to use
+     * @param states         the initial states, or null for the queue
+     * @param pos            the number of characters already matched
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private void matchQueue(FrozenNFA nfa,
+                            ReaderBuffer buffer,
+                            TokenMatch match,
+                            StateQueue queue,
+                            int[] states,
+                            int pos)
+        throws IOException {
+
+        TokenPattern[]  values = nfa.values;
+        int             peekChar;
+        int             state;
+
+        if (states != null) {
+            queue.clear();
+            for (int i = 0; i < states.length; i++) {
+                queue.addLast(states[i]);
+            }
         }
-        this.queue.markEnd();
-        peekChar = buffer.peek(1);
+        queue.markEnd();
+        peekChar = buffer.peek(pos);
 
         // The remaining match loop processes all subsequent states
-        while (!this.queue.isEmpty()) {
-            if (this.queue.isMarked()) {
+        while (!queue.isEmpty()) {
+            if (queue.isMarked()) {
                 pos++;
                 peekChar = buffer.peek(pos);
-                this.queue.markEnd();
+                queue.markEnd();
             }
-            state = this.queue.removeFirst();
-            if (state.value != null) {
-                match.update(pos, state.value);
+            state = queue.removeFirst();
+            if (values[state] != null) {
+                match.update(pos, values[state]);
             }
             if (peekChar >= 0) {
-                state.matchTransitions((char) peekChar, this.queue, false);
+                nfa.matchTransitions(state, (char) peekChar, queue);
             }
         }
-        return length;
     }
 
 
@@ -201,6 +586,15 @@ class TokenNFA {
      */
     protected static class State {
 
+        /**
+         * The state id, or -1 if not yet assigned. The ids are
+         * assigned each time the NFA is frozen, and are only used
+         * until the equivalent states have been merged.
+         *
+         * @see FrozenNFA
+         */
+        protected int id = -1;
+
         /**
          * The optional state value (if it is a final state).
          */
@@ -362,56 +756,6 @@ class TokenNFA {
             return (res == null) ? null : res.state;
         }
 
-        /**
-         * Attempts a match on each of the transitions leading from
-         * this state. If a match is found, its state will be added
-         * to the queue. If the initial match flag is set, epsilon
-         * transitions will also be matched (and their targets called
-         * recursively).
-         *
-         * @param ch         the character to match
-         * @param queue      the state queue
-         * @param initial    the initial match flag
-         */
-        public void matchTransitions(char ch, StateQueue queue, boolean initial) {
-            Transition  trans;
-            State       target;
-
-            for (int i = 0; i < outgoing.length; i++) {
-                trans = outgoing[i];
-                target = trans.state;
-                if (initial && trans instanceof EpsilonTransition) {
-                    target.matchTransitions(ch, queue, true);
-                } else if (trans.match(ch)) {
-                    queue.addLast(target);
-                    if (target.epsilonOut) {
-                        target.matchEmpty(queue);
-                    }
-                }
-            }
-        }
-
-        /**
-         * Adds all the epsilon transition targets to the specified
-         * queue.
-         *
-         * @param queue      the state queue
-         */
-        public void matchEmpty(StateQueue queue) {
-            Transition  trans;
-            State       target;
-
-            for (int i = 0; i < outgoing.length; i++) {
-                trans = outgoing[i];
-                if (trans instanceof EpsilonTransition) {
-                    target = trans.state;
-                    queue.addLast(target);
-                    if (target.epsilonOut) {
-                        target.matchEmpty(queue);
-                    }
-                }
-            }
-        }
     }
 
 
@@ -583,7 +927,18 @@ class TokenNFA {
 
     /**
      * A character range match transition. Used for user-defined
-     * character sets in regular expressions.
+     * character sets in regular expressions. The characters and
+     * ranges are added one by one and must then be compiled into a
+     * lookup table before matching. The compiled table consists of a
+     * bitmap for the ASCII characters and a sorted array of ranges
+     * for all other characters. Any case-insensitivity and inverse
+     * matching is resolved when compiling.<p>
+     *
+     * Character sets with Unicode general categories may also match
+     * supplementary characters. These cannot be matched by a single
+     * transition, so the supplementary ranges are only compiled here
+     * and must be added as surrogate pair transitions. Unpaired
+     * surrogate characters are never matched by such sets.
      */
     protected static class CharRangeTransition extends Transition {
 
@@ -598,10 +953,84 @@ class TokenNFA {
         protected boolean ignoreCase;
 
         /**
-         * The character set content. This array may contain either
-         * range objects or Character objects.
+         * The character set content. This array contains pairs of
+         * minimum and maximum character values, in the order added.
+         * If the case-insensitive flag is set, all values have been
+         * converted to lower-case.
+         */
+        private char[] contents = new char[0];
+
+        /**
+         * The Unicode general category content. Each value in this
+         * array is a bit mask of character types (as returned by
+         * Character.getType()). A negative value indicates that the
+         * characters not in the bit mask should be matched instead.
+         */
+        private int[] categories = new int[0];
+
+        /**
+         * The compiled supplementary character set edges. This array
+         * contains the sorted code points where the set membership
+         * changes, starting at or above the first supplementary
+         * code point. Only character sets with Unicode general
+         * categories have supplementary characters.
+         */
+        private int[] supplementary = new int[0];
+
+        /**
+         * The compiled bitmap for the ASCII characters 0-63.
+         */
+        private long asciiLow = 0L;
+
+        /**
+         * The compiled bitmap for the ASCII characters 64-127.
+         */
+        private long asciiHigh = 0L;
+
+        /**
+         * The compiled non-ASCII character ranges. This array
+         * contains pairs of minimum and maximum character values,
+         * sorted in increasing order and without overlaps.
+         */
+        private char[] ranges = new char[0];
+
+        /**
+         * The characters having a different lower-case version,
+         * sorted in increasing order. This array is used for
+         * case-insensitive character sets.
+         */
+        private static final char[] LOWER_CASE_CHARS = findLowerCaseChars();
+
+        /**
+         * The Unicode general category mask for the cased letters,
+         * i.e. the upper, lower and title case letter categories.
+         */
+        private static final int CASED_LETTERS =
+            (1 << Character.UPPERCASE_LETTER) |
+            (1 << Character.LOWERCASE_LETTER) |
+            (1 << Character.TITLECASE_LETTER);
+
+        /**
+         * The cached code point set edges for Unicode general category
+         * masks, indexed by the mask value.
+         */
+        private static final HashMap CATEGORY_EDGES = new HashMap();
+
+        /**
+         * Finds all characters having a different lower-case version.
+         *
+         * @return the sorted array of characters found
          */
-        private Object[] contents = new Object[0];
+        private static char[] findLowerCaseChars() {
+            StringBuffer  buffer = new StringBuffer();
+
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                if (Character.toLowerCase((char) c) != c) {
+                    buffer.append((char) c);
+                }
+            }
+            return buffer.toString().toCharArray();
+        }
 
         /**
          * Creates a new character range transition.
@@ -624,26 +1053,7 @@ class TokenNFA {
          *         false otherwise
          */
         public boolean isAscii() {
-            Object     obj;
-            Character  c;
-
-            if (inverse) {
-                return false;
-            }
-            for (int i = 0; i < contents.length; i++) {
-                obj = contents[i];
-                if (obj instanceof Character) {
-                    c = (Character) obj;
-                    if (c.charValue() < 0 || 128 <= c.charValue()) {
-                        return false;
-                    }
-                } else if (obj instanceof Range) {
-                    if (!((Range) obj).isAscii()) {
-                        return false;
-                    }
-                }
-            }
-            return true;
+            return ranges.length == 0;
         }
 
         /**
@@ -652,10 +1062,7 @@ class TokenNFA {
          * @param c              the character to add
          */
         public void addCharacter(char c) {
-            if (ignoreCase) {
-                c = Character.toLowerCase(c);
-            }
-            addContent(Character.valueOf(c));
+            addRange(c, c);
         }
 
         /**
@@ -665,123 +1072,398 @@ class TokenNFA {
          * @param max            the maximum character value
          */
         public void addRange(char min, char max) {
+            char[]  temp = contents;
+
             if (ignoreCase) {
                 min = Character.toLowerCase(min);
                 max = Character.toLowerCase(max);
             }
-            addContent(new Range(min, max));
+            contents = new char[temp.length + 2];
+            System.arraycopy(temp, 0, contents, 0, temp.length);
+            contents[temp.length] = min;
+            contents[temp.length + 1] = max;
         }
 
         /**
-         * Adds an object to the character set content array.
+         * Adds a number of Unicode general categories to this
+         * character set. In case-insensitive mode, any one of the
+         * cased letter categories (Lu, Ll and Lt) will include all
+         * of them, as in the java.util.regex package.
+         *
+         * @param mask           the bit mask of character types
+         * @param negate         the negated categories flag
          *
-         * @param obj            the object to add
+         * @since 1.7
          */
-        private void addContent(Object obj) {
-            Object[]  temp = contents;
+        public void addCategories(int mask, boolean negate) {
+            int[]  temp = categories;
 
-            contents = new Object[temp.length + 1];
-            System.arraycopy(temp, 0, contents, 0, temp.length);
-            contents[temp.length] = obj;
+            if (ignoreCase && (mask & CASED_LETTERS) != 0) {
+                mask |= CASED_LETTERS;
+            }
+            categories = new int[temp.length + 1];
+            System.arraycopy(temp, 0, categories, 0, temp.length);
+            categories[temp.length] = negate ? (mask | 0x80000000) : mask;
         }
 
         /**
-         * Checks if the specified character matches the transition.
-         *
-         * @param ch             the character to check
+         * Compiles the character set content into the lookup table
+         * used for matching. This method must be called after all
+         * the characters and ranges have been added.
+         */
+        public void compile() {
+            StringBuffer  buffer = new StringBuffer();
+            int[]         edges = findContentEdges();
+            int[]         all = { 0, Character.MAX_VALUE + 1 };
+            int[]         surrogates = { 0xD800, 0xE000 };
+            int           min;
+            int           max;
+
+            if (categories.length > 0) {
+                all[1] = Character.MAX_CODE_POINT + 1;
+            }
+            for (int i = 0; i < categories.length; i++) {
+                edges = union(edges, findCategoryEdges(categories[i]));
+            }
+            if (inverse) {
+                edges = toggle(edges, all);
+            }
+            if (categories.length > 0) {
+                edges = toggle(union(edges, surrogates), surrogates);
+            }
+            supplementary = slice(edges,
+                                  Character.MIN_SUPPLEMENTARY_CODE_POINT,
+                                  Character.MAX_CODE_POINT + 1);
+            edges = slice(edges, 0, Character.MIN_SUPPLEMENTARY_CODE_POINT);
+            asciiLow = 0L;
+            asciiHigh = 0L;
+            for (int i = 0; i < edges.length; i += 2) {
+                min = edges[i];
+                max = edges[i + 1] - 1;
+                for (int c = min; c <= max && c < 64; c++) {
+                    asciiLow |= 1L << c;
+                }
+                for (int c = Math.max(min, 64); c <= max && c < 128; c++) {
+                    asciiHigh |= 1L << (c - 64);
+                }
+                if (max >= 128) {
+                    buffer.append((char) Math.max(min, 128));
+                    buffer.append((char) max);
+                }
+            }
+            ranges = buffer.toString().toCharArray();
+        }
+
+        /**
+         * Finds the character set edges for the character ranges
+         * added. The edges are the sorted character values where the
+         * set membership changes, i.e. the first character in each
+         * range and the first character following it. In
+         * case-insensitive mode, characters whose lower-case version
+         * is in a range are also included, and other characters with
+         * a lower-case version are excluded.
          *
-         * @return true if the character matches, or
-         *         false otherwise
+         * @return the sorted array of character set edges
          */
-        public boolean match(char ch) {
-            Object     obj;
-            Character  c;
-            Range      r;
+        private int[] findContentEdges() {
+            long[]  pairs = new long[contents.length / 2];
+            int[]   edges = new int[contents.length];
+            int[]   flips;
+            int     count = 0;
+            int     min;
+            int     max;
+            char    c;
 
+            for (int i = 0; i < pairs.length; i++) {
+                pairs[i] = ((long) contents[i * 2] << 16) |
+                           contents[i * 2 + 1];
+            }
+            Arrays.sort(pairs);
+            for (int i = 0; i < pairs.length; i++) {
+                min = (int) (pairs[i] >>> 16);
+                max = (int) (pairs[i] & 0xFFFF);
+                if (min > max) {
+                    // Empty range, ignored
+                } else if (count > 0 && min <= edges[count - 1]) {
+                    edges[count - 1] = Math.max(edges[count - 1], max + 1);
+                } else {
+                    edges[count++] = min;
+                    edges[count++] = max + 1;
+                }
+            }
+            edges = trim(edges, count);
             if (ignoreCase) {
-                ch = Character.toLowerCase(ch);
-            }
-            for (int i = 0; i < contents.length; i++) {
-                obj = contents[i];
-                if (obj instanceof Character) {
-                    c = (Character) obj;
-                    if (c.charValue() == ch) {
-                        return !inverse;
-                    }
-                } else if (obj instanceof Range) {
-                    r = (Range) obj;
-                    if (r.inside(ch)) {
-                        return !inverse;
+                flips = new int[LOWER_CASE_CHARS.length * 2];
+                count = 0;
+                for (int i = 0; i < LOWER_CASE_CHARS.length; i++) {
+                    c = LOWER_CASE_CHARS[i];
+                    if (contains(edges, c) !=
+                        contains(edges, Character.toLowerCase(c))) {
+
+                        flips[count++] = c;
+                        flips[count++] = c + 1;
                     }
                 }
+                edges = toggle(edges, trim(flips, count));
             }
-            return inverse;
+            return edges;
         }
 
         /**
-         * Creates a copy of this transition but with another target
-         * state.
+         * Returns the compiled supplementary character set edges.
+         * The edges are the sorted code points where the set
+         * membership changes, all of them supplementary.
          *
-         * @param state          the new target state
+         * @return the sorted array of supplementary code point edges
          *
-         * @return an identical copy of this transition
+         * @since 1.7
          */
-        public Transition copy(State state) {
-            CharRangeTransition  copy;
-
-            copy = new CharRangeTransition(inverse, ignoreCase, state);
-            copy.contents = contents;
-            return copy;
+        public int[] getSupplementaryEdges() {
+            return supplementary;
         }
 
         /**
-         * A character range class.
-         */
-        private class Range {
+         * Finds the code point set edges for a Unicode general
+         * category mask. All Unicode code points are included, not
+         * only those in a single char. The edges are cached, since
+         * they are slow to calculate and only a few category masks
+         * are normally used.
+         *
+         * @param mask           the category mask, negative if negated
+         *
+         * @return the sorted array of code point set edges
+         *
+         * @see #findContentEdges()
+         */
+        private static int[] findCategoryEdges(int mask) {
+            Integer  key = Integer.valueOf(mask);
+            int[]    edges;
+            int      count = 0;
+            boolean  prev = false;
+            boolean  match;
+
+            synchronized (CATEGORY_EDGES) {
+                edges = (int[]) CATEGORY_EDGES.get(key);
+            }
+            if (edges != null) {
+                return edges;
+            }
+            edges = new int[1024];
+            for (int c = 0; c <= Character.MAX_CODE_POINT; c++) {
+                match = ((mask & (1 << Character.getType(c))) != 0) !=
+                        (mask < 0);
+                if (match != prev) {
+                    if (count == edges.length) {
+                        edges = resize(edges, count, count * 2);
+                    }
+                    edges[count++] = c;
+                    prev = match;
+                }
+            }
+            if (prev) {
+                edges = resize(edges, count, count + 1);
+                edges[count++] = Character.MAX_CODE_POINT + 1;
+            }
+            edges = trim(edges, count);
+            synchronized (CATEGORY_EDGES) {
+                CATEGORY_EDGES.put(key, edges);
+            }
+            return edges;
+        }
+
+        /**
+         * Checks if a character is in a character set.
+         *
+         * @param edges          the sorted character set edges
+         * @param c              the character to check
+         *
+         * @return true if the character is in the set, or
+         *         false otherwise
+         */
+        private static boolean contains(int[] edges, int c) {
+            int  pos = Arrays.binarySearch(edges, c);
+
+            return (pos >= 0) ? pos % 2 == 0 : (-pos - 1) % 2 == 1;
+        }
+
+        /**
+         * Creates the union of two character sets.
+         *
+         * @param a              the first sorted character set edges
+         * @param b              the second sorted character set edges
+         *
+         * @return the sorted character set edges of the union
+         */
+        private static int[] union(int[] a, int[] b) {
+            int[]    res = new int[a.length + b.length];
+            int      count = 0;
+            int      i = 0;
+            int      j = 0;
+            int      pos;
+            boolean  inA = false;
+            boolean  inB = false;
 
-            /**
-             * The minimum character value.
-             */
-            private char min;
+            while (i < a.length || j < b.length) {
+                pos = Math.min((i < a.length) ? a[i] : Integer.MAX_VALUE,
+                               (j < b.length) ? b[j] : Integer.MAX_VALUE);
+                if (i < a.length && a[i] == pos) {
+                    inA = !inA;
+                    i++;
+                }
+                if (j < b.length && b[j] == pos) {
+                    inB = !inB;
+                    j++;
+                }
+                if ((inA || inB) != (count % 2 == 1)) {
+                    res[count++] = pos;
+                }
+            }
+            return trim(res, count);
+        }
 
-            /**
-             * The maximum character value.
-             */
-            private char max;
+        /**
+         * Creates the symmetric difference of two character sets.
+         * This toggles the membership of the characters in the second
+         * set.
+         *
+         * @param a              the first sorted character set edges
+         * @param b              the second sorted character set edges
+         *
+         * @return the sorted character set edges of the difference
+         */
+        private static int[] toggle(int[] a, int[] b) {
+            int[]  res = new int[a.length + b.length];
+            int    count = 0;
 
-            /**
-             * Creates a new character range.
-             *
-             * @param min        the minimum character value
-             * @param max        the maximum character value
-             */
-            public Range(char min, char max) {
-                this.min = min;
-                this.max = max;
+            System.arraycopy(a, 0, res, 0, a.length);
+            System.arraycopy(b, 0, res, a.length, b.length);
+            Arrays.sort(res);
+            for (int i = 0; i < res.length; i++) {
+                if (i + 1 < res.length && res[i] == res[i + 1]) {
+                    i++;
+                } else {
+                    res[count++] = res[i];
+                }
             }
+            return trim(res, count);
+        }
+
+        /**
+         * Finds the part of a character set within a range of code
+         * points.
+         *
+         * @param edges          the sorted character set edges
+         * @param min            the first code point in the range
+         * @param max            the code point following the range
+         *
+         * @return the sorted character set edges within the range
+         */
+        private static int[] slice(int[] edges, int min, int max) {
+            int[]  res = new int[edges.length + 2];
+            int    count = 0;
+
+            if (contains(edges, min)) {
+                res[count++] = min;
+            }
+            for (int i = 0; i < edges.length; i++) {
+                if (min < edges[i] && edges[i] < max) {
+                    res[count++] = edges[i];
+                }
+            }
+            if (count % 2 == 1) {
+                res[count++] = max;
+            }
+            return trim(res, count);
+        }
+
+        /**
+         * Returns a copy of an array with a different length. Any
+         * additional array elements will be zero.
+         *
+         * @param arr            the array to copy
+         * @param count          the number of elements to copy
+         * @param length         the new array length
+         *
+         * @return the new array
+         */
+        private static int[] resize(int[] arr, int count, int length) {
+            int[]  res = new int[length];
 
-            /**
-             * Checks if this range only matches ASCII characters
-             *
-             * @return true if this range only matches ASCII, or
-             *         false otherwise
-             */
-            public boolean isAscii() {
-                return 0 <= min && min < 128 &&
-                       0 <= max && max < 128;
+            System.arraycopy(arr, 0, res, 0, count);
+            return res;
+        }
+
+        /**
+         * Returns an array truncated to a specified length.
+         *
+         * @param arr            the array to truncate
+         * @param length         the new array length
+         *
+         * @return the truncated array, or
+         *         the same array if already of the right length
+         */
+        private static int[] trim(int[] arr, int length) {
+            int[]  res = arr;
+
+            if (length < arr.length) {
+                res = new int[length];
+                System.arraycopy(arr, 0, res, 0, length);
             }
+            return res;
+        }
 
-            /**
-             * Checks if the specified character is inside the range.
-             *
-             * @param c          the character to check
-             *
-             * @return true if the character is in the range, or
-             *         false otherwise
-             */
-            public boolean inside(char c) {
-                return min <= c && c <= max;
+        /**
+         * Checks if the specified character matches the transition.
+         *
+         * @param ch             the character to check
+         *
+         * @return true if the character matches, or
+         *         false otherwise
+         */
+        public boolean match(char ch) {
+            int  low;
+            int  high;
+            int  mid;
+
+            if (ch < 64) {
+                return (asciiLow & (1L << ch)) != 0;
+            } else if (ch < 128) {
+                return (asciiHigh & (1L << (ch - 64))) != 0;
+            }
+            low = 0;
+            high = ranges.length / 2 - 1;
+            while (low <= high) {
+                mid = (low + high) >>> 1;
+                if (ch < ranges[mid * 2]) {
+                    high = mid - 1;
+                } else if (ch > ranges[mid * 2 + 1]) {
+                    low = mid + 1;
+                } else {
+                    return true;
+                }
             }
+            return false;
+        }
+
+        /**
+         * Creates a copy of this transition but with another target
+         * state.
+         *
+         * @param state          the new target state
+         *
+         * @return an identical copy of this transition
+         */
+        public Transition copy(State state) {
+            CharRangeTransition  copy;
+
+            copy = new CharRangeTransition(inverse, ignoreCase, state);
+            copy.contents = contents;
+            copy.categories = categories;
+            copy.supplementary = supplementary;
+            copy.asciiLow = asciiLow;
+            copy.asciiHigh = asciiHigh;
+            copy.ranges = ranges;
+            return copy;
         }
     }
 
@@ -1187,6 +1869,797 @@ class TokenNFA {
     }
 
 
+    /**
+     * A frozen NFA. This is a compact representation of the NFA
+     * states and transitions used for matching. Each state is
+     * identified by an integer id, and the transitions are stored in
+     * packed arrays of transition kinds, target states and arguments.
+     * The transitions leading from a state are stored consecutively.
+     * All character class transitions are converted into character
+     * set lookup tables, so that only two kinds of transitions
+     * remain. Epsilon transitions are replaced by precomputed epsilon
+     * closures, i.e. the states reachable by epsilon transitions
+     * only. A frozen NFA is never modified once created.<p>
+     *
+     * When freezing, the states are minimized by partition
+     * refinement. All the states having the same value and equivalent
+     * transitions (i.e. the same transition kinds and arguments
+     * leading to equivalent states) are merged into a single state.
+     * For the deterministic parts of the NFA, such as the string
+     * matches, this is the classic DFA minimization. Each merged
+     * state matches exactly the same input as the original states,
+     * so the token pattern matches and priorities are preserved.
+     */
+    protected static class FrozenNFA {
+
+        /**
+         * The single character transition kind. The transition
+         * argument contains the character to match.
+         */
+        private static final byte CHAR = 0;
+
+        /**
+         * The character set transition kind. The transition argument
+         * contains the character set index.
+         */
+        private static final byte SET = 1;
+
+        /**
+         * The epsilon transition kind. This kind is only used while
+         * minimizing, and the transition argument is always zero.
+         */
+        private static final byte EPSILON = 2;
+
+        /**
+         * The initial state id.
+         */
+        private final int initial;
+
+        /**
+         * The initial state lookup table, indexed by the first ASCII
+         * character. Contains -1 for characters without a state.
+         */
+        private final int[] initialChar = new int[128];
+
+        /**
+         * The state values, indexed by the state id.
+         */
+        protected final TokenPattern[] values;
+
+        /**
+         * The epsilon closures, indexed by the state id. Contains
+         * null for states without outgoing epsilon transitions.
+         */
+        private final int[][] closures;
+
+        /**
+         * The index of the first transition for each state, indexed
+         * by the state id. The last entry contains the total number
+         * of transitions.
+         */
+        private final int[] first;
+
+        /**
+         * The transition kinds, indexed by the transition.
+         */
+        private final byte[] kinds;
+
+        /**
+         * The transition target state ids, indexed by the transition.
+         */
+        private final int[] targets;
+
+        /**
+         * The transition arguments, indexed by the transition.
+         */
+        private final int[] args;
+
+        /**
+         * The character set bitmaps for the ASCII characters 0-63,
+         * indexed by the character set.
+         */
+        private final long[] setLow;
+
+        /**
+         * The character set bitmaps for the ASCII characters 64-127,
+         * indexed by the character set.
+         */
+        private final long[] setHigh;
+
+        /**
+         * The character set non-ASCII ranges, indexed by the
+         * character set. Each array contains pairs of minimum and
+         * maximum character values, sorted in increasing order.
+         */
+        private final char[][] setRanges;
+
+        /**
+         * Creates a new frozen NFA. All the states reachable from
+         * the initial states will be assigned new ids.
+         *
+         * @param initial        the initial state
+         * @param initialChar    the initial state lookup table
+         */
+        public FrozenNFA(State initial, State[] initialChar) {
+            ArrayList    states = new ArrayList();
+            HashSet      visited = new HashSet();
+            ArrayList    sets = new ArrayList();
+            HashMap      setIndex = new HashMap();
+            long[][]     trans;
+            long[][]     merged;
+            int[]        block;
+            int          count = 0;
+            int          pos = 0;
+
+            // Find all states and pack their transitions
+            initial = skipEpsilons(initial);
+            addReachable(initial, states, visited);
+            for (int i = 0; i < initialChar.length; i++) {
+                if (initialChar[i] != null) {
+                    addReachable(skipEpsilons(initialChar[i]),
+                                 states,
+                                 visited);
+                }
+            }
+            for (int i = 0; i < states.size(); i++) {
+                ((State) states.get(i)).id = i;
+            }
+            trans = new long[states.size()][];
+            for (int i = 0; i < states.size(); i++) {
+                trans[i] = packTransitions((State) states.get(i),
+                                           sets,
+                                           setIndex);
+            }
+
+            // Minimize and merge the states
+            block = minimize(states, trans);
+            for (int i = 0; i < block.length; i++) {
+                count = Math.max(count, block[i] + 1);
+            }
+            values = new TokenPattern[count];
+            merged = new long[count][];
+            for (int i = 0; i < block.length; i++) {
+                if (merged[block[i]] == null) {
+                    values[block[i]] = ((State) states.get(i)).value;
+                    merged[block[i]] = remapTargets(trans[i], block);
+                }
+            }
+
+            // Create the packed transition arrays
+            closures = new int[count][];
+            first = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                closures[i] = findClosure(i, merged);
+                for (int j = 0; j < merged[i].length; j++) {
+                    if (merged[i][j] >>> 62 != EPSILON) {
+                        pos++;
+                    }
+                }
+            }
+            kinds = new byte[pos];
+            targets = new int[pos];
+            args = new int[pos];
+            pos = 0;
+            for (int i = 0; i < count; i++) {
+                first[i] = pos;
+                for (int j = 0; j < merged[i].length; j++) {
+                    if (merged[i][j] >>> 62 != EPSILON) {
+                        kinds[pos] = (byte) (merged[i][j] >>> 62);
+                        args[pos] = (int) (merged[i][j] >>> 32) & 0x3FFFFFFF;
+                        targets[pos++] = (int) merged[i][j];
+                    }
+                }
+            }
+            first[count] = pos;
+            this.initial = block[initial.id];
+            for (int i = 0; i < initialChar.length; i++) {
+                if (initialChar[i] == null) {
+                    this.initialChar[i] = -1;
+                } else {
+                    pos = skipEpsilons(initialChar[i]).id;
+                    this.initialChar[i] = block[pos];
+                }
+            }
+            setLow = new long[sets.size()];
+            setHigh = new long[sets.size()];
+            setRanges = new char[sets.size()][];
+            for (int i = 0; i < sets.size(); i++) {
+                CharRangeTransition  set = (CharRangeTransition) sets.get(i);
+                setLow[i] = set.asciiLow;
+                setHigh[i] = set.asciiHigh;
+                setRanges[i] = set.ranges;
+            }
+        }
+
+        /**
+         * Returns the number of states.
+         *
+         * @return the number of states
+         */
+        public int getStateCount() {
+            return values.length;
+        }
+
+        /**
+         * Adds all the NFA states reachable from a state to a list.
+         * The states will be added in depth-first order. States only
+         * leading to another state by an epsilon transition are
+         * skipped.
+         *
+         * @param state          the initial NFA state
+         * @param states         the list of states found
+         * @param visited        the set of states already visited
+         */
+        private static void addReachable(State state,
+                                         ArrayList states,
+                                         HashSet visited) {
+
+            ArrayList  stack = new ArrayList();
+
+            stack.add(state);
+            while (stack.size() > 0) {
+                state = (State) stack.remove(stack.size() - 1);
+                if (visited.add(state)) {
+                    states.add(state);
+                    for (int i = state.outgoing.length - 1; i >= 0; i--) {
+                        stack.add(skipEpsilons(state.outgoing[i].state));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Skips any states only leading to another state by an
+         * epsilon transition. Such states have no value and no other
+         * transitions, so they can be replaced by the state reached.
+         *
+         * @param state          the NFA state
+         *
+         * @return the first state not skipped
+         */
+        private static State skipEpsilons(State state) {
+            HashSet  visited = null;
+
+            while (state.value == null &&
+                   state.outgoing.length == 1 &&
+                   state.outgoing[0] instanceof EpsilonTransition) {
+
+                if (visited == null) {
+                    visited = new HashSet();
+                }
+                if (!visited.add(state)) {
+                    break;
+                }
+                state = state.outgoing[0].state;
+            }
+            return state;
+        }
+
+        /**
+         * Packs the transitions leading from an NFA state. Each
+         * transition is packed into a single number, with the kind in
+         * the top two bits, the argument in the next 30 bits and the
+         * target state id in the low 32 bits.
+         *
+         * @param state          the NFA state
+         * @param sets           the list of character sets
+         * @param setIndex       the character set index
+         *
+         * @return the array of packed transitions
+         */
+        private static long[] packTransitions(State state,
+                                              ArrayList sets,
+                                              HashMap setIndex) {
+
+            long[]      res = new long[state.outgoing.length];
+            Transition  trans;
+            long        kind;
+            long        arg;
+
+            for (int i = 0; i < res.length; i++) {
+                trans = state.outgoing[i];
+                if (trans instanceof EpsilonTransition) {
+                    kind = EPSILON;
+                    arg = 0;
+                } else if (trans instanceof CharTransition) {
+                    kind = CHAR;
+                    arg = ((CharTransition) trans).match;
+                } else {
+                    kind = SET;
+                    arg = findSet(trans, sets, setIndex);
+                }
+                res[i] = (kind << 62) | (arg << 32) |
+                         skipEpsilons(trans.state).id;
+            }
+            return res;
+        }
+
+        /**
+         * Minimizes the states by partition refinement. The states
+         * are first divided into blocks by their values. Each block
+         * is then repeatedly split by the transitions leading to
+         * other blocks, until no more blocks can be split.
+         *
+         * @param states         the list of NFA states
+         * @param trans          the packed state transitions
+         *
+         * @return the block number for each state id
+         */
+        private static int[] minimize(ArrayList states, long[][] trans) {
+            int[]         block = new int[states.size()];
+            int[]         split = new int[states.size()];
+            HashMap       blocks = new HashMap();
+            StringBuffer  buffer = new StringBuffer();
+            long[]        mapped;
+            Object        key;
+            int           count = -1;
+
+            for (int i = 0; i < block.length; i++) {
+                key = ((State) states.get(i)).value;
+                key = (key == null) ? "" : key;
+                if (!blocks.containsKey(key)) {
+                    blocks.put(key, Integer.valueOf(blocks.size()));
+                }
+                block[i] = ((Integer) blocks.get(key)).intValue();
+            }
+            while (count != blocks.size()) {
+                count = blocks.size();
+                blocks.clear();
+                for (int i = 0; i < block.length; i++) {
+                    mapped = remapTargets(trans[i], block);
+                    buffer.setLength(0);
+                    buffer.append(block[i]);
+                    for (int j = 0; j < mapped.length; j++) {
+                        buffer.append(',');
+                        buffer.append(mapped[j]);
+                    }
+                    key = buffer.toString();
+                    if (!blocks.containsKey(key)) {
+                        blocks.put(key, Integer.valueOf(blocks.size()));
+                    }
+                    split[i] = ((Integer) blocks.get(key)).intValue();
+                }
+                System.arraycopy(split, 0, block, 0, block.length);
+            }
+            return block;
+        }
+
+        /**
+         * Replaces the target state ids in an array of packed
+         * transitions with their block numbers. The result is sorted
+         * and duplicate transitions are removed.
+         *
+         * @param trans          the packed transitions
+         * @param block          the block number for each state id
+         *
+         * @return the new sorted array of packed transitions
+         */
+        private static long[] remapTargets(long[] trans, int[] block) {
+            long[]  res = new long[trans.length];
+            int     count = 0;
+
+            for (int i = 0; i < trans.length; i++) {
+                res[i] = (trans[i] & 0xFFFFFFFF00000000L) |
+                         block[(int) trans[i]];
+            }
+            Arrays.sort(res);
+            for (int i = 0; i < res.length; i++) {
+                if (count == 0 || res[count - 1] != res[i]) {
+                    res[count++] = res[i];
+                }
+            }
+            if (count < res.length) {
+                long[] temp = res;
+                res = new long[count];
+                System.arraycopy(temp, 0, res, 0, count);
+            }
+            return res;
+        }
+
+        /**
+         * Finds the epsilon closure for a state. The closure
+         * contains the ids of all the states reachable by one or
+         * more epsilon transitions, except the state itself.
+         *
+         * @param state          the initial state id
+         * @param trans          the packed transitions, by state id
+         *
+         * @return the array of state ids in the epsilon closure, or
+         *         null if the closure is empty
+         */
+        private static int[] findClosure(int state, long[][] trans) {
+            ArrayList  found = new ArrayList();
+            HashSet    visited = new HashSet();
+            Integer    target;
+            int[]      res;
+
+            found.add(Integer.valueOf(state));
+            visited.add(found.get(0));
+            for (int i = 0; i < found.size(); i++) {
+                state = ((Integer) found.get(i)).intValue();
+                for (int j = 0; j < trans[state].length; j++) {
+                    target = Integer.valueOf((int) trans[state][j]);
+                    if (trans[state][j] >>> 62 == EPSILON &&
+                        visited.add(target)) {
+
+                        found.add(target);
+                    }
+                }
+            }
+            if (found.size() <= 1) {
+                return null;
+            }
+            res = new int[found.size() - 1];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = ((Integer) found.get(i + 1)).intValue();
+            }
+            return res;
+        }
+
+        /**
+         * Finds or creates the character set for a transition. The
+         * character range transitions are already compiled into
+         * lookup tables. Other character class transitions are
+         * converted into character range transitions. Character sets
+         * with the same content are shared, so that equivalent
+         * transitions can be merged when minimizing.
+         *
+         * @param trans          the character class transition
+         * @param sets           the list of character sets
+         * @param setIndex       the character set index, by class
+         *                       and by content
+         *
+         * @return the character set index
+         */
+        private static int findSet(Transition trans,
+                                   ArrayList sets,
+                                   HashMap setIndex) {
+
+            CharRangeTransition  set;
+            Integer              index;
+            String               key;
+            boolean              prev = false;
+            boolean              match;
+            int                  min = 0;
+
+            index = (Integer) setIndex.get(trans.getClass());
+            if (index != null) {
+                return index.intValue();
+            } else if (trans instanceof CharRangeTransition) {
+                set = (CharRangeTransition) trans;
+            } else {
+                set = new CharRangeTransition(false, false, new State());
+                for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                    match = trans.match((char) c);
+                    if (match && !prev) {
+                        min = c;
+                    } else if (!match && prev) {
+                        set.addRange((char) min, (char) (c - 1));
+                    }
+                    prev = match;
+                }
+                if (prev) {
+                    set.addRange((char) min, Character.MAX_VALUE);
+                }
+                set.compile();
+            }
+            key = set.asciiLow + "," + set.asciiHigh + "," +
+                  new String(set.ranges);
+            index = (Integer) setIndex.get(key);
+            if (index == null) {
+                sets.add(set);
+                index = Integer.valueOf(sets.size() - 1);
+                setIndex.put(key, index);
+            }
+            if (!(trans instanceof CharRangeTransition)) {
+                setIndex.put(trans.getClass(), index);
+            }
+            return index.intValue();
+        }
+
+        /**
+         * Adds a state and its epsilon closure to a queue.
+         *
+         * @param state          the state id
+         * @param queue          the state queue
+         */
+        private void addState(int state, StateQueue queue) {
+            int[]  closure;
+
+            if (queue.addLast(state)) {
+                closure = closures[state];
+                for (int i = 0; closure != null && i < closure.length; i++) {
+                    queue.addLast(closure[i]);
+                }
+            }
+        }
+
+        /**
+         * Attempts a match from the initial state. All the states
+         * reached will be added to the queue.
+         *
+         * @param ch             the character to match
+         * @param queue          the state queue
+         */
+        public void matchInitial(char ch, StateQueue queue) {
+            int[]  closure = closures[initial];
+
+            if (ch < 128 && initialChar[ch] >= 0) {
+                addState(initialChar[ch], queue);
+            }
+            matchTransitions(initial, ch, queue);
+            for (int i = 0; closure != null && i < closure.length; i++) {
+                matchTransitions(closure[i], ch, queue);
+            }
+        }
+
+        /**
+         * Attempts a match on each of the transitions leading from a
+         * state. All the states reached will be added to the queue.
+         *
+         * @param state          the source state id
+         * @param ch             the character to match
+         * @param queue          the state queue
+         */
+        public void matchTransitions(int state, char ch, StateQueue queue) {
+            int  last = first[state + 1];
+
+            for (int i = first[state]; i < last; i++) {
+                switch (kinds[i]) {
+                case CHAR:
+                    if (args[i] == ch) {
+                        addState(targets[i], queue);
+                    }
+                    break;
+                case SET:
+                    if (matchSet(args[i], ch)) {
+                        addState(targets[i], queue);
+                    }
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Finds the non-ASCII character range edges for a set of
+         * states. The edges are the sorted character values where
+         * any transition from the states starts or stops matching.
+         * All the characters between two edges will therefore reach
+         * the same states. The first edge is always 128.
+         *
+         * @param states         the state ids
+         * @param initial        the initial state flag, set to also
+         *                       include the initial state transitions
+         *
+         * @return the sorted array of character range edges
+         */
+        public char[] findEdges(int[] states, boolean initial) {
+            StringBuffer  buffer = new StringBuffer();
+            int[]         closure = closures[this.initial];
+            char[]        edges;
+            int           count = 1;
+
+            buffer.append((char) 128);
+            if (initial) {
+                addEdges(this.initial, buffer);
+                for (int i = 0; closure != null && i < closure.length; i++) {
+                    addEdges(closure[i], buffer);
+                }
+            }
+            for (int i = 0; i < states.length; i++) {
+                addEdges(states[i], buffer);
+            }
+            edges = buffer.toString().toCharArray();
+            Arrays.sort(edges);
+            for (int i = 1; i < edges.length; i++) {
+                if (edges[i] != edges[count - 1]) {
+                    edges[count++] = edges[i];
+                }
+            }
+            buffer.setLength(0);
+            buffer.append(edges, 0, count);
+            return buffer.toString().toCharArray();
+        }
+
+        /**
+         * Adds the non-ASCII character range edges for the
+         * transitions leading from a state.
+         *
+         * @param state          the source state id
+         * @param buffer         the buffer to add the edges to
+         *
+         * @see #findEdges(int[], boolean)
+         */
+        private void addEdges(int state, StringBuffer buffer) {
+            int     last = first[state + 1];
+            char[]  ranges;
+
+            for (int i = first[state]; i < last; i++) {
+                switch (kinds[i]) {
+                case CHAR:
+                    addEdge(args[i], buffer);
+                    addEdge(args[i] + 1, buffer);
+                    break;
+                case SET:
+                    ranges = setRanges[args[i]];
+                    for (int j = 0; j < ranges.length; j += 2) {
+                        addEdge(ranges[j], buffer);
+                        addEdge(ranges[j + 1] + 1, buffer);
+                    }
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Adds a character range edge if it is a non-ASCII
+         * character.
+         *
+         * @param edge           the character value
+         * @param buffer         the buffer to add the edge to
+         */
+        private static void addEdge(int edge, StringBuffer buffer) {
+            if (edge >= 128 && edge <= Character.MAX_VALUE) {
+                buffer.append((char) edge);
+            }
+        }
+
+        /**
+         * Checks if a character is in a character set.
+         *
+         * @param set            the character set index
+         * @param ch             the character to check
+         *
+         * @return true if the character matches, or
+         *         false otherwise
+         */
+        private boolean matchSet(int set, char ch) {
+            char[]  ranges;
+            int     low;
+            int     high;
+            int     mid;
+
+            if (ch < 64) {
+                return (setLow[set] & (1L << ch)) != 0;
+            } else if (ch < 128) {
+                return (setHigh[set] & (1L << (ch - 64))) != 0;
+            }
+            ranges = setRanges[set];
+            low = 0;
+            high = ranges.length / 2 - 1;
+            while (low <= high) {
+                mid = (low + high) >>> 1;
+                if (ch < ranges[mid * 2]) {
+                    high = mid - 1;
+                } else if (ch > ranges[mid * 2 + 1]) {
+                    low = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * A DFA state. Each DFA state corresponds to a set of NFA states,
+     * i.e. all the NFA states that are reachable after reading the
+     * same input characters. Transitions to other DFA states are
+     * created on demand. Transitions on ASCII characters are stored
+     * in a table indexed by the character, and other transitions in
+     * a table indexed by character range.
+     */
+    protected static class DFAState {
+
+        /**
+         * The NFA state ids in this DFA state. The ids are sorted
+         * and contain no duplicates.
+         */
+        protected final int[] states;
+
+        /**
+         * The state value, or null if not a final state. If several
+         * NFA states have a value, the token pattern with the lowest
+         * id will be used.
+         */
+        protected final TokenPattern value;
+
+        /**
+         * The DFA state transitions, indexed by the ASCII character.
+         * The transitions are only added while holding the automaton
+         * lock, but may be read without it. The final fields in this
+         * class guarantee that any DFA state read from this array is
+         * fully initialized.
+         */
+        protected final DFAState[] ascii = new DFAState[128];
+
+        /**
+         * The non-ASCII character range edges. Each range starts at
+         * an edge and ends just before the next one (or at the last
+         * character). All the characters in a range lead to the same
+         * DFA state.
+         *
+         * @see FrozenNFA#findEdges(int[], boolean)
+         */
+        protected final char[] edges;
+
+        /**
+         * The DFA state transitions, indexed by the non-ASCII
+         * character range. The transitions are added and read in the
+         * same way as the ASCII transitions.
+         */
+        protected final DFAState[] other;
+
+        /**
+         * Creates a new DFA state.
+         *
+         * @param states         the sorted set of NFA state ids
+         * @param nfa            the frozen NFA
+         * @param edges          the non-ASCII character range edges
+         */
+        public DFAState(int[] states, FrozenNFA nfa, char[] edges) {
+            TokenPattern  value = null;
+            TokenPattern  other;
+
+            this.states = states;
+            this.edges = edges;
+            this.other = new DFAState[edges.length];
+            for (int i = 0; i < states.length; i++) {
+                other = nfa.values[states[i]];
+                if (other == null) {
+                    // Not a final state
+                } else if (value == null || value.getId() > other.getId()) {
+                    value = other;
+                }
+            }
+            this.value = value;
+        }
+
+        /**
+         * Finds the non-ASCII character range containing a
+         * character.
+         *
+         * @param ch             the non-ASCII character
+         *
+         * @return the character range index
+         */
+        public int findRange(char ch) {
+            int  low = 0;
+            int  high = edges.length - 1;
+            int  mid;
+
+            while (low < high) {
+                mid = (low + high + 1) >>> 1;
+                if (edges[mid] <= ch) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Creates a lookup key for a set of NFA states. The key will
+         * be identical for any two sets containing the same states.
+         *
+         * @param states         the sorted set of NFA state ids
+         *
+         * @return the lookup key for the NFA state set
+         */
+        public static String createKey(int[] states) {
+            StringBuffer  buffer = new StringBuffer(states.length * 2);
+
+            for (int i = 0; i < states.length; i++) {
+                buffer.append((char) (states[i] >>> 16));
+                buffer.append((char) (states[i] & 0xFFFF));
+            }
+            return buffer.toString();
+        }
+    }
+
+
     /**
      * An NFA state queue. This queue is used during processing to
      * keep track of the current and subsequent NFA states. The
@@ -1199,14 +2672,22 @@ class TokenNFA {
      * fixed-size array to store the whole queue, and moves the data
      * in this array only when absolutely needed. The array is also
      * enlarged automatically if too many states are being processed
-     * at a single time.
+     * at a single time.<p>
+     *
+     * Each state added after the queue mark is only stored once. A
+     * generation number is incremented each time the mark is moved,
+     * and the generation last adding each state is recorded in an
+     * array indexed by the state id. The recorded generations are
+     * kept in the queue (instead of in the NFA), so that the NFA can
+     * be shared between threads.
      */
     protected static class StateQueue {
 
         /**
-         * The state queue array. Will be enlarged as needed.
+         * The state queue array of state ids. Will be enlarged as
+         * needed.
          */
-        private State[] queue = new State[2048];
+        private int[] queue = new int[2048];
 
         /**
          * The position of the first entry in the queue (inclusive).
@@ -1224,6 +2705,18 @@ class TokenNFA {
          */
         private int mark = 0;
 
+        /**
+         * The current queue generation. This number is incremented
+         * each time the queue mark is moved.
+         */
+        private int generation = 1;
+
+        /**
+         * The generation last adding each state, indexed by the
+         * state id.
+         */
+        private int[] added = new int[256];
+
         /**
          * Checks if the queue is empty.
          *
@@ -1252,6 +2745,7 @@ class TokenNFA {
             first = 0;
             last = 0;
             mark = 0;
+            nextGeneration();
         }
 
         /**
@@ -1261,6 +2755,20 @@ class TokenNFA {
          */
         public void markEnd() {
             mark = last;
+            nextGeneration();
+        }
+
+        /**
+         * Starts a new queue generation. Any state may thereafter be
+         * added once again. If the generation number overflows, all
+         * the recorded generations are reset.
+         */
+        private void nextGeneration() {
+            generation++;
+            if (generation == 0) {
+                Arrays.fill(added, 0);
+                generation = 1;
+            }
         }
 
         /**
@@ -1268,29 +2776,43 @@ class TokenNFA {
          * operation is fast, since it will only update the index of
          * the first entry in the queue.
          *
-         * @return the previous first entry in the queue
+         * @return the previous first entry in the queue, or
+         *         -1 if the queue was empty
          */
-        public State removeFirst() {
+        public int removeFirst() {
             if (first < last) {
                 first++;
                 return queue[first - 1];
             } else {
-                return null;
+                return -1;
             }
         }
 
         /**
-         * Adds a new entry at the end of the queue. This operation
-         * is mostly fast, unless all the allocated queue space has
-         * already been used. 
+         * Adds a new entry at the end of the queue, unless it was
+         * already added since the queue mark was last moved. This
+         * operation is mostly fast, unless all the allocated queue
+         * space has already been used.
          *
-         * @param state          the state to add
+         * @param state          the state id to add
+         *
+         * @return true if the state was added, or
+         *         false otherwise
          */
-        public void addLast(State state) {
+        public boolean addLast(int state) {
+            if (state >= added.length) {
+                int[] temp = added;
+                added = new int[Math.max(state + 1, temp.length * 2)];
+                System.arraycopy(temp, 0, added, 0, temp.length);
+            }
+            if (added[state] == generation) {
+                return false;
+            }
+            added[state] = generation;
             if (last >= queue.length) {
                 if (first <= 0) {
-                    State[] temp = queue;
-                    queue = new State[temp.length * 2];
+                    int[] temp = queue;
+                    queue = new int[temp.length * 2];
                     System.arraycopy(temp, 0, queue, 0, temp.length);
                 } else {
                     System.arraycopy(queue, first, queue, 0, last - first);
@@ -1300,6 +2822,34 @@ class TokenNFA {
                 }
             }
             queue[last++] = state;
+            return true;
+        }
+
+        /**
+         * Returns the states in this queue as a sorted set. Any
+         * duplicate states in the queue will be removed, and the
+         * remaining state ids will be sorted. This operation is slow
+         * and doesn't modify the queue.
+         *
+         * @return the sorted set of state ids in the queue
+         */
+        public int[] toSortedSet() {
+            int[]  states = new int[last - first];
+            int    count = 0;
+
+            System.arraycopy(queue, first, states, 0, states.length);
+            Arrays.sort(states);
+            for (int i = 0; i < states.length; i++) {
+                if (count == 0 || states[count - 1] != states[i]) {
+                    states[count++] = states[i];
+                }
+            }
+            if (count < states.length) {
+                int[] temp = states;
+                states = new int[count];
+                System.arraycopy(temp, 0, states, 0, count);
+            }
+            return states;
         }
     }
 }
@@ -0,0 +1,197 @@
+/*
+ * TokenQueue.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A token queue. This class contains the tokens read by the parser,
+ * but not yet consumed. The tokens are stored in a circular array
+ * buffer that grows as needed, so that both adding, peeking and
+ * removing tokens are constant time operations. The buffer capacity
+ * can be limited, in which case the buffer will be shrunk again once
+ * the tokens from a deep look-ahead have been consumed.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+class TokenQueue {
+
+    /**
+     * The initial buffer capacity.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The circular token buffer. The length of this array is always
+     * a power of two.
+     */
+    private Token[] buffer = new Token[INITIAL_CAPACITY];
+
+    /**
+     * The buffer position of the first token in the queue.
+     */
+    private int head = 0;
+
+    /**
+     * The number of tokens in the queue.
+     */
+    private int size = 0;
+
+    /**
+     * The retained buffer capacity limit. This value is always a
+     * power of two.
+     */
+    private int limit;
+
+    /**
+     * Creates a new empty token queue.
+     *
+     * @param limit          the retained buffer capacity limit
+     */
+    public TokenQueue(int limit) {
+        setLimit(limit);
+    }
+
+    /**
+     * Returns the retained buffer capacity limit.
+     *
+     * @return the retained buffer capacity limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Sets the retained buffer capacity limit. The limit will be
+     * rounded up to a power of two. The buffer will be shrunk to
+     * this limit once the number of tokens in the queue allows it.
+     *
+     * @param limit          the new retained buffer capacity limit
+     */
+    public void setLimit(int limit) {
+        this.limit = roundCapacity(limit);
+        if (buffer.length > this.limit && size <= this.limit) {
+            resize(this.limit);
+        }
+    }
+
+    /**
+     * Returns the number of tokens in the queue.
+     *
+     * @return the number of tokens in the queue
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a token from the queue without removing it.
+     *
+     * @param pos            the queue position, zero (0) for first
+     *
+     * @return the token at the specified position, or
+     *         null if the queue doesn't contain that many tokens
+     */
+    public Token peek(int pos) {
+        if (pos < 0 || pos >= size) {
+            return null;
+        }
+        return buffer[(head + pos) & (buffer.length - 1)];
+    }
+
+    /**
+     * Adds a token to the end of the queue. The buffer will grow if
+     * it is full.
+     *
+     * @param token          the token to add
+     */
+    public void add(Token token) {
+        if (size == buffer.length) {
+            resize(buffer.length * 2);
+        }
+        buffer[(head + size) & (buffer.length - 1)] = token;
+        size++;
+    }
+
+    /**
+     * Removes the first token in the queue.
+     *
+     * @return the token removed, or
+     *         null if the queue was empty
+     */
+    public Token remove() {
+        Token  token;
+
+        if (size == 0) {
+            return null;
+        }
+        token = buffer[head];
+        buffer[head] = null;
+        head = (head + 1) & (buffer.length - 1);
+        size--;
+        if (buffer.length > limit && size <= limit / 2) {
+            resize(limit);
+        }
+        return token;
+    }
+
+    /**
+     * Removes all tokens from the queue. The buffer will also be
+     * shrunk to the capacity limit.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            buffer[(head + i) & (buffer.length - 1)] = null;
+        }
+        head = 0;
+        size = 0;
+        if (buffer.length > limit) {
+            buffer = new Token[limit];
+        }
+    }
+
+    /**
+     * Rounds a buffer capacity up to the nearest power of two. The
+     * result is never less than the initial capacity.
+     *
+     * @param capacity       the requested capacity
+     *
+     * @return the rounded buffer capacity
+     */
+    private static int roundCapacity(int capacity) {
+        int  res = INITIAL_CAPACITY;
+
+        while (res < capacity && res < (1 << 30)) {
+            res *= 2;
+        }
+        return res;
+    }
+
+    /**
+     * Changes the buffer capacity. The tokens in the queue will be
+     * copied to the start of the new buffer.
+     *
+     * @param capacity       the new buffer capacity (a power of two)
+     */
+    private void resize(int capacity) {
+        Token[]  res = new Token[capacity];
+        int      first = Math.min(size, buffer.length - head);
+
+        System.arraycopy(buffer, head, res, 0, first);
+        System.arraycopy(buffer, 0, res, first, size - first);
+        buffer = res;
+        head = 0;
+    }
+}
@@ -14,7 +14,9 @@
 
 package net.percederberg.grammatica.parser;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import net.percederberg.grammatica.parser.re.RegExpException;
 
@@ -23,11 +25,75 @@ import net.percederberg.grammatica.parser.re.RegExpException;
  * regular expression having a single start and acceptance states.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  * @since    1.5
  */
 class TokenRegExpParser {
 
+    /**
+     * The maximum repeat count supported. Larger repeat counts would
+     * create too many NFA states.
+     */
+    private static final int MAX_REPEAT_COUNT = 255;
+
+    /**
+     * The maximum number of NFA states created for a regular
+     * expression. Nested repeat counts multiply the number of
+     * copies, so the limit is checked while expanding them. A
+     * larger automaton is rejected, which leaves the regular
+     * expression to the java.util.regex package instead.
+     */
+    private static final int MAX_STATE_COUNT = 10000;
+
+    /**
+     * The Unicode general category names. The string at each index
+     * is the two-letter name of the character type with that value,
+     * as returned by Character.getType().
+     */
+    private static final String[] CATEGORY_NAMES = {
+        "Cn", "Lu", "Ll", "Lt", "Lm", "Lo", "Mn", "Me", "Mc", "Nd",
+        "Nl", "No", "Zs", "Zl", "Zp", "Cc", "Cf", "", "Co", "Cs",
+        "Pd", "Ps", "Pe", "Pc", "Po", "Sm", "Sc", "Sk", "So", "Pi",
+        "Pf"
+    };
+
+    /**
+     * The POSIX character class names and character ranges. The
+     * ranges are stored as pairs of minimum and maximum characters
+     * in increasing order. Only US-ASCII characters are included,
+     * as in the java.util.regex package.
+     */
+    private static final String[][] POSIX_CLASSES = {
+        { "Lower", "az" },
+        { "Upper", "AZ" },
+        { "ASCII", "\u0000\u007F" },
+        { "Alpha", "AZaz" },
+        { "Digit", "09" },
+        { "Alnum", "09AZaz" },
+        { "Punct", "!/:@[`{~" },
+        { "Graph", "!~" },
+        { "Print", " ~" },
+        { "Blank", "\t\t  " },
+        { "Cntrl", "\u0000\u001F\u007F\u007F" },
+        { "XDigit", "09AFaf" },
+        { "Space", "\t\r  " }
+    };
+
+    /**
+     * The character ranges for the '\\d' escape sequence.
+     */
+    private static final String DIGIT_RANGES = "09";
+
+    /**
+     * The character ranges for the '\\s' escape sequence.
+     */
+    private static final String WHITESPACE_RANGES = "\t\r  ";
+
+    /**
+     * The character ranges for the '\\w' escape sequence.
+     */
+    private static final String WORD_RANGES = "09AZ__az";
+
     /**
      * The regular expression pattern.
      */
@@ -54,6 +120,11 @@ class TokenRegExpParser {
      */
     protected TokenNFA.State end = null;
 
+    /**
+     * The number of states created while parsing.
+     */
+    private int createdStates = 0;
+
     /**
      * The number of states found.
      */
@@ -130,19 +201,39 @@ class TokenRegExpParser {
      * @param visited        the lookup map of visited states
      */
     private void updateStats(TokenNFA.State state, HashMap visited) {
-        if (!visited.containsKey(state)) {
-            visited.put(state, null);
-            stateCount++;
-            for (int i = 0; i < state.outgoing.length; i++) {
-                transitionCount++;
-                if (state.outgoing[i] instanceof TokenNFA.EpsilonTransition) {
-                    epsilonCount++;
+        ArrayList  stack = new ArrayList();
+
+        stack.add(state);
+        while (stack.size() > 0) {
+            state = (TokenNFA.State) stack.remove(stack.size() - 1);
+            if (!visited.containsKey(state)) {
+                visited.put(state, null);
+                stateCount++;
+                for (int i = 0; i < state.outgoing.length; i++) {
+                    transitionCount++;
+                    if (state.outgoing[i] instanceof
+                        TokenNFA.EpsilonTransition) {
+
+                        epsilonCount++;
+                    }
+                    stack.add(state.outgoing[i].state);
                 }
-                updateStats(state.outgoing[i].state, visited);
             }
         }
     }
 
+    /**
+     * Creates a new NFA state. The number of states created is
+     * counted, so that repeat counts can be checked against the
+     * maximum number of states.
+     *
+     * @return the new NFA state
+     */
+    private TokenNFA.State newState() {
+        createdStates++;
+        return new TokenNFA.State();
+    }
+
     /**
      * Parses a regular expression. This method handles the Expr
      * production in the grammar (see regexp.grammar).
@@ -155,7 +246,7 @@ class TokenRegExpParser {
      *             pattern string
      */
     private TokenNFA.State parseExpr(TokenNFA.State start) throws RegExpException {
-        TokenNFA.State  end = new TokenNFA.State();
+        TokenNFA.State  end = newState();
         TokenNFA.State  subStart;
         TokenNFA.State  subEnd;
 
@@ -163,7 +254,7 @@ class TokenRegExpParser {
             if (peekChar(0) == '|') {
                 readChar('|');
             }
-            subStart = new TokenNFA.State();
+            subStart = newState();
             subEnd = parseTerm(subStart);
             if (subStart.incoming.length == 0) {
                 subStart.mergeInto(start);
@@ -224,8 +315,9 @@ class TokenRegExpParser {
      *             pattern string
      */
     private TokenNFA.State parseFact(TokenNFA.State start) throws RegExpException {
-        TokenNFA.State  placeholder = new TokenNFA.State();
+        TokenNFA.State  placeholder = newState();
         TokenNFA.State  end;
+        int             atomPos = pos;
 
         end = parseAtom(placeholder);
         switch (peekChar(0)) {
@@ -233,7 +325,7 @@ class TokenRegExpParser {
         case '*':
         case '+':
         case '{':
-            end = parseAtomModifier(placeholder, end);
+            end = parseAtomModifier(placeholder, end, atomPos);
             break;
         }
         if (placeholder.incoming.length > 0 && start.outgoing.length > 0) {
@@ -247,7 +339,9 @@ class TokenRegExpParser {
 
     /**
      * Parses a regular expression atom. This method handles the
-     * Atom production in the grammar (see regexp.grammar).
+     * Atom production in the grammar (see regexp.grammar). Groups
+     * may also be written as non-capturing groups, since no groups
+     * capture anything here.
      *
      * @param start          the initial NFA state
      *
@@ -264,9 +358,13 @@ class TokenRegExpParser {
         switch (peekChar(0)) {
         case '.':
             readChar('.');
-            return start.addOut(new TokenNFA.DotTransition(new TokenNFA.State()));
+            return start.addOut(new TokenNFA.DotTransition(newState()));
         case '(':
             readChar('(');
+            if (peekChar(0) == '?' && peekChar(1) == ':') {
+                readChar('?');
+                readChar(':');
+            }
             end = parseExpr(start);
             readChar(')');
             return end;
@@ -296,9 +394,12 @@ class TokenRegExpParser {
     /**
      * Parses a regular expression atom modifier. This method handles
      * the AtomModifier production in the grammar (see regexp.grammar).
+     * Repeat counts are handled by parsing the atom again for each
+     * additional copy needed.
      *
      * @param start          the initial NFA state
      * @param end            the terminal NFA state
+     * @param atomPos        the pattern position of the atom
      *
      * @return the terminating NFA state
      *
@@ -306,7 +407,8 @@ class TokenRegExpParser {
      *             pattern string
      */
     private TokenNFA.State parseAtomModifier(TokenNFA.State start,
-                                             TokenNFA.State end)
+                                             TokenNFA.State end,
+                                             int atomPos)
         throws RegExpException {
 
         int  min = 0;
@@ -338,7 +440,9 @@ class TokenRegExpParser {
                 }
             }
             readChar('}');
-            if (max == 0 || (max > 0 && min > max)) {
+            if (max == 0 || (max > 0 && min > max) ||
+                min > MAX_REPEAT_COUNT || max > MAX_REPEAT_COUNT) {
+
                 throw new RegExpException(
                     RegExpException.INVALID_REPEAT_COUNT,
                     firstPos,
@@ -368,6 +472,9 @@ class TokenRegExpParser {
         // Handle supported repeaters
         if (min == 0 && max == 1) {
             return start.addOut(new TokenNFA.EpsilonTransition(end));
+        } else if (max == -1 && isNullable(start, end)) {
+            addLoop(start, end);
+            return end;
         } else if (min == 0 && max == -1) {
             if (end.outgoing.length == 0) {
                 end.mergeInto(start);
@@ -387,11 +494,138 @@ class TokenRegExpParser {
             }
             return end;
         } else {
-            throw new RegExpException(
-                RegExpException.INVALID_REPEAT_COUNT,
-                firstPos,
-                pattern);
+            start = (min == 0) ? start : null;
+            return parseRepeat(end, atomPos, min, max, start);
+        }
+    }
+
+    /**
+     * Creates the NFA states for a repeat count. The atom will be
+     * parsed again for each additional copy needed, and the copies
+     * will be linked with epsilon transitions. The first copy must
+     * already have been created. If the copies would create too many
+     * NFA states, the repeat count is reported as invalid.
+     *
+     * @param end            the terminal NFA state of the first copy
+     * @param atomPos        the pattern position of the atom
+     * @param min            the minimum number of copies (at least 2)
+     * @param max            the maximum number of copies, or -1
+     * @param start          the initial NFA state if the first copy
+     *                       is optional, or null otherwise
+     *
+     * @return the terminating NFA state
+     *
+     * @throws RegExpException if an error was encountered in the
+     *             pattern string
+     */
+    private TokenNFA.State parseRepeat(TokenNFA.State end,
+                                       int atomPos,
+                                       int min,
+                                       int max,
+                                       TokenNFA.State start)
+        throws RegExpException {
+
+        TokenNFA.State  last = newState();
+        TokenNFA.State  copy = null;
+        int             count = (max < 0) ? min : max;
+        int             endPos = pos;
+
+        if (start != null) {
+            start.addOut(new TokenNFA.EpsilonTransition(last));
+        }
+        for (int i = 2; i <= count; i++) {
+            if (i > min) {
+                end.addOut(new TokenNFA.EpsilonTransition(last));
+            }
+            copy = newState();
+            end.addOut(new TokenNFA.EpsilonTransition(copy));
+            pos = atomPos;
+            end = parseAtom(copy);
+            if (createdStates > MAX_STATE_COUNT) {
+                throw new RegExpException(
+                    RegExpException.INVALID_REPEAT_COUNT,
+                    atomPos,
+                    pattern);
+            }
+        }
+        pos = endPos;
+        if (max < 0) {
+            end.addOut(new TokenNFA.EpsilonTransition(copy));
+        }
+        end.addOut(new TokenNFA.EpsilonTransition(last));
+        return last;
+    }
+
+    /**
+     * Checks if an NFA state can reach another state by epsilon
+     * transitions only. This is used for checking if a repeated
+     * atom may match the empty string.
+     *
+     * @param start          the initial NFA state
+     * @param end            the terminal NFA state
+     *
+     * @return true if the terminal state is reachable, or
+     *         false otherwise
+     */
+    private boolean isNullable(TokenNFA.State start, TokenNFA.State end) {
+        return findEpsilonClosure(start, new HashSet()).contains(end);
+    }
+
+    /**
+     * Adds a repeat loop for an atom that may match the empty
+     * string. The usual epsilon transition back to the initial state
+     * would create an epsilon cycle, so instead all the non-epsilon
+     * transitions reachable from the initial state are copied to
+     * the terminal state. The atom will thereby match one or more
+     * times, which is the same as zero or more times for such atoms.
+     *
+     * @param start          the initial NFA state
+     * @param end            the terminal NFA state
+     */
+    private void addLoop(TokenNFA.State start, TokenNFA.State end) {
+        Object[]            states;
+        TokenNFA.State      state;
+        TokenNFA.Transition trans;
+
+        states = findEpsilonClosure(start, new HashSet()).toArray();
+        for (int i = 0; i < states.length; i++) {
+            state = (TokenNFA.State) states[i];
+            for (int j = 0; state != end && j < state.outgoing.length; j++) {
+                trans = state.outgoing[j];
+                if (!(trans instanceof TokenNFA.EpsilonTransition)) {
+                    end.addOut(trans.copy(trans.state));
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds all NFA states reachable by epsilon transitions only.
+     *
+     * @param state          the initial NFA state
+     * @param result         the set of states found
+     *
+     * @return the set of states found, including the initial state
+     */
+    private HashSet findEpsilonClosure(TokenNFA.State state,
+                                       HashSet result) {
+
+        ArrayList  stack = new ArrayList();
+
+        stack.add(state);
+        while (stack.size() > 0) {
+            state = (TokenNFA.State) stack.remove(stack.size() - 1);
+            if (result.add(state)) {
+                for (int i = 0; i < state.outgoing.length; i++) {
+                    if (state.outgoing[i] instanceof
+                        TokenNFA.EpsilonTransition) {
+
+                        stack.add(state.outgoing[i].state);
+                    }
+                }
+            }
         }
+        return result;
     }
 
     /**
@@ -408,7 +642,7 @@ class TokenRegExpParser {
     private TokenNFA.State parseCharSet(TokenNFA.State start)
         throws RegExpException {
 
-        TokenNFA.State                end = new TokenNFA.State();
+        TokenNFA.State                end = newState();
         TokenNFA.CharRangeTransition  range;
         char                          min;
         char                          max;
@@ -424,9 +658,13 @@ class TokenRegExpParser {
             min = (char) peekChar(0);
             switch (min) {
             case ']':
+                range.compile();
+                addSupplementary(start, range.getSupplementaryEdges(), end);
                 return end;
             case '\\':
-                range.addCharacter(readEscapeChar());
+                if (!parseClassEscape(range)) {
+                    range.addCharacter(readEscapeChar());
+                }
                 break;
             default:
                 readChar(min);
@@ -442,9 +680,72 @@ class TokenRegExpParser {
                 }
             }
         }
+        range.compile();
+        addSupplementary(start, range.getSupplementaryEdges(), end);
         return end;
     }
 
+    /**
+     * Adds the surrogate pair transitions for the supplementary
+     * characters in a character set. The low surrogate ranges are
+     * grouped by high surrogate, so that each distinct set of low
+     * surrogates gets a single intermediate state.
+     *
+     * @param start          the initial NFA state
+     * @param edges          the supplementary code point set edges
+     * @param end            the terminal NFA state
+     */
+    private void addSupplementary(TokenNFA.State start,
+                                  int[] edges,
+                                  TokenNFA.State end) {
+
+        StringBuffer[]                lows = new StringBuffer[1024];
+        HashMap                       groups = new HashMap();
+        ArrayList                     highs = new ArrayList();
+        TokenNFA.CharRangeTransition  high;
+        TokenNFA.CharRangeTransition  low;
+        TokenNFA.State                middle;
+        String                        key;
+        int                           index;
+        int                           max;
+
+        for (int i = 0; i < edges.length; i += 2) {
+            for (int c = edges[i]; c < edges[i + 1]; c = max + 1) {
+                index = (c - Character.MIN_SUPPLEMENTARY_CODE_POINT) >> 10;
+                max = Math.min(edges[i + 1] - 1, c | 0x3FF);
+                if (lows[index] == null) {
+                    lows[index] = new StringBuffer();
+                }
+                lows[index].append((char) (0xDC00 + (c & 0x3FF)));
+                lows[index].append((char) (0xDC00 + (max & 0x3FF)));
+            }
+        }
+        for (int i = 0; i < lows.length; i++) {
+            if (lows[i] == null) {
+                continue;
+            }
+            key = lows[i].toString();
+            high = (TokenNFA.CharRangeTransition) groups.get(key);
+            if (high == null) {
+                middle = newState();
+                high = new TokenNFA.CharRangeTransition(false, false, middle);
+                low = new TokenNFA.CharRangeTransition(false, false, end);
+                for (int j = 0; j < key.length(); j += 2) {
+                    low.addRange(key.charAt(j), key.charAt(j + 1));
+                }
+                low.compile();
+                middle.addOut(low);
+                start.addOut(high);
+                groups.put(key, high);
+                highs.add(high);
+            }
+            high.addCharacter((char) (0xD800 + i));
+        }
+        for (int i = 0; i < highs.size(); i++) {
+            ((TokenNFA.CharRangeTransition) highs.get(i)).compile();
+        }
+    }
+
     /**
      * Parses a regular expression character. This method handles
      * a single normal character in a regular expression.
@@ -469,7 +770,7 @@ class TokenRegExpParser {
                 pos,
                 pattern);
         default:
-            return start.addOut(readChar(), ignoreCase, new TokenNFA.State());
+            return start.addOut(readChar(), ignoreCase, newState());
         }
     }
 
@@ -487,7 +788,8 @@ class TokenRegExpParser {
     private TokenNFA.State parseEscapeChar(TokenNFA.State start)
         throws RegExpException {
 
-        TokenNFA.State  end = new TokenNFA.State();
+        TokenNFA.State                end = newState();
+        TokenNFA.CharRangeTransition  range;
 
         if (peekChar(0) == '\\' && peekChar(1) > 0) {
             switch ((char) peekChar(1)) {
@@ -515,11 +817,172 @@ class TokenRegExpParser {
                 readChar();
                 readChar();
                 return start.addOut(new TokenNFA.NonWordTransition(end));
+            case 'p':
+            case 'P':
+                range = new TokenNFA.CharRangeTransition(false,
+                                                         ignoreCase,
+                                                         end);
+                parseClassEscape(range);
+                range.compile();
+                addSupplementary(start, range.getSupplementaryEdges(), end);
+                return start.addOut(range);
             }
         }
         return start.addOut(readEscapeChar(), ignoreCase, end);
     }
 
+    /**
+     * Parses a regular expression character class escape. This
+     * method handles the '\\d', '\\s', '\\w' and '\\p{...}' escapes
+     * (and their negated forms) inside or outside of a character
+     * set. If the next characters in the pattern aren't a character
+     * class escape, nothing is read.
+     *
+     * @param range          the character set to add characters to
+     *
+     * @return true if a character class escape was added, or
+     *         false otherwise
+     *
+     * @throws RegExpException if an error was encountered in the
+     *             pattern string
+     */
+    private boolean parseClassEscape(TokenNFA.CharRangeTransition range)
+        throws RegExpException {
+
+        int  c = peekChar(1);
+
+        if (peekChar(0) != '\\') {
+            return false;
+        }
+        switch (c) {
+        case 'd':
+        case 'D':
+            readChar();
+            readChar();
+            addRanges(range, DIGIT_RANGES, c == 'D');
+            return true;
+        case 's':
+        case 'S':
+            readChar();
+            readChar();
+            addRanges(range, WHITESPACE_RANGES, c == 'S');
+            return true;
+        case 'w':
+        case 'W':
+            readChar();
+            readChar();
+            addRanges(range, WORD_RANGES, c == 'W');
+            return true;
+        case 'p':
+        case 'P':
+            readChar();
+            readChar();
+            parseClassName(range, c == 'P');
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Parses a Unicode category or POSIX character class name. This
+     * method handles the name part of the '\\p{...}' and '\\P{...}'
+     * escapes. Both two-letter and single-letter Unicode general
+     * category names are supported, with an optional "Is" prefix.
+     * Unicode scripts, blocks and other properties aren't supported,
+     * nor is the surrogate category (as only surrogate pairs are
+     * matched by general categories).
+     *
+     * @param range          the character set to add characters to
+     * @param negate         the negated character class flag
+     *
+     * @throws RegExpException if an error was encountered in the
+     *             pattern string
+     */
+    private void parseClassName(TokenNFA.CharRangeTransition range,
+                                boolean negate)
+        throws RegExpException {
+
+        int     namePos = pos - 2;
+        String  name;
+        int     mask = 0;
+
+        if (peekChar(0) == '{') {
+            readChar('{');
+            name = "";
+            while (peekChar(0) > 0 && peekChar(0) != '}') {
+                name += String.valueOf(readChar());
+            }
+            readChar('}');
+        } else {
+            name = String.valueOf(readChar());
+        }
+        for (int i = 0; i < POSIX_CLASSES.length; i++) {
+            if (POSIX_CLASSES[i][0].equals(name)) {
+                addRanges(range, POSIX_CLASSES[i][1], negate);
+                return;
+            }
+        }
+        if (name.startsWith("Is")) {
+            name = name.substring(2);
+        }
+        if (name.equals("LC")) {
+            mask = (1 << Character.UPPERCASE_LETTER) |
+                   (1 << Character.LOWERCASE_LETTER) |
+                   (1 << Character.TITLECASE_LETTER);
+        }
+        for (int i = 0; i < CATEGORY_NAMES.length; i++) {
+            if (CATEGORY_NAMES[i].length() > 0 &&
+                (CATEGORY_NAMES[i].equals(name) ||
+                 CATEGORY_NAMES[i].startsWith(name) && name.length() == 1)) {
+
+                mask |= 1 << i;
+            }
+        }
+        if (mask == 0) {
+            throw new RegExpException(
+                RegExpException.UNSUPPORTED_ESCAPE_CHARACTER,
+                namePos,
+                pattern);
+        }
+        if (!negate && (mask & (1 << Character.SURROGATE)) != 0) {
+            throw new RegExpException(
+                RegExpException.UNSUPPORTED_ESCAPE_CHARACTER,
+                namePos,
+                pattern);
+        }
+        range.addCategories(mask, negate);
+    }
+
+    /**
+     * Adds a number of character ranges to a character set. If the
+     * negated flag is set, all the characters outside the ranges are
+     * added instead.
+     *
+     * @param range          the character set to add characters to
+     * @param ranges         the ranges, as pairs of minimum and
+     *                       maximum characters in increasing order
+     * @param negate         the negated ranges flag
+     */
+    private void addRanges(TokenNFA.CharRangeTransition range,
+                           String ranges,
+                           boolean negate) {
+
+        int  min = 0;
+
+        for (int i = 0; i < ranges.length(); i += 2) {
+            if (!negate) {
+                range.addRange(ranges.charAt(i), ranges.charAt(i + 1));
+            } else if (min < ranges.charAt(i)) {
+                range.addRange((char) min, (char) (ranges.charAt(i) - 1));
+            }
+            min = ranges.charAt(i + 1) + 1;
+        }
+        if (negate && min <= Character.MAX_VALUE) {
+            range.addRange((char) min, Character.MAX_VALUE);
+        }
+    }
+
     /**
      * Reads a regular expression character escape. This method
      * handles a single character escape in a regular expression.
@@ -14,25 +14,44 @@
 
 package net.percederberg.grammatica.parser;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.regex.Pattern;
-
-import net.percederberg.grammatica.parser.re.RegExp;
-import net.percederberg.grammatica.parser.re.Matcher;
+import java.nio.charset.Charset;
+import java.util.HashMap;
 
 /**
  * A character stream tokenizer. This class groups the characters read
  * from the stream together into tokens ("words"). The grouping is
  * controlled by token patterns that contain either a fixed string to
  * search for, or a regular expression. If the stream of characters
- * don't match any of the token patterns, a parse exception is thrown.
+ * don't match any of the token patterns, a parse exception is thrown.<p>
+ *
+ * The token patterns are compiled into a tokenizer specification,
+ * which may be shared by several tokenizers. Each tokenizer only
+ * contains the input buffer and the matching state, and is not
+ * thread-safe by itself.
+ *
+ * @see TokenizerSpec
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 public class Tokenizer {
 
+    /**
+     * The parameter types of the legacy token factory method.
+     */
+    private static final Class[] LEGACY_FACTORY_PARAMS = {
+        TokenPattern.class, String.class, Integer.TYPE, Integer.TYPE
+    };
+
+    /**
+     * The legacy token factory method override flags, indexed by
+     * tokenizer subclass.
+     */
+    private static final HashMap LEGACY_FACTORY = new HashMap();
+
     /**
      * The ignore character case flag.
      */
@@ -44,32 +63,23 @@ public class Tokenizer {
     private boolean useTokenList = false;
 
     /**
-     * The string DFA token matcher. This token matcher uses a
-     * deterministic finite automaton (DFA) implementation and is
-     * used for all string token patterns. It has a slight speed
-     * advantage to the NFA implementation, but should be equivalent
-     * on memory usage.
+     * The shared token images feature flag.
      */
-    private StringDFAMatcher stringDfaMatcher = new StringDFAMatcher();
+    private boolean useSharedImages = false;
 
     /**
-     * The regular expression NFA token matcher. This token matcher
-     * uses a non-deterministic finite automaton (DFA) implementation
-     * and is used for most regular expression token patterns. It is
-     * somewhat faster than the other recursive regular expression
-     * implementations available, but doesn't support the full
-     * syntax. It conserves memory by using a fast queue instead of
-     * the stack during processing (no stack overflow).
+     * The tokenizer specification. The specification contains the
+     * token patterns and matchers, and may be shared with other
+     * tokenizers.
      */
-    private NFAMatcher nfaMatcher = new NFAMatcher();
+    private TokenizerSpec spec;
 
     /**
-     * The regular expression token matcher. This token matcher is
-     * used for complex regular expressions, but should be avoided
-     * due to possibly degraded speed and memory usage compared to
-     * the automaton implementations.
+     * The match context. This contains the mutable matching state
+     * that cannot be shared with other tokenizers.
      */
-    private RegExpMatcher regExpMatcher = new RegExpMatcher();
+    private TokenizerSpec.MatchContext context =
+        new TokenizerSpec.MatchContext();
 
     /**
      * The character stream reader buffer.
@@ -86,6 +96,24 @@ public class Tokenizer {
      */
     private Token previousToken = null;
 
+    /**
+     * The pending scan I/O error flag. This flag is set when an I/O
+     * error occurred after some tokens had already been scanned, so
+     * that the error can be reported on the next call.
+     *
+     * @see #scan(int[], long[], int[], boolean)
+     */
+    private boolean scanError = false;
+
+    /**
+     * The legacy token factory flag. This flag is set if a subclass
+     * overrides the legacy newToken() method, which must then be
+     * used for all tokens.
+     *
+     * @see #newToken(TokenPattern, String, int, int)
+     */
+    private final boolean useLegacyFactory = hasLegacyFactory(getClass());
+
     /**
      * Creates a new case-sensitive tokenizer for the specified input
      * stream.
@@ -109,6 +137,109 @@ public class Tokenizer {
     public Tokenizer(Reader input, boolean ignoreCase) {
         this.buffer = new ReaderBuffer(input);
         this.ignoreCase = ignoreCase;
+        this.spec = new TokenizerSpec(ignoreCase);
+    }
+
+    /**
+     * Creates a new tokenizer for the specified input stream with a
+     * shared specification. The specification will be locked, so
+     * that no token patterns can be added to this tokenizer. This
+     * constructor is cheap and thread-safe, since the token patterns
+     * have already been compiled.
+     *
+     * @param spec           the tokenizer specification to use
+     * @param input          the input stream to read
+     *
+     * @see #getSpec()
+     *
+     * @since 1.7
+     */
+    public Tokenizer(TokenizerSpec spec, Reader input) {
+        spec.lock();
+        this.buffer = new ReaderBuffer(input);
+        this.ignoreCase = spec.isIgnoreCase();
+        this.spec = spec;
+    }
+
+    /**
+     * Creates a new tokenizer for the specified file with a shared
+     * specification. The file will be memory-mapped and decoded with
+     * the specified character set. The specification will be locked,
+     * so that no token patterns can be added to this tokenizer.
+     *
+     * @param spec           the tokenizer specification to use
+     * @param file           the input file to read
+     * @param charset        the file character set
+     *
+     * @throws IOException if the file couldn't be opened or read
+     *
+     * @see #getSpec()
+     * @see ReaderBuffer#ReaderBuffer(File, Charset)
+     *
+     * @since 1.7
+     */
+    public Tokenizer(TokenizerSpec spec, File file, Charset charset)
+        throws IOException {
+
+        spec.lock();
+        this.buffer = new ReaderBuffer(file, charset);
+        this.ignoreCase = spec.isIgnoreCase();
+        this.spec = spec;
+    }
+
+    /**
+     * Creates a new case-sensitive tokenizer for the specified file.
+     * The file will be memory-mapped and must be encoded in UTF-8
+     * (or ASCII).
+     *
+     * @param file           the input file to read
+     *
+     * @throws IOException if the file couldn't be opened or read
+     *
+     * @see ReaderBuffer#ReaderBuffer(File)
+     *
+     * @since 1.7
+     */
+    public Tokenizer(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * Creates a new tokenizer for the specified file. The file will
+     * be memory-mapped and must be encoded in UTF-8 (or ASCII). The
+     * tokenizer can be set to process tokens either in
+     * case-sensitive or case-insensitive mode.
+     *
+     * @param file           the input file to read
+     * @param ignoreCase     the character case ignore flag
+     *
+     * @throws IOException if the file couldn't be opened or read
+     *
+     * @see ReaderBuffer#ReaderBuffer(File)
+     *
+     * @since 1.7
+     */
+    public Tokenizer(File file, boolean ignoreCase) throws IOException {
+        this.buffer = new ReaderBuffer(file);
+        this.ignoreCase = ignoreCase;
+        this.spec = new TokenizerSpec(ignoreCase);
+    }
+
+    /**
+     * Returns the tokenizer specification. The specification will be
+     * locked, so that no more token patterns can be added. It can
+     * then be used to create any number of new tokenizers sharing
+     * the same compiled token patterns, also in other threads.
+     *
+     * @return the locked tokenizer specification
+     *
+     * @see #Tokenizer(TokenizerSpec, Reader)
+     *
+     * @since 1.7
+     */
+    public TokenizerSpec getSpec() {
+        spec.lock();
+        return spec;
     }
 
     /**
@@ -148,6 +279,86 @@ public class Tokenizer {
         this.useTokenList = useTokenList;
     }
 
+    /**
+     * Checks if the shared token images feature is used. The shared
+     * token images feature makes all tokens refer directly to the
+     * input buffer characters, only creating the token image strings
+     * on demand. By default the shared token images feature is not
+     * used.
+     *
+     * @return true if the shared token images feature is used, or
+     *         false otherwise
+     *
+     * @see #setUseSharedImages
+     * @see Token#getImageSequence
+     *
+     * @since 1.7
+     */
+    public boolean getUseSharedImages() {
+        return useSharedImages;
+    }
+
+    /**
+     * Sets the shared token images feature flag. The shared token
+     * images feature makes all tokens refer directly to the input
+     * buffer characters, only creating the token image strings on
+     * demand. This avoids copying the characters of tokens whose
+     * images are never used, but also keeps the referenced input
+     * buffer blocks in memory for as long as the tokens remain. Note
+     * that the tokens will be created with the alternative
+     * newToken() factory method when this feature is active. By
+     * default the shared token images feature is not used.
+     *
+     * @param useSharedImages  the shared token images feature flag
+     *
+     * @see #getUseSharedImages
+     * @see Token#getImageSequence
+     *
+     * @since 1.7
+     */
+    public void setUseSharedImages(boolean useSharedImages) {
+        this.useSharedImages = useSharedImages;
+    }
+
+    /**
+     * Returns the maximum number of cached DFA states. The regular
+     * expression automaton is lazily converted into a deterministic
+     * automaton (DFA) while matching, and this limit caps the memory
+     * used for caching the DFA states.
+     *
+     * @return the maximum number of cached DFA states
+     *
+     * @see #setDfaStateLimit
+     *
+     * @since 1.7
+     */
+    public int getDfaStateLimit() {
+        return spec.getDfaStateLimit();
+    }
+
+    /**
+     * Sets the maximum number of cached DFA states. Once the limit
+     * has been reached, the tokenizer falls back to simulating the
+     * non-deterministic automaton (NFA) directly for any new
+     * combination of states. Setting the limit to zero (0) disables
+     * the DFA completely. By default the limit is 4096 states. The
+     * limit cannot be changed once the specification is shared with
+     * other tokenizers.
+     *
+     * @param limit          the new DFA state limit
+     *
+     * @throws IllegalStateException if the tokenizer specification
+     *             has been locked
+     *
+     * @see #getDfaStateLimit
+     * @see #getSpec()
+     *
+     * @since 1.7
+     */
+    public void setDfaStateLimit(int limit) throws IllegalStateException {
+        spec.setDfaStateLimit(limit);
+    }
+
     /**
      * Returns a description of the token pattern with the specified
      * id.
@@ -158,16 +369,22 @@ public class Tokenizer {
      *         null if not present
      */
     public String getPatternDescription(int id) {
-        TokenPattern  pattern;
+        return spec.getPatternDescription(id);
+    }
 
-        pattern = stringDfaMatcher.getPattern(id);
-        if (pattern == null) {
-            pattern = nfaMatcher.getPattern(id);
-        }
-        if (pattern == null) {
-            pattern = regExpMatcher.getPattern(id);
-        }
-        return (pattern == null) ? null : pattern.toShortString();
+    /**
+     * Returns the regular expression token patterns that aren't
+     * supported by the built-in automaton, and are therefore matched
+     * with the slower java.util.regex package instead.
+     *
+     * @return an array of fallback token patterns (may be empty)
+     *
+     * @see TokenizerSpec#getFallbackPatterns()
+     *
+     * @since 1.7
+     */
+    public TokenPattern[] getFallbackPatterns() {
+        return spec.getFallbackPatterns();
     }
 
     /**
@@ -199,43 +416,13 @@ public class Tokenizer {
      *
      * @throws ParserCreationException if the pattern couldn't be
      *             added to the tokenizer
+     *
+     * @see TokenizerSpec#addPattern(TokenPattern)
      */
     public void addPattern(TokenPattern pattern)
         throws ParserCreationException {
 
-        switch (pattern.getType()) {
-        case TokenPattern.STRING_TYPE:
-            try {
-                stringDfaMatcher.addPattern(pattern);
-            } catch (Exception e) {
-                throw new ParserCreationException(
-                    ParserCreationException.INVALID_TOKEN_ERROR,
-                    pattern.getName(),
-                    "error adding string token: " +
-                    e.getMessage());
-            }
-            break;
-        case TokenPattern.REGEXP_TYPE:
-            try {
-                nfaMatcher.addPattern(pattern);
-            } catch (Exception ignore) {
-                try {
-                    regExpMatcher.addPattern(pattern);
-                } catch (Exception e) {
-                    throw new ParserCreationException(
-                        ParserCreationException.INVALID_TOKEN_ERROR,
-                        pattern.getName(),
-                        "regular expression contains error(s): " +
-                        e.getMessage());
-                }
-            }
-            break;
-        default:
-            throw new ParserCreationException(
-                ParserCreationException.INVALID_TOKEN_ERROR,
-                pattern.getName(),
-                "pattern type " + pattern.getType() + " is undefined");
-        }
+        spec.addPattern(pattern);
     }
 
     /**
@@ -256,6 +443,50 @@ public class Tokenizer {
         this.buffer.dispose();
         this.buffer = new ReaderBuffer(input);
         this.previousToken = null;
+        this.scanError = false;
+        this.lastMatch.clear();
+    }
+
+    /**
+     * Resets this tokenizer for usage with another input file. The
+     * file will be memory-mapped and must be encoded in UTF-8 (or
+     * ASCII). This method also clears all the internal state in the
+     * tokenizer.
+     *
+     * @param file           the new input file to read
+     *
+     * @throws IOException if the file couldn't be opened or read
+     *
+     * @see #reset(Reader)
+     *
+     * @since 1.7
+     */
+    public void reset(File file) throws IOException {
+        reset(file, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Resets this tokenizer for usage with another input file. The
+     * file will be memory-mapped (in chunks if large) and decoded with
+     * the specified character set. This method also clears all the
+     * internal state in the tokenizer.
+     *
+     * @param file           the new input file to read
+     * @param charset        the file character set
+     *
+     * @throws IOException if the file couldn't be opened or read
+     *
+     * @see ReaderBuffer#ReaderBuffer(File, Charset)
+     *
+     * @since 1.7
+     */
+    public void reset(File file, Charset charset) throws IOException {
+        ReaderBuffer  next = new ReaderBuffer(file, charset);
+
+        this.buffer.dispose();
+        this.buffer = next;
+        this.previousToken = null;
+        this.scanError = false;
         this.lastMatch.clear();
     }
 
@@ -277,7 +508,7 @@ public class Tokenizer {
         Token  token = null;
 
         do {
-            token = nextToken();
+            token = nextToken(!useTokenList);
             if (token == null) {
                 previousToken = null;
                 return null;
@@ -299,10 +530,109 @@ public class Tokenizer {
         return token;
     }
 
+    /**
+     * Scans a batch of tokens from the stream without creating any
+     * token objects. The token ids, start positions and lengths are
+     * written to the specified arrays, starting at index zero (0).
+     * The start positions are absolute input positions, i.e. the
+     * number of characters preceding the token in the input stream.
+     * Scanning stops when the arrays are full, at the end of file or
+     * when an error is encountered.<p>
+     *
+     * Errors are reported as a negative return value instead of a
+     * parse exception. The value is the negated error type from
+     * ParseException, i.e. -ParseException.UNEXPECTED_CHAR_ERROR,
+     * -ParseException.INVALID_TOKEN_ERROR or
+     * -ParseException.IO_ERROR. An error is only reported once all
+     * the preceding tokens have been returned, and the position and
+     * length of the offending input is then stored at index zero
+     * (0). The erroneous input is skipped, so scanning can be
+     * resumed with another call. For I/O errors, the stored length
+     * is zero (0) and no more input will be read. Note that this
+     * method does not update the token list.
+     *
+     * @param ids            the token id array
+     * @param starts         the token start position array
+     * @param lengths        the token length array
+     * @param ignored        the include ignored tokens flag
+     *
+     * @return the number of tokens scanned, or
+     *         zero (0) if end of file was encountered, or
+     *         a negative error type if an error was encountered
+     *
+     * @see ParseException
+     *
+     * @since 1.7
+     */
+    public int scan(int[] ids,
+                    long[] starts,
+                    int[] lengths,
+                    boolean ignored) {
+
+        TokenPattern  pattern;
+        int           count = 0;
+        int           length;
+
+        previousToken = null;
+        if (scanError) {
+            scanError = false;
+            ids[0] = 0;
+            starts[0] = buffer.offset();
+            lengths[0] = 0;
+            return -ParseException.IO_ERROR;
+        }
+        try {
+            while (count < ids.length) {
+                lastMatch.clear();
+                spec.match(buffer, lastMatch, context);
+                length = lastMatch.length();
+                pattern = lastMatch.pattern();
+                if (length > 0 && !pattern.isError()) {
+                    if (ignored || !pattern.isIgnore()) {
+                        ids[count] = pattern.getId();
+                        starts[count] = buffer.offset();
+                        lengths[count] = length;
+                        count++;
+                    }
+                    buffer.skip(length);
+                } else if (count > 0 || buffer.peek(0) < 0) {
+                    return count;
+                } else if (length > 0) {
+                    ids[0] = pattern.getId();
+                    starts[0] = buffer.offset();
+                    lengths[0] = length;
+                    buffer.skip(length);
+                    return -ParseException.INVALID_TOKEN_ERROR;
+                } else {
+                    ids[0] = 0;
+                    starts[0] = buffer.offset();
+                    lengths[0] = 1;
+                    buffer.skip(1);
+                    return -ParseException.UNEXPECTED_CHAR_ERROR;
+                }
+            }
+        } catch (IOException e) {
+            if (count > 0) {
+                scanError = true;
+                return count;
+            }
+            ids[0] = 0;
+            starts[0] = buffer.offset();
+            lengths[0] = 0;
+            return -ParseException.IO_ERROR;
+        }
+        return count;
+    }
+
     /**
      * Finds the next token on the stream. This method will return
      * null when end of file has been reached. It will return a parse
-     * exception if no token matched the input stream.
+     * exception if no token matched the input stream. If the skip
+     * ignored flag is set, any matches for ignored token patterns
+     * are skipped directly in the input buffer, without creating a
+     * token or an image string.
+     *
+     * @param skipIgnored    the skip ignored tokens flag
      *
      * @return the next token found, or
      *         null if end of file was encountered
@@ -310,21 +640,45 @@ public class Tokenizer {
      * @throws ParseException if the input stream couldn't be read or
      *             parsed correctly
      */
-    private Token nextToken() throws ParseException {
+    private Token nextToken(boolean skipIgnored) throws ParseException {
         String  str;
+        char[]  chars;
+        int     start;
+        long    position;
         int     line;
         int     column;
 
         try {
             lastMatch.clear();
-            stringDfaMatcher.match(buffer, lastMatch);
-            nfaMatcher.match(buffer, lastMatch);
-            regExpMatcher.match(buffer, lastMatch);
-            if (lastMatch.length() > 0) {
+            spec.match(buffer, lastMatch, context);
+            while (skipIgnored &&
+                   lastMatch.length() > 0 &&
+                   lastMatch.pattern().isIgnore()) {
+
+                buffer.skip(lastMatch.length());
+                lastMatch.clear();
+                spec.match(buffer, lastMatch, context);
+            }
+            if (lastMatch.length() > 0 && useLegacyFactory) {
                 line = buffer.lineNumber();
                 column = buffer.columnNumber();
                 str = buffer.read(lastMatch.length());
                 return newToken(lastMatch.pattern(), str, line, column);
+            } else if (lastMatch.length() > 0 && useSharedImages) {
+                position = buffer.offset();
+                chars = buffer.share();
+                start = buffer.position();
+                buffer.skip(lastMatch.length());
+                return newToken(lastMatch.pattern(),
+                                chars,
+                                start,
+                                lastMatch.length(),
+                                buffer,
+                                position);
+            } else if (lastMatch.length() > 0) {
+                position = buffer.offset();
+                str = buffer.read(lastMatch.length());
+                return newToken(lastMatch.pattern(), str, buffer, position);
             } else if (buffer.peek(0) < 0) {
                 return null;
             } else {
@@ -344,9 +698,47 @@ public class Tokenizer {
     }
 
     /**
-     * Factory method for creating a new token. This method can be
-     * overridden to provide other token implementations than the
-     * default one.
+     * Checks if a tokenizer class overrides the legacy token factory
+     * method. The result is cached for each class.
+     *
+     * @param cls            the tokenizer class
+     *
+     * @return true if the legacy factory method is overridden, or
+     *         false otherwise
+     */
+    private static boolean hasLegacyFactory(Class cls) {
+        Boolean  res;
+
+        if (cls == Tokenizer.class) {
+            return false;
+        }
+        synchronized (LEGACY_FACTORY) {
+            res = (Boolean) LEGACY_FACTORY.get(cls);
+        }
+        if (res == null) {
+            res = Boolean.FALSE;
+            for (Class c = cls; c != Tokenizer.class; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("newToken", LEGACY_FACTORY_PARAMS);
+                    res = Boolean.TRUE;
+                    break;
+                } catch (NoSuchMethodException ignore) {
+                    // Check superclass
+                }
+            }
+            synchronized (LEGACY_FACTORY) {
+                LEGACY_FACTORY.put(cls, res);
+            }
+        }
+        return res.booleanValue();
+    }
+
+    /**
+     * Factory method for creating a new token. This method is only
+     * called if overridden by a subclass, since the line and column
+     * numbers must then be calculated for each token when it is
+     * created. The shared token images setting is ignored when this
+     * method is overridden.
      *
      * @param pattern        the token pattern
      * @param image          the token image (i.e. characters)
@@ -356,6 +748,10 @@ public class Tokenizer {
      * @return the token created
      *
      * @since 1.5
+     *
+     * @deprecated Override newToken(TokenPattern, String,
+     *             ReaderBuffer, long) instead, which allows the line
+     *             and column numbers to be calculated on demand.
      */
     protected Token newToken(TokenPattern pattern,
                              String image,
@@ -366,383 +762,67 @@ public class Tokenizer {
     }
 
     /**
-     * Returns a string representation of this object. The returned
-     * string will contain the details of all the token patterns
-     * contained in this tokenizer.
+     * Factory method for creating a new token. This method can be
+     * overridden to provide other token implementations than the
+     * default one.
      *
-     * @return a detailed string representation
-     */
-    public String toString() {
-        StringBuffer  buffer = new StringBuffer();
-
-        buffer.append(stringDfaMatcher);
-        buffer.append(nfaMatcher);
-        buffer.append(regExpMatcher);
-        return buffer.toString();
-    }
-
-
-    /**
-     * A token pattern matcher. This class is the base class for the
-     * various types of token matchers that exist. The token matcher
-     * checks for matches with the tokenizer buffer, and maintains the
-     * state of the last match.
-     */
-    abstract class TokenMatcher {
-
-        /**
-         * The array of token patterns.
-         */
-        protected TokenPattern[] patterns = new TokenPattern[0];
-
-        /**
-         * Searches for matching token patterns at the start of the
-         * input stream. If a match is found, the token match object
-         * is updated.
-         *
-         * @param buffer         the input buffer to check
-         * @param match          the token match to update
-         *
-         * @throws IOException if an I/O error occurred
-         */
-        public abstract void match(ReaderBuffer buffer, TokenMatch match)
-        throws IOException;
-
-        /**
-         * Returns the token pattern with the specified id. Only
-         * token patterns handled by this matcher can be returned.
-         *
-         * @param id         the token pattern id
-         *
-         * @return the token pattern found, or
-         *         null if not found
-         */
-        public TokenPattern getPattern(int id) {
-            for (int i = 0; i < patterns.length; i++) {
-                if (patterns[i].getId() == id) {
-                    return patterns[i];
-                }
-            }
-            return null;
-        }
-
-        /**
-         * Adds a token pattern to this matcher.
-         *
-         * @param pattern        the pattern to add
-         *
-         * @throws Exception if the pattern couldn't be added to the matcher
-         */
-        public void addPattern(TokenPattern pattern) throws Exception {
-            TokenPattern[]  temp = patterns;
-
-            patterns = new TokenPattern[temp.length + 1];
-            System.arraycopy(temp, 0, patterns, 0, temp.length);
-            patterns[temp.length] = pattern;
-        }
-
-        /**
-         * Returns a string representation of this matcher. This will
-         * contain all the token patterns.
-         *
-         * @return a detailed string representation of this matcher
-         */
-        public String toString() {
-            StringBuffer  buffer = new StringBuffer();
-
-            for (int i = 0; i < patterns.length; i++) {
-                buffer.append(patterns[i]);
-                buffer.append("\n\n");
-            }
-            return buffer.toString();
-        }
-    }
-
-
-    /**
-     * A token pattern matcher using a DFA for string tokens. This
-     * class only supports string tokens and must be complemented
-     * with another matcher for regular expressions. Internally it
-     * uses a DFA to provide high performance.
-     */
-    class StringDFAMatcher extends TokenMatcher {
-
-        /**
-         * The deterministic finite state automaton used for
-         * matching.
-         */
-        private TokenStringDFA automaton = new TokenStringDFA();
-
-        /**
-         * Adds a string token pattern to this matcher.
-         *
-         * @param pattern        the pattern to add
-         *
-         * @throws Exception if the pattern couldn't be added to the matcher
-         */
-        public void addPattern(TokenPattern pattern) throws Exception {
-            automaton.addMatch(pattern.getPattern(), ignoreCase, pattern);
-            super.addPattern(pattern);
-        }
-
-        /**
-         * Searches for matching token patterns at the start of the
-         * input stream. If a match is found, the token match object
-         * is updated.
-         *
-         * @param buffer         the input buffer to check
-         * @param match          the token match to update
-         *
-         * @throws IOException if an I/O error occurred
-         */
-        public void match(ReaderBuffer buffer, TokenMatch match)
-        throws IOException {
-            TokenPattern  res = automaton.match(buffer, ignoreCase);
-
-            if (res != null) {
-                match.update(res.getPattern().length(), res);
-            }
-        }
-    }
-
-
-    /**
-     * A token pattern matcher using a NFA for both string and
-     * regular expression tokens. This class has limited support for
-     * regular expressions and must be complemented with another
-     * matcher providing full regular expression support. Internally
-     * it uses a NFA to provide high performance and low memory
-     * usage.
-     */
-    class NFAMatcher extends TokenMatcher {
-
-        /**
-         * The non-deterministic finite state automaton used for
-         * matching.
-         */
-        private TokenNFA automaton = new TokenNFA();
-
-        /**
-         * Adds a token pattern to this matcher.
-         *
-         * @param pattern        the pattern to add
-         *
-         * @throws Exception if the pattern couldn't be added to the matcher
-         */
-        public void addPattern(TokenPattern pattern) throws Exception {
-            if (pattern.getType() == TokenPattern.STRING_TYPE) {
-                automaton.addTextMatch(pattern.getPattern(), ignoreCase, pattern);
-            } else {
-                automaton.addRegExpMatch(pattern.getPattern(), ignoreCase, pattern);
-            }
-            super.addPattern(pattern);
-        }
-
-        /**
-         * Searches for matching token patterns at the start of the
-         * input stream. If a match is found, the token match object
-         * is updated.
-         *
-         * @param buffer         the input buffer to check
-         * @param match          the token match to update
-         *
-         * @throws IOException if an I/O error occurred
-         */
-        public void match(ReaderBuffer buffer, TokenMatch match)
-        throws IOException {
-            automaton.match(buffer, match);
-        }
-    }
-
-
-    /**
-     * A token pattern matcher for complex regular expressions. This
-     * class only supports regular expression tokens and must be
-     * complemented with another matcher for string tokens.
-     * Internally it uses the Grammatica RE package for high
-     * performance or the native java.util.regex package for maximum
-     * compatibility.
-     */
-    class RegExpMatcher extends TokenMatcher {
-
-        /**
-         * The regular expression handlers.
-         */
-        private RE[] regExps = new RE[0];
-
-        /**
-         * Adds a regular expression token pattern to this matcher.
-         *
-         * @param pattern        the pattern to add
-         *
-         * @throws Exception if the pattern couldn't be added to the matcher
-         */
-        public void addPattern(TokenPattern pattern) throws Exception {
-            RE[]  temp = regExps;
-            RE    re;
-
-            re = new JavaRE(pattern.getPattern());
-            regExps = new RE[temp.length + 1];
-            System.arraycopy(temp, 0, regExps, 0, temp.length);
-            regExps[temp.length] = re;
-            pattern.setDebugInfo("native Java regexp");
-            super.addPattern(pattern);
-        }
-
-        /**
-         * Searches for matching token patterns at the start of the
-         * input stream. If a match is found, the token match object
-         * is updated.
-         *
-         * @param buffer         the input buffer to check
-         * @param match          the token match to update
-         *
-         * @throws IOException if an I/O error occurred
-         */
-        public void match(ReaderBuffer buffer, TokenMatch match)
-        throws IOException {
-
-            for (int i = 0; i < regExps.length; i++) {
-                int length = regExps[i].match(buffer);
-                if (length > 0) {
-                    match.update(length, patterns[i]);
-                }
-            }
-        }
-    }
-
-
-    /**
-     * The regular expression handler base class.
+     * @param pattern        the token pattern
+     * @param image          the token image (i.e. characters)
+     * @param source         the input buffer read from
+     * @param position       the absolute input position of the
+     *                       first character
+     *
+     * @return the token created
+     *
+     * @since 1.7
      */
-    abstract class RE {
+    protected Token newToken(TokenPattern pattern,
+                             String image,
+                             ReaderBuffer source,
+                             long position) {
 
-        /**
-         * Checks if the start of the input stream matches this
-         * regular expression.
-         *
-         * @param buffer         the input buffer to check
-         *
-         * @return the longest match found, or
-         *         zero (0) if no match was found
-         *
-         * @throws IOException if an I/O error occurred
-         */
-        public abstract int match(ReaderBuffer buffer) throws IOException;
+        return new Token(pattern, image, source, position);
     }
 
-
     /**
-     * The Grammatica built-in regular expression handler.
+     * Factory method for creating a new token with a shared image.
+     * This method is used instead of the normal factory method when
+     * the shared token images feature is active. It can be
+     * overridden to provide other token implementations than the
+     * default one.
+     *
+     * @param pattern        the token pattern
+     * @param chars          the shared character array
+     * @param offset         the token image start offset
+     * @param length         the token image length
+     * @param source         the input buffer read from
+     * @param position       the absolute input position of the
+     *                       first character
+     *
+     * @return the token created
+     *
+     * @see #setUseSharedImages
+     *
+     * @since 1.7
      */
-    class GrammaticaRE extends RE {
-
-        /**
-         * The compiled regular expression.
-         */
-        private RegExp regExp;
-
-        /**
-         * The regular expression matcher to use.
-         */
-        private Matcher matcher = null;
-
-        /**
-         * Creates a new Grammatica regular expression handler.
-         *
-         * @param regex          the regular expression text
-         *
-         * @throws Exception if the regular expression contained
-         *             invalid syntax
-         */
-        public GrammaticaRE(String regex) throws Exception {
-            regExp = new RegExp(regex, ignoreCase);
-        }
+    protected Token newToken(TokenPattern pattern,
+                             char[] chars,
+                             int offset,
+                             int length,
+                             ReaderBuffer source,
+                             long position) {
 
-        /**
-         * Checks if the start of the input stream matches this
-         * regular expression.
-         *
-         * @param buffer         the input buffer to check
-         *
-         * @return the longest match found, or
-         *         zero (0) if no match was found
-         *
-         * @throws IOException if an I/O error occurred
-         */
-        public int match(ReaderBuffer buffer) throws IOException {
-            if (matcher == null) {
-                matcher = regExp.matcher(buffer);
-            } else {
-                matcher.reset(buffer);
-            }
-            return matcher.matchFromBeginning() ? matcher.length() : 0;
-        }
+        return new Token(pattern, chars, offset, length, source, position);
     }
 
-
     /**
-     * A native Java regular expression handler.
+     * Returns a string representation of this object. The returned
+     * string will contain the details of all the token patterns
+     * contained in this tokenizer.
+     *
+     * @return a detailed string representation
      */
-    class JavaRE extends RE {
-
-        /**
-         * The compiled regular expression pattern.
-         */
-        Pattern  pattern;
-
-        /**
-         * The regular expression matcher used.
-         */
-        java.util.regex.Matcher  matcher = null;
-
-        /**
-         * Creates a new native regular expression handler.
-         *
-         * @param regex          the regular expression text
-         *
-         * @throws Exception if the regular expression contained
-         *             invalid syntax
-         */
-        public JavaRE(String regex) throws Exception {
-            if (ignoreCase) {
-                pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-            } else {
-                pattern = Pattern.compile(regex);
-            }
-        }
-
-        /**
-         * Checks if the start of the input stream matches this
-         * regular expression.
-         *
-         * @param buffer         the input buffer to check
-         *
-         * @return the longest match found, or
-         *         zero (0) if no match was found
-         *
-         * @throws IOException if an I/O error occurred
-         */
-        public int match(ReaderBuffer buffer) throws IOException {
-            int      minSize = ReaderBuffer.BLOCK_SIZE;
-            boolean  match;
-            int      c;
-
-            if (matcher == null) {
-                matcher = pattern.matcher(buffer);
-            } else {
-                matcher.reset(buffer);
-            }
-            matcher.useTransparentBounds(true);
-            do {
-                c = buffer.peek(minSize);
-                matcher.region(buffer.position(), buffer.length());
-                match = matcher.lookingAt();
-                if (matcher.hitEnd()) {
-                    minSize *= 2;
-                }
-            } while (c >= 0 && matcher.hitEnd());
-            return match ? matcher.end() - matcher.start() : 0;
-        }
+    public String toString() {
+        return spec.toString();
     }
 }
@@ -0,0 +1,1509 @@
+/*
+ * TokenizerSpec.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.regex.Pattern;
+
+import net.percederberg.grammatica.parser.re.RegExp;
+import net.percederberg.grammatica.parser.re.RegExpException;
+import net.percederberg.grammatica.parser.re.Matcher;
+
+/**
+ * A compiled tokenizer specification. This class contains the token
+ * patterns and the automatons and regular expressions compiled from
+ * them. A specification may be shared by any number of tokenizers,
+ * also from different threads, as all the matching state is kept in
+ * the tokenizer. Once a specification has been shared by a
+ * tokenizer, it is locked and no further token patterns may be
+ * added.<p>
+ *
+ * Creating a tokenizer from an existing specification is cheap,
+ * since no token patterns need to be compiled. This is the
+ * recommended way to tokenize a large number of input streams.
+ *
+ * @see Tokenizer#Tokenizer(TokenizerSpec, java.io.Reader)
+ * @see Tokenizer#getSpec()
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TokenizerSpec {
+
+    /**
+     * The character lookup table for characters on a single line.
+     * All characters except newline (and characters beyond the table
+     * length) are included.
+     */
+    private static final boolean[] LINE_CHARS = {
+        true, true, true, true, true, true, true, true, true, true,
+        false
+    };
+
+    /**
+     * The ignore character case flag.
+     */
+    private boolean ignoreCase;
+
+    /**
+     * The locked flag. This flag is set once the specification has
+     * been shared, after which no new token patterns may be added.
+     */
+    private boolean locked = false;
+
+    /**
+     * The prepared flag. This flag is set once the token matchers
+     * have been prepared for matching, and is cleared whenever a
+     * new token pattern is added.
+     */
+    private volatile boolean prepared = false;
+
+    /**
+     * The automaton token matcher. This token matcher uses a
+     * non-deterministic finite automaton (NFA) that is lazily
+     * converted to a deterministic automaton (DFA) while matching.
+     * It is used for all string token patterns and for most regular
+     * expression token patterns, so that each input character only
+     * has to be examined once per token. The automaton supports
+     * most of the regular expression syntax, but not all.
+     */
+    private NFAMatcher nfaMatcher = new NFAMatcher();
+
+    /**
+     * The regular expression token matcher. This token matcher is
+     * used for complex regular expressions, but should be avoided
+     * due to possibly degraded speed and memory usage compared to
+     * the automaton implementations.
+     */
+    private RegExpMatcher regExpMatcher = new RegExpMatcher();
+
+    /**
+     * The bulk skip token matcher. This token matcher is used for
+     * simple ignored regular expressions, such as whitespace or
+     * comments, that can be skipped with a tight loop over the input
+     * buffer instead of a character-by-character automaton.
+     */
+    private SkipMatcher skipMatcher = new SkipMatcher();
+
+    /**
+     * Creates a new empty tokenizer specification. The tokens can
+     * be processed either in case-sensitive or case-insensitive
+     * mode.
+     *
+     * @param ignoreCase     the character case ignore flag
+     */
+    public TokenizerSpec(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Checks if the tokens are processed in case-insensitive mode.
+     *
+     * @return true if the character case is ignored, or
+     *         false otherwise
+     */
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Checks if this specification has been locked. A locked
+     * specification is shared by one or more tokenizers and no
+     * more token patterns can be added to it.
+     *
+     * @return true if this specification is locked, or
+     *         false otherwise
+     */
+    public synchronized boolean isLocked() {
+        return locked;
+    }
+
+    /**
+     * Locks this specification. No more token patterns can be added
+     * after this method has been called.
+     */
+    synchronized void lock() {
+        locked = true;
+    }
+
+    /**
+     * Returns the maximum number of cached DFA states.
+     *
+     * @return the maximum number of cached DFA states
+     *
+     * @see Tokenizer#getDfaStateLimit()
+     */
+    public int getDfaStateLimit() {
+        return nfaMatcher.automaton.getDfaStateLimit();
+    }
+
+    /**
+     * Sets the maximum number of cached DFA states. The limit cannot
+     * be changed once the specification has been locked, since it
+     * would affect all tokenizers sharing this specification.
+     *
+     * @param limit          the new DFA state limit
+     *
+     * @throws IllegalStateException if the specification was locked
+     *
+     * @see Tokenizer#setDfaStateLimit(int)
+     */
+    public void setDfaStateLimit(int limit) throws IllegalStateException {
+        if (isLocked()) {
+            throw new IllegalStateException(
+                "the tokenizer specification is shared and cannot " +
+                "be modified");
+        }
+        nfaMatcher.automaton.setDfaStateLimit(limit);
+    }
+
+    /**
+     * Returns a description of the token pattern with the specified
+     * id.
+     *
+     * @param id             the token pattern id
+     *
+     * @return the token pattern description, or
+     *         null if not present
+     */
+    public String getPatternDescription(int id) {
+        TokenPattern  pattern;
+
+        pattern = nfaMatcher.getPattern(id);
+        if (pattern == null) {
+            pattern = regExpMatcher.getPattern(id);
+        }
+        if (pattern == null) {
+            pattern = skipMatcher.getPattern(id);
+        }
+        return (pattern == null) ? null : pattern.toShortString();
+    }
+
+    /**
+     * Returns the regular expression token patterns not supported by
+     * the built-in automaton. These patterns are matched with the
+     * java.util.regex package, which is considerably slower and
+     * requires the input to be buffered. The reason for each
+     * fallback is available in the pattern debug info.
+     *
+     * @return an array of fallback token patterns (may be empty)
+     *
+     * @since 1.7
+     */
+    public TokenPattern[] getFallbackPatterns() {
+        TokenPattern[]  res;
+
+        res = new TokenPattern[regExpMatcher.patterns.length];
+        System.arraycopy(regExpMatcher.patterns, 0, res, 0, res.length);
+        return res;
+    }
+
+    /**
+     * Adds a new token pattern to this specification. The pattern will be
+     * added last in the list, choosing a previous token pattern in
+     * case two matches the same string. All string patterns and the
+     * regular expression patterns supported by the built-in automaton
+     * will be merged into a single automaton. Any other regular
+     * expressions will be handled by the java.util.regex package.
+     * Ignored regular expression patterns consisting of a single
+     * repeated character set (optionally with a fixed prefix), or of
+     * a fixed block comment delimiter pair, are instead handled by
+     * bulk skip matchers.
+     *
+     * @param pattern        the pattern to add
+     *
+     * @throws ParserCreationException if the pattern couldn't be
+     *             added to the specification, or if the
+     *             specification was locked
+     */
+    public void addPattern(TokenPattern pattern)
+        throws ParserCreationException {
+
+        if (isLocked()) {
+            throw new ParserCreationException(
+                ParserCreationException.INVALID_TOKEN_ERROR,
+                pattern.getName(),
+                "the tokenizer specification is shared and cannot " +
+                "be modified");
+        }
+        prepared = false;
+        switch (pattern.getType()) {
+        case TokenPattern.STRING_TYPE:
+            try {
+                nfaMatcher.addPattern(pattern);
+            } catch (Exception e) {
+                throw new ParserCreationException(
+                    ParserCreationException.INVALID_TOKEN_ERROR,
+                    pattern.getName(),
+                    "error adding string token: " +
+                    e.getMessage());
+            }
+            break;
+        case TokenPattern.REGEXP_TYPE:
+            try {
+                skipMatcher.addPattern(pattern);
+            } catch (Exception unsupported) {
+                try {
+                    nfaMatcher.addPattern(pattern);
+                } catch (Exception reason) {
+                    try {
+                        regExpMatcher.addPattern(pattern);
+                        pattern.setDebugInfo(pattern.getDebugInfo() +
+                                             "; " + reason.getMessage());
+                    } catch (Exception e) {
+                        throw new ParserCreationException(
+                            ParserCreationException.INVALID_TOKEN_ERROR,
+                            pattern.getName(),
+                            "regular expression contains error(s): " +
+                            e.getMessage());
+                    }
+                }
+            }
+            break;
+        default:
+            throw new ParserCreationException(
+                ParserCreationException.INVALID_TOKEN_ERROR,
+                pattern.getName(),
+                "pattern type " + pattern.getType() + " is undefined");
+        }
+    }
+
+    /**
+     * Searches for matching token patterns at the start of the
+     * input stream. If a match is found, the token match object is
+     * updated.
+     *
+     * @param buffer         the input buffer to check
+     * @param match          the token match to update
+     * @param context        the match context to use
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    void match(ReaderBuffer buffer, TokenMatch match, MatchContext context)
+        throws IOException {
+
+        if (!prepared) {
+            prepare();
+        }
+        nfaMatcher.match(buffer, match, context);
+        regExpMatcher.match(buffer, match, context);
+        skipMatcher.match(buffer, match, context);
+        nfaMatcher.matchKeyword(buffer, match);
+    }
+
+    /**
+     * Prepares the token matchers for matching. This method is
+     * called before the first match, and again if more token
+     * patterns have been added.
+     */
+    private synchronized void prepare() {
+        if (!prepared) {
+            nfaMatcher.collapseKeywords();
+            prepared = true;
+        }
+    }
+
+    /**
+     * Returns a string representation of this object. The returned
+     * string will contain the details of all the token patterns
+     * contained in this specification.
+     *
+     * @return a detailed string representation
+     */
+    public String toString() {
+        StringBuffer  buffer = new StringBuffer();
+
+        buffer.append(nfaMatcher);
+        buffer.append(regExpMatcher);
+        buffer.append(skipMatcher);
+        return buffer.toString();
+    }
+
+
+    /**
+     * The per-tokenizer matching state. This class contains all the
+     * mutable data structures used while matching, so that the
+     * specification itself can be shared between threads.
+     */
+    static class MatchContext {
+
+        /**
+         * The NFA state queue to use.
+         */
+        TokenNFA.StateQueue queue = new TokenNFA.StateQueue();
+
+        /**
+         * The regular expression handlers, indexed as in the regular
+         * expression matcher. The handlers are created on demand.
+         */
+        RE[] regExps = new RE[0];
+    }
+
+
+    /**
+     * A token pattern matcher. This class is the base class for the
+     * various types of token matchers that exist. The token matcher
+     * checks for matches with the tokenizer buffer, and maintains the
+     * state of the last match.
+     */
+    abstract class TokenMatcher {
+
+        /**
+         * The array of token patterns.
+         */
+        protected TokenPattern[] patterns = new TokenPattern[0];
+
+        /**
+         * Searches for matching token patterns at the start of the
+         * input stream. If a match is found, the token match object
+         * is updated.
+         *
+         * @param buffer         the input buffer to check
+         * @param match          the token match to update
+         * @param context        the match context to use
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public abstract void match(ReaderBuffer buffer,
+                                   TokenMatch match,
+                                   MatchContext context)
+        throws IOException;
+
+        /**
+         * Returns the token pattern with the specified id. Only
+         * token patterns handled by this matcher can be returned.
+         *
+         * @param id         the token pattern id
+         *
+         * @return the token pattern found, or
+         *         null if not found
+         */
+        public TokenPattern getPattern(int id) {
+            for (int i = 0; i < patterns.length; i++) {
+                if (patterns[i].getId() == id) {
+                    return patterns[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds a token pattern to this matcher.
+         *
+         * @param pattern        the pattern to add
+         *
+         * @throws Exception if the pattern couldn't be added to the matcher
+         */
+        public void addPattern(TokenPattern pattern) throws Exception {
+            TokenPattern[]  temp = patterns;
+
+            patterns = new TokenPattern[temp.length + 1];
+            System.arraycopy(temp, 0, patterns, 0, temp.length);
+            patterns[temp.length] = pattern;
+        }
+
+        /**
+         * Returns a string representation of this matcher. This will
+         * contain all the token patterns.
+         *
+         * @return a detailed string representation of this matcher
+         */
+        public String toString() {
+            StringBuffer  buffer = new StringBuffer();
+
+            for (int i = 0; i < patterns.length; i++) {
+                buffer.append(patterns[i]);
+                buffer.append("\n\n");
+            }
+            return buffer.toString();
+        }
+    }
+
+
+    /**
+     * A token pattern matcher using a NFA for both string and
+     * regular expression tokens. This class has limited support for
+     * regular expressions and must be complemented with another
+     * matcher providing full regular expression support. Internally
+     * it uses a NFA that is lazily converted to a DFA, in order to
+     * provide high performance and low memory usage.
+     */
+    class NFAMatcher extends TokenMatcher {
+
+        /**
+         * The non-deterministic finite state automaton used for
+         * matching.
+         */
+        private TokenNFA automaton = new TokenNFA();
+
+        /**
+         * The collapsed keyword table, or null if no string patterns
+         * have been collapsed.
+         */
+        private KeywordTable keywords = null;
+
+        /**
+         * Adds a token pattern to this matcher.
+         *
+         * @param pattern        the pattern to add
+         *
+         * @throws Exception if the pattern couldn't be added to the matcher
+         */
+        public void addPattern(TokenPattern pattern) throws Exception {
+            if (pattern.getType() == TokenPattern.STRING_TYPE) {
+                automaton.addTextMatch(pattern.getPattern(), ignoreCase, pattern);
+            } else {
+                automaton.addRegExpMatch(pattern.getPattern(), ignoreCase, pattern);
+            }
+            super.addPattern(pattern);
+        }
+
+        /**
+         * Searches for matching token patterns at the start of the
+         * input stream. If a match is found, the token match object
+         * is updated.
+         *
+         * @param buffer         the input buffer to check
+         * @param match          the token match to update
+         * @param context        the match context to use
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public void match(ReaderBuffer buffer,
+                          TokenMatch match,
+                          MatchContext context)
+        throws IOException {
+
+            automaton.match(buffer, match, context.queue);
+        }
+
+        /**
+         * Resolves a collapsed keyword for a token match. If the
+         * matched characters are equal to a collapsed string pattern,
+         * the match will be updated with that pattern. This method
+         * must be called after all the token matchers have been
+         * checked.
+         *
+         * @param buffer         the input buffer to check
+         * @param match          the token match to update
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public void matchKeyword(ReaderBuffer buffer, TokenMatch match)
+            throws IOException {
+
+            TokenPattern  pattern;
+
+            if (keywords != null && match.length() > 0) {
+                pattern = keywords.find(buffer, match.length());
+                if (pattern != null) {
+                    match.update(match.length(), pattern);
+                }
+            }
+        }
+
+        /**
+         * Collapses string patterns into a keyword table. The
+         * automaton will be recreated, leaving out all string
+         * patterns already fully matched by some other pattern
+         * (typically an identifier). Such a string pattern can never
+         * match more characters than the other pattern, so it is
+         * sufficient to look up the characters matched in the
+         * keyword table afterwards. Grammars with many keywords will
+         * thereby have a much smaller automaton.
+         */
+        public void collapseKeywords() {
+            TokenNFA             nfa = new TokenNFA();
+            KeywordTable         table = new KeywordTable(ignoreCase);
+            TokenMatch           match = new TokenMatch();
+            TokenNFA.StateQueue  queue = new TokenNFA.StateQueue();
+            boolean[]            keyword = new boolean[patterns.length];
+            ReaderBuffer         input;
+            String               str;
+
+            nfa.setDfaStateLimit(automaton.getDfaStateLimit());
+            try {
+                for (int i = 0; i < patterns.length; i++) {
+                    if (patterns[i].getType() != TokenPattern.STRING_TYPE) {
+                        nfa.addRegExpMatch(patterns[i].getPattern(),
+                                           ignoreCase,
+                                           patterns[i]);
+                    }
+                }
+                for (int i = 0; i < patterns.length; i++) {
+                    if (patterns[i].getType() != TokenPattern.STRING_TYPE) {
+                        continue;
+                    }
+                    str = patterns[i].getPattern();
+                    input = new ReaderBuffer(new StringReader(str));
+                    match.clear();
+                    if (table.isSupported(str) &&
+                        nfa.match(input, match, queue) == str.length()) {
+
+                        table.add(str, patterns[i]);
+                        patterns[i].setDebugInfo("keyword lookup after " +
+                                                 match.pattern().getName());
+                        keyword[i] = true;
+                    }
+                }
+                for (int i = 0; i < patterns.length; i++) {
+                    if (patterns[i].getType() == TokenPattern.STRING_TYPE &&
+                        !keyword[i]) {
+
+                        nfa.addTextMatch(patterns[i].getPattern(),
+                                         ignoreCase,
+                                         patterns[i]);
+                    }
+                }
+            } catch (RegExpException e) {
+                // Keep the current automaton, as it already works
+                return;
+            } catch (IOException e) {
+                // Cannot happen when reading from a string
+                return;
+            }
+            if (table.size() > 0 || keywords != null) {
+                table.compile();
+                automaton = nfa;
+                keywords = (table.size() > 0) ? table : null;
+            }
+        }
+    }
+
+
+    /**
+     * A token pattern matcher for complex regular expressions. This
+     * class only supports regular expression tokens and must be
+     * complemented with another matcher for string tokens.
+     * Internally it uses the Grammatica RE package for high
+     * performance or the native java.util.regex package for maximum
+     * compatibility.
+     */
+    class RegExpMatcher extends TokenMatcher {
+
+        /**
+         * The regular expression handlers.
+         */
+        private RE[] regExps = new RE[0];
+
+        /**
+         * Adds a regular expression token pattern to this matcher.
+         *
+         * @param pattern        the pattern to add
+         *
+         * @throws Exception if the pattern couldn't be added to the matcher
+         */
+        public void addPattern(TokenPattern pattern) throws Exception {
+            RE[]    temp = regExps;
+            JavaRE  re;
+
+            re = new JavaRE(pattern.getPattern());
+            regExps = new RE[temp.length + 1];
+            System.arraycopy(temp, 0, regExps, 0, temp.length);
+            regExps[temp.length] = re;
+            pattern.setDebugInfo("native Java regexp, " +
+                                 re.getBufferInfo());
+            super.addPattern(pattern);
+        }
+
+        /**
+         * Searches for matching token patterns at the start of the
+         * input stream. If a match is found, the token match object
+         * is updated.
+         *
+         * @param buffer         the input buffer to check
+         * @param match          the token match to update
+         * @param context        the match context to use
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public void match(ReaderBuffer buffer,
+                          TokenMatch match,
+                          MatchContext context)
+        throws IOException {
+
+            RE[]  handlers = context.regExps;
+            RE[]  temp;
+            int   length;
+
+            if (handlers.length < regExps.length) {
+                temp = handlers;
+                handlers = new RE[regExps.length];
+                System.arraycopy(temp, 0, handlers, 0, temp.length);
+                context.regExps = handlers;
+            }
+            for (int i = 0; i < regExps.length; i++) {
+                if (handlers[i] == null) {
+                    handlers[i] = regExps[i].copy();
+                }
+                length = handlers[i].match(buffer);
+                if (length > 0) {
+                    match.update(length, patterns[i]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A token pattern matcher for simple ignored regular
+     * expressions. This class only supports the regular expressions
+     * for which a bulk skip handler can be created, and must be
+     * complemented with other matchers for all other tokens. The
+     * handlers have no state, so they are shared between all match
+     * contexts.
+     */
+    class SkipMatcher extends TokenMatcher {
+
+        /**
+         * The regular expression special characters. These are
+         * never part of a literal prefix.
+         */
+        private static final String SPECIAL_CHARS = ".[](){}?*+|^$\\";
+
+        /**
+         * The bulk skip handlers.
+         */
+        private Skip[] skips = new Skip[0];
+
+        /**
+         * Creates a bulk skip handler for a token pattern. Handlers
+         * can only be created for some simple regular expressions,
+         * i.e. a literal prefix followed by a single repeated
+         * character set (such as "[ \t\n\r]+" or "//.*"), or a block
+         * comment with a fixed pair of delimiter characters (such as
+         * "/\*([^*]|\*+[^*&#47;])*\*+/").
+         *
+         * @param pattern        the token pattern
+         *
+         * @return the bulk skip handler, or
+         *         null if the pattern isn't supported
+         */
+        private Skip createSkip(TokenPattern pattern) {
+            String  regex = pattern.getPattern();
+            Skip    skip;
+
+            skip = createRunSkip(regex);
+            if (skip == null) {
+                skip = createBlockSkip(regex);
+            }
+            return skip;
+        }
+
+        /**
+         * Adds an ignored regular expression token pattern to this
+         * matcher.
+         *
+         * @param pattern        the pattern to add
+         *
+         * @throws Exception if the pattern couldn't be added to the
+         *             matcher, i.e. if no bulk skip handler could be
+         *             created for it
+         */
+        public void addPattern(TokenPattern pattern) throws Exception {
+            Skip[]  temp = skips;
+            Skip    skip = null;
+
+            if (pattern.getType() == TokenPattern.REGEXP_TYPE &&
+                pattern.isIgnore()) {
+
+                skip = createSkip(pattern);
+            }
+            if (skip == null) {
+                throw new Exception("unsupported bulk skip pattern");
+            }
+            skips = new Skip[temp.length + 1];
+            System.arraycopy(temp, 0, skips, 0, temp.length);
+            skips[temp.length] = skip;
+            pattern.setDebugInfo("bulk skip; " + skip);
+            super.addPattern(pattern);
+        }
+
+        /**
+         * Searches for matching token patterns at the start of the
+         * input stream. If a match is found, the token match object
+         * is updated.
+         *
+         * @param buffer         the input buffer to check
+         * @param match          the token match to update
+         * @param context        the match context to use
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public void match(ReaderBuffer buffer,
+                          TokenMatch match,
+                          MatchContext context)
+        throws IOException {
+
+            int  length;
+
+            for (int i = 0; i < skips.length; i++) {
+                length = skips[i].match(buffer);
+                if (length > 0) {
+                    match.update(length, patterns[i]);
+                }
+            }
+        }
+
+        /**
+         * Creates a character run handler for a regular expression.
+         * The regular expression must consist of a literal prefix,
+         * a single character set and a '+' or '*' operator.
+         *
+         * @param regex          the regular expression text
+         *
+         * @return the character run handler, or
+         *         null if the regular expression isn't supported
+         */
+        private Skip createRunSkip(String regex) {
+            int        last = regex.length() - 1;
+            int        pos = 0;
+            char       c;
+            boolean[]  table;
+
+            if (last < 1) {
+                return null;
+            }
+            c = regex.charAt(last);
+            if (c != '+' && c != '*') {
+                return null;
+            }
+            while (pos < last &&
+                   SPECIAL_CHARS.indexOf(regex.charAt(pos)) < 0) {
+
+                c = regex.charAt(pos++);
+                if (ignoreCase &&
+                    Character.toLowerCase(c) != Character.toUpperCase(c)) {
+
+                    return null;
+                }
+            }
+            if (pos == 0 && regex.charAt(last) == '*') {
+                return null;
+            }
+            table = createCharTable(regex.substring(pos, last));
+            if (table == null) {
+                return null;
+            }
+            return new RunSkip(regex.substring(0, pos),
+                               table,
+                               table[table.length - 1],
+                               regex.charAt(last) == '+');
+        }
+
+        /**
+         * Creates a block comment handler for a regular expression.
+         * The regular expression must have the same form as the
+         * standard C block comment expression, i.e. with two
+         * delimiter characters as in "/\*([^*]|\*+[^*&#47;])*\*+/".
+         *
+         * @param regex          the regular expression text
+         *
+         * @return the block comment handler, or
+         *         null if the regular expression isn't supported
+         */
+        private Skip createBlockSkip(String regex) {
+            int     pos = 0;
+            char    first;
+            char    second;
+            String  open;
+            String  body;
+
+            if (regex.length() < 4) {
+                return null;
+            }
+            if (regex.charAt(pos) == '\\') {
+                pos++;
+            }
+            first = regex.charAt(pos++);
+            if (regex.charAt(pos) == '\\') {
+                pos++;
+            }
+            second = regex.charAt(pos);
+            if (first == second ||
+                (ignoreCase && (Character.isLetter(first) ||
+                                Character.isLetter(second)))) {
+
+                return null;
+            }
+            open = quoteChar(first) + quoteChar(second);
+            body = "([^" + quoteSetChar(second) + "]|" +
+                   quoteChar(second) + "+[^";
+            if (!regex.equals(open + body + quoteSetChar(second) +
+                              quoteSetChar(first) + "])*" +
+                              quoteChar(second) + "+" + quoteChar(first)) &&
+                !regex.equals(open + body + quoteSetChar(first) +
+                              quoteSetChar(second) + "])*" +
+                              quoteChar(second) + "+" + quoteChar(first))) {
+
+                return null;
+            }
+            return new BlockSkip(first, second);
+        }
+
+        /**
+         * Creates a character set lookup table for a regular
+         * expression. The regular expression must match exactly one
+         * character, such as a character set or an escape sequence.
+         * The last element in the returned table is also the result
+         * for all characters outside the table.
+         *
+         * @param regex          the regular expression text
+         *
+         * @return the character set lookup table, or
+         *         null if the regular expression isn't supported
+         */
+        private boolean[] createCharTable(String regex) {
+            TokenRegExpParser   parser;
+            TokenNFA.State      start;
+            TokenNFA.State      end;
+            boolean[]           table;
+            boolean             other;
+            int                 size = 0;
+
+            try {
+                parser = new TokenRegExpParser(regex, ignoreCase);
+            } catch (RegExpException e) {
+                return null;
+            }
+            start = parser.start;
+            end = parser.end;
+            if (start == end ||
+                start.incoming.length > 0 ||
+                start.epsilonOut ||
+                end.outgoing.length > 0 ||
+                end.incoming.length != start.outgoing.length) {
+
+                return null;
+            }
+            for (int i = 0; i < start.outgoing.length; i++) {
+                if (start.outgoing[i].state != end) {
+                    return null;
+                }
+            }
+            other = matchChar(start, Character.MAX_VALUE);
+            for (int i = 0; i < Character.MAX_VALUE; i++) {
+                if (matchChar(start, (char) i) != other) {
+                    size = i + 1;
+                }
+            }
+            table = new boolean[size + 1];
+            for (int i = 0; i < size; i++) {
+                table[i] = matchChar(start, (char) i);
+            }
+            table[size] = other;
+            return table;
+        }
+
+        /**
+         * Checks if a character matches any outgoing transition from
+         * an NFA state.
+         *
+         * @param state          the NFA state
+         * @param c              the character to check
+         *
+         * @return true if the character matches, or
+         *         false otherwise
+         */
+        private boolean matchChar(TokenNFA.State state, char c) {
+            for (int i = 0; i < state.outgoing.length; i++) {
+                if (state.outgoing[i].match(c)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns a regular expression for a single literal
+         * character.
+         *
+         * @param c              the character
+         *
+         * @return the regular expression for the character
+         */
+        private String quoteChar(char c) {
+            if (SPECIAL_CHARS.indexOf(c) >= 0) {
+                return "\\" + c;
+            }
+            return String.valueOf(c);
+        }
+
+        /**
+         * Returns a regular expression character set element for a
+         * single literal character.
+         *
+         * @param c              the character
+         *
+         * @return the character set element for the character
+         */
+        private String quoteSetChar(char c) {
+            if ("[]^-\\".indexOf(c) >= 0) {
+                return "\\" + c;
+            }
+            return String.valueOf(c);
+        }
+    }
+
+
+    /**
+     * The bulk skip handler base class. A bulk skip handler checks
+     * for a match with a simple regular expression by scanning the
+     * input buffer directly, without using any automaton. The
+     * handlers have no mutable state.
+     */
+    abstract class Skip {
+
+        /**
+         * Checks if the start of the input stream matches this
+         * handler.
+         *
+         * @param buffer         the input buffer to check
+         *
+         * @return the longest match found, or
+         *         zero (0) if no match was found
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public abstract int match(ReaderBuffer buffer) throws IOException;
+    }
+
+
+    /**
+     * A character run bulk skip handler. This handler matches a
+     * literal prefix, followed by a run of characters from a
+     * character set.
+     */
+    class RunSkip extends Skip {
+
+        /**
+         * The literal prefix string, possibly empty.
+         */
+        private String prefix;
+
+        /**
+         * The character set lookup table.
+         */
+        private boolean[] table;
+
+        /**
+         * The character set result for characters outside the
+         * lookup table.
+         */
+        private boolean other;
+
+        /**
+         * The non-empty run flag. If set, at least one character
+         * from the character set must follow the prefix.
+         */
+        private boolean required;
+
+        /**
+         * Creates a new character run handler.
+         *
+         * @param prefix         the literal prefix string
+         * @param table          the character set lookup table
+         * @param other          the result for characters outside
+         *                       the lookup table
+         * @param required       the non-empty run flag
+         */
+        public RunSkip(String prefix,
+                       boolean[] table,
+                       boolean other,
+                       boolean required) {
+
+            this.prefix = prefix;
+            this.table = table;
+            this.other = other;
+            this.required = required;
+        }
+
+        /**
+         * Checks if the start of the input stream matches this
+         * handler.
+         *
+         * @param buffer         the input buffer to check
+         *
+         * @return the longest match found, or
+         *         zero (0) if no match was found
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public int match(ReaderBuffer buffer) throws IOException {
+            int  start = prefix.length();
+            int  end;
+
+            for (int i = 0; i < start; i++) {
+                if (buffer.peek(i) != prefix.charAt(i)) {
+                    return 0;
+                }
+            }
+            end = buffer.span(start, table, other);
+            return (required && end == start) ? 0 : end;
+        }
+
+        /**
+         * Returns a string representation of this handler.
+         *
+         * @return a string representation of this handler
+         */
+        public String toString() {
+            return (prefix.length() > 0) ? "prefixed character run"
+                                         : "character run";
+        }
+    }
+
+
+    /**
+     * A block comment bulk skip handler. This handler matches the
+     * two delimiter characters, followed by any characters up to and
+     * including the first occurrence of the delimiter characters in
+     * reverse order (such as in C block comments).
+     */
+    class BlockSkip extends Skip {
+
+        /**
+         * The first delimiter character, also ending the block.
+         */
+        private char first;
+
+        /**
+         * The second delimiter character, also starting the end
+         * of the block.
+         */
+        private char second;
+
+        /**
+         * The lookup table for all characters except the second
+         * delimiter character.
+         */
+        private boolean[] others;
+
+        /**
+         * The lookup table for only the second delimiter character.
+         */
+        private boolean[] repeats;
+
+        /**
+         * Creates a new block comment handler.
+         *
+         * @param first          the first delimiter character
+         * @param second         the second delimiter character
+         */
+        public BlockSkip(char first, char second) {
+            this.first = first;
+            this.second = second;
+            this.others = new boolean[second + 1];
+            this.repeats = new boolean[second + 1];
+            for (int i = 0; i < second; i++) {
+                others[i] = true;
+            }
+            repeats[second] = true;
+        }
+
+        /**
+         * Checks if the start of the input stream matches this
+         * handler.
+         *
+         * @param buffer         the input buffer to check
+         *
+         * @return the longest match found, or
+         *         zero (0) if no match was found
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public int match(ReaderBuffer buffer) throws IOException {
+            int  pos = 2;
+            int  c;
+
+            if (buffer.peek(0) != first || buffer.peek(1) != second) {
+                return 0;
+            }
+            while (true) {
+                pos = buffer.span(pos, others, true);
+                pos = buffer.span(pos, repeats, false);
+                c = buffer.peek(pos);
+                if (c < 0) {
+                    return 0;
+                } else if (c == first) {
+                    return pos + 1;
+                }
+            }
+        }
+
+        /**
+         * Returns a string representation of this handler.
+         *
+         * @return a string representation of this handler
+         */
+        public String toString() {
+            return "block comment";
+        }
+    }
+
+
+    /**
+     * The regular expression handler base class. The handlers keep
+     * matcher state and must therefore not be shared between
+     * threads. Each match context uses its own copies of the
+     * handlers.
+     */
+    abstract class RE {
+
+        /**
+         * Creates a new handler for the same regular expression. The
+         * compiled regular expression is shared, but not the matcher
+         * state.
+         *
+         * @return a new regular expression handler
+         */
+        public abstract RE copy();
+
+        /**
+         * Checks if the start of the input stream matches this
+         * regular expression.
+         *
+         * @param buffer         the input buffer to check
+         *
+         * @return the longest match found, or
+         *         zero (0) if no match was found
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public abstract int match(ReaderBuffer buffer) throws IOException;
+    }
+
+
+    /**
+     * The Grammatica built-in regular expression handler.
+     */
+    class GrammaticaRE extends RE {
+
+        /**
+         * The compiled regular expression.
+         */
+        private RegExp regExp;
+
+        /**
+         * The regular expression matcher to use.
+         */
+        private Matcher matcher = null;
+
+        /**
+         * Creates a new Grammatica regular expression handler.
+         *
+         * @param regex          the regular expression text
+         *
+         * @throws Exception if the regular expression contained
+         *             invalid syntax
+         */
+        public GrammaticaRE(String regex) throws Exception {
+            regExp = new RegExp(regex, ignoreCase);
+        }
+
+        /**
+         * Creates a new handler from a compiled regular expression.
+         *
+         * @param regExp         the compiled regular expression
+         */
+        private GrammaticaRE(RegExp regExp) {
+            this.regExp = regExp;
+        }
+
+        /**
+         * Creates a new handler for the same regular expression. The
+         * compiled regular expression is shared, but not the matcher
+         * state.
+         *
+         * @return a new regular expression handler
+         */
+        public RE copy() {
+            return new GrammaticaRE(regExp);
+        }
+
+        /**
+         * Checks if the start of the input stream matches this
+         * regular expression.
+         *
+         * @param buffer         the input buffer to check
+         *
+         * @return the longest match found, or
+         *         zero (0) if no match was found
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public int match(ReaderBuffer buffer) throws IOException {
+            if (matcher == null) {
+                matcher = regExp.matcher(buffer);
+            } else {
+                matcher.reset(buffer);
+            }
+            return matcher.matchFromBeginning() ? matcher.length() : 0;
+        }
+    }
+
+
+    /**
+     * A native Java regular expression handler. Since the native
+     * matcher cannot resume a match when more input becomes
+     * available, the input is buffered before matching. The amount
+     * of input buffered is chosen from the pattern, so that each
+     * match only has to be performed once in the common cases. For
+     * patterns with a known maximum match length, that many
+     * characters are buffered. For patterns that cannot match a
+     * newline character, the input is buffered to the end of the
+     * current line. Other patterns are matched with an increasing
+     * buffer size, starting from the size needed for recent matches.
+     */
+    class JavaRE extends RE {
+
+        /**
+         * The compiled regular expression pattern.
+         */
+        Pattern  pattern;
+
+        /**
+         * The regular expression matcher used.
+         */
+        java.util.regex.Matcher  matcher = null;
+
+        /**
+         * The maximum match length, or -1 if unbounded.
+         */
+        private int maxLength;
+
+        /**
+         * The single line flag. This flag is set if the pattern
+         * cannot match a newline character.
+         */
+        private boolean singleLine;
+
+        /**
+         * The number of characters to buffer before matching. This
+         * is adjusted after each match for patterns without any
+         * other buffering limit.
+         */
+        private int sizeHint = ReaderBuffer.BLOCK_SIZE;
+
+        /**
+         * The input buffer used for the last line end search.
+         */
+        private ReaderBuffer lineBuffer = null;
+
+        /**
+         * The absolute input position of the next newline character
+         * after the last line end search.
+         */
+        private long lineEnd = -1;
+
+        /**
+         * Creates a new native regular expression handler.
+         *
+         * @param regex          the regular expression text
+         *
+         * @throws Exception if the regular expression contained
+         *             invalid syntax
+         */
+        public JavaRE(String regex) throws Exception {
+            if (ignoreCase) {
+                pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+            } else {
+                pattern = Pattern.compile(regex);
+            }
+            analyze(regex);
+        }
+
+        /**
+         * Creates a new handler from another handler. The compiled
+         * regular expression is shared, but not the matcher state.
+         *
+         * @param other          the handler to copy
+         */
+        private JavaRE(JavaRE other) {
+            this.pattern = other.pattern;
+            this.maxLength = other.maxLength;
+            this.singleLine = other.singleLine;
+        }
+
+        /**
+         * Creates a new handler for the same regular expression. The
+         * compiled regular expression is shared, but not the matcher
+         * state.
+         *
+         * @return a new regular expression handler
+         */
+        public RE copy() {
+            return new JavaRE(this);
+        }
+
+        /**
+         * Returns a description of the input buffering used for
+         * this regular expression.
+         *
+         * @return the input buffering description
+         */
+        public String getBufferInfo() {
+            if (maxLength >= 0) {
+                return "buffers " + maxLength + " characters";
+            } else if (singleLine) {
+                return "buffers to end of line";
+            } else {
+                return "buffers adaptively";
+            }
+        }
+
+        /**
+         * Checks if the start of the input stream matches this
+         * regular expression.
+         *
+         * @param buffer         the input buffer to check
+         *
+         * @return the longest match found, or
+         *         zero (0) if no match was found
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public int match(ReaderBuffer buffer) throws IOException {
+            int      size = findBufferSize(buffer);
+            boolean  grown = false;
+            boolean  match;
+            int      c;
+
+            if (matcher == null) {
+                matcher = pattern.matcher(buffer);
+            } else {
+                matcher.reset(buffer);
+            }
+            matcher.useTransparentBounds(true);
+            do {
+                c = buffer.peek(size);
+                matcher.region(buffer.position(), buffer.length());
+                match = matcher.lookingAt();
+                if (matcher.hitEnd()) {
+                    size *= 2;
+                    grown = true;
+                }
+            } while (c >= 0 && matcher.hitEnd());
+            if (grown) {
+                sizeHint = size;
+            } else if (sizeHint > ReaderBuffer.BLOCK_SIZE) {
+                sizeHint /= 2;
+            }
+            return match ? matcher.end() - matcher.start() : 0;
+        }
+
+        /**
+         * Returns the number of characters to buffer before matching.
+         * For single line patterns, the position of the next newline
+         * character is remembered, so that each input character is
+         * only searched once.
+         *
+         * @param buffer         the input buffer to check
+         *
+         * @return the number of characters to buffer
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        private int findBufferSize(ReaderBuffer buffer) throws IOException {
+            long  offset = buffer.offset();
+
+            if (maxLength >= 0) {
+                return maxLength + 2;
+            } else if (singleLine) {
+                if (buffer != lineBuffer || offset > lineEnd) {
+                    lineBuffer = buffer;
+                    lineEnd = offset + buffer.span(0, LINE_CHARS, true);
+                }
+                return (int) (lineEnd - offset + 1);
+            } else {
+                return sizeHint;
+            }
+        }
+
+        /**
+         * Analyzes the regular expression text to find the buffering
+         * limits. The analysis is conservative, so any construct not
+         * known to be safe will disable the corresponding limit. The
+         * maximum match length is only bounded for patterns without
+         * repetition, look-ahead or back references. As a pattern
+         * character may match a surrogate pair, each pattern
+         * character is counted as two input characters.
+         *
+         * @param regex          the regular expression text
+         */
+        private void analyze(String regex) {
+            boolean  bounded = true;
+            boolean  newline = false;
+            int      sets = 0;
+            int      len = regex.length();
+            char     c;
+            char     next;
+
+            for (int i = 0; i < len; i++) {
+                c = regex.charAt(i);
+                next = (i + 1 < len) ? regex.charAt(i + 1) : 0;
+                if (c == '\\' && next == 'Q') {
+                    i = regex.indexOf("\\E", i);
+                    i = (i < 0) ? len : i + 1;
+                } else if (c == '\\') {
+                    i++;
+                    if ("sSWDPpnxu0cRvVHXN".indexOf(next) >= 0) {
+                        newline = true;
+                    } else if ("123456789k".indexOf(next) >= 0) {
+                        bounded = false;
+                    }
+                } else if (c == '\n') {
+                    newline = true;
+                } else if (c == '[') {
+                    if (next == '^') {
+                        newline = true;
+                        i++;
+                    }
+                    if (i + 1 < len && regex.charAt(i + 1) == ']') {
+                        i++;
+                    }
+                    sets++;
+                } else if (sets > 0 && c == ']') {
+                    sets--;
+                } else if (sets > 0 && c == '-' && next != ']' &&
+                           regex.charAt(i - 1) != '[') {
+
+                    if (next == '\\' || regex.charAt(i - 2) == '\\' ||
+                        (regex.charAt(i - 1) <= '\n' && '\n' <= next)) {
+
+                        newline = true;
+                    }
+                } else if (sets == 0 && "*+{".indexOf(c) >= 0) {
+                    bounded = false;
+                } else if (sets == 0 && c == '(' && next == '?') {
+                    for (int j = i + 2; j < len; j++) {
+                        next = regex.charAt(j);
+                        if (next == '=' || next == '!') {
+                            bounded = false;
+                        } else if (next == 's') {
+                            newline = true;
+                        } else if (next == ':' || next == ')') {
+                            break;
+                        }
+                    }
+                }
+            }
+            maxLength = bounded ? len * 2 : -1;
+            singleLine = !newline;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * TestLookAheadSet.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the LookAheadSet class.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestLookAheadSet extends TestCase {
+
+    /**
+     * Tests overlap checks between token sequences.
+     */
+    public void testOverlap() {
+        LookAheadSet  set = createSet(new int[][] { { 1, 2 } });
+        LookAheadSet  empty = createSet(new int[][] { { } });
+
+        assertOverlap(true, set, new int[] { 1, 2 });
+        assertOverlap(true, set, new int[] { 1 });
+        assertOverlap(true, set, new int[] { 1, 2, 3 });
+        assertOverlap(true, set, new int[] { });
+        assertOverlap(false, set, new int[] { 2 });
+        assertOverlap(false, set, new int[] { 1, 3 });
+        assertOverlap(false, set, new int[] { 2, 1, 2 });
+        assertOverlap(true, empty, new int[] { 1, 2 });
+        assertOverlap(true, empty, new int[] { });
+        assertOverlap(false, new LookAheadSet(2), new int[] { });
+        assertOverlap(false, new LookAheadSet(2), new int[] { 1 });
+    }
+
+    /**
+     * Tests the overlap set creation.
+     */
+    public void testOverlaps() {
+        LookAheadSet  set;
+
+        set = createSet(new int[][] { { 1, 2, 3 }, { 4 }, { 1 }, { 5 } });
+        set = set.createOverlaps(createSet(new int[][] { { 1, 2 } }));
+        assertSequences(new int[][] { { 1, 2, 3 }, { 1 } }, set);
+    }
+
+    /**
+     * Tests the filter set creation.
+     */
+    public void testFilter() {
+        LookAheadSet  set;
+        LookAheadSet  result;
+
+        set = createSet(new int[][] { { 1, 2, 3 }, { 4, 5 }, { 6 } });
+        result = set.createFilter(createSet(new int[][] { { 1, 2 }, { 1 } }));
+        assertSequences(new int[][] { { 3 }, { 2, 3 } }, result);
+        result = set.createFilter(createSet(new int[][] { { 1 }, { 1, 2 } }));
+        assertSequences(new int[][] { { 2, 3 }, { 3 } }, result);
+        result = set.createFilter(createSet(new int[][] { { 4 }, { } }));
+        assertSequences(new int[][] { { 1, 2, 3 }, { 5 }, { 4, 5 }, { 6 } },
+                        result);
+        result = set.createFilter(createSet(new int[][] { { 7 } }));
+        assertSequences(new int[][] { }, result);
+    }
+
+    /**
+     * Checks if a token sequence overlaps with a look-ahead set.
+     *
+     * @param expected       the expected overlap result
+     * @param set            the look-ahead set
+     * @param tokens         the token sequence to check
+     */
+    private void assertOverlap(boolean expected,
+                               LookAheadSet set,
+                               int[] tokens) {
+
+        LookAheadSet  other = createSet(new int[][] { tokens });
+
+        assertEquals("overlap " + other + " with " + set,
+                     expected, set.hasOverlap(other));
+        assertEquals("overlap " + set + " with " + other,
+                     expected, other.hasOverlap(set));
+    }
+
+    /**
+     * Checks the token sequences in a look-ahead set.
+     *
+     * @param expected       the expected token sequences, in order
+     * @param set            the look-ahead set
+     */
+    private void assertSequences(int[][] expected, LookAheadSet set) {
+        ArrayList  data = new ArrayList();
+        int        pos = 1;
+
+        set.writeData(data);
+        assertEquals("sequence count in " + set,
+                     expected.length, ((Integer) data.get(0)).intValue());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("sequence " + i + " length in " + set,
+                         expected[i].length,
+                         ((Integer) data.get(pos++)).intValue());
+            for (int j = 0; j < expected[i].length; j++) {
+                assertEquals("sequence " + i + " token in " + set,
+                             expected[i][j],
+                             ((Integer) data.get(pos++)).intValue());
+            }
+        }
+    }
+
+    /**
+     * Creates a look-ahead set from a list of token sequences.
+     *
+     * @param sequences      the token sequences to add
+     *
+     * @return the look-ahead set created
+     */
+    private LookAheadSet createSet(int[][] sequences) {
+        ArrayList  data = new ArrayList();
+        int[]      values;
+
+        data.add(Integer.valueOf(sequences.length));
+        for (int i = 0; i < sequences.length; i++) {
+            data.add(Integer.valueOf(sequences[i].length));
+            for (int j = 0; j < sequences[i].length; j++) {
+                data.add(Integer.valueOf(sequences[i][j]));
+            }
+        }
+        values = new int[data.size()];
+        for (int i = 0; i < data.size(); i++) {
+            values[i] = ((Integer) data.get(i)).intValue();
+        }
+        return new LookAheadSet(values, 0);
+    }
+}
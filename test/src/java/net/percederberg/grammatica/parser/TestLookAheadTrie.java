@@ -0,0 +1,229 @@
+/*
+ * TestLookAheadTrie.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the LookAheadTrie class.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestLookAheadTrie extends TestCase {
+
+    /**
+     * The "a" token constant.
+     */
+    private static final int A = 1001;
+
+    /**
+     * The "b" token constant.
+     */
+    private static final int B = 1002;
+
+    /**
+     * The "c" token constant.
+     */
+    private static final int C = 1003;
+
+    /**
+     * The "x" token constant. This token id is far from the others,
+     * so that a node with it uses a sorted key array.
+     */
+    private static final int X = 5000;
+
+    /**
+     * The "z" token constant. This token id is far from the others,
+     * so that a node with it uses a sorted key array.
+     */
+    private static final int Z = 9000;
+
+    /**
+     * Tests that the first added set has precedence.
+     */
+    public void testRankOrder() {
+        LookAheadTrie  trie = new LookAheadTrie();
+
+        trie.add(createSet(new int[][] { { A, B } }), 10);
+        trie.add(createSet(new int[][] { { A, B }, { C } }), 20);
+        trie.add(createSet(new int[][] { { A, C } }), 30);
+        assertFind(10, trie, "ab");
+        assertFind(20, trie, "c");
+        assertFind(30, trie, "ac");
+        assertFind(-1, trie, "b");
+        assertFind(-1, trie, "");
+    }
+
+    /**
+     * Tests two token sequences with a shared prefix, i.e. an LL(2)
+     * decision.
+     */
+    public void testSharedPrefix() {
+        LookAheadTrie  trie = new LookAheadTrie();
+
+        trie.add(createSet(new int[][] { { A, B } }), 1);
+        trie.add(createSet(new int[][] { { A, C } }), 2);
+        trie.add(createSet(new int[][] { { B } }), 3);
+        assertFind(1, trie, "ab");
+        assertFind(2, trie, "ac");
+        assertFind(3, trie, "bc");
+        assertFind(-1, trie, "aa");
+        assertFind(-1, trie, "a");
+    }
+
+    /**
+     * Tests that a shorter sequence has precedence over all the
+     * longer sequences starting with it, if added first.
+     */
+    public void testInheritedRank() {
+        LookAheadTrie  trie = new LookAheadTrie();
+
+        trie.add(createSet(new int[][] { { A } }), 1);
+        trie.add(createSet(new int[][] { { A, B } }), 2);
+        assertFind(1, trie, "ab");
+        assertFind(1, trie, "ac");
+        assertFind(1, trie, "a");
+
+        trie = new LookAheadTrie();
+        trie.add(createSet(new int[][] { { A, B } }), 1);
+        trie.add(createSet(new int[][] { { A } }), 2);
+        assertFind(1, trie, "ab");
+        assertFind(2, trie, "ac");
+        assertFind(2, trie, "a");
+    }
+
+    /**
+     * Tests searching a node with sparse token ids.
+     */
+    public void testSparseTokens() {
+        LookAheadTrie  trie = new LookAheadTrie();
+
+        trie.add(createSet(new int[][] { { X } }), 1);
+        trie.add(createSet(new int[][] { { Z, A } }), 2);
+        trie.add(createSet(new int[][] { { A } }), 3);
+        assertFind(1, trie, "x");
+        assertFind(2, trie, "za");
+        assertFind(3, trie, "ax");
+        assertFind(-1, trie, "b");
+        assertFind(-1, trie, "c");
+        assertFind(-1, trie, "zb");
+        assertFind(-1, trie, "z");
+    }
+
+    /**
+     * Tests searching before and adding a set after the trie has
+     * been compiled.
+     */
+    public void testCompiled() {
+        LookAheadTrie  trie = new LookAheadTrie();
+
+        trie.add(createSet(new int[][] { { A } }), 1);
+        try {
+            trie.find(createParser("a"));
+            fail("could search an uncompiled trie");
+        } catch (IllegalStateException e) {
+            // Failure was expected
+        }
+        assertFind(1, trie, "a");
+        try {
+            trie.add(createSet(new int[][] { { B } }), 2);
+            fail("could add to a compiled trie");
+        } catch (IllegalStateException e) {
+            // Failure was expected
+        }
+    }
+
+    /**
+     * Checks the value found in a trie for an input string. The trie
+     * will be compiled first.
+     *
+     * @param expected       the expected value
+     * @param trie           the look-ahead trie
+     * @param input          the input string
+     */
+    private void assertFind(int expected, LookAheadTrie trie, String input) {
+        trie.compile();
+        assertEquals("value for '" + input + "'",
+                     expected, trie.find(createParser(input)));
+    }
+
+    /**
+     * Creates a parser for an input string. The parser has no
+     * production patterns, but its tokenizer recognizes all the test
+     * tokens.
+     *
+     * @param input          the input string
+     *
+     * @return the parser created
+     */
+    private Parser createParser(String input) {
+        Tokenizer  tokenizer = new Tokenizer((StringReader) null);
+        Parser     parser = new RecursiveDescentParser(tokenizer);
+
+        try {
+            tokenizer.addPattern(createPattern(A, "a"));
+            tokenizer.addPattern(createPattern(B, "b"));
+            tokenizer.addPattern(createPattern(C, "c"));
+            tokenizer.addPattern(createPattern(X, "x"));
+            tokenizer.addPattern(createPattern(Z, "z"));
+        } catch (ParserCreationException e) {
+            fail("couldn't create tokenizer: " + e.getMessage());
+        }
+        parser.reset(new StringReader(input));
+        return parser;
+    }
+
+    /**
+     * Creates a string token pattern.
+     *
+     * @param id             the token id
+     * @param image          the token image
+     *
+     * @return the token pattern created
+     */
+    private TokenPattern createPattern(int id, String image) {
+        return new TokenPattern(id, image, TokenPattern.STRING_TYPE, image);
+    }
+
+    /**
+     * Creates a look-ahead set from a list of token sequences.
+     *
+     * @param sequences      the token sequences to add
+     *
+     * @return the look-ahead set created
+     */
+    private LookAheadSet createSet(int[][] sequences) {
+        ArrayList  data = new ArrayList();
+        int[]      values;
+
+        data.add(Integer.valueOf(sequences.length));
+        for (int i = 0; i < sequences.length; i++) {
+            data.add(Integer.valueOf(sequences[i].length));
+            for (int j = 0; j < sequences[i].length; j++) {
+                data.add(Integer.valueOf(sequences[i][j]));
+            }
+        }
+        values = new int[data.size()];
+        for (int i = 0; i < data.size(); i++) {
+            values[i] = ((Integer) data.get(i)).intValue();
+        }
+        return new LookAheadSet(values, 0);
+    }
+}
@@ -14,13 +14,16 @@
 
 package net.percederberg.grammatica.parser;
 
+import java.io.StringReader;
+import java.util.Arrays;
+
 import junit.framework.TestCase;
 
 /**
  * A test case for the RecursiveDescentParser class.
  *
  * @author   Per Cederberg
- * @version  1.0
+ * @version  1.7
  */
 public class TestRecursiveDescentParser extends TestCase {
 
@@ -465,6 +468,234 @@ public class TestRecursiveDescentParser extends TestCase {
         prepareParser(parser);
     }
 
+    /**
+     * Tests a resolvable conflict between two production alternatives
+     * referencing the same production. The referenced production
+     * look-ahead is reused for each alternative.
+     */
+    public void testSharedProductionConflict() {
+        Parser parser = createParser();
+
+        pattern = new ProductionPattern(P1, "P1");
+        alt = new ProductionPatternAlternative();
+        alt.addProduction(P2, 1, 1);
+        alt.addToken(T1, 1, 1);
+        addAlternative(pattern, alt);
+        alt = new ProductionPatternAlternative();
+        alt.addProduction(P2, 1, 1);
+        alt.addToken(T2, 1, 1);
+        addAlternative(pattern, alt);
+        addPattern(parser, pattern);
+
+        pattern = new ProductionPattern(P2, "P2");
+        alt = new ProductionPatternAlternative();
+        alt.addProduction(P3, 1, 1);
+        alt.addProduction(P3, 1, 1);
+        addAlternative(pattern, alt);
+        addPattern(parser, pattern);
+
+        pattern = new ProductionPattern(P3, "P3");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T3, 1, 1);
+        addAlternative(pattern, alt);
+        addPattern(parser, pattern);
+
+        prepareParser(parser);
+        pattern = parser.getPattern(P1);
+        assertEquals(3, pattern.getAlternative(0).getLookAhead().getMaxLength());
+        assertEquals(3, pattern.getAlternative(1).getLookAhead().getMaxLength());
+        assertFalse(pattern.getAlternative(0).getLookAhead().isRepetitive());
+    }
+
+    /**
+     * Tests installing precomputed look-ahead data into a parser.
+     */
+    public void testPrecomputedLookAhead() {
+        Parser  parser = createParser();
+        int[]   data;
+
+        addPattern(parser, createConflictPattern());
+        prepareParser(parser);
+        data = pattern.getLookAheadData();
+        assertNotNull(data);
+
+        parser = createParser();
+        pattern = createConflictPattern();
+        assertNull(pattern.getLookAheadData());
+        try {
+            pattern.setLookAheadData(data);
+        } catch (ParserCreationException e) {
+            fail("couldn't set look-ahead data: " + e.getMessage());
+        }
+        addPattern(parser, pattern);
+        prepareParser(parser);
+        assertTrue(pattern.isLookAheadPrecomputed());
+        assertTrue(Arrays.equals(data, pattern.getLookAheadData()));
+        assertEquals(3, pattern.getAlternative(0).getLookAhead().getMaxLength());
+
+        pattern = new ProductionPattern(P1, "P1");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T1, 1, 1);
+        addAlternative(pattern, alt);
+        try {
+            pattern.setLookAheadData(data);
+            fail("could set look-ahead data for another pattern");
+        } catch (ParserCreationException e) {
+            // Failure was expected
+        }
+        assertFalse(pattern.isLookAheadPrecomputed());
+        assertNull(pattern.getLookAheadData());
+
+        pattern = createConflictPattern();
+        assertInvalidLookAheadData(pattern, new int[0]);
+        assertInvalidLookAheadData(pattern, truncate(data, 1));
+        assertInvalidLookAheadData(pattern, truncate(data, 3));
+        assertInvalidLookAheadData(pattern, truncate(data, data.length - 1));
+        data = (int[]) data.clone();
+        data[2] = Integer.MAX_VALUE;
+        assertInvalidLookAheadData(pattern, data);
+        data[2] = Integer.MIN_VALUE;
+        assertInvalidLookAheadData(pattern, data);
+        data[1] = 1000;
+        assertInvalidLookAheadData(pattern, data);
+        data[0] = -2;
+        assertInvalidLookAheadData(pattern, data);
+    }
+
+    /**
+     * Tests that the default alternative is only selected when no
+     * other alternative matches, even if listed first.
+     */
+    public void testDefaultAlternativePrediction() {
+        Parser  parser = new RecursiveDescentParser(createTokenizer());
+        int[]   data = {
+            0,
+            2, 1, T1, 2, T1, T2,
+            1, 1, T1, -1, -1,
+            1, 2, T1, T2, -1, -1
+        };
+
+        pattern = new ProductionPattern(P1, "P1");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T1, 1, 1);
+        alt.addToken(T3, 1, 1);
+        addAlternative(pattern, alt);
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T1, 1, 1);
+        alt.addToken(T2, 1, 1);
+        addAlternative(pattern, alt);
+        try {
+            pattern.setLookAheadData(data);
+        } catch (ParserCreationException e) {
+            fail("couldn't set look-ahead data: " + e.getMessage());
+        }
+        addPattern(parser, pattern);
+        prepareParser(parser);
+        assertSame(pattern.getAlternative(0),
+                   pattern.getDefaultAlternative());
+        parseInput(parser, "ab");
+        parseInput(parser, "ac");
+    }
+
+    /**
+     * Tests that the alternative prediction is compiled when the
+     * parser is prepared, so that the shared pattern is never
+     * modified while parsing.
+     */
+    public void testPreparedPrediction() {
+        Parser         parser = new RecursiveDescentParser(createTokenizer());
+        LookAheadTrie  prediction;
+
+        addPattern(parser, createConflictPattern());
+        prepareParser(parser);
+        prediction = pattern.getPrediction();
+        assertNotNull(prediction);
+        parser.reset(new StringReader("aab"));
+        assertEquals(0, prediction.find(parser));
+        parseInput(parser, "aab");
+        parseInput(parser, "aaac");
+        assertSame(prediction, pattern.getPrediction());
+    }
+
+    /**
+     * Checks that invalid look-ahead data is rejected by a pattern.
+     *
+     * @param pattern        the production pattern
+     * @param data           the invalid look-ahead data
+     */
+    private void assertInvalidLookAheadData(ProductionPattern pattern,
+                                            int[] data) {
+
+        try {
+            pattern.setLookAheadData(data);
+            fail("could set invalid look-ahead data");
+        } catch (ParserCreationException e) {
+            // Failure was expected
+        }
+        assertFalse(pattern.isLookAheadPrecomputed());
+        assertNull(pattern.getLookAheadData());
+    }
+
+    /**
+     * Returns the first values of a data array.
+     *
+     * @param data           the data array
+     * @param length         the number of values to keep
+     *
+     * @return the truncated data array
+     */
+    private int[] truncate(int[] data, int length) {
+        int[]  result = new int[length];
+
+        System.arraycopy(data, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Creates a production pattern with a resolvable conflict
+     * between two production alternatives.
+     *
+     * @return the new production pattern
+     */
+    private ProductionPattern createConflictPattern() {
+        pattern = new ProductionPattern(P1, "P1");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T1, 1, 1);
+        alt.addToken(T1, 0, 1);
+        alt.addToken(T2, 1, 1);
+        addAlternative(pattern, alt);
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T1, 1, -1);
+        alt.addToken(T3, 1, 1);
+        addAlternative(pattern, alt);
+        return pattern;
+    }
+
+    /**
+     * Creates a new tokenizer for the test tokens. The T1, T2 and T3
+     * tokens match the "a", "b" and "c" strings respectively.
+     *
+     * @return a new tokenizer
+     */
+    private Tokenizer createTokenizer() {
+        Tokenizer  tokenizer = new Tokenizer((StringReader) null);
+
+        try {
+            tokenizer.addPattern(new TokenPattern(T1, "T1",
+                                                  TokenPattern.STRING_TYPE,
+                                                  "a"));
+            tokenizer.addPattern(new TokenPattern(T2, "T2",
+                                                  TokenPattern.STRING_TYPE,
+                                                  "b"));
+            tokenizer.addPattern(new TokenPattern(T3, "T3",
+                                                  TokenPattern.STRING_TYPE,
+                                                  "c"));
+        } catch (ParserCreationException e) {
+            fail("couldn't create tokenizer: " + e.getMessage());
+        }
+        return tokenizer;
+    }
+
     /**
      * Creates a new parser.
      *
@@ -474,6 +705,24 @@ public class TestRecursiveDescentParser extends TestCase {
         return new RecursiveDescentParser((Tokenizer) null);
     }
 
+    /**
+     * Parses an input string and reports a test failure if it
+     * failed.
+     *
+     * @param parser         the parser to use
+     * @param input          the input string
+     */
+    private void parseInput(Parser parser, String input) {
+        parser.reset(new StringReader(input));
+        try {
+            parser.parse();
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail("couldn't parse '" + input + "': " + e.getError(0));
+        }
+    }
+
     /**
      * Prepares the parser and reports a test failure if it failed.
      *
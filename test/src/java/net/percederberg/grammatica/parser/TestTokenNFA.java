@@ -0,0 +1,208 @@
+/*
+ * TestTokenNFA.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the TokenNFA class.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestTokenNFA extends TestCase {
+
+    /**
+     * Tests that equivalent automata are minimized to the same
+     * number of states.
+     */
+    public void testMinimize() throws Exception {
+        assertEquals(createNFA("[ax]bc").getStateCount(),
+                     createNFA("abc|xbc").getStateCount());
+        assertEquals(createNFA("[ax]bc").getStateCount(),
+                     createNFA("abc|xbc|abc").getStateCount());
+        assertEquals(createNFA("ab(ab)*").getStateCount(),
+                     createNFA("(ab)+").getStateCount());
+    }
+
+    /**
+     * Tests that the token patterns and their priorities are kept
+     * when merging states.
+     */
+    public void testMinimizeMatch() throws Exception {
+        TokenPattern  first = createPattern(1001, "ab");
+        TokenPattern  second = createPattern(1002, "[a-z]+");
+        TokenPattern  third = createPattern(1003, "xb");
+        TokenNFA      nfa = new TokenNFA();
+
+        nfa.addTextMatch("ab", false, first);
+        nfa.addRegExpMatch("[a-z]+", false, second);
+        nfa.addTextMatch("xb", false, third);
+        for (int i = 0; i < 2; i++) {
+            nfa.setDfaStateLimit(i * TokenNFA.DEFAULT_DFA_STATE_LIMIT);
+            assertMatch(nfa, "ab", first, 2);
+            assertMatch(nfa, "xb", second, 2);
+            assertMatch(nfa, "abc", second, 3);
+            assertMatch(nfa, "a", second, 1);
+            assertMatch(nfa, "1", null, 0);
+        }
+    }
+
+    /**
+     * Tests matching non-ASCII characters, both with and without
+     * enough cached DFA states.
+     */
+    public void testNonAsciiMatch() throws Exception {
+        TokenPattern  first = createPattern(1001, "\u00e9t\u00e9");
+        TokenPattern  second = createPattern(1002, "[a-z\u00e0-\u00ff]+");
+        TokenPattern  third = createPattern(1003, "\u0436[\u0430-\u044f]*");
+        TokenNFA      nfa = new TokenNFA();
+        int[]         limits = { 0, 1, 2, TokenNFA.DEFAULT_DFA_STATE_LIMIT };
+
+        nfa.addTextMatch("\u00e9t\u00e9", false, first);
+        nfa.addRegExpMatch("[a-z\u00e0-\u00ff]+", false, second);
+        nfa.addRegExpMatch("\u0436[\u0430-\u044f]*", false, third);
+        for (int i = 0; i < limits.length; i++) {
+            nfa.setDfaStateLimit(limits[i]);
+            for (int j = 0; j < 2; j++) {
+                assertMatch(nfa, "\u00e9t\u00e9", first, 3);
+                assertMatch(nfa, "\u00e9t\u00e9s", second, 4);
+                assertMatch(nfa, "\u00ff\u00e0z", second, 3);
+                assertMatch(nfa, "\u0436", third, 1);
+                assertMatch(nfa, "\u0436\u0430\u0431\u0430", third, 4);
+                assertMatch(nfa, "\u0436\u00e0", third, 1);
+                assertMatch(nfa, "\u0436\u044f\u0450", third, 2);
+                assertMatch(nfa, "\u0100", null, 0);
+                assertMatch(nfa, "\u042f", null, 0);
+            }
+        }
+    }
+
+    /**
+     * Tests the compiled character set lookup tables, including
+     * sets matching both the last ASCII character and non-ASCII
+     * characters.
+     */
+    public void testCharacterSets() {
+        TokenNFA.CharRangeTransition  set;
+
+        set = createSet(true, false, 'a', 'a');
+        assertFalse(set.match('a'));
+        assertTrue(set.match('\u007f'));
+        assertTrue(set.match('\u0080'));
+        assertTrue(set.match('\uffff'));
+        assertFalse(set.isAscii());
+        set = createSet(false, true, '\u00e0', '\u00fe');
+        assertTrue(set.match('\u00c0'));
+        assertTrue(set.match('\u00e0'));
+        assertFalse(set.match('\u00d7'));
+        assertFalse(set.match('a'));
+        set = createSet(false, true, 'A', 'Z');
+        assertTrue(set.match('k'));
+        assertTrue(set.match('K'));
+        assertTrue(set.match('\u212a'));
+        assertTrue(createSet(false, false, 'A', 'Z').isAscii());
+        set = createSet(false, false, 'x', 'x');
+        set.addCategories(1 << Character.DECIMAL_DIGIT_NUMBER, false);
+        set.compile();
+        assertTrue(set.match('x'));
+        assertTrue(set.match('7'));
+        assertTrue(set.match('\u0663'));
+        assertFalse(set.match('y'));
+    }
+
+    /**
+     * Creates a compiled character set with a single range.
+     *
+     * @param inverse        the inverse match flag
+     * @param ignoreCase     the case-insensitive match flag
+     * @param min            the minimum character value
+     * @param max            the maximum character value
+     *
+     * @return the new character set
+     */
+    private TokenNFA.CharRangeTransition createSet(boolean inverse,
+                                                   boolean ignoreCase,
+                                                   char min,
+                                                   char max) {
+
+        TokenNFA.CharRangeTransition  set;
+
+        set = new TokenNFA.CharRangeTransition(inverse,
+                                               ignoreCase,
+                                               new TokenNFA.State());
+        set.addRange(min, max);
+        set.compile();
+        return set;
+    }
+
+    /**
+     * Creates an automaton matching a single regular expression.
+     *
+     * @param regexp         the regular expression
+     *
+     * @return the new automaton
+     *
+     * @throws Exception if the regular expression couldn't be parsed
+     */
+    private TokenNFA createNFA(String regexp) throws Exception {
+        TokenNFA  nfa = new TokenNFA();
+
+        nfa.addRegExpMatch(regexp, false, createPattern(1001, regexp));
+        return nfa;
+    }
+
+    /**
+     * Creates a regular expression token pattern.
+     *
+     * @param id             the pattern id
+     * @param regexp         the regular expression
+     *
+     * @return the new token pattern
+     */
+    private TokenPattern createPattern(int id, String regexp) {
+        return new TokenPattern(id,
+                                "T" + id,
+                                TokenPattern.REGEXP_TYPE,
+                                regexp);
+    }
+
+    /**
+     * Checks the longest match of an automaton against a string.
+     *
+     * @param nfa            the automaton to use
+     * @param str            the input string
+     * @param pattern        the expected token pattern, or null
+     * @param length         the expected match length
+     *
+     * @throws Exception if the input couldn't be read
+     */
+    private void assertMatch(TokenNFA nfa,
+                             String str,
+                             TokenPattern pattern,
+                             int length)
+        throws Exception {
+
+        ReaderBuffer  buffer = new ReaderBuffer(new StringReader(str));
+        TokenMatch    match = new TokenMatch();
+
+        nfa.match(buffer, match, new TokenNFA.StateQueue());
+        assertSame(pattern, match.pattern());
+        assertEquals(length, match.length());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * TestTokenQueue.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the TokenQueue class.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestTokenQueue extends TestCase {
+
+    /**
+     * The token pattern used for all tokens.
+     */
+    private static final TokenPattern PATTERN =
+        new TokenPattern(1001, "T1", TokenPattern.STRING_TYPE, "t");
+
+    /**
+     * Tests adding, peeking and removing tokens with wrap-around.
+     */
+    public void testWrapAround() {
+        TokenQueue  queue = new TokenQueue(16);
+        Token[]     tokens = createTokens(100);
+        int         next = 0;
+
+        for (int i = 0; i < tokens.length; i++) {
+            queue.add(tokens[i]);
+            if (i % 3 == 2) {
+                assertSame(tokens[next], queue.peek(0));
+                assertSame(tokens[next + 1], queue.peek(1));
+                assertSame(tokens[next++], queue.remove());
+                assertSame(tokens[next++], queue.remove());
+            }
+        }
+        assertEquals(tokens.length - next, queue.size());
+        assertNull(queue.peek(queue.size()));
+        while (queue.size() > 0) {
+            assertSame(tokens[next++], queue.remove());
+        }
+        assertNull(queue.remove());
+        assertNull(queue.peek(0));
+    }
+
+    /**
+     * Tests the buffer growing for deep look-ahead and shrinking
+     * back to the retained capacity limit.
+     */
+    public void testLimit() {
+        TokenQueue  queue = new TokenQueue(20);
+        Token[]     tokens = createTokens(1000);
+
+        assertEquals(32, queue.getLimit());
+        for (int i = 0; i < tokens.length; i++) {
+            queue.add(tokens[i]);
+        }
+        assertSame(tokens[999], queue.peek(999));
+        for (int i = 0; i < tokens.length; i++) {
+            assertSame(tokens[i], queue.remove());
+            if (i + 1 < tokens.length) {
+                assertSame(tokens[i + 1], queue.peek(0));
+            }
+        }
+        queue.add(tokens[0]);
+        queue.clear();
+        assertEquals(0, queue.size());
+        queue.setLimit(0);
+        assertEquals(16, queue.getLimit());
+    }
+
+    /**
+     * Creates an array of tokens.
+     *
+     * @param count          the number of tokens
+     *
+     * @return the new array of tokens
+     */
+    private Token[] createTokens(int count) {
+        Token[]  res = new Token[count];
+
+        for (int i = 0; i < count; i++) {
+            res[i] = new Token(PATTERN, "t", 1, i + 1);
+        }
+        return res;
+    }
+}
@@ -14,7 +14,14 @@
 
 package net.percederberg.grammatica.parser;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
 
 import junit.framework.TestCase;
 
@@ -22,7 +29,7 @@ import junit.framework.TestCase;
  * A test case for the Tokenizer class.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 public class TestTokenizer extends TestCase {
 
@@ -85,15 +92,26 @@ public class TestTokenizer extends TestCase {
     }
 
     /**
-     * Tests the ignored tokens.
+     * Tests the ignored tokens. Without a token list, the ignored
+     * tokens are skipped directly in the input buffer, so the token
+     * positions are checked as well.
      */
     public void testIgnoreTokens() {
         Tokenizer  tokenizer = createDefaultTokenizer(" 12 keyword 0 ", false);
+        Token      token;
 
         readToken(tokenizer, NUMBER);
-        readToken(tokenizer, KEYWORD);
-        readToken(tokenizer, NUMBER);
+        token = readToken(tokenizer, KEYWORD);
+        assertEquals("start column", 5, token.getStartColumn());
+        token = readToken(tokenizer, NUMBER);
+        assertEquals("start column", 13, token.getStartColumn());
         readToken(tokenizer, EOF);
+        assertEquals("current column", 15, tokenizer.getCurrentColumn());
+        tokenizer = createDefaultTokenizer("12\n\n  keyword", false);
+        readToken(tokenizer, NUMBER);
+        token = readToken(tokenizer, KEYWORD);
+        assertEquals("start line", 3, token.getStartLine());
+        assertEquals("start column", 3, token.getStartColumn());
     }
 
     /**
@@ -165,6 +183,819 @@ public class TestTokenizer extends TestCase {
         readToken(tokenizer, KEYWORD);
         readToken(tokenizer, IDENTIFIER);
         readToken(tokenizer, EOF);
+
+        // Non-ASCII case variants in string patterns
+        tokenizer = createTokenizer("\u212AIN\u0130f", true);
+        addPattern(tokenizer, new TokenPattern(KEYWORD,
+                                               "KIN",
+                                               TokenPattern.STRING_TYPE,
+                                               "kin"));
+        addPattern(tokenizer, new TokenPattern(IDENTIFIER,
+                                               "IF",
+                                               TokenPattern.STRING_TYPE,
+                                               "if"));
+        readToken(tokenizer, KEYWORD);
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests string and regular expression patterns sharing the same
+     * initial character. The string pattern must not be able to
+     * extend any of the regular expression states.
+     */
+    public void testSharedPrefix() {
+        Tokenizer     tokenizer = createTokenizer("ababc abc a", false);
+        TokenPattern  pattern;
+
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "a(ba)*");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(KEYWORD,
+                                   "KEYWORD",
+                                   TokenPattern.STRING_TYPE,
+                                   "abc");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(WHITESPACE,
+                                   "WHITESPACE",
+                                   TokenPattern.STRING_TYPE,
+                                   " ");
+        pattern.setIgnore();
+        addPattern(tokenizer, pattern);
+        assertEquals("token image",
+                     "aba",
+                     readToken(tokenizer, IDENTIFIER).getImage());
+        failReadToken(tokenizer);
+        failReadToken(tokenizer);
+        readToken(tokenizer, KEYWORD);
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests character set matching with inverse, case-insensitive and
+     * non-ASCII character sets.
+     */
+    public void testCharacterSets() {
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        tokenizer = createTokenizer("aZ\u00e5\u00c5 xy\u0100 q", true);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[a-z\u00e0-\u00fe]+");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(NUMBER,
+                                   "NUMBER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[^a-z ]");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(WHITESPACE,
+                                   "WHITESPACE",
+                                   TokenPattern.STRING_TYPE,
+                                   " ");
+        pattern.setIgnore();
+        addPattern(tokenizer, pattern);
+        assertEquals("token image",
+                     "aZ\u00e5\u00c5",
+                     readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("token image",
+                     "xy",
+                     readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("token image",
+                     "\u0100",
+                     readToken(tokenizer, NUMBER).getImage());
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests regular expressions with repeat counts, nested repeats
+     * and character class escapes, which should all be handled by
+     * the built-in automaton. This includes Unicode categories
+     * matching supplementary characters and case-insensitive
+     * categories.
+     */
+    public void testNativeRegExp() {
+        Tokenizer       tokenizer;
+        TokenPattern    pattern;
+        TokenPattern[]  fallback;
+
+        tokenizer = createTokenizer("\u00c5ngstr-m_2 1,234,567 12345 <a--a>",
+                                    false);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\p{L}[\\w-]*");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(NUMBER,
+                                   "NUMBER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\d{1,3}(,[0-9]{3})*");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(ERROR,
+                                   "TAG",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "<(a|-*)+>");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(WHITESPACE,
+                                   "WHITESPACE",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\s+");
+        pattern.setIgnore();
+        addPattern(tokenizer, pattern);
+        assertEquals("fallback patterns",
+                     0,
+                     tokenizer.getFallbackPatterns().length);
+        pattern = new TokenPattern(KEYWORD,
+                                   "RELUCTANT",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "!+?");
+        addPattern(tokenizer, pattern);
+        fallback = tokenizer.getFallbackPatterns();
+        assertEquals("fallback patterns", 1, fallback.length);
+        assertSame("fallback pattern", pattern, fallback[0]);
+        assertTrue("fallback reason",
+                   pattern.getDebugInfo().indexOf("unsupported") > 0);
+        assertEquals("token image",
+                     "\u00c5ngstr-m_2",
+                     readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("token image",
+                     "1,234,567",
+                     readToken(tokenizer, NUMBER).getImage());
+        assertEquals("token image",
+                     "123",
+                     readToken(tokenizer, NUMBER).getImage());
+        assertEquals("token image",
+                     "45",
+                     readToken(tokenizer, NUMBER).getImage());
+        assertEquals("token image",
+                     "<a--a>",
+                     readToken(tokenizer, ERROR).getImage());
+        readToken(tokenizer, EOF);
+
+        // Supplementary characters in Unicode categories
+        tokenizer = createTokenizer("ab\uD840\uDC00cd (x) \uD835\uDFCE7",
+                                    false);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\p{L}+");
+        addPattern(tokenizer, pattern);
+        addPattern(tokenizer, new TokenPattern(NUMBER,
+                                               "PAREN",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "\\p{Ps}\\w\\p{Pe}"));
+        addPattern(tokenizer, new TokenPattern(KEYWORD,
+                                               "DIGITS",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "(?:\\p{Nd})+"));
+        pattern = new TokenPattern(WHITESPACE,
+                                   "WHITESPACE",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\p{Zs}+");
+        pattern.setIgnore();
+        addPattern(tokenizer, pattern);
+        assertEquals("fallback patterns",
+                     0,
+                     tokenizer.getFallbackPatterns().length);
+        assertEquals("token image",
+                     "ab\uD840\uDC00cd",
+                     readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("token image",
+                     "(x)",
+                     readToken(tokenizer, NUMBER).getImage());
+        assertEquals("token image",
+                     "\uD835\uDFCE7",
+                     readToken(tokenizer, KEYWORD).getImage());
+        readToken(tokenizer, EOF);
+
+        // Case-insensitive Unicode categories
+        tokenizer = createTokenizer("abcXYZ", true);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\p{Lu}+");
+        addPattern(tokenizer, pattern);
+        assertEquals("fallback patterns",
+                     0,
+                     tokenizer.getFallbackPatterns().length);
+        assertEquals("token image",
+                     "abcXYZ",
+                     readToken(tokenizer, IDENTIFIER).getImage());
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests the input buffering for regular expressions handled by
+     * the java.util.regex package, including tokens spanning many
+     * input buffer blocks.
+     */
+    public void testJavaRegExp() {
+        StringBuffer  buffer = new StringBuffer();
+        String        line = "//";
+        String        str;
+        Tokenizer     tokenizer;
+        TokenPattern  keyword;
+        TokenPattern  comment;
+        TokenPattern  string;
+        TokenPattern  pattern;
+
+        for (int i = 0; i < 2000; i++) {
+            buffer.append("line ");
+            buffer.append(i);
+            buffer.append(i % 100 == 0 ? '\n' : ' ');
+        }
+        str = "\"" + buffer + "\"";
+        while (line.length() < 3000) {
+            line += " comment";
+        }
+        tokenizer = createTokenizer("if " + line + "\n" + str + " " + str,
+                                    false);
+        keyword = new TokenPattern(KEYWORD,
+                                   "IF",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\bif\\b");
+        addPattern(tokenizer, keyword);
+        comment = new TokenPattern(ERROR,
+                                   "COMMENT",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "//.*+");
+        addPattern(tokenizer, comment);
+        string = new TokenPattern(IDENTIFIER,
+                                  "STRING",
+                                  TokenPattern.REGEXP_TYPE,
+                                  "\"[^\"]*?\"");
+        addPattern(tokenizer, string);
+        pattern = new TokenPattern(WHITESPACE,
+                                   "WHITESPACE",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\s+");
+        pattern.setIgnore();
+        addPattern(tokenizer, pattern);
+        assertEquals("fallback patterns",
+                     3,
+                     tokenizer.getFallbackPatterns().length);
+        assertTrue("bounded buffering",
+                   keyword.getDebugInfo().indexOf("buffers 12") > 0);
+        assertTrue("line buffering",
+                   comment.getDebugInfo().indexOf("end of line") > 0);
+        assertTrue("adaptive buffering",
+                   string.getDebugInfo().indexOf("adaptively") > 0);
+        readToken(tokenizer, KEYWORD);
+        assertEquals("token image",
+                     line,
+                     readToken(tokenizer, ERROR).getImage());
+        assertEquals("token image",
+                     str,
+                     readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("token image",
+                     str,
+                     readToken(tokenizer, IDENTIFIER).getImage());
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests that nested repeat counts creating too many automaton
+     * states are handled by the java.util.regex package.
+     */
+    public void testNestedRepeats() {
+        StringBuffer  buffer = new StringBuffer();
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        for (int i = 0; i < 255 * 255; i++) {
+            buffer.append('a');
+        }
+        tokenizer = createTokenizer(buffer.toString(), false);
+        pattern = new TokenPattern(KEYWORD,
+                                   "A",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "(a{255}){255}");
+        addPattern(tokenizer, pattern);
+        assertEquals("fallback patterns",
+                     1,
+                     tokenizer.getFallbackPatterns().length);
+        assertEquals("token length",
+                     255 * 255,
+                     readToken(tokenizer, KEYWORD).getImage().length());
+        readToken(tokenizer, EOF);
+        tokenizer = createTokenizer("", false);
+        addPattern(tokenizer, new TokenPattern(KEYWORD,
+                                               "AB",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "(ab{1,255}){1,255}"));
+        addPattern(tokenizer, new TokenPattern(IDENTIFIER,
+                                               "A",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "(a{10}){10}"));
+        assertEquals("fallback patterns",
+                     1,
+                     tokenizer.getFallbackPatterns().length);
+    }
+
+    /**
+     * Tests that the DFA and NFA matching modes find the same tokens.
+     */
+    public void testDfaStateLimit() {
+        String  input = " 12 keyword 0 keywords KEYWORD error\n4711 ";
+        int[]   limits = { 0, 1, 2, TokenNFA.DEFAULT_DFA_STATE_LIMIT };
+        String  expected = null;
+
+        for (int i = 0; i < limits.length; i++) {
+            Tokenizer  tokenizer = createDefaultTokenizer(input, false);
+
+            tokenizer.setDfaStateLimit(limits[i]);
+            assertEquals("DFA state limit",
+                         limits[i],
+                         tokenizer.getDfaStateLimit());
+            if (expected == null) {
+                expected = readAllTokens(tokenizer);
+            } else {
+                assertEquals("tokens with DFA state limit " + limits[i],
+                             expected,
+                             readAllTokens(tokenizer));
+            }
+        }
+    }
+
+    /**
+     * Tests regular expressions with nested alternatives and epsilon
+     * transitions, both with and without the DFA.
+     */
+    public void testEpsilonClosure() {
+        StringBuffer  buffer = new StringBuffer();
+        int[]         limits = { 0, TokenNFA.DEFAULT_DFA_STATE_LIMIT };
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        for (int i = 0; i < 1000; i++) {
+            buffer.append(i % 3 == 0 ? "abc" : (i % 3 == 1 ? "a" : "ab"));
+        }
+        for (int i = 0; i < limits.length; i++) {
+            tokenizer = createTokenizer(buffer + "d ad d", false);
+            tokenizer.setDfaStateLimit(limits[i]);
+            pattern = new TokenPattern(IDENTIFIER,
+                                       "IDENTIFIER",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "(a|ab|abc)*(b?c?)*d");
+            addPattern(tokenizer, pattern);
+            pattern = new TokenPattern(WHITESPACE,
+                                       "WHITESPACE",
+                                       TokenPattern.STRING_TYPE,
+                                       " ");
+            pattern.setIgnore();
+            addPattern(tokenizer, pattern);
+            assertEquals("token image",
+                         buffer + "d",
+                         readToken(tokenizer, IDENTIFIER).getImage());
+            assertEquals("token image",
+                         "ad",
+                         readToken(tokenizer, IDENTIFIER).getImage());
+            assertEquals("token image",
+                         "d",
+                         readToken(tokenizer, IDENTIFIER).getImage());
+            readToken(tokenizer, EOF);
+        }
+    }
+
+    /**
+     * Tests the built-in character class escapes, both with and
+     * without the DFA.
+     */
+    public void testCharacterClasses() {
+        String  input = "ab_1 \u00e5 42\t-x\u00e5 \u00e5";
+        int[]   limits = { 0, TokenNFA.DEFAULT_DFA_STATE_LIMIT };
+
+        for (int i = 0; i < limits.length; i++) {
+            Tokenizer     tokenizer = createTokenizer(input, false);
+            TokenPattern  pattern;
+
+            tokenizer.setDfaStateLimit(limits[i]);
+            pattern = new TokenPattern(IDENTIFIER,
+                                       "WORD",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "\\w+\\W\\S");
+            addPattern(tokenizer, pattern);
+            pattern = new TokenPattern(NUMBER,
+                                       "NUMBER",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "\\d+\\s\\D.");
+            addPattern(tokenizer, pattern);
+            pattern = new TokenPattern(KEYWORD,
+                                       "OTHER",
+                                       TokenPattern.REGEXP_TYPE,
+                                       ".\\s?");
+            addPattern(tokenizer, pattern);
+            assertEquals("token image",
+                         "ab_1 \u00e5",
+                         readToken(tokenizer, IDENTIFIER).getImage());
+            assertEquals("token image",
+                         " ",
+                         readToken(tokenizer, KEYWORD).getImage());
+            assertEquals("token image",
+                         "42\t-x",
+                         readToken(tokenizer, NUMBER).getImage());
+            assertEquals("token image",
+                         "\u00e5 ",
+                         readToken(tokenizer, KEYWORD).getImage());
+            assertEquals("token image",
+                         "\u00e5",
+                         readToken(tokenizer, KEYWORD).getImage());
+            readToken(tokenizer, EOF);
+        }
+    }
+
+    /**
+     * Tests sharing a tokenizer specification between several
+     * tokenizers in different threads.
+     *
+     * @throws InterruptedException if the test was interrupted
+     */
+    public void testSharedSpec() throws InterruptedException {
+        final StringBuffer   input = new StringBuffer();
+        final String[]       results = new String[4];
+        Thread[]             threads = new Thread[results.length];
+        Tokenizer            tokenizer;
+        TokenPattern         pattern;
+        final TokenizerSpec  spec;
+        String               expected;
+
+        for (int i = 0; i < 500; i++) {
+            input.append("keyword " + i + " ABC xxx error\n");
+        }
+        tokenizer = createDefaultTokenizer(input.toString(), false);
+        pattern = new TokenPattern(ERROR + 1,
+                                   "OTHER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "x{2,3}");
+        addPattern(tokenizer, pattern);
+        spec = tokenizer.getSpec();
+        assertTrue("specification locked", spec.isLocked());
+        failAddPattern(tokenizer, pattern);
+        try {
+            new Tokenizer(spec, new StringReader("")).setDfaStateLimit(0);
+            fail("DFA state limit changed in shared specification");
+        } catch (IllegalStateException e) {
+            assertEquals("DFA state limit",
+                         TokenNFA.DEFAULT_DFA_STATE_LIMIT,
+                         spec.getDfaStateLimit());
+        }
+        expected = readAllTokens(tokenizer);
+        for (int i = 0; i < threads.length; i++) {
+            final int  index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    StringReader  in = new StringReader(input.toString());
+
+                    results[index] = readAllTokens(new Tokenizer(spec, in));
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertEquals("tokens from thread " + i, expected, results[i]);
+        }
+    }
+
+    /**
+     * Tests that a subclass overriding the legacy token factory
+     * method is still used for creating tokens.
+     */
+    public void testLegacyTokenFactory() {
+        final int[]   calls = new int[1];
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+        Token         token;
+
+        tokenizer = new Tokenizer(new StringReader("ABC\n 12"), false) {
+            protected Token newToken(TokenPattern pattern,
+                                     String image,
+                                     int line,
+                                     int column) {
+
+                calls[0]++;
+                return new Token(pattern, image, line, column + 100);
+            }
+        };
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[A-Z]+");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(NUMBER,
+                                   "NUMBER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[0-9]+");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(WHITESPACE,
+                                   "WHITESPACE",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[ \t\n]+");
+        pattern.setIgnore();
+        addPattern(tokenizer, pattern);
+        tokenizer.setUseSharedImages(true);
+        token = readToken(tokenizer, IDENTIFIER);
+        assertEquals("token column", 101, token.getStartColumn());
+        token = readToken(tokenizer, NUMBER);
+        assertEquals("token line", 2, token.getStartLine());
+        assertEquals("token column", 102, token.getStartColumn());
+        readToken(tokenizer, EOF);
+        assertEquals("factory calls", 2, calls[0]);
+    }
+
+    /**
+     * Tests scanning tokens into arrays.
+     */
+    public void testScan() {
+        Tokenizer  tokenizer;
+        int[]      ids = new int[2];
+        long[]     starts = new long[2];
+        int[]      lengths = new int[2];
+
+        tokenizer = createDefaultTokenizer("12 keyword (error ABC", false);
+        assertEquals("scan count", 2,
+                     tokenizer.scan(ids, starts, lengths, false));
+        assertEquals("token id", NUMBER, ids[0]);
+        assertEquals("token start", 0, starts[0]);
+        assertEquals("token length", 2, lengths[0]);
+        assertEquals("token id", KEYWORD, ids[1]);
+        assertEquals("token start", 3, starts[1]);
+        assertEquals("token length", 7, lengths[1]);
+        assertEquals("scan error", -ParseException.UNEXPECTED_CHAR_ERROR,
+                     tokenizer.scan(ids, starts, lengths, false));
+        assertEquals("error start", 11, starts[0]);
+        assertEquals("scan error", -ParseException.INVALID_TOKEN_ERROR,
+                     tokenizer.scan(ids, starts, lengths, false));
+        assertEquals("error id", ERROR, ids[0]);
+        assertEquals("error start", 12, starts[0]);
+        assertEquals("error length", 5, lengths[0]);
+        assertEquals("scan count", 1,
+                     tokenizer.scan(ids, starts, lengths, false));
+        assertEquals("token id", IDENTIFIER, ids[0]);
+        assertEquals("token start", 18, starts[0]);
+        assertEquals("scan count", 0,
+                     tokenizer.scan(ids, starts, lengths, false));
+        tokenizer = createDefaultTokenizer("12 keyword", false);
+        assertEquals("scan count", 2,
+                     tokenizer.scan(ids, starts, lengths, true));
+        assertEquals("token id", WHITESPACE, ids[1]);
+        readToken(tokenizer, KEYWORD);
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests that tokens scanned before an I/O error are returned
+     * before the error is reported.
+     */
+    public void testScanError() {
+        Tokenizer  tokenizer;
+        int[]      ids = new int[1000];
+        long[]     starts = new long[1000];
+        int[]      lengths = new int[1000];
+        int        count;
+
+        tokenizer = createDefaultTokenizer("", false);
+        tokenizer.reset(new Reader() {
+            private boolean first = true;
+
+            public int read(char[] cbuf, int off, int len)
+                throws IOException {
+
+                if (!first) {
+                    throw new IOException("read error");
+                }
+                first = false;
+                for (int i = 0; i < len; i++) {
+                    cbuf[off + i] = (i % 3 == 2) ? ' ' : '1';
+                }
+                return len;
+            }
+
+            public void close() {
+                // Do nothing
+            }
+        });
+        count = tokenizer.scan(ids, starts, lengths, false);
+        assertTrue("scan count " + count, count > 0);
+        assertEquals("token id", NUMBER, ids[count - 1]);
+        assertEquals("token start", 3 * (count - 1), starts[count - 1]);
+        assertEquals("scan error", -ParseException.IO_ERROR,
+                     tokenizer.scan(ids, starts, lengths, false));
+        assertEquals("error length", 0, lengths[0]);
+    }
+
+    /**
+     * Tests the token line and column numbers. The input is long
+     * enough to force the input buffer to be discarded several times.
+     */
+    public void testTokenPositions() {
+        StringBuffer  input = new StringBuffer();
+        Tokenizer     tokenizer;
+        Token         first;
+        Token         token;
+
+        for (int i = 0; i < 1000; i++) {
+            input.append("keyword 12\n\n ABC");
+        }
+        tokenizer = createDefaultTokenizer(input.toString(), false);
+        tokenizer.setUseTokenList(true);
+        first = readToken(tokenizer, KEYWORD);
+        for (int i = 0; i < 2998; i++) {
+            readToken(tokenizer);
+        }
+        token = readToken(tokenizer, IDENTIFIER);
+        assertEquals("start line", 2001, token.getStartLine());
+        assertEquals("start column", 2, token.getStartColumn());
+        assertEquals("end line", 2001, token.getEndLine());
+        assertEquals("end column", 4, token.getEndColumn());
+        token = token.getPreviousToken();
+        assertEquals("start line", 1999, token.getStartLine());
+        assertEquals("start column", 15, token.getStartColumn());
+        assertEquals("end line", 2001, token.getEndLine());
+        assertEquals("end column", 1, token.getEndColumn());
+        assertEquals("start line", 1, first.getStartLine());
+        assertEquals("end column", 7, first.getEndColumn());
+        assertEquals("current line", 2001, tokenizer.getCurrentLine());
+        assertEquals("current column", 5, tokenizer.getCurrentColumn());
+    }
+
+    /**
+     * Tests the shared token images feature. The input is long
+     * enough to force the input buffer to be discarded several times.
+     */
+    public void testSharedImages() {
+        StringBuffer  input = new StringBuffer();
+        Tokenizer     tokenizer;
+        Token         token;
+        String        expected;
+
+        for (int i = 0; i < 1000; i++) {
+            input.append(" keyword " + i + "\nabc");
+        }
+        tokenizer = createDefaultTokenizer(input.toString(), false);
+        expected = readAllTokens(tokenizer);
+        tokenizer = createDefaultTokenizer(input.toString(), false);
+        assertEquals("default shared images setting",
+                     false,
+                     tokenizer.getUseSharedImages());
+        tokenizer.setUseSharedImages(true);
+        token = readToken(tokenizer, KEYWORD);
+        assertEquals("tokens with shared images",
+                     expected.substring(expected.indexOf('\n') + 1),
+                     readAllTokens(tokenizer));
+        assertEquals("token image length", 7, token.getImageLength());
+        assertEquals("token image sequence",
+                     "keyword",
+                     token.getImageSequence().toString());
+        assertEquals("token image", "keyword", token.getImage());
+        assertEquals("token image sequence after image",
+                     "word",
+                     token.getImageSequence().subSequence(3, 7).toString());
+        assertEquals("token image character",
+                     'y',
+                     token.getImageSequence().charAt(2));
+    }
+
+    /**
+     * Tests reading a memory-mapped UTF-8 input file.
+     *
+     * @throws IOException if the temporary file couldn't be written
+     */
+    public void testFileInput() throws IOException {
+        File          file = File.createTempFile("grammatica", ".txt");
+        Writer        out;
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+        Token         token;
+
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            out.write("ABC 12\n\u00e5\u20ac\ud834\udd1e keyword");
+            out.close();
+            tokenizer = createDefaultTokenizer("", false);
+            pattern = new TokenPattern(ERROR + 1,
+                                       "OTHER",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "[^ \n]+");
+            addPattern(tokenizer, pattern);
+            tokenizer.reset(file);
+            readToken(tokenizer, IDENTIFIER);
+            readToken(tokenizer, NUMBER);
+            token = readToken(tokenizer, ERROR + 1);
+            assertEquals("token image",
+                         "\u00e5\u20ac\ud834\udd1e",
+                         token.getImage());
+            assertEquals("token line", 2, token.getStartLine());
+            token = readToken(tokenizer, KEYWORD);
+            assertEquals("token column", 6, token.getStartColumn());
+            readToken(tokenizer, EOF);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests reading a memory-mapped input file larger than the
+     * decoding block size, and a file in another character set.
+     *
+     * @throws IOException if the temporary file couldn't be written
+     */
+    public void testFileInputBlocks() throws IOException {
+        File          file = File.createTempFile("grammatica", ".txt");
+        StringBuffer  input = new StringBuffer();
+        Writer        out;
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+        String        expected;
+
+        pattern = new TokenPattern(ERROR + 1,
+                                   "OTHER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[^ \n]+");
+        for (int i = 0; i < 3000; i++) {
+            input.append("ABC\u00e5 \ud834\udd1e" + i + " 12\n");
+        }
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            out.write(input.toString());
+            out.close();
+            tokenizer = createDefaultTokenizer(input.toString(), false);
+            addPattern(tokenizer, pattern);
+            expected = readAllTokens(tokenizer);
+            tokenizer.reset(file);
+            assertEquals("UTF-8 file tokens",
+                         expected,
+                         readAllTokens(tokenizer));
+            out = new OutputStreamWriter(new FileOutputStream(file),
+                                         "ISO-8859-1");
+            out.write("ABC \u00e5\u00ff\n12");
+            out.close();
+            tokenizer.reset(file, Charset.forName("ISO-8859-1"));
+            readToken(tokenizer, IDENTIFIER);
+            assertEquals("ISO-8859-1 token image",
+                         "\u00e5\u00ff",
+                         readToken(tokenizer, ERROR + 1).getImage());
+            assertEquals("token line",
+                         2,
+                         readToken(tokenizer, NUMBER).getStartLine());
+            readToken(tokenizer, EOF);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests reading a memory-mapped file in small chunks, so that
+     * multi-byte characters are split between chunks.
+     *
+     * @throws IOException if the test file couldn't be written
+     */
+    public void testFileInputChunks() throws IOException {
+        File          file = File.createTempFile("grammatica", ".txt");
+        StringBuffer  input = new StringBuffer();
+        String[]      charsets = { "UTF-8", "UTF-16BE", "ISO-8859-1" };
+        Writer        out;
+        ReaderBuffer  buffer;
+        String        text;
+
+        for (int i = 0; i < 300; i++) {
+            input.append("a\u00e5\u00ff" + i + "\n");
+        }
+        input.append("\ud834\udd1eb\u20ac\ud834\udd1e");
+        try {
+            for (int i = 0; i < charsets.length; i++) {
+                text = input.toString();
+                if (charsets[i].equals("ISO-8859-1")) {
+                    text = text.replaceAll("[^\u0000-\u00ff]", "?");
+                }
+                out = new OutputStreamWriter(new FileOutputStream(file),
+                                             charsets[i]);
+                out.write(text);
+                out.close();
+                buffer = new ReaderBuffer(file,
+                                          Charset.forName(charsets[i]),
+                                          67);
+                assertEquals(charsets[i] + " characters",
+                             text,
+                             buffer.read(text.length() + 10));
+                assertEquals(charsets[i] + " line", 301, buffer.lineNumber());
+                assertEquals(charsets[i] + " end", -1, buffer.peek(0));
+            }
+            out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            out.write("abc");
+            out.close();
+            buffer = new ReaderBuffer(file, Charset.forName("UTF-16BE"), 64);
+            assertEquals("malformed input",
+                         "\u6162\ufffd",
+                         buffer.read(10));
+        } finally {
+            file.delete();
+        }
     }
 
     /**
@@ -193,6 +1024,124 @@ public class TestTokenizer extends TestCase {
         readToken(tokenizer, EOF);
     }
 
+    /**
+     * Tests the keyword collapsing. String patterns fully matched by
+     * the identifier pattern are resolved with a keyword lookup, but
+     * must still follow the normal longest match and pattern order
+     * rules.
+     */
+    public void testKeywordCollapse() {
+        Tokenizer     tokenizer = createTokenizer("if iff x dead +=", false);
+        TokenPattern  pattern;
+
+        pattern = new TokenPattern(KEYWORD,
+                                   "IF",
+                                   TokenPattern.STRING_TYPE,
+                                   "if");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[a-z]+");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(NUMBER,
+                                   "PLUS_ASSIGN",
+                                   TokenPattern.STRING_TYPE,
+                                   "+=");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(WHITESPACE,
+                                   "WHITESPACE",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[ ]+");
+        pattern.setIgnore();
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(ERROR,
+                                   "DEAD",
+                                   TokenPattern.STRING_TYPE,
+                                   "dead");
+        addPattern(tokenizer, pattern);
+        readToken(tokenizer, KEYWORD);
+        assertTrue("keyword lookup", tokenizer.toString().indexOf(
+                   "keyword lookup after IDENTIFIER") > 0);
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, NUMBER);
+        readToken(tokenizer, EOF);
+
+        tokenizer = createDefaultTokenizer("KEYword keywords", true);
+        readToken(tokenizer, KEYWORD);
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, EOF);
+
+        // Non-ASCII case variants of ASCII keywords
+        tokenizer = createTokenizer("\u212Ain \u0130f \u212Aing", true);
+        pattern = new TokenPattern(KEYWORD,
+                                   "KIN",
+                                   TokenPattern.STRING_TYPE,
+                                   "kin");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(KEYWORD,
+                                   "IF",
+                                   TokenPattern.STRING_TYPE,
+                                   "if");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[a-z]+");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(WHITESPACE,
+                                   "WHITESPACE",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[ ]+");
+        pattern.setIgnore();
+        addPattern(tokenizer, pattern);
+        assertEquals("token image",
+                     "\u212Ain",
+                     readToken(tokenizer, KEYWORD).getImage());
+        assertEquals("token image",
+                     "\u0130f",
+                     readToken(tokenizer, KEYWORD).getImage());
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests the bulk skip matchers for ignored tokens. The tokens
+     * read are compared to those read when the same patterns are not
+     * ignored (and thus matched by the automaton instead).
+     */
+    public void testBulkSkip() {
+        StringBuffer  input = new StringBuffer();
+        Tokenizer     tokenizer;
+        StringBuffer  expected = new StringBuffer();
+        Token         token;
+
+        input.append("a/**/b /***/ c/* x ** / */d // line\r\ne/ /f\n");
+        input.append("/*/ g */h/*\n");
+        for (int i = 0; i < 1000; i++) {
+            input.append(" ****/* \n");
+        }
+        input.append("*/i\t\t// end");
+        tokenizer = createCommentTokenizer(input.toString(), false);
+        while ((token = readToken(tokenizer)) != null) {
+            if (token.getId() < WHITESPACE) {
+                expected.append(token);
+                expected.append("\n");
+            }
+        }
+        expected.append("null\n");
+        tokenizer = createCommentTokenizer(input.toString(), true);
+        assertTrue("bulk skip", tokenizer.toString().indexOf(
+                   "bulk skip; block comment") > 0);
+        assertEquals("tokens", expected.toString(), readAllTokens(tokenizer));
+        tokenizer = createCommentTokenizer("a /* b", true);
+        readToken(tokenizer, IDENTIFIER);
+        token = readToken(tokenizer, NUMBER);
+        assertEquals("start column", 3, token.getStartColumn());
+    }
+
     /**
      * Creates a new tokenizer.
      *
@@ -251,6 +1200,55 @@ public class TestTokenizer extends TestCase {
         return tokenizer;
     }
 
+    /**
+     * Creates a new tokenizer that recognizes identifiers, operators
+     * and C-style comments. The '/' and '*' operators are reported
+     * as numbers and keywords respectively.
+     *
+     * @param input          the input string
+     * @param ignore         the ignore whitespace and comments flag
+     *
+     * @return a new tokenizer
+     */
+    private Tokenizer createCommentTokenizer(String input,
+                                             boolean ignore) {
+
+        Tokenizer       tokenizer = createTokenizer(input, false);
+        TokenPattern[]  patterns = new TokenPattern[6];
+
+        patterns[0] = new TokenPattern(IDENTIFIER,
+                                       "IDENTIFIER",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "[a-z]+");
+        patterns[1] = new TokenPattern(NUMBER,
+                                       "DIVIDE",
+                                       TokenPattern.STRING_TYPE,
+                                       "/");
+        patterns[2] = new TokenPattern(KEYWORD,
+                                       "MULTIPLY",
+                                       TokenPattern.STRING_TYPE,
+                                       "*");
+        patterns[3] = new TokenPattern(WHITESPACE,
+                                       "WHITESPACE",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "[ \t\n\r]+");
+        patterns[4] = new TokenPattern(WHITESPACE + 1,
+                                       "SINGLE_LINE_COMMENT",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "//.*");
+        patterns[5] = new TokenPattern(WHITESPACE + 2,
+                                       "MULTI_LINE_COMMENT",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "/\\*([^*]|\\*+[^*/])*\\*+/");
+        for (int i = 0; i < patterns.length; i++) {
+            if (ignore && patterns[i].getId() >= WHITESPACE) {
+                patterns[i].setIgnore();
+            }
+            addPattern(tokenizer, patterns[i]);
+        }
+        return tokenizer;
+    }
+
     /**
      * Adds a pattern to the tokenizer and reports a test failure if
      * it failed.
@@ -326,6 +1324,33 @@ public class TestTokenizer extends TestCase {
         return token;
     }
 
+    /**
+     * Reads all the remaining tokens. Any parse errors encountered
+     * will be included in the result string, but will not cause a
+     * test failure.
+     *
+     * @param tokenizer      the tokenizer to use
+     *
+     * @return a string with all the tokens and errors read
+     */
+    private String readAllTokens(Tokenizer tokenizer) {
+        StringBuffer  buffer = new StringBuffer();
+        boolean       eof = false;
+        Token         token;
+
+        while (!eof) {
+            try {
+                token = tokenizer.next();
+                buffer.append(token);
+                eof = (token == null);
+            } catch (ParseException e) {
+                buffer.append(e.getMessage());
+            }
+            buffer.append("\n");
+        }
+        return buffer.toString();
+    }
+
     /**
      * Fails to read the next token. This method reports a test
      * failure if a token could be read.
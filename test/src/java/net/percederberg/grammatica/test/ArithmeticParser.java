@@ -32,6 +32,23 @@ import net.percederberg.grammatica.parser.Tokenizer;
  */
 class ArithmeticParser extends RecursiveDescentParser {
 
+    /**
+     * The precomputed look-ahead data for each production pattern.
+     */
+    private static final int[][] LOOK_AHEAD = {
+        { -1, 3, 1, 1007, 1, 1008, 1, 1005, 3, 1, 1007, 1, 1008, 1, 1005,
+            -1, -1 },
+        { -1, 2, 1, 1001, 1, 1002, 1, 1, 1001, -1, -1, 1, 1, 1002, -1,
+            -1 },
+        { -1, 3, 1, 1007, 1, 1008, 1, 1005, 3, 1, 1007, 1, 1008, 1, 1005,
+            -1, -1 },
+        { -1, 2, 1, 1003, 1, 1004, 1, 1, 1003, -1, -1, 1, 1, 1004, -1,
+            -1 },
+        { -1, 3, 1, 1007, 1, 1008, 1, 1005, 2, 1, 1007, 1, 1008, -1, 1,
+            1, 1005, -1, -1, -1 },
+        { -1, 2, 1, 1007, 1, 1008, 1, 1, 1007, -1, 1, 1, 1008, -1 }
+    };
+
     /**
      * Creates a new parser with a default analyzer.
      *
@@ -94,6 +111,7 @@ class ArithmeticParser extends RecursiveDescentParser {
         alt.addProduction(ArithmeticConstants.TERM, 1, 1);
         alt.addProduction(ArithmeticConstants.EXPRESSION_REST, 0, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[0]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(ArithmeticConstants.EXPRESSION_REST,
@@ -106,6 +124,7 @@ class ArithmeticParser extends RecursiveDescentParser {
         alt.addToken(ArithmeticConstants.SUB, 1, 1);
         alt.addProduction(ArithmeticConstants.EXPRESSION, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[1]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(ArithmeticConstants.TERM,
@@ -114,6 +133,7 @@ class ArithmeticParser extends RecursiveDescentParser {
         alt.addProduction(ArithmeticConstants.FACTOR, 1, 1);
         alt.addProduction(ArithmeticConstants.TERM_REST, 0, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[2]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(ArithmeticConstants.TERM_REST,
@@ -126,6 +146,7 @@ class ArithmeticParser extends RecursiveDescentParser {
         alt.addToken(ArithmeticConstants.DIV, 1, 1);
         alt.addProduction(ArithmeticConstants.TERM, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[3]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(ArithmeticConstants.FACTOR,
@@ -138,6 +159,7 @@ class ArithmeticParser extends RecursiveDescentParser {
         alt.addProduction(ArithmeticConstants.EXPRESSION, 1, 1);
         alt.addToken(ArithmeticConstants.RIGHT_PAREN, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[4]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(ArithmeticConstants.ATOM,
@@ -148,6 +170,7 @@ class ArithmeticParser extends RecursiveDescentParser {
         alt = new ProductionPatternAlternative();
         alt.addToken(ArithmeticConstants.IDENTIFIER, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[5]);
         addPattern(pattern);
     }
 }
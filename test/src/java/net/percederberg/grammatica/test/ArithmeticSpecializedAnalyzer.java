@@ -0,0 +1,590 @@
+/*
+ * ArithmeticSpecializedAnalyzer.java
+ *
+ * THIS FILE HAS BEEN GENERATED AUTOMATICALLY. DO NOT EDIT!
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.test;
+
+import net.percederberg.grammatica.parser.Analyzer;
+import net.percederberg.grammatica.parser.Node;
+import net.percederberg.grammatica.parser.ParseException;
+import net.percederberg.grammatica.parser.Production;
+import net.percederberg.grammatica.parser.Token;
+
+/**
+ * A class providing callback methods for the parser.
+ *
+ * @author   Per Cederberg
+ * @version  1.0
+ */
+abstract class ArithmeticSpecializedAnalyzer extends Analyzer {
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enter(Node node) throws ParseException {
+        switch (node.getId()) {
+        case ArithmeticSpecializedConstants.ADD:
+            enterAdd((Token) node);
+            break;
+        case ArithmeticSpecializedConstants.SUB:
+            enterSub((Token) node);
+            break;
+        case ArithmeticSpecializedConstants.MUL:
+            enterMul((Token) node);
+            break;
+        case ArithmeticSpecializedConstants.DIV:
+            enterDiv((Token) node);
+            break;
+        case ArithmeticSpecializedConstants.LEFT_PAREN:
+            enterLeftParen((Token) node);
+            break;
+        case ArithmeticSpecializedConstants.RIGHT_PAREN:
+            enterRightParen((Token) node);
+            break;
+        case ArithmeticSpecializedConstants.NUMBER:
+            enterNumber((Token) node);
+            break;
+        case ArithmeticSpecializedConstants.IDENTIFIER:
+            enterIdentifier((Token) node);
+            break;
+        case ArithmeticSpecializedConstants.EXPRESSION:
+            enterExpression((Production) node);
+            break;
+        case ArithmeticSpecializedConstants.EXPRESSION_REST:
+            enterExpressionRest((Production) node);
+            break;
+        case ArithmeticSpecializedConstants.TERM:
+            enterTerm((Production) node);
+            break;
+        case ArithmeticSpecializedConstants.TERM_REST:
+            enterTermRest((Production) node);
+            break;
+        case ArithmeticSpecializedConstants.FACTOR:
+            enterFactor((Production) node);
+            break;
+        case ArithmeticSpecializedConstants.ATOM:
+            enterAtom((Production) node);
+            break;
+        }
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exit(Node node) throws ParseException {
+        switch (node.getId()) {
+        case ArithmeticSpecializedConstants.ADD:
+            return exitAdd((Token) node);
+        case ArithmeticSpecializedConstants.SUB:
+            return exitSub((Token) node);
+        case ArithmeticSpecializedConstants.MUL:
+            return exitMul((Token) node);
+        case ArithmeticSpecializedConstants.DIV:
+            return exitDiv((Token) node);
+        case ArithmeticSpecializedConstants.LEFT_PAREN:
+            return exitLeftParen((Token) node);
+        case ArithmeticSpecializedConstants.RIGHT_PAREN:
+            return exitRightParen((Token) node);
+        case ArithmeticSpecializedConstants.NUMBER:
+            return exitNumber((Token) node);
+        case ArithmeticSpecializedConstants.IDENTIFIER:
+            return exitIdentifier((Token) node);
+        case ArithmeticSpecializedConstants.EXPRESSION:
+            return exitExpression((Production) node);
+        case ArithmeticSpecializedConstants.EXPRESSION_REST:
+            return exitExpressionRest((Production) node);
+        case ArithmeticSpecializedConstants.TERM:
+            return exitTerm((Production) node);
+        case ArithmeticSpecializedConstants.TERM_REST:
+            return exitTermRest((Production) node);
+        case ArithmeticSpecializedConstants.FACTOR:
+            return exitFactor((Production) node);
+        case ArithmeticSpecializedConstants.ATOM:
+            return exitAtom((Production) node);
+        }
+        return node;
+    }
+
+    /**
+     * Called when adding a child to a parse tree node.
+     *
+     * @param node           the parent node
+     * @param child          the child node, or null
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void child(Production node, Node child)
+        throws ParseException {
+
+        switch (node.getId()) {
+        case ArithmeticSpecializedConstants.EXPRESSION:
+            childExpression(node, child);
+            break;
+        case ArithmeticSpecializedConstants.EXPRESSION_REST:
+            childExpressionRest(node, child);
+            break;
+        case ArithmeticSpecializedConstants.TERM:
+            childTerm(node, child);
+            break;
+        case ArithmeticSpecializedConstants.TERM_REST:
+            childTermRest(node, child);
+            break;
+        case ArithmeticSpecializedConstants.FACTOR:
+            childFactor(node, child);
+            break;
+        case ArithmeticSpecializedConstants.ATOM:
+            childAtom(node, child);
+            break;
+        }
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterAdd(Token node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitAdd(Token node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterSub(Token node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitSub(Token node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterMul(Token node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitMul(Token node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterDiv(Token node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitDiv(Token node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterLeftParen(Token node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitLeftParen(Token node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterRightParen(Token node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitRightParen(Token node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterNumber(Token node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitNumber(Token node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterIdentifier(Token node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitIdentifier(Token node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterExpression(Production node)
+        throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitExpression(Production node)
+        throws ParseException {
+
+        return node;
+    }
+
+    /**
+     * Called when adding a child to a parse tree node.
+     *
+     * @param node           the parent node
+     * @param child          the child node, or null
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void childExpression(Production node, Node child)
+        throws ParseException {
+
+        node.addChild(child);
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterExpressionRest(Production node)
+        throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitExpressionRest(Production node)
+        throws ParseException {
+
+        return node;
+    }
+
+    /**
+     * Called when adding a child to a parse tree node.
+     *
+     * @param node           the parent node
+     * @param child          the child node, or null
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void childExpressionRest(Production node, Node child)
+        throws ParseException {
+
+        node.addChild(child);
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterTerm(Production node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitTerm(Production node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when adding a child to a parse tree node.
+     *
+     * @param node           the parent node
+     * @param child          the child node, or null
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void childTerm(Production node, Node child)
+        throws ParseException {
+
+        node.addChild(child);
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterTermRest(Production node)
+        throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitTermRest(Production node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when adding a child to a parse tree node.
+     *
+     * @param node           the parent node
+     * @param child          the child node, or null
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void childTermRest(Production node, Node child)
+        throws ParseException {
+
+        node.addChild(child);
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterFactor(Production node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitFactor(Production node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when adding a child to a parse tree node.
+     *
+     * @param node           the parent node
+     * @param child          the child node, or null
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void childFactor(Production node, Node child)
+        throws ParseException {
+
+        node.addChild(child);
+    }
+
+    /**
+     * Called when entering a parse tree node.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enterAtom(Production node) throws ParseException {
+    }
+
+    /**
+     * Called when exiting a parse tree node.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exitAtom(Production node) throws ParseException {
+        return node;
+    }
+
+    /**
+     * Called when adding a child to a parse tree node.
+     *
+     * @param node           the parent node
+     * @param child          the child node, or null
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void childAtom(Production node, Node child)
+        throws ParseException {
+
+        node.addChild(child);
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * ArithmeticSpecializedParser.java
+ *
+ * THIS FILE HAS BEEN GENERATED AUTOMATICALLY. DO NOT EDIT!
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.test;
+
+import java.io.Reader;
+
+import net.percederberg.grammatica.parser.Node;
+import net.percederberg.grammatica.parser.ParseException;
+import net.percederberg.grammatica.parser.ParserCreationException;
+import net.percederberg.grammatica.parser.Production;
+import net.percederberg.grammatica.parser.ProductionPattern;
+import net.percederberg.grammatica.parser.ProductionPatternAlternative;
+import net.percederberg.grammatica.parser.RecursiveDescentParser;
+import net.percederberg.grammatica.parser.Tokenizer;
+
+/**
+ * A token stream parser.
+ *
+ * @author   Per Cederberg
+ * @version  1.0
+ */
+class ArithmeticSpecializedParser extends RecursiveDescentParser {
+
+    /**
+     * The precomputed look-ahead data for each production pattern.
+     */
+    private static final int[][] LOOK_AHEAD = {
+        { -1, 3, 1, 1007, 1, 1008, 1, 1005, 3, 1, 1007, 1, 1008, 1, 1005,
+            -1, -1 },
+        { -1, 2, 1, 1001, 1, 1002, 1, 1, 1001, -1, -1, 1, 1, 1002, -1,
+            -1 },
+        { -1, 3, 1, 1007, 1, 1008, 1, 1005, 3, 1, 1007, 1, 1008, 1, 1005,
+            -1, -1 },
+        { -1, 2, 1, 1003, 1, 1004, 1, 1, 1003, -1, -1, 1, 1, 1004, -1,
+            -1 },
+        { -1, 3, 1, 1007, 1, 1008, 1, 1005, 2, 1, 1007, 1, 1008, -1, 1,
+            1, 1005, -1, -1, -1 },
+        { -1, 2, 1, 1007, 1, 1008, 1, 1, 1007, -1, 1, 1, 1008, -1 }
+    };
+
+    /**
+     * Creates a new parser with a default analyzer.
+     *
+     * @param in             the input stream to read from
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     */
+    public ArithmeticSpecializedParser(Reader in)
+        throws ParserCreationException {
+
+        super(in);
+        createPatterns();
+    }
+
+    /**
+     * Creates a new parser.
+     *
+     * @param in             the input stream to read from
+     * @param analyzer       the analyzer to use while parsing
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     */
+    public ArithmeticSpecializedParser(Reader in, ArithmeticSpecializedAnalyzer analyzer)
+        throws ParserCreationException {
+
+        super(in, analyzer);
+        createPatterns();
+    }
+
+    /**
+     * Creates a new tokenizer for this parser. Can be overridden by a
+     * subclass to provide a custom implementation.
+     *
+     * @param in             the input stream to read from
+     *
+     * @return the tokenizer created
+     *
+     * @throws ParserCreationException if the tokenizer couldn't be
+     *             initialized correctly
+     */
+    protected Tokenizer newTokenizer(Reader in)
+        throws ParserCreationException {
+
+        return new ArithmeticSpecializedTokenizer(in);
+    }
+
+    /**
+     * Initializes the parser by creating all the production patterns.
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     */
+    private void createPatterns() throws ParserCreationException {
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+
+        pattern = new ProductionPattern(ArithmeticSpecializedConstants.EXPRESSION,
+                                        "Expression");
+        alt = new ProductionPatternAlternative();
+        alt.addProduction(ArithmeticSpecializedConstants.TERM, 1, 1);
+        alt.addProduction(ArithmeticSpecializedConstants.EXPRESSION_REST, 0, 1);
+        pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[0]);
+        addPattern(pattern);
+
+        pattern = new ProductionPattern(ArithmeticSpecializedConstants.EXPRESSION_REST,
+                                        "ExpressionRest");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(ArithmeticSpecializedConstants.ADD, 1, 1);
+        alt.addProduction(ArithmeticSpecializedConstants.EXPRESSION, 1, 1);
+        pattern.addAlternative(alt);
+        alt = new ProductionPatternAlternative();
+        alt.addToken(ArithmeticSpecializedConstants.SUB, 1, 1);
+        alt.addProduction(ArithmeticSpecializedConstants.EXPRESSION, 1, 1);
+        pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[1]);
+        addPattern(pattern);
+
+        pattern = new ProductionPattern(ArithmeticSpecializedConstants.TERM,
+                                        "Term");
+        alt = new ProductionPatternAlternative();
+        alt.addProduction(ArithmeticSpecializedConstants.FACTOR, 1, 1);
+        alt.addProduction(ArithmeticSpecializedConstants.TERM_REST, 0, 1);
+        pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[2]);
+        addPattern(pattern);
+
+        pattern = new ProductionPattern(ArithmeticSpecializedConstants.TERM_REST,
+                                        "TermRest");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(ArithmeticSpecializedConstants.MUL, 1, 1);
+        alt.addProduction(ArithmeticSpecializedConstants.TERM, 1, 1);
+        pattern.addAlternative(alt);
+        alt = new ProductionPatternAlternative();
+        alt.addToken(ArithmeticSpecializedConstants.DIV, 1, 1);
+        alt.addProduction(ArithmeticSpecializedConstants.TERM, 1, 1);
+        pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[3]);
+        addPattern(pattern);
+
+        pattern = new ProductionPattern(ArithmeticSpecializedConstants.FACTOR,
+                                        "Factor");
+        alt = new ProductionPatternAlternative();
+        alt.addProduction(ArithmeticSpecializedConstants.ATOM, 1, 1);
+        pattern.addAlternative(alt);
+        alt = new ProductionPatternAlternative();
+        alt.addToken(ArithmeticSpecializedConstants.LEFT_PAREN, 1, 1);
+        alt.addProduction(ArithmeticSpecializedConstants.EXPRESSION, 1, 1);
+        alt.addToken(ArithmeticSpecializedConstants.RIGHT_PAREN, 1, 1);
+        pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[4]);
+        addPattern(pattern);
+
+        pattern = new ProductionPattern(ArithmeticSpecializedConstants.ATOM,
+                                        "Atom");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(ArithmeticSpecializedConstants.NUMBER, 1, 1);
+        pattern.addAlternative(alt);
+        alt = new ProductionPatternAlternative();
+        alt.addToken(ArithmeticSpecializedConstants.IDENTIFIER, 1, 1);
+        pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[5]);
+        addPattern(pattern);
+    }
+
+    /**
+     * Parses the token stream by calling the parse method for the
+     * start production.
+     *
+     * @return the parse tree
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    protected Node parseStart() throws ParseException {
+        Node  node;
+
+        node = parseExpression();
+        checkEndOfInput();
+        return node;
+    }
+
+    /**
+     * Checks if the next token starts the ExpressionRest production.
+     *
+     * @return true if the next token matches, or
+     *         false otherwise
+     */
+    private boolean isNextExpressionRest() {
+        switch (peekTokenId(0)) {
+        case ArithmeticSpecializedConstants.ADD:
+        case ArithmeticSpecializedConstants.SUB:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Parses the Expression production.
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    private Node parseExpression() throws ParseException {
+        Production  node;
+
+        switch (peekTokenId(0)) {
+        case ArithmeticSpecializedConstants.NUMBER:
+        case ArithmeticSpecializedConstants.IDENTIFIER:
+        case ArithmeticSpecializedConstants.LEFT_PAREN:
+            node = enterProduction(ArithmeticSpecializedConstants.EXPRESSION);
+            while (true) {
+                try {
+                    addChildNode(node, parseTerm());
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            while (true) {
+                try {
+                    if (isNextExpressionRest()) {
+                        addChildNode(node, parseExpressionRest());
+                    }
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        default:
+            throwParseException(ArithmeticSpecializedConstants.EXPRESSION);
+            return null;
+        }
+    }
+
+    /**
+     * Parses the ExpressionRest production.
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    private Node parseExpressionRest() throws ParseException {
+        Production  node;
+
+        switch (peekTokenId(0)) {
+        case ArithmeticSpecializedConstants.ADD:
+            node = enterProduction(ArithmeticSpecializedConstants.EXPRESSION_REST);
+            while (true) {
+                try {
+                    matchToken(node, ArithmeticSpecializedConstants.ADD);
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            while (true) {
+                try {
+                    addChildNode(node, parseExpression());
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        case ArithmeticSpecializedConstants.SUB:
+            node = enterProduction(ArithmeticSpecializedConstants.EXPRESSION_REST);
+            while (true) {
+                try {
+                    matchToken(node, ArithmeticSpecializedConstants.SUB);
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            while (true) {
+                try {
+                    addChildNode(node, parseExpression());
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        default:
+            throwParseException(ArithmeticSpecializedConstants.EXPRESSION_REST);
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the next token starts the TermRest production.
+     *
+     * @return true if the next token matches, or
+     *         false otherwise
+     */
+    private boolean isNextTermRest() {
+        switch (peekTokenId(0)) {
+        case ArithmeticSpecializedConstants.MUL:
+        case ArithmeticSpecializedConstants.DIV:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Parses the Term production.
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    private Node parseTerm() throws ParseException {
+        Production  node;
+
+        switch (peekTokenId(0)) {
+        case ArithmeticSpecializedConstants.NUMBER:
+        case ArithmeticSpecializedConstants.IDENTIFIER:
+        case ArithmeticSpecializedConstants.LEFT_PAREN:
+            node = enterProduction(ArithmeticSpecializedConstants.TERM);
+            while (true) {
+                try {
+                    addChildNode(node, parseFactor());
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            while (true) {
+                try {
+                    if (isNextTermRest()) {
+                        addChildNode(node, parseTermRest());
+                    }
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        default:
+            throwParseException(ArithmeticSpecializedConstants.TERM);
+            return null;
+        }
+    }
+
+    /**
+     * Parses the TermRest production.
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    private Node parseTermRest() throws ParseException {
+        Production  node;
+
+        switch (peekTokenId(0)) {
+        case ArithmeticSpecializedConstants.MUL:
+            node = enterProduction(ArithmeticSpecializedConstants.TERM_REST);
+            while (true) {
+                try {
+                    matchToken(node, ArithmeticSpecializedConstants.MUL);
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            while (true) {
+                try {
+                    addChildNode(node, parseTerm());
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        case ArithmeticSpecializedConstants.DIV:
+            node = enterProduction(ArithmeticSpecializedConstants.TERM_REST);
+            while (true) {
+                try {
+                    matchToken(node, ArithmeticSpecializedConstants.DIV);
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            while (true) {
+                try {
+                    addChildNode(node, parseTerm());
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        default:
+            throwParseException(ArithmeticSpecializedConstants.TERM_REST);
+            return null;
+        }
+    }
+
+    /**
+     * Parses the Factor production.
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    private Node parseFactor() throws ParseException {
+        Production  node;
+
+        switch (peekTokenId(0)) {
+        case ArithmeticSpecializedConstants.NUMBER:
+        case ArithmeticSpecializedConstants.IDENTIFIER:
+            node = enterProduction(ArithmeticSpecializedConstants.FACTOR);
+            while (true) {
+                try {
+                    addChildNode(node, parseAtom());
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        case ArithmeticSpecializedConstants.LEFT_PAREN:
+            node = enterProduction(ArithmeticSpecializedConstants.FACTOR);
+            while (true) {
+                try {
+                    matchToken(node, ArithmeticSpecializedConstants.LEFT_PAREN);
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            while (true) {
+                try {
+                    addChildNode(node, parseExpression());
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            while (true) {
+                try {
+                    matchToken(node, ArithmeticSpecializedConstants.RIGHT_PAREN);
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        default:
+            throwParseException(ArithmeticSpecializedConstants.FACTOR);
+            return null;
+        }
+    }
+
+    /**
+     * Parses the Atom production.
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    private Node parseAtom() throws ParseException {
+        Production  node;
+
+        switch (peekTokenId(0)) {
+        case ArithmeticSpecializedConstants.NUMBER:
+            node = enterProduction(ArithmeticSpecializedConstants.ATOM);
+            while (true) {
+                try {
+                    matchToken(node, ArithmeticSpecializedConstants.NUMBER);
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        case ArithmeticSpecializedConstants.IDENTIFIER:
+            node = enterProduction(ArithmeticSpecializedConstants.ATOM);
+            while (true) {
+                try {
+                    matchToken(node, ArithmeticSpecializedConstants.IDENTIFIER);
+                    break;
+                } catch (ParseException e) {
+                    recover(e);
+                }
+            }
+            return exitProduction(node);
+        default:
+            throwParseException(ArithmeticSpecializedConstants.ATOM);
+            return null;
+        }
+    }
+}
@@ -16,6 +16,7 @@ package net.percederberg.grammatica.test;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
 
 import junit.framework.TestCase;
 
@@ -23,13 +24,15 @@ import net.percederberg.grammatica.parser.Node;
 import net.percederberg.grammatica.parser.ParseException;
 import net.percederberg.grammatica.parser.Parser;
 import net.percederberg.grammatica.parser.ParserCreationException;
+import net.percederberg.grammatica.parser.ParserListener;
 import net.percederberg.grammatica.parser.ParserLogException;
+import net.percederberg.grammatica.parser.Token;
 
 /**
  * Base class for all the parser test cases.
  *
  * @author   Per Cederberg
- * @version  1.0
+ * @version  1.7
  */
 abstract class ParserTestCase extends TestCase {
 
@@ -60,6 +63,51 @@ abstract class ParserTestCase extends TestCase {
         }
     }
 
+    /**
+     * Parses with the parser into a compact tree and checks the
+     * output. The parse tree is checked through the compact tree
+     * node views. If the parsing failed or if the tree didn't match
+     * the specified output, a test failure will be reported.
+     *
+     * @param parser         the parser to use
+     * @param output         the expected parse tree
+     */
+    protected void parseCompact(Parser parser, String output) {
+        try {
+            validateTree(parser.parseCompact().getRoot(), output);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getError(0).getMessage());
+        }
+    }
+
+    /**
+     * Parses with the parser in streaming mode and checks the events
+     * reported. The events are compared to the lines in the expected
+     * parse tree, except for the production names (that aren't
+     * available in streaming mode). If the parsing failed or if the
+     * events didn't match the specified output, a test failure will
+     * be reported.
+     *
+     * @param parser         the parser to use
+     * @param output         the expected parse tree
+     */
+    protected void parseStream(Parser parser, String output) {
+        EventRecorder  recorder = new EventRecorder();
+
+        try {
+            parser.parse(recorder);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getError(0).getMessage());
+        }
+        assertEquals("open productions", 0, recorder.stack.size());
+        output = output.replaceAll("(?m)^(\\s*)\\w+(\\(\\d+\\))$", "$1$2");
+        validateLines(output, recorder.buffer.toString());
+    }
+
     /**
      * Parses with the parser and checks the parse error. If the
      * parsing succeeded or if the parse exception didn't match the
@@ -154,4 +202,53 @@ abstract class ParserTestCase extends TestCase {
                  "', found: '" + result + "'");
         }
     }
+
+
+    /**
+     * A parser listener recording all events. The productions are
+     * recorded with their id, and tokens with their string
+     * representation, one per line.
+     */
+    private static class EventRecorder implements ParserListener {
+
+        /**
+         * The recorded events.
+         */
+        public StringBuffer buffer = new StringBuffer();
+
+        /**
+         * The stack of open production ids.
+         */
+        public ArrayList stack = new ArrayList();
+
+        /**
+         * Called when the parser enters a production.
+         *
+         * @param id             the production pattern id
+         */
+        public void enter(int id) {
+            buffer.append("(" + id + ")\n");
+            stack.add(Integer.valueOf(id));
+        }
+
+        /**
+         * Called when the parser exits a production.
+         *
+         * @param id             the production pattern id
+         */
+        public void exit(int id) {
+            Object  open = stack.remove(stack.size() - 1);
+
+            assertEquals("production exit", open, Integer.valueOf(id));
+        }
+
+        /**
+         * Called when the parser has read a token.
+         *
+         * @param token          the token read
+         */
+        public void token(Token token) {
+            buffer.append(token.toString() + "\n");
+        }
+    }
 }
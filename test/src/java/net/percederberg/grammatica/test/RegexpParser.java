@@ -42,6 +42,42 @@ class RegexpParser extends RecursiveDescentParser {
      */
     private static final int SUBPRODUCTION_2 = 3002;
 
+    /**
+     * The precomputed look-ahead data for each production pattern.
+     */
+    private static final int[][] LOOK_AHEAD = {
+        { -1, 6, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1, 1001, 1, 1003,
+            6, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1, 1001, 1,
+            1003, -1, -1 },
+        { -1, 6, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1, 1001, 1, 1003,
+            6, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1, 1001, 1,
+            1003, -1 },
+        { -1, 6, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1, 1001, 1, 1003,
+            6, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1, 1001, 1,
+            1003, -1, -1 },
+        { -1, 6, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1, 1001, 1, 1003,
+            1, 1, 1014, -1, 1, 1, 1013, -1, 1, 1, 1012, -1, 1,
+            1, 1011, -1, 1, 1, 1001, -1, -1, -1, 1, 1, 1003, -1,
+            -1, -1 },
+        { -1, 4, 1, 1007, 1, 1008, 1, 1009, 1, 1005, 1, 1, 1007, -1, -1,
+            1, 1, 1008, -1, -1, 1, 1, 1009, -1, -1, 1, 1, 1005,
+            -1, -1, -1, -1, -1 },
+        { -1, 13, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1, 1010, 1, 1009,
+            1, 1008, 1, 1007, 1, 1005, 1, 1006, 1, 1001, 1, 1002,
+            1, 1003, 13, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1,
+            1010, 1, 1009, 1, 1008, 1, 1007, 1, 1005, 1, 1006,
+            1, 1001, 1, 1002, 1, 1003, -1 },
+        { -1, 13, 1, 1014, 1, 1013, 1, 1012, 1, 1011, 1, 1010, 1, 1009,
+            1, 1008, 1, 1007, 1, 1005, 1, 1006, 1, 1001, 1, 1002,
+            1, 1003, 1, 1, 1014, -1, 1, 1, 1013, -1, 1, 1, 1012,
+            -1, 1, 1, 1011, -1, 1, 1, 1010, -1, 1, 1, 1009, -1,
+            1, 1, 1008, -1, 1, 1, 1007, -1, 1, 1, 1005, -1, 1,
+            1, 1006, -1, 1, 1, 1001, -1, 1, 1, 1002, -1, 1, 1,
+            1003, -1 },
+        { -1, 1, 1, 1010, 1, 1, 1010, -1, -1 },
+        { -1, 1, 1, 1012, 1, 1, 1012, -1, -1 }
+    };
+
     /**
      * Creates a new parser with a default analyzer.
      *
@@ -104,6 +140,7 @@ class RegexpParser extends RecursiveDescentParser {
         alt.addProduction(RegexpConstants.TERM, 1, 1);
         alt.addProduction(SUBPRODUCTION_1, 0, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[0]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(RegexpConstants.TERM,
@@ -111,6 +148,7 @@ class RegexpParser extends RecursiveDescentParser {
         alt = new ProductionPatternAlternative();
         alt.addProduction(RegexpConstants.FACT, 1, -1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[1]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(RegexpConstants.FACT,
@@ -119,6 +157,7 @@ class RegexpParser extends RecursiveDescentParser {
         alt.addProduction(RegexpConstants.ATOM, 1, 1);
         alt.addProduction(RegexpConstants.ATOM_MODIFIER, 0, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[2]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(RegexpConstants.ATOM,
@@ -145,6 +184,7 @@ class RegexpParser extends RecursiveDescentParser {
         alt.addProduction(RegexpConstants.CHARACTER_SET, 1, 1);
         alt.addToken(RegexpConstants.RIGHT_BRACKET, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[3]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(RegexpConstants.ATOM_MODIFIER,
@@ -168,6 +208,7 @@ class RegexpParser extends RecursiveDescentParser {
         alt.addToken(RegexpConstants.RIGHT_BRACE, 1, 1);
         alt.addToken(RegexpConstants.QUESTION, 0, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[4]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(RegexpConstants.CHARACTER_SET,
@@ -175,6 +216,7 @@ class RegexpParser extends RecursiveDescentParser {
         alt = new ProductionPatternAlternative();
         alt.addProduction(RegexpConstants.CHARACTER, 1, -1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[5]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(RegexpConstants.CHARACTER,
@@ -218,6 +260,7 @@ class RegexpParser extends RecursiveDescentParser {
         alt = new ProductionPatternAlternative();
         alt.addToken(RegexpConstants.LEFT_BRACKET, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[6]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(SUBPRODUCTION_1,
@@ -227,6 +270,7 @@ class RegexpParser extends RecursiveDescentParser {
         alt.addToken(RegexpConstants.VERTICAL_BAR, 1, 1);
         alt.addProduction(RegexpConstants.EXPR, 1, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[7]);
         addPattern(pattern);
 
         pattern = new ProductionPattern(SUBPRODUCTION_2,
@@ -236,6 +280,7 @@ class RegexpParser extends RecursiveDescentParser {
         alt.addToken(RegexpConstants.COMMA, 1, 1);
         alt.addToken(RegexpConstants.NUMBER, 0, 1);
         pattern.addAlternative(alt);
+        pattern.setLookAheadData(LOOK_AHEAD[8]);
         addPattern(pattern);
     }
 }
@@ -14,15 +14,19 @@
 
 package net.percederberg.grammatica.test;
 
+import java.io.StringReader;
 import java.util.HashMap;
 
 import junit.framework.TestCase;
 
+import net.percederberg.grammatica.parser.CompactTree;
+import net.percederberg.grammatica.parser.Node;
+
 /**
  * A test case for the ArithmeticCalculator class.
  *
  * @author   Per Cederberg
- * @version  1.0
+ * @version  1.7
  */
 public class TestArithmeticCalculator extends TestCase {
 
@@ -55,6 +59,28 @@ public class TestArithmeticCalculator extends TestCase {
         calculate(VALID_INPUT, 350);
     }
 
+    /**
+     * Tests the calculator with a compact parse tree.
+     */
+    public void testCompactTree() {
+        ArithmeticCalculator  calc = new ArithmeticCalculator(variables);
+        ArithmeticParser      parser;
+        CompactTree           tree;
+        Node                  node;
+
+        try {
+            parser = new ArithmeticParser(new StringReader(VALID_INPUT));
+            tree = parser.parseCompact();
+            assertEquals("node count", 25, tree.getNodeCount());
+            node = calc.analyze(tree.getRoot());
+            assertEquals("expression result",
+                         350,
+                         ((Integer) node.getValue(0)).intValue());
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Calculates an expression and checks the result. If the
      * calculation failed or if the result didn't match the specified
@@ -16,15 +16,20 @@ package net.percederberg.grammatica.test;
 
 import java.io.StringReader;
 
+import net.percederberg.grammatica.parser.Node;
 import net.percederberg.grammatica.parser.ParseException;
 import net.percederberg.grammatica.parser.Parser;
 import net.percederberg.grammatica.parser.ParserCreationException;
+import net.percederberg.grammatica.parser.Production;
+import net.percederberg.grammatica.parser.ProductionPattern;
+import net.percederberg.grammatica.parser.Token;
+import net.percederberg.grammatica.parser.TokenPattern;
 
 /**
  * A test case for the generated ArithmeticParser class.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 public class TestArithmeticParser extends ParserTestCase {
 
@@ -96,6 +101,71 @@ public class TestArithmeticParser extends ParserTestCase {
         parse(createParser(VALID_INPUT), VALID_OUTPUT);
     }
 
+    /**
+     * Tests the node positions for a valid input string, both in a
+     * normal and in a compact parse tree.
+     */
+    public void testNodePositions() {
+        Node  root;
+
+        try {
+            root = createParser(VALID_INPUT).parse();
+            assertPosition(root, 1, 1, 2, 6);
+            assertPosition(root.getChildAt(1), 1, 3, 2, 6);
+            root = createParser(VALID_INPUT).parseCompact().getRoot();
+            assertPosition(root, 1, 1, 2, 6);
+            assertPosition(root.getChildAt(1), 1, 3, 2, 6);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Tests the node positions when adding nodes to productions
+     * already attached to a parent.
+     */
+    public void testAddedNodePositions() {
+        ProductionPattern  pattern;
+        TokenPattern       number;
+        Production         root;
+        Production         child;
+        Production         inner;
+
+        pattern = new ProductionPattern(ArithmeticConstants.EXPRESSION,
+                                        "Expression");
+        number = new TokenPattern(ArithmeticConstants.NUMBER,
+                                  "NUMBER",
+                                  TokenPattern.REGEXP_TYPE,
+                                  "[0-9]+");
+        root = new Production(pattern);
+        child = new Production(pattern);
+        inner = new Production(pattern);
+        root.addChild(new Token(number, "1", 1, 1));
+        root.addChild(child);
+        child.addChild(inner);
+        assertPosition(root, 1, 1, 1, 1);
+        inner.addChild(new Token(number, "23", 2, 3));
+        assertPosition(root, 1, 1, 2, 4);
+        assertPosition(child, 2, 3, 2, 4);
+        child.addChild(new Token(number, "4", 3, 1));
+        assertPosition(root, 1, 1, 3, 1);
+        assertPosition(inner, 2, 3, 2, 4);
+    }
+
+    /**
+     * Tests parsing a valid input string into a compact tree.
+     */
+    public void testValidInputCompact() {
+        parseCompact(createParser(VALID_INPUT), VALID_OUTPUT);
+    }
+
+    /**
+     * Tests parsing a valid input string in streaming mode.
+     */
+    public void testValidInputStream() {
+        parseStream(createParser(VALID_INPUT), VALID_OUTPUT);
+    }
+
     /**
      * Tests parsing with an unexpected EOF error.
      */
@@ -147,7 +217,7 @@ public class TestArithmeticParser extends ParserTestCase {
      *
      * @return the parser created
      */
-    private Parser createParser(String input) {
+    protected Parser createParser(String input) {
         Parser  parser = null;
 
         try {
@@ -158,4 +228,26 @@ public class TestArithmeticParser extends ParserTestCase {
         }
         return parser;
     }
+
+    /**
+     * Checks the start and end positions of a node. If the positions
+     * didn't match, a test failure will be reported.
+     *
+     * @param node           the node to check
+     * @param startLine      the expected start line
+     * @param startColumn    the expected start column
+     * @param endLine        the expected end line
+     * @param endColumn      the expected end column
+     */
+    private void assertPosition(Node node,
+                                int startLine,
+                                int startColumn,
+                                int endLine,
+                                int endColumn) {
+
+        assertEquals("start line", startLine, node.getStartLine());
+        assertEquals("start column", startColumn, node.getStartColumn());
+        assertEquals("end line", endLine, node.getEndLine());
+        assertEquals("end column", endColumn, node.getEndColumn());
+    }
 }
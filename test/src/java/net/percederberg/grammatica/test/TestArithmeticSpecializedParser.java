@@ -0,0 +1,60 @@
+/*
+ * TestArithmeticSpecializedParser.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.test;
+
+import java.io.StringReader;
+
+import net.percederberg.grammatica.parser.Parser;
+import net.percederberg.grammatica.parser.ParserCreationException;
+
+/**
+ * A test case for the generated ArithmeticSpecializedParser class.
+ * The specialized parser is generated from the same grammar as the
+ * ArithmeticParser, so all the same tests are run with identical
+ * results.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ */
+public class TestArithmeticSpecializedParser extends TestArithmeticParser {
+
+    /**
+     * Creates a new test case.
+     *
+     * @param name           the test case name
+     */
+    public TestArithmeticSpecializedParser(String name) {
+        super(name);
+    }
+
+    /**
+     * Creates a new parser.
+     *
+     * @param input          the input to parse
+     *
+     * @return the parser created
+     */
+    protected Parser createParser(String input) {
+        Parser  parser = null;
+
+        try {
+            parser = new ArithmeticSpecializedParser(new StringReader(input));
+            parser.prepare();
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+        return parser;
+    }
+}